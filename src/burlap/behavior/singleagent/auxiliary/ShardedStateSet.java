@@ -0,0 +1,217 @@
+package burlap.behavior.singleagent.auxiliary;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import burlap.behavior.statehashing.StateHashTuple;
+
+/**
+ * A set of visited hashed states for level-synchronous parallel breadth first
+ * searches. The set is sharded by state hash code. The states generated by
+ * expanding a level are first split into {@link Chunk}s, typically one per
+ * expansion task, each of which records which of its states belong to each
+ * shard; since this hashes the states, it is best done by the task that
+ * generated them. The chunks of a level are then added with
+ * {@link #addLevel(List, ForkJoinPool)}, which deduplicates each shard on its
+ * own task. Since each shard is visited in chunk order, the new states of a
+ * level are the same, and in the same order, as with a serial search,
+ * regardless of the number of threads.
+ *
+ */
+public class ShardedStateSet {
+
+    /**
+     * The visited states of each shard
+     */
+    protected List<Set<StateHashTuple>> shards;
+
+    /**
+     * Initializes an empty set.
+     *
+     * @param nShards
+     *            the number of shards, typically a small multiple of the
+     *            number of threads
+     */
+    public ShardedStateSet(int nShards) {
+	if (nShards < 1) {
+	    throw new RuntimeException(
+		    "The number of shards must be at least 1; got: " + nShards);
+	}
+	this.shards = new ArrayList<Set<StateHashTuple>>(nShards);
+	for (int i = 0; i < nShards; i++) {
+	    this.shards.add(new HashSet<StateHashTuple>());
+	}
+    }
+
+    /**
+     * Returns the number of shards.
+     *
+     * @return the number of shards
+     */
+    public int numShards() {
+	return this.shards.size();
+    }
+
+    /**
+     * Returns the number of visited states.
+     *
+     * @return the number of visited states
+     */
+    public int size() {
+	int n = 0;
+	for (Set<StateHashTuple> shard : this.shards) {
+	    n += shard.size();
+	}
+	return n;
+    }
+
+    /**
+     * Adds a single state, such as the source state of a search. This method
+     * must not be called while a level is being added.
+     *
+     * @param sh
+     *            the hashed state
+     * @return true if the state was not visited before; false otherwise.
+     */
+    public boolean add(StateHashTuple sh) {
+	return this.shards.get(shardOf(sh, this.shards.size())).add(sh);
+    }
+
+    /**
+     * Returns whether a state has been visited. This method must not be
+     * called while a level is being added.
+     *
+     * @param sh
+     *            the hashed state
+     * @return true if the state has been visited; false otherwise.
+     */
+    public boolean contains(StateHashTuple sh) {
+	return this.shards.get(shardOf(sh, this.shards.size())).contains(sh);
+    }
+
+    /**
+     * Creates a chunk of generated states, recording the shard of each. This
+     * method may be called from several threads at once.
+     *
+     * @param generated
+     *            the generated states, in generation order
+     * @return the chunk of the generated states
+     */
+    public Chunk chunk(List<StateHashTuple> generated) {
+	return new Chunk(generated, this.shards.size());
+    }
+
+    /**
+     * Adds the generated states of a level, deduplicating each shard on its
+     * own task of the given pool, and returns the states that were not
+     * visited before, in chunk order and then generation order. Only the
+     * first of several equal new states is returned.
+     *
+     * @param chunks
+     *            the chunks of the level, in frontier order
+     * @param pool
+     *            the pool on which to deduplicate the shards
+     * @return the new states of the level
+     */
+    public List<StateHashTuple> addLevel(final List<Chunk> chunks,
+	    ForkJoinPool pool) {
+
+	List<Callable<Void>> dedups = new ArrayList<Callable<Void>>(
+		this.shards.size());
+	for (int i = 0; i < this.shards.size(); i++) {
+	    final int shard = i;
+	    dedups.add(new Callable<Void>() {
+		@Override
+		public Void call() {
+		    Set<StateHashTuple> visited = shards.get(shard);
+		    for (Chunk chunk : chunks) {
+			for (int j : chunk.shardMembers.get(shard)) {
+			    if (visited.add(chunk.generated.get(j))) {
+				chunk.isNew[j] = true;
+			    }
+			}
+		    }
+		    return null;
+		}
+	    });
+	}
+	try {
+	    for (Future<Void> f : pool.invokeAll(dedups)) {
+		f.get();
+	    }
+	} catch (InterruptedException e) {
+	    Thread.currentThread().interrupt();
+	    throw new RuntimeException(e);
+	} catch (ExecutionException e) {
+	    throw new RuntimeException(e.getCause());
+	}
+
+	List<StateHashTuple> added = new ArrayList<StateHashTuple>();
+	for (Chunk chunk : chunks) {
+	    for (int j = 0; j < chunk.generated.size(); j++) {
+		if (chunk.isNew[j]) {
+		    added.add(chunk.generated.get(j));
+		}
+	    }
+	}
+
+	return added;
+    }
+
+    /**
+     * Returns the shard to which a hashed state belongs.
+     *
+     * @param sh
+     *            the hashed state
+     * @param nShards
+     *            the number of shards
+     * @return the shard of the hashed state
+     */
+    protected static int shardOf(StateHashTuple sh, int nShards) {
+	int h = sh.hashCode();
+	h ^= (h >>> 16);
+	return (h & 0x7fffffff) % nShards;
+    }
+
+    /**
+     * States generated by one task, in generation order, along with the
+     * indices of the states that belong to each shard.
+     *
+     */
+    public static class Chunk {
+
+	protected List<StateHashTuple> generated;
+	protected List<List<Integer>> shardMembers;
+	protected boolean[] isNew;
+
+	protected Chunk(List<StateHashTuple> generated, int nShards) {
+	    this.generated = generated;
+	    this.shardMembers = new ArrayList<List<Integer>>(nShards);
+	    for (int i = 0; i < nShards; i++) {
+		this.shardMembers.add(new ArrayList<Integer>());
+	    }
+	    for (int j = 0; j < generated.size(); j++) {
+		this.shardMembers.get(shardOf(generated.get(j), nShards))
+			.add(j);
+	    }
+	    this.isNew = new boolean[generated.size()];
+	}
+
+	/**
+	 * Returns the number of generated states in this chunk.
+	 *
+	 * @return the number of generated states in this chunk
+	 */
+	public int size() {
+	    return this.generated.size();
+	}
+
+    }
+
+}
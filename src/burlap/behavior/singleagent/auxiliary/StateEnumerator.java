@@ -1,6 +1,8 @@
 package burlap.behavior.singleagent.auxiliary;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
@@ -42,9 +44,11 @@ public class StateEnumerator {
     protected Map<StateHashTuple, Integer> enumeration = new HashMap<StateHashTuple, Integer>();
 
     /**
-     * The reverse enumeration id to state map
+     * The reverse enumeration from ids to hashed states. Since ids are
+     * assigned consecutively from 0, the id of a state is its index in this
+     * list.
      */
-    protected Map<Integer, State> reverseEnumerate = new HashMap<Integer, State>();
+    protected List<StateHashTuple> reverseEnumerate = new ArrayList<StateHashTuple>();
 
     /**
      * The id to use for the next unique state that is added
@@ -99,6 +103,32 @@ public class StateEnumerator {
 	}
     }
 
+    /**
+     * Finds all states that are reachable from an input state with a parallel
+     * breadth first search and enumerates them. Will not search from states
+     * that are marked as terminal states. States are enumerated in breadth
+     * first order, so the same ids are assigned regardless of the number of
+     * threads.
+     * 
+     * @param from
+     *            the state from which all reachable states should be searched
+     * @param tf
+     *            the terminal function that prevents expanding from terminal
+     *            states
+     * @param numThreads
+     *            the number of threads to use for the search
+     */
+    public void findReachableStatesAndEnumerate(State from,
+	    TerminalFunction tf, int numThreads) {
+	List<StateHashTuple> reachable = StateReachability
+		.getReachableHashedStatesParallel(from,
+			(SADomain) this.domain, this.hashingFactory, tf,
+			numThreads);
+	for (StateHashTuple sh : reachable) {
+	    this.getEnumeratedID(sh);
+	}
+    }
+
     /**
      * Get or create and get the enumeration id for a state
      * 
@@ -121,12 +151,24 @@ public class StateEnumerator {
      * @return the state associated with the given enumeration id.
      */
     public State getStateForEnumertionId(int id) {
-	State s = this.reverseEnumerate.get(id);
-	if (s == null) {
+	return this.getHashedStateForEnumerationId(id).s;
+    }
+
+    /**
+     * Returns the hashed state associated with the given enumeration id. A
+     * state must have previously be associated with the input enumeration id,
+     * or a runtime exception is thrown.
+     * 
+     * @param id
+     *            the enumeration id
+     * @return the hashed state associated with the given enumeration id.
+     */
+    public StateHashTuple getHashedStateForEnumerationId(int id) {
+	if (id < 0 || id >= this.reverseEnumerate.size()) {
 	    throw new RuntimeException(
 		    "There is no state stored with the enumeration id: " + id);
 	}
-	return s;
+	return this.reverseEnumerate.get(id);
     }
 
     /**
@@ -145,15 +187,41 @@ public class StateEnumerator {
      *            the hased state to get the enumeration id
      * @return the enumeration id
      */
-    protected int getEnumeratedID(StateHashTuple sh) {
+    public int getEnumeratedID(StateHashTuple sh) {
 	Integer storedID = this.enumeration.get(sh);
 	if (storedID == null) {
 	    this.enumeration.put(sh, this.nextEnumeratedID);
-	    this.reverseEnumerate.put(this.nextEnumeratedID, sh.s);
+	    this.reverseEnumerate.add(sh);
 	    storedID = this.nextEnumeratedID;
 	    this.nextEnumeratedID++;
 	}
 	return storedID;
     }
 
+    /**
+     * Returns the enumeration id for a hashed state if it has already been
+     * enumerated. Unlike {@link #getEnumeratedID(StateHashTuple)}, this method
+     * will not assign a new id to an unseen state.
+     * 
+     * @param sh
+     *            the hashed state to get the enumeration id
+     * @return the enumeration id, or -1 if the state has not been enumerated
+     */
+    public int getExistingEnumeratedID(StateHashTuple sh) {
+	Integer storedID = this.enumeration.get(sh);
+	if (storedID == null) {
+	    return -1;
+	}
+	return storedID;
+    }
+
+    /**
+     * Clears all enumerated states so that ids will be assigned from 0 again.
+     */
+    public void clear() {
+	this.enumeration.clear();
+	this.reverseEnumerate.clear();
+	this.nextEnumeratedID = 0;
+    }
+
 }
@@ -5,6 +5,10 @@ import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 
 import burlap.behavior.statehashing.StateHashFactory;
 import burlap.behavior.statehashing.StateHashTuple;
@@ -20,6 +24,17 @@ import burlap.oomdp.singleagent.SADomain;
 /**
  * This class provides methods for finding the set of reachable states from a
  * source state.
+ * <p/>
+ * Reachable states can also be found with a level-synchronous parallel breadth
+ * first search using
+ * {@link #getReachableHashedStatesParallel(State, SADomain, StateHashFactory, TerminalFunction, int)}
+ * . Each level of the search is split into contiguous chunks that are expanded
+ * by different threads, and the generated states are then checked against a
+ * {@link ShardedStateSet}, with each shard deduplicated by a single thread.
+ * Since chunks are merged in frontier order, the parallel
+ * search returns the states in the same order as a serial breadth first
+ * search, regardless of the number of threads. The actions of the domain and
+ * the hashing factory must be safe to use from multiple threads.
  * 
  * @author James MacGlashan
  * 
@@ -158,4 +173,130 @@ public class StateReachability {
 
 	return hashedStates;
     }
+
+    /**
+     * Returns the list of {@link burlap.behavior.statehashing.StateHashTuple}
+     * objects that are reachable from a source state, in the order they are
+     * discovered by a breadth first search. The search is performed in
+     * parallel, one level at a time, but the returned order does not depend on
+     * the number of threads.
+     * 
+     * @param from
+     *            the source state
+     * @param inDomain
+     *            the domain of the state
+     * @param usingHashFactory
+     *            the state hashing factory to use for indexing states and
+     *            testing equality.
+     * @param tf
+     *            a terminal function that prevents expansion from terminal
+     *            states.
+     * @param numThreads
+     *            the number of threads to use
+     * @return the list of reachable hashed states in breadth first order.
+     */
+    public static List<StateHashTuple> getReachableHashedStatesParallel(
+	    State from, SADomain inDomain,
+	    final StateHashFactory usingHashFactory,
+	    final TerminalFunction tf, int numThreads) {
+
+	final List<Action> actions = inDomain.getActions();
+	final ShardedStateSet visited = new ShardedStateSet(numThreads * 4);
+
+	List<StateHashTuple> result = new ArrayList<StateHashTuple>();
+	StateHashTuple shi = usingHashFactory.hashState(from);
+	visited.add(shi);
+	result.add(shi);
+
+	List<StateHashTuple> frontier = new ArrayList<StateHashTuple>();
+	frontier.add(shi);
+	int nGenerated = 0;
+
+	ForkJoinPool pool = new ForkJoinPool(numThreads);
+	try {
+
+	    while (frontier.size() > 0) {
+
+		// expand contiguous chunks of the frontier in parallel
+		final List<StateHashTuple> level = frontier;
+		int nChunks = Math.min(level.size(), visited.numShards());
+		List<Callable<ShardedStateSet.Chunk>> expansions = new ArrayList<Callable<ShardedStateSet.Chunk>>(
+			nChunks);
+		for (int c = 0; c < nChunks; c++) {
+		    final int start = (int) ((long) level.size() * c / nChunks);
+		    final int end = (int) ((long) level.size() * (c + 1) / nChunks);
+		    expansions.add(new Callable<ShardedStateSet.Chunk>() {
+			@Override
+			public ShardedStateSet.Chunk call() {
+			    return visited.chunk(expand(level.subList(start,
+				    end), actions, usingHashFactory, tf));
+			}
+		    });
+		}
+		List<ShardedStateSet.Chunk> chunks = invokeAllOrdered(pool,
+			expansions);
+		for (ShardedStateSet.Chunk chunk : chunks) {
+		    nGenerated += chunk.size();
+		}
+
+		// the next frontier is the new states in generation order
+		frontier = visited.addLevel(chunks, pool);
+		result.addAll(frontier);
+
+	    }
+
+	} finally {
+	    pool.shutdown();
+	}
+
+	DPrint.cl(debugID, "Num generated: " + nGenerated + "; num unique: "
+		+ result.size());
+
+	return result;
+    }
+
+    /**
+     * Runs all tasks on the pool and returns their results in task order.
+     */
+    protected static <T> List<T> invokeAllOrdered(ForkJoinPool pool,
+	    List<Callable<T>> tasks) {
+	List<T> results = new ArrayList<T>(tasks.size());
+	try {
+	    for (Future<T> f : pool.invokeAll(tasks)) {
+		results.add(f.get());
+	    }
+	} catch (InterruptedException e) {
+	    Thread.currentThread().interrupt();
+	    throw new RuntimeException(e);
+	} catch (ExecutionException e) {
+	    throw new RuntimeException(e.getCause());
+	}
+	return results;
+    }
+
+    /**
+     * Returns the states generated by expanding each non-terminal state of a
+     * chunk of a search frontier, in generation order.
+     */
+    protected static List<StateHashTuple> expand(List<StateHashTuple> toExpand,
+	    List<Action> actions, StateHashFactory hashingFactory,
+	    TerminalFunction tf) {
+
+	List<StateHashTuple> generated = new ArrayList<StateHashTuple>();
+	for (StateHashTuple sh : toExpand) {
+	    if (tf.isTerminal(sh.s)) {
+		continue; // don't expand
+	    }
+	    List<GroundedAction> gas = sh.s.getAllGroundedActionsFor(actions);
+	    for (GroundedAction ga : gas) {
+		List<TransitionProbability> tps = ga.action.getTransitions(
+			sh.s, ga.params);
+		for (TransitionProbability tp : tps) {
+		    generated.add(hashingFactory.hashState(tp.s));
+		}
+	    }
+	}
+	return generated;
+    }
+
 }
@@ -0,0 +1,601 @@
+package burlap.behavior.singleagent.auxiliary.externalmemory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import burlap.behavior.singleagent.auxiliary.externalmemory.ExternalSort.RecordReader;
+import burlap.behavior.singleagent.auxiliary.externalmemory.ExternalSort.RecordWriter;
+import burlap.debugtools.DPrint;
+import burlap.oomdp.core.State;
+import burlap.oomdp.core.TerminalFunction;
+import burlap.oomdp.core.TransitionProbability;
+import burlap.oomdp.singleagent.Action;
+import burlap.oomdp.singleagent.GroundedAction;
+import burlap.oomdp.singleagent.RewardFunction;
+import burlap.oomdp.singleagent.SADomain;
+
+/**
+ * Enumerates the states reachable from a source state when the state space is
+ * too large to keep in memory, using a breadth first search with delayed
+ * duplicate detection. States are written to disk with a {@link StateEncoder}
+ * and each breadth first layer is processed as follows:
+ * <ol>
+ * <li>the states of the layer are read from a memory-mapped window of the
+ * state file and expanded, writing the encoding of every generated successor
+ * to a candidate file;</li>
+ * <li>the candidate file is sorted with {@link ExternalSort} and merged with
+ * the sorted index of all previously found states, which resolves each
+ * successor to an existing id or assigns it a new one;</li>
+ * <li>the resolved successor ids are sorted back into generation order and
+ * the transitions of the layer are appended to the transition file.</li>
+ * </ol>
+ * Only the records of one in-memory sort run are held in memory at a time, so
+ * memory use is bounded by {@link #setMaxRecordsInMemory(int)} rather than by
+ * the size of the state space. New states of a layer are assigned ids in the
+ * sorted order of their encodings, so enumeration is deterministic.
+ * <p/>
+ * The output is written to a directory and consists of:
+ * <ul>
+ * <li>{@link #STATESFILE}: the encoding of each state, in id order;</li>
+ * <li>{@link #INDEXFILE}: the encoding of each state followed by its id,
+ * sorted by encoding, which is used to look up the id of a state;</li>
+ * <li>{@link #TRANSITIONSFILE}: the transitions of each state in id order.
+ * Each state is written as its long id, a boolean that is true for terminal
+ * states and its int number of actions; each action as its int action id and
+ * int number of transitions; and each transition as its long target id,
+ * double probability and double reward;</li>
+ * <li>{@link #ACTIONSFILE}: the name of each grounded action id, one per line.</li>
+ * </ul>
+ * The transition file can be swept by {@link ExternalMemoryValueIteration}.
+ * Options are not supported, since their rewards are not per transition.
+ *
+ */
+public class ExternalMemoryStateEnumerator {
+
+    public static final String STATESFILE = "states.bin";
+    public static final String INDEXFILE = "index.bin";
+    public static final String TRANSITIONSFILE = "transitions.bin";
+    public static final String ACTIONSFILE = "actions.txt";
+
+    /**
+     * The debug code used for printing progress
+     */
+    public static int debugCode = 6301;
+
+    /**
+     * The largest window of the state file that is memory-mapped at once
+     */
+    protected static final long MAXMAPPEDBYTES = 1L << 28;
+
+    protected SADomain domain;
+    protected StateEncoder encoder;
+    protected RewardFunction rf;
+    protected TerminalFunction tf;
+
+    /**
+     * The directory to which files are written
+     */
+    protected File directory;
+
+    /**
+     * The maximum number of records sorted in memory at once
+     */
+    protected int maxRecordsInMemory = 1 << 20;
+
+    /**
+     * The number of states enumerated
+     */
+    protected long numStates = 0;
+
+    /**
+     * The number of transitions written
+     */
+    protected long numTransitions = 0;
+
+    /**
+     * The grounded action names, indexed by action id
+     */
+    protected List<String> actionNames = new ArrayList<String>();
+
+    /**
+     * The ids of grounded action names
+     */
+    protected Map<String, Integer> actionIds = new HashMap<String, Integer>();
+
+    /**
+     * Initializes the enumerator.
+     *
+     * @param domain
+     *            the domain whose states will be enumerated
+     * @param encoder
+     *            the encoder used to write states to disk
+     * @param rf
+     *            the reward function used to compute transition rewards
+     * @param tf
+     *            the terminal function; terminal states are not expanded
+     * @param directory
+     *            the directory to which files are written; it is created if
+     *            it does not exist
+     */
+    public ExternalMemoryStateEnumerator(SADomain domain,
+	    StateEncoder encoder, RewardFunction rf, TerminalFunction tf,
+	    File directory) {
+	this.domain = domain;
+	this.encoder = encoder;
+	this.rf = rf;
+	this.tf = tf;
+	this.directory = directory;
+	if (!directory.exists() && !directory.mkdirs()) {
+	    throw new RuntimeException("Could not create directory "
+		    + directory);
+	}
+    }
+
+    /**
+     * Sets the maximum number of records that will be sorted in memory at
+     * once.
+     *
+     * @param maxRecordsInMemory
+     *            the maximum number of records sorted in memory at once
+     */
+    public void setMaxRecordsInMemory(int maxRecordsInMemory) {
+	this.maxRecordsInMemory = maxRecordsInMemory;
+    }
+
+    /**
+     * Returns the number of states that have been enumerated.
+     *
+     * @return the number of states that have been enumerated.
+     */
+    public long numStates() {
+	return this.numStates;
+    }
+
+    /**
+     * Returns the number of transitions that have been written.
+     *
+     * @return the number of transitions that have been written.
+     */
+    public long numTransitions() {
+	return this.numTransitions;
+    }
+
+    /**
+     * Returns the names of the grounded actions, indexed by action id.
+     *
+     * @return the names of the grounded actions, indexed by action id.
+     */
+    public List<String> getActionNames() {
+	return this.actionNames;
+    }
+
+    /**
+     * Returns the encoder used to write states.
+     *
+     * @return the encoder used to write states.
+     */
+    public StateEncoder getEncoder() {
+	return this.encoder;
+    }
+
+    /**
+     * Returns the file in the output directory with the given name.
+     *
+     * @param name
+     *            the file name
+     * @return the file in the output directory with the given name.
+     */
+    public File getFile(String name) {
+	return new File(this.directory, name);
+    }
+
+    /**
+     * Finds and enumerates all states reachable from the given state and
+     * writes them and their transitions to the output directory. Any previous
+     * output in the directory is overwritten.
+     *
+     * @param from
+     *            the state from which to search
+     * @return the number of states enumerated
+     */
+    public long enumerate(State from) {
+	try {
+	    return this.enumerateLayers(from);
+	} catch (IOException e) {
+	    throw new RuntimeException(e);
+	}
+    }
+
+    /**
+     * Returns the id of a state, or -1 if it was not enumerated. The id is
+     * found by binary search on the index file.
+     *
+     * @param s
+     *            the state
+     * @return the id of the state, or -1 if it was not enumerated.
+     */
+    public long stateId(State s) {
+
+	int w = this.encoder.width();
+	long[] key = new long[w];
+	this.encoder.encode(s, key);
+
+	try {
+	    RandomAccessFile raf = new RandomAccessFile(
+		    this.getFile(INDEXFILE), "r");
+	    try {
+		FileChannel ch = raf.getChannel();
+		ByteBuffer buf = ByteBuffer.allocate(8 * (w + 1));
+		long[] rec = new long[w + 1];
+		long lo = 0;
+		long hi = this.numStates - 1;
+		while (lo <= hi) {
+		    long mid = (lo + hi) >>> 1;
+		    buf.clear();
+		    long pos = mid * 8L * (w + 1);
+		    while (buf.hasRemaining()) {
+			ch.read(buf, pos + buf.position());
+		    }
+		    buf.flip();
+		    for (int i = 0; i <= w; i++) {
+			rec[i] = buf.getLong();
+		    }
+		    int c = ExternalSort.compareKeys(rec, key, w);
+		    if (c == 0) {
+			return rec[w];
+		    } else if (c < 0) {
+			lo = mid + 1;
+		    } else {
+			hi = mid - 1;
+		    }
+		}
+		return -1;
+	    } finally {
+		raf.close();
+	    }
+	} catch (IOException e) {
+	    throw new RuntimeException(e);
+	}
+
+    }
+
+    /**
+     * Returns the state with the given id, decoded from the state file.
+     *
+     * @param id
+     *            the state id
+     * @return the state with the given id
+     */
+    public State getState(long id) {
+	if (id < 0 || id >= this.numStates) {
+	    throw new RuntimeException(
+		    "There is no state stored with the enumeration id: " + id);
+	}
+	try {
+	    RecordReader r = new RecordReader(this.getFile(STATESFILE),
+		    this.encoder.width(), id);
+	    try {
+		long[] rec = new long[this.encoder.width()];
+		r.read(rec);
+		return this.encoder.decode(rec);
+	    } finally {
+		r.close();
+	    }
+	} catch (IOException e) {
+	    throw new RuntimeException(e);
+	}
+    }
+
+    protected long enumerateLayers(State from) throws IOException {
+
+	int w = this.encoder.width();
+	File statesFile = this.getFile(STATESFILE);
+	File indexFile = this.getFile(INDEXFILE);
+	File transitionsFile = this.getFile(TRANSITIONSFILE);
+	File candidates = this.getFile("candidates.tmp");
+	File sortedCandidates = this.getFile("candidates.sorted.tmp");
+	File skeleton = this.getFile("skeleton.tmp");
+	File resolved = this.getFile("resolved.tmp");
+	File sortedResolved = this.getFile("resolved.sorted.tmp");
+	File newIndex = this.getFile("index.new.tmp");
+
+	this.numStates = 0;
+	this.numTransitions = 0;
+	this.actionNames.clear();
+	this.actionIds.clear();
+
+	// the first layer is the source state
+	long[] rec = new long[w + 1];
+	this.encoder.encode(from, rec);
+	RecordWriter sw = new RecordWriter(statesFile, false);
+	sw.write(Arrays.copyOf(rec, w));
+	sw.close();
+	rec[w] = 0;
+	RecordWriter iw = new RecordWriter(indexFile, false);
+	iw.write(rec);
+	iw.close();
+	new FileOutputStream(transitionsFile).close();
+	this.numStates = 1;
+
+	long layerStart = 0;
+	long layerEnd = 1;
+	int depth = 0;
+	while (layerStart < layerEnd) {
+
+	    long nGenerated = this.expandLayer(layerStart, layerEnd,
+		    statesFile, candidates, skeleton);
+
+	    ExternalSort.sort(candidates, sortedCandidates, w + 1, w,
+		    this.maxRecordsInMemory, this.directory);
+	    this.mergeCandidates(sortedCandidates, indexFile, newIndex,
+		    statesFile, resolved);
+	    if (!indexFile.delete() || !newIndex.renameTo(indexFile)) {
+		throw new IOException("Could not replace " + indexFile);
+	    }
+
+	    ExternalSort.sort(resolved, sortedResolved, 2, 1,
+		    this.maxRecordsInMemory, this.directory);
+	    this.writeTransitions(skeleton, sortedResolved, transitionsFile);
+	    this.numTransitions += nGenerated;
+
+	    DPrint.cl(debugCode, "Layer " + depth + ": expanded "
+		    + (layerEnd - layerStart) + "; generated " + nGenerated
+		    + "; total states " + this.numStates);
+
+	    layerStart = layerEnd;
+	    layerEnd = this.numStates;
+	    depth++;
+
+	}
+
+	candidates.delete();
+	sortedCandidates.delete();
+	skeleton.delete();
+	resolved.delete();
+	sortedResolved.delete();
+
+	PrintWriter actionsOut = new PrintWriter(this.getFile(ACTIONSFILE),
+		"UTF-8");
+	try {
+	    for (String name : this.actionNames) {
+		actionsOut.println(name);
+	    }
+	} finally {
+	    actionsOut.close();
+	}
+
+	return this.numStates;
+    }
+
+    /**
+     * Expands the states of a layer, writing the encoding of each successor
+     * and its generation index to the candidate file and the rest of each
+     * transition to the skeleton file.
+     *
+     * @return the number of successors generated
+     */
+    protected long expandLayer(long layerStart, long layerEnd,
+	    File statesFile, File candidates, File skeleton)
+	    throws IOException {
+
+	int w = this.encoder.width();
+	long recordBytes = 8L * w;
+	long perWindow = Math.max(1, MAXMAPPEDBYTES / recordBytes);
+	List<Action> actions = this.domain.getActions();
+
+	long[] enc = new long[w];
+	long[] cand = new long[w + 1];
+	long t = 0;
+
+	RecordWriter cw = new RecordWriter(candidates, false);
+	DataOutputStream skw = new DataOutputStream(new BufferedOutputStream(
+		new FileOutputStream(skeleton), ExternalSort.BUFFERSIZE));
+	RandomAccessFile raf = new RandomAccessFile(statesFile, "r");
+	try {
+	    FileChannel ch = raf.getChannel();
+	    for (long ws = layerStart; ws < layerEnd; ws += perWindow) {
+
+		long we = Math.min(layerEnd, ws + perWindow);
+		MappedByteBuffer window = ch.map(FileChannel.MapMode.READ_ONLY,
+			ws * recordBytes, (we - ws) * recordBytes);
+
+		for (long id = ws; id < we; id++) {
+
+		    for (int i = 0; i < w; i++) {
+			enc[i] = window.getLong();
+		    }
+		    State s = this.encoder.decode(enc);
+
+		    skw.writeLong(id);
+		    if (this.tf.isTerminal(s)) {
+			skw.writeBoolean(true);
+			skw.writeInt(0);
+			continue;
+		    }
+		    skw.writeBoolean(false);
+
+		    List<GroundedAction> gas = s
+			    .getAllGroundedActionsFor(actions);
+		    skw.writeInt(gas.size());
+		    for (GroundedAction ga : gas) {
+			List<TransitionProbability> tps = ga.action
+				.getTransitions(s, ga.params);
+			skw.writeInt(this.actionId(ga));
+			skw.writeInt(tps.size());
+			for (TransitionProbability tp : tps) {
+			    this.encoder.encode(tp.s, cand);
+			    cand[w] = t++;
+			    cw.write(cand);
+			    skw.writeDouble(tp.p);
+			    skw.writeDouble(this.rf.reward(s, ga, tp.s));
+			}
+		    }
+
+		}
+
+	    }
+	} finally {
+	    raf.close();
+	    skw.close();
+	    cw.close();
+	}
+
+	return t;
+    }
+
+    /**
+     * Merges the sorted candidates of a layer with the sorted index of known
+     * states. Each candidate is resolved to the id of a known state or, if it
+     * is new, assigned the next id and appended to the state file. Writes the
+     * (generation index, id) pair of every candidate to the resolved file and
+     * the merged index to the new index file.
+     */
+    protected void mergeCandidates(File sortedCandidates, File index,
+	    File newIndex, File statesFile, File resolved) throws IOException {
+
+	int w = this.encoder.width();
+	long[] cand = new long[w + 1];
+	long[] known = new long[w + 1];
+	long[] lastNew = null;
+	long[] pair = new long[2];
+
+	RecordReader cr = new RecordReader(sortedCandidates, w + 1);
+	RecordReader kr = new RecordReader(index, w + 1);
+	RecordWriter iw = new RecordWriter(newIndex, false);
+	RecordWriter sw = new RecordWriter(statesFile, true);
+	RecordWriter rw = new RecordWriter(resolved, false);
+	try {
+
+	    boolean hasKnown = kr.hasNext();
+	    if (hasKnown) {
+		kr.read(known);
+	    }
+
+	    while (cr.hasNext()) {
+
+		cr.read(cand);
+
+		// emit known states that sort before this candidate
+		while (hasKnown && ExternalSort.compareKeys(known, cand, w) < 0) {
+		    iw.write(known);
+		    hasKnown = kr.hasNext();
+		    if (hasKnown) {
+			kr.read(known);
+		    }
+		}
+
+		long id;
+		if (hasKnown && ExternalSort.compareKeys(known, cand, w) == 0) {
+		    id = known[w];
+		} else if (lastNew != null
+			&& ExternalSort.compareKeys(lastNew, cand, w) == 0) {
+		    id = lastNew[w];
+		} else {
+		    id = this.numStates++;
+		    lastNew = cand.clone();
+		    lastNew[w] = id;
+		    sw.write(Arrays.copyOf(cand, w));
+		    iw.write(lastNew);
+		}
+
+		pair[0] = cand[w];
+		pair[1] = id;
+		rw.write(pair);
+
+	    }
+
+	    while (hasKnown) {
+		iw.write(known);
+		hasKnown = kr.hasNext();
+		if (hasKnown) {
+		    kr.read(known);
+		}
+	    }
+
+	} finally {
+	    cr.close();
+	    kr.close();
+	    iw.close();
+	    sw.close();
+	    rw.close();
+	}
+
+    }
+
+    /**
+     * Appends the transitions of a layer to the transition file by combining
+     * its skeleton with the successor ids sorted in generation order.
+     */
+    protected void writeTransitions(File skeleton, File sortedResolved,
+	    File transitionsFile) throws IOException {
+
+	long[] pair = new long[2];
+	DataInputStream skr = new DataInputStream(new BufferedInputStream(
+		new FileInputStream(skeleton), ExternalSort.BUFFERSIZE));
+	RecordReader rr = new RecordReader(sortedResolved, 2);
+	DataOutputStream tw = new DataOutputStream(new BufferedOutputStream(
+		new FileOutputStream(transitionsFile, true),
+		ExternalSort.BUFFERSIZE));
+	try {
+	    long skeletonBytes = skeleton.length();
+	    long read = 0;
+	    while (read < skeletonBytes) {
+		tw.writeLong(skr.readLong());
+		tw.writeBoolean(skr.readBoolean());
+		int nRows = skr.readInt();
+		tw.writeInt(nRows);
+		read += 13;
+		for (int r = 0; r < nRows; r++) {
+		    tw.writeInt(skr.readInt());
+		    int nt = skr.readInt();
+		    tw.writeInt(nt);
+		    read += 8;
+		    for (int i = 0; i < nt; i++) {
+			rr.read(pair);
+			tw.writeLong(pair[1]);
+			tw.writeDouble(skr.readDouble());
+			tw.writeDouble(skr.readDouble());
+			read += 16;
+		    }
+		}
+	    }
+	} finally {
+	    skr.close();
+	    rr.close();
+	    tw.close();
+	}
+
+    }
+
+    /**
+     * Returns the id of a grounded action, assigning it one if it does not
+     * have one.
+     */
+    protected int actionId(GroundedAction ga) {
+	String name = ga.toString();
+	Integer id = this.actionIds.get(name);
+	if (id == null) {
+	    id = this.actionNames.size();
+	    this.actionNames.add(name);
+	    this.actionIds.put(name, id);
+	}
+	return id;
+    }
+
+}
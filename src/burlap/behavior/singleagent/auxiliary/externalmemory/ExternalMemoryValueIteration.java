@@ -0,0 +1,280 @@
+package burlap.behavior.singleagent.auxiliary.externalmemory;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+import burlap.debugtools.DPrint;
+import burlap.oomdp.core.State;
+
+/**
+ * Value iteration over the transition file written by an
+ * {@link ExternalMemoryStateEnumerator}. Each sweep streams the transition
+ * file from disk and performs in-place Bellman updates. The value function,
+ * one <code>double</code> per state indexed by the long state id, is kept in
+ * the file {@link #VALUESFILE} in the enumerator's directory, which is mapped
+ * into memory in segments, so the operating system pages values in and out
+ * and the state space is not bounded by the heap. Since a Bellman update
+ * reads the values of arbitrary successors, sweeps are much slower once the
+ * values that are in use no longer fit in physical memory; the breadth-first
+ * ids of the enumerator keep successors close to their sources in many
+ * domains. Terminal states have a value of 0. VI terminates when the maximum
+ * change in the value function is smaller than maxDelta or when
+ * maxIterations sweeps have been performed.
+ *
+ */
+public class ExternalMemoryValueIteration {
+
+    public static final String VALUESFILE = "values.bin";
+
+    protected ExternalMemoryStateEnumerator enumerator;
+    protected double gamma;
+    protected double maxDelta;
+    protected int maxIterations;
+
+    /**
+     * The value of each state, indexed by state id
+     */
+    protected MappedDoubleArray values;
+
+    /**
+     * The value to which non-terminal states are initialized
+     */
+    protected double vInit = 0.;
+
+    /**
+     * The debug code used for printing progress
+     */
+    protected int debugCode = 6302;
+
+    /**
+     * Initializes.
+     *
+     * @param enumerator
+     *            the enumerator whose output will be swept; it must already
+     *            have enumerated the states
+     * @param gamma
+     *            the discount factor
+     * @param maxDelta
+     *            when the maximum change in the value function is smaller than
+     *            this value, VI will terminate.
+     * @param maxIterations
+     *            when the number of VI iterations exceeds this value, VI will
+     *            terminate.
+     */
+    public ExternalMemoryValueIteration(
+	    ExternalMemoryStateEnumerator enumerator, double gamma,
+	    double maxDelta, int maxIterations) {
+	this.enumerator = enumerator;
+	this.gamma = gamma;
+	this.maxDelta = maxDelta;
+	this.maxIterations = maxIterations;
+    }
+
+    /**
+     * Sets the value to which non-terminal states are initialized.
+     *
+     * @param vInit
+     *            the initial value of non-terminal states
+     */
+    public void setValueInitialization(double vInit) {
+	this.vInit = vInit;
+    }
+
+    /**
+     * Sets the debug code used for printing progress.
+     *
+     * @param debugCode
+     *            the debug code
+     */
+    public void setDebugCode(int debugCode) {
+	this.debugCode = debugCode;
+    }
+
+    /**
+     * Runs VI until the termination conditions are met.
+     *
+     * @return the number of sweeps performed
+     */
+    public int runVI() {
+
+	int i = 0;
+	try {
+	    long n = this.enumerator.numStates();
+	    this.values = new MappedDoubleArray(
+		    this.enumerator.getFile(VALUESFILE), n);
+	    for (long id = 0; id < n; id++) {
+		this.values.set(id, this.vInit);
+	    }
+	    for (i = 0; i < this.maxIterations; i++) {
+		double delta = this.sweep();
+		if (delta < this.maxDelta) {
+		    break; // approximated well enough; stop iterating
+		}
+	    }
+	} catch (IOException e) {
+	    throw new RuntimeException(e);
+	}
+
+	DPrint.cl(this.debugCode, "Passes: " + i);
+
+	return i;
+    }
+
+    /**
+     * Returns the value of the state with the given id.
+     *
+     * @param id
+     *            the state id
+     * @return the value of the state
+     */
+    public double value(long id) {
+	return this.values.get(id);
+    }
+
+    /**
+     * Returns the value of the given state.
+     *
+     * @param s
+     *            the state
+     * @return the value of the state
+     */
+    public double value(State s) {
+	long id = this.enumerator.stateId(s);
+	if (id == -1) {
+	    throw new RuntimeException(
+		    "The state was not enumerated and has no value.");
+	}
+	return this.values.get(id);
+    }
+
+    /**
+     * Returns the file holding the value function: the double value of each
+     * state in id order. It is complete once {@link #runVI()} returns.
+     *
+     * @return the file holding the value function
+     */
+    public File getValuesFile() {
+	return this.enumerator.getFile(VALUESFILE);
+    }
+
+    /**
+     * Streams the transition file and performs a Bellman update on every
+     * state.
+     *
+     * @return the maximum change in value of any state
+     */
+    protected double sweep() throws IOException {
+
+	double delta = 0.;
+	DataInputStream in = new DataInputStream(new BufferedInputStream(
+		new FileInputStream(
+			this.enumerator
+				.getFile(ExternalMemoryStateEnumerator.TRANSITIONSFILE)),
+		ExternalSort.BUFFERSIZE));
+	try {
+	    for (long n = 0; n < this.enumerator.numStates(); n++) {
+
+		long id = in.readLong();
+		boolean terminal = in.readBoolean();
+		int nRows = in.readInt();
+
+		double v = this.values.get(id);
+		if (terminal) {
+		    delta = Math.max(Math.abs(v), delta);
+		    this.values.set(id, 0.);
+		    continue;
+		}
+		if (nRows == 0) {
+		    continue;
+		}
+
+		double maxQ = Double.NEGATIVE_INFINITY;
+		for (int r = 0; r < nRows; r++) {
+		    in.readInt(); // action id
+		    int nt = in.readInt();
+		    double q = 0.;
+		    for (int t = 0; t < nt; t++) {
+			long target = in.readLong();
+			double p = in.readDouble();
+			double reward = in.readDouble();
+			q += p * (reward + this.gamma * this.values.get(target));
+		    }
+		    if (q > maxQ) {
+			maxQ = q;
+		    }
+		}
+
+		delta = Math.max(Math.abs(maxQ - v), delta);
+		this.values.set(id, maxQ);
+
+	    }
+	} finally {
+	    in.close();
+	}
+
+	return delta;
+    }
+
+    /**
+     * An array of doubles indexed by long that is stored in a file, which is
+     * mapped into memory in segments of {@link #SEGMENTSIZE} values since a
+     * single mapping cannot exceed 2GB.
+     *
+     */
+    protected static class MappedDoubleArray {
+
+	/**
+	 * The number of doubles in each mapped segment
+	 */
+	public static final int SEGMENTSIZE = 1 << 27;
+
+	protected MappedByteBuffer[] segments;
+
+	/**
+	 * Creates the file, overwriting any previous contents, and maps it.
+	 *
+	 * @param file
+	 *            the file that stores the array
+	 * @param length
+	 *            the number of doubles in the array
+	 * @throws IOException
+	 */
+	public MappedDoubleArray(File file, long length) throws IOException {
+	    RandomAccessFile raf = new RandomAccessFile(file, "rw");
+	    try {
+		raf.setLength(0);
+		raf.setLength(8L * length);
+		FileChannel ch = raf.getChannel();
+		int n = (int) ((length + SEGMENTSIZE - 1) / SEGMENTSIZE);
+		this.segments = new MappedByteBuffer[n];
+		for (int i = 0; i < n; i++) {
+		    long start = (long) i * SEGMENTSIZE;
+		    long size = Math.min(SEGMENTSIZE, length - start);
+		    // a mapping stays valid after its channel is closed
+		    this.segments[i] = ch.map(FileChannel.MapMode.READ_WRITE,
+			    8L * start, 8L * size);
+		}
+	    } finally {
+		raf.close();
+	    }
+	}
+
+	public double get(long i) {
+	    return this.segments[(int) (i / SEGMENTSIZE)].getDouble(
+		    (int) (i % SEGMENTSIZE) << 3);
+	}
+
+	public void set(long i, double v) {
+	    this.segments[(int) (i / SEGMENTSIZE)].putDouble(
+		    (int) (i % SEGMENTSIZE) << 3, v);
+	}
+
+    }
+
+}
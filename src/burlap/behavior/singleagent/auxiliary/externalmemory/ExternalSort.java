@@ -0,0 +1,319 @@
+package burlap.behavior.singleagent.auxiliary.externalmemory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Sorts files of fixed-width records of longs that may be too large to fit in
+ * memory. Runs of at most a given number of records are sorted in memory and
+ * written to temporary files, which are then merged. Records are compared
+ * lexicographically on a prefix of their longs, and the sort is stable.
+ * <p/>
+ * This class also provides the buffered record readers and writers used for
+ * the files it sorts.
+ *
+ */
+public class ExternalSort {
+
+    /**
+     * The size of the buffers used for reading and writing records
+     */
+    protected static final int BUFFERSIZE = 1 << 16;
+
+    private ExternalSort() {
+	// static utility
+    }
+
+    /**
+     * Sorts a file of records.
+     *
+     * @param in
+     *            the file to sort
+     * @param out
+     *            the file to which the sorted records are written
+     * @param width
+     *            the number of longs in a record
+     * @param keyWidth
+     *            the number of leading longs of a record on which records are
+     *            compared
+     * @param maxRecordsInMemory
+     *            the maximum number of records to sort in memory at once
+     * @param tmpDir
+     *            the directory in which temporary run files are created
+     * @throws IOException
+     *             if a file cannot be read or written
+     */
+    public static void sort(File in, File out, int width, final int keyWidth,
+	    int maxRecordsInMemory, File tmpDir) throws IOException {
+
+	final Comparator<long[]> keyOrder = new Comparator<long[]>() {
+	    @Override
+	    public int compare(long[] a, long[] b) {
+		return compareKeys(a, b, keyWidth);
+	    }
+	};
+
+	long numRecords = in.length() / (8L * width);
+	List<File> runs = new ArrayList<File>();
+
+	RecordReader reader = new RecordReader(in, width);
+	try {
+	    long remaining = numRecords;
+	    while (remaining > 0) {
+		int n = (int) Math.min(remaining, maxRecordsInMemory);
+		long[][] records = new long[n][width];
+		for (int i = 0; i < n; i++) {
+		    reader.read(records[i]);
+		}
+		remaining -= n;
+		Arrays.sort(records, keyOrder);
+
+		File run = File.createTempFile("run", ".bin", tmpDir);
+		RecordWriter writer = new RecordWriter(run, false);
+		try {
+		    for (long[] r : records) {
+			writer.write(r);
+		    }
+		} finally {
+		    writer.close();
+		}
+		runs.add(run);
+	    }
+	} finally {
+	    reader.close();
+	}
+
+	if (runs.size() == 0) {
+	    new RecordWriter(out, false).close();
+	    return;
+	}
+
+	merge(runs, out, width, keyWidth);
+	for (File run : runs) {
+	    run.delete();
+	}
+
+    }
+
+    /**
+     * Merges sorted run files into one sorted file. Records with equal keys
+     * are written in the order of the runs that contain them.
+     */
+    protected static void merge(List<File> runs, File out, int width,
+	    final int keyWidth) throws IOException {
+
+	PriorityQueue<RunHead> heads = new PriorityQueue<RunHead>(runs.size(),
+		new Comparator<RunHead>() {
+		    @Override
+		    public int compare(RunHead a, RunHead b) {
+			int c = compareKeys(a.record, b.record, keyWidth);
+			return c != 0 ? c : a.run - b.run;
+		    }
+		});
+
+	List<RecordReader> readers = new ArrayList<RecordReader>(runs.size());
+	RecordWriter writer = new RecordWriter(out, false);
+	try {
+	    for (int i = 0; i < runs.size(); i++) {
+		RecordReader r = new RecordReader(runs.get(i), width);
+		readers.add(r);
+		RunHead h = new RunHead(r, i, width);
+		if (h.advance()) {
+		    heads.add(h);
+		}
+	    }
+	    while (heads.size() > 0) {
+		RunHead h = heads.poll();
+		writer.write(h.record);
+		if (h.advance()) {
+		    heads.add(h);
+		}
+	    }
+	} finally {
+	    writer.close();
+	    for (RecordReader r : readers) {
+		r.close();
+	    }
+	}
+
+    }
+
+    /**
+     * Compares two records lexicographically on their leading longs.
+     *
+     * @param a
+     *            the first record
+     * @param b
+     *            the second record
+     * @param keyWidth
+     *            the number of leading longs to compare
+     * @return a negative number, zero, or a positive number if a is less
+     *         than, equal to, or greater than b
+     */
+    public static int compareKeys(long[] a, long[] b, int keyWidth) {
+	for (int i = 0; i < keyWidth; i++) {
+	    if (a[i] != b[i]) {
+		return a[i] < b[i] ? -1 : 1;
+	    }
+	}
+	return 0;
+    }
+
+    /**
+     * The next record of a run being merged.
+     *
+     */
+    protected static class RunHead {
+
+	protected RecordReader reader;
+	protected int run;
+	protected long[] record;
+
+	public RunHead(RecordReader reader, int run, int width) {
+	    this.reader = reader;
+	    this.run = run;
+	    this.record = new long[width];
+	}
+
+	public boolean advance() throws IOException {
+	    if (!this.reader.hasNext()) {
+		return false;
+	    }
+	    this.record = new long[this.record.length];
+	    this.reader.read(this.record);
+	    return true;
+	}
+
+    }
+
+    /**
+     * A buffered sequential reader of fixed-width records.
+     *
+     */
+    public static class RecordReader {
+
+	protected DataInputStream in;
+	protected long remaining;
+
+	/**
+	 * Opens a record file for reading from its start.
+	 *
+	 * @param f
+	 *            the file to read
+	 * @param width
+	 *            the number of longs in a record
+	 * @throws IOException
+	 *             if the file cannot be opened
+	 */
+	public RecordReader(File f, int width) throws IOException {
+	    this(f, width, 0);
+	}
+
+	/**
+	 * Opens a record file for reading from a given record.
+	 *
+	 * @param f
+	 *            the file to read
+	 * @param width
+	 *            the number of longs in a record
+	 * @param firstRecord
+	 *            the index of the first record to read
+	 * @throws IOException
+	 *             if the file cannot be opened
+	 */
+	public RecordReader(File f, int width, long firstRecord)
+		throws IOException {
+	    FileInputStream fin = new FileInputStream(f);
+	    long offset = firstRecord * 8L * width;
+	    fin.getChannel().position(offset);
+	    this.in = new DataInputStream(new BufferedInputStream(fin,
+		    BUFFERSIZE));
+	    this.remaining = (f.length() - offset) / (8L * width);
+	}
+
+	/**
+	 * Returns whether there are more records to read.
+	 *
+	 * @return true if there are more records; false otherwise.
+	 */
+	public boolean hasNext() {
+	    return this.remaining > 0;
+	}
+
+	/**
+	 * Reads the next record.
+	 *
+	 * @param record
+	 *            the array into which the record is read
+	 * @throws IOException
+	 *             if the record cannot be read
+	 */
+	public void read(long[] record) throws IOException {
+	    for (int i = 0; i < record.length; i++) {
+		record[i] = this.in.readLong();
+	    }
+	    this.remaining--;
+	}
+
+	public void close() throws IOException {
+	    this.in.close();
+	}
+
+    }
+
+    /**
+     * A buffered sequential writer of fixed-width records.
+     *
+     */
+    public static class RecordWriter {
+
+	protected DataOutputStream out;
+
+	/**
+	 * Opens a record file for writing.
+	 *
+	 * @param f
+	 *            the file to write
+	 * @param append
+	 *            true if records should be appended to the file; false if
+	 *            the file should be overwritten
+	 * @throws IOException
+	 *             if the file cannot be opened
+	 */
+	public RecordWriter(File f, boolean append) throws IOException {
+	    this.out = new DataOutputStream(new BufferedOutputStream(
+		    new FileOutputStream(f, append), BUFFERSIZE));
+	}
+
+	/**
+	 * Writes a record.
+	 *
+	 * @param record
+	 *            the record to write
+	 * @throws IOException
+	 *             if the record cannot be written
+	 */
+	public void write(long[] record) throws IOException {
+	    for (long v : record) {
+		this.out.writeLong(v);
+	    }
+	}
+
+	public void close() throws IOException {
+	    this.out.close();
+	}
+
+    }
+
+}
@@ -0,0 +1,260 @@
+package burlap.behavior.singleagent.auxiliary.externalmemory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import burlap.oomdp.core.Attribute;
+import burlap.oomdp.core.Attribute.AttributeType;
+import burlap.oomdp.core.ObjectClass;
+import burlap.oomdp.core.ObjectInstance;
+import burlap.oomdp.core.State;
+import burlap.oomdp.core.values.UnsetValueException;
+
+/**
+ * A {@link StateEncoder} for domains in which every state has the same number
+ * of objects of each class, such as grid worlds, Sokoban and Taxi, and only
+ * their attribute values change. The classes of a template state are listed
+ * in a fixed order. A state is encoded class by class: the attribute values
+ * of each object of the class are written as one row, and the rows of each
+ * class are sorted, as in
+ * {@link burlap.behavior.singleagent.vfa.cmac.Tiling#getTileCoordinates(State, int[], int)}.
+ * Discrete, boolean and int values are stored directly and real values are
+ * stored as their bits. Since the rows are sorted, states that are equal up
+ * to a renaming of objects of the same class have the same encoding, as with
+ * the object identifier independent state hashing of
+ * {@link burlap.behavior.statehashing.DiscreteStateHashFactory}. A state is
+ * decoded by creating new objects with the names of the template's objects
+ * and setting their values, so the i-th object of a class in a decoded state
+ * holds the i-th smallest row of that class.
+ * <p/>
+ * Relational attributes are not supported.
+ *
+ */
+public class FixedObjectStateEncoder implements StateEncoder {
+
+    /**
+     * The value used for attributes that are unset
+     */
+    public static final long UNSETVALUE = Long.MIN_VALUE;
+
+    /**
+     * The encoded object classes, in encoding order
+     */
+    protected ObjectClass[] classes;
+
+    /**
+     * The names of the template's objects of each encoded class, which are
+     * given to the objects of decoded states
+     */
+    protected String[][] objectNames;
+
+    /**
+     * The attribute types of each encoded class
+     */
+    protected AttributeType[][] types;
+
+    /**
+     * The number of objects in an encoded state
+     */
+    protected int numObjects;
+
+    /**
+     * The number of longs in an encoding
+     */
+    protected int width;
+
+    /**
+     * Initializes the encoder with the objects of a template state.
+     *
+     * @param template
+     *            a state with the number of objects of each class that every
+     *            encoded state will have
+     */
+    public FixedObjectStateEncoder(State template) {
+
+	List<String> classNames = new ArrayList<String>(
+		template.getObjectClassesPresent());
+	Collections.sort(classNames);
+
+	this.classes = new ObjectClass[classNames.size()];
+	this.objectNames = new String[classNames.size()][];
+	this.types = new AttributeType[classNames.size()][];
+	this.numObjects = 0;
+	this.width = 0;
+	for (int c = 0; c < classNames.size(); c++) {
+	    String className = classNames.get(c);
+	    int n = template.numObjectsOfTrueClass(className);
+	    this.objectNames[c] = new String[n];
+	    for (int i = 0; i < n; i++) {
+		this.objectNames[c][i] = template.getObjectOfTrueClassAt(
+			className, i).getName();
+	    }
+	    ObjectClass oc = template.getObjectOfTrueClassAt(className, 0)
+		    .getObjectClass();
+	    List<Attribute> atts = oc.attributeList;
+	    this.classes[c] = oc;
+	    this.types[c] = new AttributeType[atts.size()];
+	    for (int j = 0; j < atts.size(); j++) {
+		AttributeType type = atts.get(j).type;
+		if (type == AttributeType.RELATIONAL
+			|| type == AttributeType.MULTITARGETRELATIONAL) {
+		    throw new UnsupportedOperationException(
+			    "FixedObjectStateEncoder does not support relational attributes; attribute "
+				    + atts.get(j).name + " of class "
+				    + className + " is relational.");
+		}
+		this.types[c][j] = type;
+	    }
+	    this.numObjects += n;
+	    this.width += n * atts.size();
+	}
+
+    }
+
+    @Override
+    public int width() {
+	return this.width;
+    }
+
+    @Override
+    public void encode(State s, long[] out) {
+
+	if (s.numTotalObjets() != this.numObjects) {
+	    throw new RuntimeException("Cannot encode a state with "
+		    + s.numTotalObjets() + " objects; expected "
+		    + this.numObjects + ".");
+	}
+
+	int pos = 0;
+	for (int c = 0; c < this.classes.length; c++) {
+	    String className = this.classes[c].name;
+	    int n = this.objectNames[c].length;
+	    if (s.numObjectsOfTrueClass(className) != n) {
+		throw new RuntimeException("Cannot encode a state with "
+			+ s.numObjectsOfTrueClass(className)
+			+ " objects of class " + className + "; expected " + n
+			+ ".");
+	    }
+	    AttributeType[] ctypes = this.types[c];
+	    int start = pos;
+	    for (int i = 0; i < n; i++) {
+		ObjectInstance o = s.getObjectOfTrueClassAt(className, i);
+		for (int j = 0; j < ctypes.length; j++) {
+		    out[pos++] = encodeValue(o, j, ctypes[j]);
+		}
+	    }
+	    sortRows(out, start, n, ctypes.length);
+	}
+
+    }
+
+    @Override
+    public State decode(long[] in) {
+
+	State s = new State();
+	int pos = 0;
+	for (int c = 0; c < this.classes.length; c++) {
+	    AttributeType[] ctypes = this.types[c];
+	    for (int i = 0; i < this.objectNames[c].length; i++) {
+		// the values of a new object are unset until they are set here
+		ObjectInstance o = new ObjectInstance(this.classes[c],
+			this.objectNames[c][i]);
+		for (int j = 0; j < ctypes.length; j++) {
+		    long v = in[pos++];
+		    if (v == UNSETVALUE) {
+			continue;
+		    }
+		    if (ctypes[j] == AttributeType.REAL
+			    || ctypes[j] == AttributeType.REALUNBOUND) {
+			o.setValue(j, Double.longBitsToDouble(v));
+		    } else {
+			o.setValue(j, (int) v);
+		    }
+		}
+		s.addObject(o);
+	    }
+	}
+
+	return s;
+    }
+
+    /**
+     * Returns the encoding of an attribute value of an object.
+     *
+     * @param o
+     *            the object instance
+     * @param j
+     *            the index of the attribute
+     * @param type
+     *            the type of the attribute
+     * @return the encoding of the value, or {@link #UNSETVALUE} if it is unset
+     */
+    protected static long encodeValue(ObjectInstance o, int j,
+	    AttributeType type) {
+	try {
+	    if (type == AttributeType.REAL || type == AttributeType.REALUNBOUND) {
+		double d = o.getRealValForAttribute(j);
+		// -0.0 and 0.0 are equal values with different bits
+		return d == 0. ? 0L : Double.doubleToLongBits(d);
+	    }
+	    return o.getDiscValForAttribute(j);
+	} catch (UnsetValueException e) {
+	    return UNSETVALUE;
+	}
+    }
+
+    /**
+     * Sorts consecutive rows of equal width in place in lexicographic order.
+     * An insertion sort is used since there are typically very few rows.
+     *
+     * @param values
+     *            the array holding the rows
+     * @param start
+     *            the index of the first value of the first row
+     * @param nRows
+     *            the number of rows
+     * @param width
+     *            the number of values in each row
+     */
+    protected static void sortRows(long[] values, int start, int nRows,
+	    int width) {
+	for (int r = 1; r < nRows; r++) {
+	    for (int q = r; q > 0
+		    && compareRows(values, start + (q - 1) * width, start + q
+			    * width, width) > 0; q--) {
+		int a = start + (q - 1) * width;
+		int b = a + width;
+		for (int k = 0; k < width; k++) {
+		    long tmp = values[a + k];
+		    values[a + k] = values[b + k];
+		    values[b + k] = tmp;
+		}
+	    }
+	}
+    }
+
+    /**
+     * Compares two rows of equal width lexicographically.
+     *
+     * @param values
+     *            the array holding the rows
+     * @param a
+     *            the index of the first value of the first row
+     * @param b
+     *            the index of the first value of the second row
+     * @param width
+     *            the number of values in each row
+     * @return a negative number, zero or a positive number if the first row
+     *         is less than, equal to or greater than the second row
+     */
+    protected static int compareRows(long[] values, int a, int b, int width) {
+	for (int k = 0; k < width; k++) {
+	    if (values[a + k] != values[b + k]) {
+		return values[a + k] < values[b + k] ? -1 : 1;
+	    }
+	}
+	return 0;
+    }
+
+}
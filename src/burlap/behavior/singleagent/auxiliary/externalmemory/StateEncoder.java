@@ -0,0 +1,41 @@
+package burlap.behavior.singleagent.auxiliary.externalmemory;
+
+import burlap.oomdp.core.State;
+
+/**
+ * An interface for encoding states as fixed-width arrays of longs so that they
+ * can be written to and read from disk. Two states should have the same
+ * encoding exactly when they are considered the same state, and decoding the
+ * encoding of a state should produce a state equal to it.
+ *
+ */
+public interface StateEncoder {
+
+    /**
+     * Returns the number of longs in the encoding of a state.
+     *
+     * @return the number of longs in the encoding of a state.
+     */
+    public int width();
+
+    /**
+     * Encodes a state into an array.
+     *
+     * @param s
+     *            the state to encode
+     * @param out
+     *            the array, of length {@link #width()}, into which the
+     *            encoding is written
+     */
+    public void encode(State s, long[] out);
+
+    /**
+     * Decodes a state from its encoding.
+     *
+     * @param in
+     *            the encoding of the state
+     * @return the decoded state
+     */
+    public State decode(long[] in);
+
+}
@@ -0,0 +1,267 @@
+package burlap.behavior.singleagent.auxiliary.performance;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import burlap.behavior.singleagent.EpisodeAnalysis;
+import burlap.behavior.singleagent.learning.LearningAgent;
+import burlap.behavior.singleagent.learning.LearningAgentFactory;
+import burlap.debugtools.DPrint;
+import burlap.debugtools.RandomFactory;
+import burlap.oomdp.auxiliary.StateGenerator;
+import burlap.oomdp.core.Domain;
+
+/**
+ * Runs independent learning trials for several kinds of learning agents
+ * concurrently and writes the steps and reward of every episode to a CSV file.
+ * <p/>
+ * Each kind of agent is described by a {@link TrialSetup}, which generates a
+ * new domain for every trial and the {@link LearningAgentFactory} and initial
+ * state generator for that domain, so that trials share no mutable domain
+ * state. Before a trial builds its domain and agent, its thread is given its
+ * own {@link burlap.debugtools.RandomFactory} whose generators are seeded from
+ * the base seed of the runner and the agent and trial indices. Since objects
+ * typically retrieve their random generators from the factory when they are
+ * constructed, every trial is reproducible regardless of how trials are
+ * scheduled over threads.
+ * <p/>
+ * Trials record their results in memory, and the calling thread writes each
+ * trial's rows to the CSV file when the trial finishes, so worker threads
+ * never contend for the output. The CSV file has the columns
+ * <code>agent,trial,episode,steps,reward</code>; rows are grouped by trial in
+ * the order trials finish.
+ *
+ */
+public class ParallelTrialRunner {
+
+    /**
+     * Describes how to set up the trials of one kind of learning agent.
+     *
+     */
+    public static interface TrialSetup {
+
+	/**
+	 * Returns a new domain for a trial. The domain must not share mutable
+	 * state with the domains of other trials.
+	 *
+	 * @return a new domain
+	 */
+	public Domain generateDomain();
+
+	/**
+	 * Returns a factory for the learning agent of a trial.
+	 *
+	 * @param domain
+	 *            the domain of the trial
+	 * @return a factory for learning agents in the domain
+	 */
+	public LearningAgentFactory getAgentFactory(Domain domain);
+
+	/**
+	 * Returns the generator of the initial state of each episode of a
+	 * trial.
+	 *
+	 * @param domain
+	 *            the domain of the trial
+	 * @return a generator of initial states in the domain
+	 */
+	public StateGenerator getStateGenerator(Domain domain);
+
+    }
+
+    /**
+     * The debug code used for printing progress
+     */
+    public static int debugCode = 7305;
+
+    protected List<TrialSetup> setups;
+    protected int numTrials;
+    protected int numEpisodes;
+    protected int maxEpisodeSize = -1;
+    protected long baseSeed;
+    protected int numThreads;
+
+    /**
+     * Initializes.
+     *
+     * @param setups
+     *            the setup of each kind of agent to test
+     * @param numTrials
+     *            the number of trials to run for each kind of agent
+     * @param numEpisodes
+     *            the number of learning episodes in each trial
+     * @param baseSeed
+     *            the seed from which the random generators of all trials are
+     *            derived
+     * @param numThreads
+     *            the number of threads on which to run trials
+     */
+    public ParallelTrialRunner(List<TrialSetup> setups, int numTrials,
+	    int numEpisodes, long baseSeed, int numThreads) {
+	this.setups = setups;
+	this.numTrials = numTrials;
+	this.numEpisodes = numEpisodes;
+	this.baseSeed = baseSeed;
+	this.numThreads = numThreads;
+    }
+
+    /**
+     * Sets the maximum number of steps of each learning episode.
+     *
+     * @param maxEpisodeSize
+     *            the maximum number of steps, or -1 to use the agents' own
+     *            limits
+     */
+    public void setMaxEpisodeSize(int maxEpisodeSize) {
+	this.maxEpisodeSize = maxEpisodeSize;
+    }
+
+    /**
+     * Returns the seed of the random generators of a trial.
+     *
+     * @param agentIndex
+     *            the index of the agent's setup
+     * @param trial
+     *            the trial number
+     * @return the seed of the random generators of the trial
+     */
+    public long trialSeed(int agentIndex, int trial) {
+	return baseSeed + 7919L * (agentIndex * (long) numTrials + trial);
+    }
+
+    /**
+     * Runs every trial and writes the results to a CSV file.
+     *
+     * @param csvFile
+     *            the file to which the results are written
+     * @throws IOException
+     *             if the file cannot be written
+     */
+    public void run(File csvFile) throws IOException {
+
+	ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+	ExecutorCompletionService<TrialResult> completion = new ExecutorCompletionService<TrialResult>(
+		executor);
+	BufferedWriter out = new BufferedWriter(new FileWriter(csvFile));
+
+	try {
+
+	    out.write("agent,trial,episode,steps,reward\n");
+
+	    int submitted = 0;
+	    for (int i = 0; i < setups.size(); i++) {
+		for (int t = 0; t < numTrials; t++) {
+		    completion.submit(new TrialTask(i, t));
+		    submitted++;
+		}
+	    }
+
+	    for (int n = 0; n < submitted; n++) {
+		TrialResult result = completion.take().get();
+		for (int e = 0; e < result.steps.length; e++) {
+		    out.write(result.agentName + "," + result.trial + ","
+			    + e + "," + result.steps[e] + ","
+			    + result.rewards[e] + "\n");
+		}
+		out.flush();
+		DPrint.cl(debugCode, "Finished trial " + result.trial + " of "
+			+ result.agentName + " (" + (n + 1) + "/" + submitted
+			+ ")");
+	    }
+
+	} catch (InterruptedException e) {
+	    Thread.currentThread().interrupt();
+	    throw new RuntimeException(e);
+	} catch (ExecutionException e) {
+	    throw new RuntimeException(e.getCause());
+	} finally {
+	    executor.shutdownNow();
+	    out.close();
+	}
+
+    }
+
+    /**
+     * Runs one trial on its own domain and random generators.
+     *
+     */
+    protected class TrialTask implements Callable<TrialResult> {
+
+	protected int agentIndex;
+	protected int trial;
+
+	public TrialTask(int agentIndex, int trial) {
+	    this.agentIndex = agentIndex;
+	    this.trial = trial;
+	}
+
+	@Override
+	public TrialResult call() {
+
+	    RandomFactory.setThreadFactory(new RandomFactory(trialSeed(
+		    agentIndex, trial)));
+	    try {
+
+		TrialSetup setup = setups.get(agentIndex);
+		Domain domain = setup.generateDomain();
+		LearningAgentFactory factory = setup.getAgentFactory(domain);
+		StateGenerator sg = setup.getStateGenerator(domain);
+		LearningAgent agent = factory.generateAgent();
+
+		TrialResult result = new TrialResult(factory.getAgentName(),
+			trial, numEpisodes);
+		for (int e = 0; e < numEpisodes; e++) {
+		    EpisodeAnalysis ea;
+		    if (maxEpisodeSize > 0) {
+			ea = agent.runLearningEpisodeFrom(sg.generateState(),
+				maxEpisodeSize);
+		    } else {
+			ea = agent.runLearningEpisodeFrom(sg.generateState());
+		    }
+		    result.steps[e] = ea.numTimeSteps();
+		    double reward = 0.;
+		    for (double r : ea.rewardSequence) {
+			reward += r;
+		    }
+		    result.rewards[e] = reward;
+		}
+
+		return result;
+
+	    } finally {
+		RandomFactory.setThreadFactory(null);
+	    }
+
+	}
+
+    }
+
+    /**
+     * The steps and reward of each episode of a trial.
+     *
+     */
+    protected static class TrialResult {
+
+	protected String agentName;
+	protected int trial;
+	protected int[] steps;
+	protected double[] rewards;
+
+	public TrialResult(String agentName, int trial, int numEpisodes) {
+	    this.agentName = agentName;
+	    this.trial = trial;
+	    this.steps = new int[numEpisodes];
+	    this.rewards = new double[numEpisodes];
+	}
+
+    }
+
+}
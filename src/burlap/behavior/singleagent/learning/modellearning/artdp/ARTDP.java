@@ -10,6 +10,7 @@ import burlap.behavior.singleagent.ValueFunctionInitialization;
 import burlap.behavior.singleagent.learning.LearningAgent;
 import burlap.behavior.singleagent.learning.modellearning.Model;
 import burlap.behavior.singleagent.learning.modellearning.ModeledDomainGenerator;
+import burlap.behavior.singleagent.learning.modellearning.modelplanners.PredecessorSweeper;
 import burlap.behavior.singleagent.learning.modellearning.models.TabularModel;
 import burlap.behavior.singleagent.planning.OOMDPPlanner;
 import burlap.behavior.singleagent.planning.PlannerDerivedPolicy;
@@ -17,6 +18,7 @@ import burlap.behavior.singleagent.planning.QComputablePlanner;
 import burlap.behavior.singleagent.planning.ValueFunctionPlanner;
 import burlap.behavior.singleagent.planning.commonpolicies.BoltzmannQPolicy;
 import burlap.behavior.statehashing.StateHashFactory;
+import burlap.behavior.statehashing.StateHashTuple;
 import burlap.oomdp.core.AbstractGroundedAction;
 import burlap.oomdp.core.Domain;
 import burlap.oomdp.core.State;
@@ -78,6 +80,12 @@ public class ARTDP extends OOMDPPlanner implements QComputablePlanner,
      */
     protected int numEpisodesToStore = 1;
 
+    /**
+     * Propagates value changes to the predecessors of updated states; null if
+     * only the current state is updated after each step
+     */
+    protected PredecessorSweeper sweeper;
+
     /**
      * Initializes using a tabular model of the world and a Boltzmann policy
      * with a fixed temperature of 0.1.
@@ -207,6 +215,31 @@ public class ARTDP extends OOMDPPlanner implements QComputablePlanner,
 
     }
 
+    /**
+     * Enables or disables predecessor sweeping. By default, ARTDP performs a
+     * single Bellman update on the current state after each step. With
+     * predecessor sweeping, every observed transition is recorded as a
+     * predecessor link, and after each step a {@link PredecessorSweeper}
+     * propagates the change in the current state's value backward through the
+     * observed predecessors, so that the effect of new experience reaches the
+     * states that lead to it without re-solving the whole model.
+     * 
+     * @param maxDelta
+     *            value changes smaller than this are not propagated to
+     *            predecessors
+     * @param maxBackupsPerStep
+     *            the maximum number of Bellman updates after each step; a
+     *            value of 0 or less disables predecessor sweeping
+     */
+    public void setPredecessorSweeping(double maxDelta, int maxBackupsPerStep) {
+	if (maxBackupsPerStep > 0) {
+	    this.sweeper = new PredecessorSweeper(this.modelPlanner,
+		    this.gamma, maxDelta, maxBackupsPerStep);
+	} else {
+	    this.sweeper = null;
+	}
+    }
+
     @Override
     public EpisodeAnalysis runLearningEpisodeFrom(State initialState) {
 	return this.runLearningEpisodeFrom(initialState, this.maxNumSteps);
@@ -230,7 +263,15 @@ public class ARTDP extends OOMDPPlanner implements QComputablePlanner,
 	    this.model.updateModel(curState, ga, nextState, r,
 		    this.tf.isTerminal(nextState));
 
-	    this.modelPlanner.performBellmanUpdateOn(curState);
+	    if (this.sweeper != null) {
+		StateHashTuple sh = this.hashingFactory.hashState(curState);
+		this.sweeper.addPredecessor(
+			this.hashingFactory.hashState(nextState), sh);
+		this.sweeper.stateChanged(sh);
+		this.sweeper.sweep();
+	    } else {
+		this.modelPlanner.performBellmanUpdateOn(curState);
+	    }
 
 	    curState = nextState;
 	    steps++;
@@ -307,6 +348,9 @@ public class ARTDP extends OOMDPPlanner implements QComputablePlanner,
     public void resetPlannerResults() {
 	this.model.resetModel();
 	this.modelPlanner.resetPlannerResults();
+	if (this.sweeper != null) {
+	    this.sweeper.clear();
+	}
 	this.episodeHistory.clear();
     }
 
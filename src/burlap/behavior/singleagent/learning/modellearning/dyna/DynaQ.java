@@ -0,0 +1,467 @@
+package burlap.behavior.singleagent.learning.modellearning.dyna;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import burlap.behavior.singleagent.Policy;
+import burlap.behavior.singleagent.ValueFunctionInitialization;
+import burlap.behavior.singleagent.learning.modellearning.models.TabularModel;
+import burlap.behavior.singleagent.learning.tdmethods.QLearning;
+import burlap.behavior.statehashing.StateHashFactory;
+import burlap.behavior.statehashing.StateHashTuple;
+import burlap.datastructures.HashIndexedHeap;
+import burlap.debugtools.RandomFactory;
+import burlap.oomdp.core.Domain;
+import burlap.oomdp.core.State;
+import burlap.oomdp.core.TerminalFunction;
+import burlap.oomdp.singleagent.GroundedAction;
+import burlap.oomdp.singleagent.RewardFunction;
+
+/**
+ * An implementation of Dyna-Q [1]. After each real step, the agent performs a
+ * Q-learning update from the observed transition, records the transition in a
+ * {@link TabularModel}, and then performs simulated Q-learning updates from
+ * transitions sampled from the model with
+ * {@link TabularModel#sampleModelHelper(State, GroundedAction)}.
+ * <p/>
+ * By default, each simulated update is for a state-action pair drawn uniformly
+ * from the pairs observed so far. If prioritized sweeping [2] is enabled with
+ * {@link #setPrioritizedSweeping(double)}, pairs are instead taken from a
+ * priority queue ordered by the magnitude of their expected TD error: the
+ * observed pair is queued with the magnitude of its real TD error, and after
+ * each simulated update, the observed predecessors of the updated state are
+ * queued with the magnitude of the TD error the update gives them. Planning
+ * after a step stops early when no queued pair has a priority of at least the
+ * threshold.
+ * <p/>
+ * The compute spent planning after each real step is bounded by a maximum
+ * number of simulated updates and, optionally, by a time budget, which lets
+ * the agent trade computation for fewer real interactions. Options are
+ * learned from with direct updates only, since the model only records
+ * primitive actions.
+ * <p/>
+ * 1. Sutton, Richard S.
+ * "Integrated architectures for learning, planning, and reacting based on approximating dynamic programming."
+ * ICML 1990: 216-224. <br/>
+ * 2. Moore, Andrew W., and Christopher G. Atkeson.
+ * "Prioritized sweeping: Reinforcement learning with less data and less time."
+ * Machine Learning 13.1 (1993): 103-130.
+ *
+ */
+public class DynaQ extends QLearning {
+
+    /**
+     * The learned model of the world
+     */
+    protected TabularModel model;
+
+    /**
+     * The maximum number of simulated updates after each real step
+     */
+    protected int numPlanningBackups;
+
+    /**
+     * The maximum time spent on simulated updates after each real step in
+     * nanoseconds, or -1 for no time limit
+     */
+    protected long planningTimePerStep = -1;
+
+    /**
+     * The queue of state-action pairs to update; null if prioritized sweeping
+     * is disabled
+     */
+    protected HashIndexedHeap<SANode> queue;
+
+    /**
+     * The smallest priority with which a state-action pair is queued
+     */
+    protected double priorityThreshold;
+
+    /**
+     * The node of each observed state-action pair, indexed by state and then
+     * action
+     */
+    protected Map<StateHashTuple, Map<GroundedAction, SANode>> nodes = new HashMap<StateHashTuple, Map<GroundedAction, SANode>>();
+
+    /**
+     * The observed state-action pairs, from which pairs are sampled uniformly
+     */
+    protected List<SANode> observedPairs = new ArrayList<SANode>();
+
+    /**
+     * The observed state-action pairs that have led to each state
+     */
+    protected Map<StateHashTuple, Set<SANode>> predecessors = new HashMap<StateHashTuple, Set<SANode>>();
+
+    /**
+     * The total number of simulated updates performed
+     */
+    protected int numModelBackups = 0;
+
+    protected Random rand = RandomFactory.getMapped(0);
+
+    /**
+     * Initializes with a 0.1 epsilon greedy policy, the same Q-value
+     * initialization everywhere, and no limit on the number of steps the agent
+     * can take in an episode.
+     *
+     * @param domain
+     *            the domain in which to learn
+     * @param rf
+     *            the reward function
+     * @param tf
+     *            the terminal function
+     * @param gamma
+     *            the discount factor
+     * @param hashingFactory
+     *            the state hashing factory to use for Q-lookups and the model
+     * @param qInit
+     *            the initial Q-value to use everywhere
+     * @param learningRate
+     *            the learning rate
+     * @param numPlanningBackups
+     *            the maximum number of simulated updates after each real step
+     */
+    public DynaQ(Domain domain, RewardFunction rf, TerminalFunction tf,
+	    double gamma, StateHashFactory hashingFactory, double qInit,
+	    double learningRate, int numPlanningBackups) {
+	super(domain, rf, tf, gamma, hashingFactory, qInit, learningRate);
+	this.dynaInit(numPlanningBackups);
+    }
+
+    /**
+     * Initializes.
+     *
+     * @param domain
+     *            the domain in which to learn
+     * @param rf
+     *            the reward function
+     * @param tf
+     *            the terminal function
+     * @param gamma
+     *            the discount factor
+     * @param hashingFactory
+     *            the state hashing factory to use for Q-lookups and the model
+     * @param qInit
+     *            a
+     *            {@link burlap.behavior.singleagent.ValueFunctionInitialization}
+     *            object that can be used to initialize the Q-values.
+     * @param learningRate
+     *            the learning rate
+     * @param learningPolicy
+     *            the learning policy to follow during a learning episode.
+     * @param maxEpisodeSize
+     *            the maximum number of steps the agent will take in a learning
+     *            episode for the agent stops trying.
+     * @param numPlanningBackups
+     *            the maximum number of simulated updates after each real step
+     */
+    public DynaQ(Domain domain, RewardFunction rf, TerminalFunction tf,
+	    double gamma, StateHashFactory hashingFactory,
+	    ValueFunctionInitialization qInit, double learningRate,
+	    Policy learningPolicy, int maxEpisodeSize, int numPlanningBackups) {
+	super(domain, rf, tf, gamma, hashingFactory, qInit, learningRate,
+		learningPolicy, maxEpisodeSize);
+	this.dynaInit(numPlanningBackups);
+    }
+
+    protected void dynaInit(int numPlanningBackups) {
+	this.model = new TabularModel(this.domain, this.hashingFactory, 1);
+	this.numPlanningBackups = numPlanningBackups;
+    }
+
+    /**
+     * Returns the learned model of the world.
+     *
+     * @return the learned model of the world.
+     */
+    public TabularModel getModel() {
+	return this.model;
+    }
+
+    /**
+     * Sets the maximum number of simulated updates after each real step.
+     *
+     * @param numPlanningBackups
+     *            the maximum number of simulated updates after each real step
+     */
+    public void setNumPlanningBackups(int numPlanningBackups) {
+	this.numPlanningBackups = numPlanningBackups;
+    }
+
+    /**
+     * Sets the maximum time spent on simulated updates after each real step.
+     * Planning stops at whichever of this limit and the maximum number of
+     * simulated updates is reached first.
+     *
+     * @param micros
+     *            the time limit in microseconds, or -1 for no time limit
+     */
+    public void setPlanningTimeBudget(long micros) {
+	this.planningTimePerStep = micros > 0 ? micros * 1000L : -1;
+    }
+
+    /**
+     * Enables or disables prioritized sweeping. Any pairs currently queued
+     * are discarded.
+     *
+     * @param priorityThreshold
+     *            the smallest priority with which a state-action pair is
+     *            queued, or a negative value to disable prioritized sweeping
+     *            and sample observed pairs uniformly
+     */
+    public void setPrioritizedSweeping(double priorityThreshold) {
+	if (priorityThreshold >= 0.) {
+	    this.queue = new HashIndexedHeap<SANode>(new SANodeComparator());
+	    this.priorityThreshold = priorityThreshold;
+	    for (SANode node : this.observedPairs) {
+		node.priority = 0.;
+	    }
+	} else {
+	    this.queue = null;
+	}
+    }
+
+    /**
+     * Returns the total number of simulated updates performed.
+     *
+     * @return the total number of simulated updates performed.
+     */
+    public int getNumModelBackups() {
+	return this.numModelBackups;
+    }
+
+    /**
+     * Not supported, since the model already lets every observed transition
+     * be used for many updates.
+     */
+    @Override
+    public void setExperienceReplay(int capacity, int batchSize) {
+	if (capacity > 0) {
+	    throw new UnsupportedOperationException(
+		    "DynaQ does not support experience replay");
+	}
+    }
+
+    /**
+     * Performs the direct Q-learning update of the step and, for a primitive
+     * action, updates the model with the observed transition, queues the
+     * pair if prioritized sweeping is used and plans from the model.
+     */
+    @Override
+    protected void learnFromStep(StateHashTuple s, GroundedAction a,
+	    double r, double discount, StateHashTuple nextState,
+	    boolean terminal) {
+
+	// direct update
+	double tdError = this.backup(s, a, r, discount, terminal ? null
+		: nextState);
+
+	if (a.action.isPrimitive()) {
+	    this.model.updateModel(s.s, a, nextState.s, r, terminal);
+	    SANode node = this.recordPair(s, a, nextState);
+	    if (this.queue != null) {
+		this.prioritize(node, Math.abs(tdError));
+	    }
+	    this.planFromModel();
+	}
+
+    }
+
+    /**
+     * Performs simulated updates from the model until the maximum number of
+     * updates or the time budget is reached or, with prioritized sweeping,
+     * until no queued pair has a priority of at least the threshold.
+     */
+    protected void planFromModel() {
+
+	if (this.observedPairs.size() == 0) {
+	    return;
+	}
+
+	long deadline = -1;
+	if (this.planningTimePerStep > 0) {
+	    deadline = System.nanoTime() + this.planningTimePerStep;
+	}
+
+	for (int i = 0; i < this.numPlanningBackups; i++) {
+
+	    if (deadline != -1 && System.nanoTime() >= deadline) {
+		break;
+	    }
+
+	    SANode node;
+	    if (this.queue != null) {
+		if (this.queue.size() == 0
+			|| this.queue.peek().priority < this.priorityThreshold) {
+		    break;
+		}
+		node = this.queue.poll();
+		node.priority = 0.;
+	    } else {
+		node = this.observedPairs.get(this.rand
+			.nextInt(this.observedPairs.size()));
+	    }
+
+	    // the tabular model does not modify the source state, so the
+	    // stored state does not need to be copied
+	    State sp = this.model.sampleModelHelper(node.sh.s, node.ga);
+	    double r = this.model.getModelRF().reward(node.sh.s, node.ga, sp);
+	    StateHashTuple sph = null;
+	    if (!this.tf.isTerminal(sp)) {
+		sph = this.stateHash(sp);
+	    }
+
+	    this.backup(node.sh, node.ga, r, this.gamma, sph);
+	    this.numModelBackups++;
+
+	    if (this.queue != null) {
+		this.prioritizePredecessors(node.sh);
+	    }
+
+	}
+
+    }
+
+    /**
+     * Queues the observed predecessors of a state whose Q-values changed
+     * with the magnitude of their TD error under the model's expected
+     * reward.
+     *
+     * @param sh
+     *            the state whose Q-values changed
+     */
+    protected void prioritizePredecessors(StateHashTuple sh) {
+
+	Set<SANode> preds = this.predecessors.get(sh);
+	if (preds == null) {
+	    return;
+	}
+
+	double v = this.getMaxQ(sh);
+	for (SANode pred : preds) {
+	    double r = this.model.getModelRF().reward(pred.sh.s, pred.ga, sh.s);
+	    double tdError = r + this.gamma * v
+		    - this.getQ(pred.sh, pred.ga).q;
+	    this.prioritize(pred, Math.abs(tdError));
+	}
+
+    }
+
+    /**
+     * Inserts a state-action pair into the queue or raises its priority if
+     * the given priority is at least the threshold.
+     *
+     * @param node
+     *            the state-action pair
+     * @param priority
+     *            the new priority
+     */
+    protected void prioritize(SANode node, double priority) {
+
+	if (priority < this.priorityThreshold) {
+	    return;
+	}
+
+	if (this.queue.containsInstance(node) != null) {
+	    if (priority > node.priority) {
+		node.priority = priority;
+		this.queue.refreshPriority(node);
+	    }
+	} else {
+	    node.priority = priority;
+	    this.queue.insert(node);
+	}
+
+    }
+
+    /**
+     * Returns the node of an observed state-action pair, creating it if the
+     * pair has not been observed before, and records the pair as a
+     * predecessor of the next state.
+     *
+     * @param sh
+     *            the hashed state
+     * @param ga
+     *            the action taken
+     * @param nextState
+     *            the hashed next state
+     * @return the node of the state-action pair
+     */
+    protected SANode recordPair(StateHashTuple sh, GroundedAction ga,
+	    StateHashTuple nextState) {
+
+	Map<GroundedAction, SANode> actionNodes = this.nodes.get(sh);
+	if (actionNodes == null) {
+	    actionNodes = new HashMap<GroundedAction, SANode>();
+	    this.nodes.put(sh, actionNodes);
+	}
+	SANode node = actionNodes.get(ga);
+	if (node == null) {
+	    node = new SANode(sh, ga);
+	    actionNodes.put(ga, node);
+	    this.observedPairs.add(node);
+	}
+
+	Set<SANode> preds = this.predecessors.get(nextState);
+	if (preds == null) {
+	    preds = new LinkedHashSet<SANode>();
+	    this.predecessors.put(nextState, preds);
+	}
+	preds.add(node);
+
+	return node;
+
+    }
+
+    @Override
+    public void resetPlannerResults() {
+	super.resetPlannerResults();
+	this.model.resetModel();
+	this.nodes.clear();
+	this.observedPairs.clear();
+	this.predecessors.clear();
+	if (this.queue != null) {
+	    this.queue = new HashIndexedHeap<SANode>(new SANodeComparator());
+	}
+	this.numModelBackups = 0;
+    }
+
+    /**
+     * An observed state-action pair and its priority. Nodes use identity
+     * equality, so there is exactly one node for each pair.
+     *
+     */
+    protected static class SANode {
+
+	protected StateHashTuple sh;
+	protected GroundedAction ga;
+	protected double priority;
+
+	public SANode(StateHashTuple sh, GroundedAction ga) {
+	    this.sh = sh;
+	    this.ga = ga;
+	}
+
+    }
+
+    /**
+     * Orders {@link SANode} objects by their priority.
+     *
+     */
+    protected static class SANodeComparator implements Comparator<SANode> {
+
+	@Override
+	public int compare(SANode o1, SANode o2) {
+	    return Double.compare(o1.priority, o2.priority);
+	}
+
+    }
+
+}
@@ -0,0 +1,255 @@
+package burlap.behavior.singleagent.learning.modellearning.modelplanners;
+
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Set;
+
+import burlap.behavior.singleagent.Policy;
+import burlap.behavior.singleagent.learning.modellearning.ModelPlanner;
+import burlap.behavior.singleagent.planning.ValueFunctionPlanner;
+import burlap.behavior.singleagent.planning.commonpolicies.GreedyQPolicy;
+import burlap.behavior.statehashing.StateHashFactory;
+import burlap.behavior.statehashing.StateHashTuple;
+import burlap.oomdp.core.AbstractGroundedAction;
+import burlap.oomdp.core.Domain;
+import burlap.oomdp.core.State;
+import burlap.oomdp.core.TerminalFunction;
+import burlap.oomdp.core.TransitionProbability;
+import burlap.oomdp.singleagent.GroundedAction;
+import burlap.oomdp.singleagent.RewardFunction;
+
+/**
+ * A model planner that, unlike {@link VIModelPlanner}, does not re-solve the
+ * whole model when it changes. It keeps one value function over the states
+ * known to be reachable in the model and the predecessor links between them.
+ * When the model changes for a state, only that state's outgoing transitions
+ * are re-examined: new successor states are added to the known states (along
+ * with any states newly reachable from them), and a {@link PredecessorSweeper}
+ * propagates the resulting value changes backward through the predecessor
+ * links. Each change performs at most a fixed number of Bellman updates, so
+ * the planning cost per step is bounded by the size of the change rather than
+ * by the size of the model.
+ *
+ */
+public class IncrementalVIModelPlanner implements ModelPlanner {
+
+    /**
+     * The planner holding the value function of the model
+     */
+    protected ValueFunctionPlanner planner;
+
+    /**
+     * Propagates value changes backward through the model
+     */
+    protected PredecessorSweeper sweeper;
+
+    /**
+     * The greedy policy of the value function
+     */
+    protected Policy modelPolicy;
+
+    /**
+     * the model domain
+     */
+    protected Domain domain;
+
+    /**
+     * The model termination function
+     */
+    protected TerminalFunction tf;
+
+    /**
+     * The hashing factory to use
+     */
+    protected StateHashFactory hashingFactory;
+
+    /**
+     * The states known to be reachable in the model
+     */
+    protected Set<StateHashTuple> knownStates = new HashSet<StateHashTuple>();
+
+    /**
+     * Initializes
+     *
+     * @param domain
+     *            model domain
+     * @param rf
+     *            model reward funciton
+     * @param tf
+     *            model termination function
+     * @param gamma
+     *            discount factor
+     * @param hashingFactory
+     *            the hashing factory
+     * @param maxDelta
+     *            value changes smaller than this are not propagated to
+     *            predecessors
+     * @param maxBackupsPerChange
+     *            the maximum number of Bellman updates after each model change
+     */
+    public IncrementalVIModelPlanner(Domain domain, RewardFunction rf,
+	    TerminalFunction tf, double gamma, StateHashFactory hashingFactory,
+	    double maxDelta, int maxBackupsPerChange) {
+
+	this.domain = domain;
+	this.tf = tf;
+	this.hashingFactory = hashingFactory;
+
+	this.planner = new ModelVFPlanner(domain, rf, tf, gamma, hashingFactory);
+	this.sweeper = new PredecessorSweeper(this.planner, gamma, maxDelta,
+		maxBackupsPerChange);
+	this.modelPolicy = new ExpandIfUnseenPolicy(new GreedyQPolicy(
+		this.planner));
+    }
+
+    @Override
+    public void initializePlannerIn(State s) {
+	StateHashTuple sh = this.hashingFactory.hashState(s);
+	if (!this.knownStates.contains(sh)) {
+	    this.expandFrom(sh);
+	    this.sweeper.sweep();
+	}
+    }
+
+    @Override
+    public void modelChanged(State changedState) {
+	StateHashTuple sh = this.hashingFactory.hashState(changedState);
+	this.expandFrom(sh);
+	this.sweeper.stateChanged(sh);
+	this.sweeper.sweep();
+    }
+
+    @Override
+    public Policy modelPlannedPolicy() {
+	return this.modelPolicy;
+    }
+
+    @Override
+    public void resetPlanner() {
+	this.planner.resetPlannerResults();
+	this.sweeper.clear();
+	this.knownStates.clear();
+    }
+
+    /**
+     * Returns the object that propagates value changes through the model.
+     *
+     * @return the object that propagates value changes through the model.
+     */
+    public PredecessorSweeper getSweeper() {
+	return this.sweeper;
+    }
+
+    /**
+     * Links a state to its current successors in the model and adds every
+     * state that is newly reachable from it to the known states. Newly known
+     * states are queued for a Bellman update.
+     *
+     * @param sh
+     *            the state whose successors are examined
+     */
+    protected void expandFrom(StateHashTuple sh) {
+
+	if (this.knownStates.add(sh)) {
+	    this.sweeper.stateChanged(sh);
+	}
+
+	LinkedList<StateHashTuple> openList = new LinkedList<StateHashTuple>();
+	openList.offer(sh);
+	while (openList.size() > 0) {
+
+	    StateHashTuple cur = openList.poll();
+	    if (this.tf.isTerminal(cur.s)) {
+		continue;
+	    }
+
+	    List<GroundedAction> gas = cur.s
+		    .getAllGroundedActionsFor(this.domain.getActions());
+	    for (GroundedAction ga : gas) {
+		for (TransitionProbability tp : ga.action.getTransitions(cur.s,
+			ga.params)) {
+		    StateHashTuple next = this.hashingFactory.hashState(tp.s);
+		    this.sweeper.addPredecessor(next, cur);
+		    if (this.knownStates.add(next)) {
+			this.sweeper.stateChanged(next);
+			openList.offer(next);
+		    }
+		}
+	    }
+
+	}
+
+    }
+
+    /**
+     * The value function planner that operates on the modeled world.
+     *
+     */
+    protected static class ModelVFPlanner extends ValueFunctionPlanner {
+
+	public ModelVFPlanner(Domain domain, RewardFunction rf,
+		TerminalFunction tf, double gamma,
+		StateHashFactory hashingFactory) {
+	    VFPInit(domain, rf, tf, gamma, hashingFactory);
+
+	    // don't cache transition dynamics because the learned model keeps
+	    // changing
+	    this.useCachedTransitions = false;
+	}
+
+	@Override
+	public void planFromState(State initialState) {
+	    throw new UnsupportedOperationException(
+		    "This method should not be called for the inner model planner");
+	}
+
+    }
+
+    /**
+     * A policy that expands the known states and sweeps if the state is
+     * unknown.
+     *
+     */
+    protected class ExpandIfUnseenPolicy extends Policy {
+
+	/**
+	 * The source policy to follow for known states
+	 */
+	protected Policy p;
+
+	/**
+	 * Initializes with a given source policy
+	 *
+	 * @param p
+	 *            the source policy
+	 */
+	public ExpandIfUnseenPolicy(Policy p) {
+	    this.p = p;
+	}
+
+	@Override
+	public AbstractGroundedAction getAction(State s) {
+	    IncrementalVIModelPlanner.this.initializePlannerIn(s);
+	    return p.getAction(s);
+	}
+
+	@Override
+	public List<ActionProb> getActionDistributionForState(State s) {
+	    IncrementalVIModelPlanner.this.initializePlannerIn(s);
+	    return p.getActionDistributionForState(s);
+	}
+
+	@Override
+	public boolean isStochastic() {
+	    return p.isStochastic();
+	}
+
+	@Override
+	public boolean isDefinedFor(State s) {
+	    return p.isDefinedFor(s);
+	}
+
+    }
+
+}
@@ -0,0 +1,244 @@
+package burlap.behavior.singleagent.learning.modellearning.modelplanners;
+
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+import burlap.behavior.singleagent.planning.ValueFunctionPlanner;
+import burlap.behavior.statehashing.StateHashTuple;
+import burlap.datastructures.HashIndexedHeap;
+
+/**
+ * Incrementally repairs the value function of a {@link ValueFunctionPlanner}
+ * after its model changes, by propagating value changes backward through
+ * predecessor links in order of priority, as in prioritized sweeping. The
+ * states whose outgoing transitions changed are queued with infinite priority;
+ * whenever a Bellman update changes the value of a state by delta, its
+ * predecessors are queued (or have their priority raised) with priority
+ * gamma * delta if that is at least maxDelta.
+ * <p/>
+ * Each call to {@link #sweep()} performs at most a fixed number of Bellman
+ * updates, so the planning cost per model change is bounded by the size of
+ * the change rather than by the size of the model. Queued states that were
+ * not updated because the limit was reached remain queued for the next sweep.
+ * <p/>
+ * Predecessor links are only ever added, since a learned model only gains
+ * outcomes; a stale link only causes an unnecessary Bellman update.
+ *
+ */
+public class PredecessorSweeper {
+
+    /**
+     * The planner whose value function is repaired
+     */
+    protected ValueFunctionPlanner planner;
+
+    /**
+     * The discount factor
+     */
+    protected double gamma;
+
+    /**
+     * The smallest priority with which a state is queued
+     */
+    protected double maxDelta;
+
+    /**
+     * The maximum number of Bellman updates per sweep
+     */
+    protected int maxBackups;
+
+    /**
+     * The known predecessors of each state
+     */
+    protected Map<StateHashTuple, Set<StateHashTuple>> predecessors = new HashMap<StateHashTuple, Set<StateHashTuple>>();
+
+    /**
+     * The heap node of each state that has been queued
+     */
+    protected Map<StateHashTuple, SweepNode> nodes = new HashMap<StateHashTuple, SweepNode>();
+
+    protected HashIndexedHeap<SweepNode> queue = new HashIndexedHeap<SweepNode>(
+	    new SweepNodeComparator());
+
+    /**
+     * The number of Bellman updates performed in the last sweep
+     */
+    protected int numBackups = 0;
+
+    /**
+     * Initializes.
+     *
+     * @param planner
+     *            the planner whose value function is repaired
+     * @param gamma
+     *            the discount factor
+     * @param maxDelta
+     *            the smallest priority with which a state is queued
+     * @param maxBackups
+     *            the maximum number of Bellman updates per sweep
+     */
+    public PredecessorSweeper(ValueFunctionPlanner planner, double gamma,
+	    double maxDelta, int maxBackups) {
+	this.planner = planner;
+	this.gamma = gamma;
+	this.maxDelta = maxDelta;
+	this.maxBackups = maxBackups;
+    }
+
+    /**
+     * Records that a state is a predecessor of another state.
+     *
+     * @param sh
+     *            the successor state
+     * @param pred
+     *            the predecessor state
+     * @return true if the link is new; false if it was already known.
+     */
+    public boolean addPredecessor(StateHashTuple sh, StateHashTuple pred) {
+	Set<StateHashTuple> preds = this.predecessors.get(sh);
+	if (preds == null) {
+	    preds = new LinkedHashSet<StateHashTuple>();
+	    this.predecessors.put(sh, preds);
+	}
+	return preds.add(pred);
+    }
+
+    /**
+     * Queues a state whose outgoing transitions changed so that it is updated
+     * by the next sweep.
+     *
+     * @param sh
+     *            the changed state
+     */
+    public void stateChanged(StateHashTuple sh) {
+	this.prioritize(sh, Double.POSITIVE_INFINITY);
+    }
+
+    /**
+     * Performs Bellman updates in order of priority until no queued state has
+     * a priority of at least maxDelta or the maximum number of updates has
+     * been performed.
+     *
+     * @return the number of Bellman updates performed
+     */
+    public int sweep() {
+
+	this.numBackups = 0;
+	while (this.queue.size() > 0 && this.numBackups < this.maxBackups) {
+
+	    SweepNode top = this.queue.peek();
+	    if (top.priority < this.maxDelta) {
+		break;
+	    }
+
+	    this.queue.poll();
+	    top.priority = 0.;
+
+	    double v = this.planner.value(top.sh);
+	    double nv = this.planner.performBellmanUpdateOn(top.sh.s);
+	    this.numBackups++;
+
+	    double priority = this.gamma * Math.abs(nv - v);
+	    if (priority < this.maxDelta) {
+		continue;
+	    }
+
+	    Set<StateHashTuple> preds = this.predecessors.get(top.sh);
+	    if (preds != null) {
+		for (StateHashTuple p : preds) {
+		    this.prioritize(p, priority);
+		}
+	    }
+
+	}
+
+	return this.numBackups;
+
+    }
+
+    /**
+     * Returns the number of Bellman updates performed in the last sweep.
+     *
+     * @return the number of Bellman updates performed in the last sweep.
+     */
+    public int getLastNumBackups() {
+	return this.numBackups;
+    }
+
+    /**
+     * Returns the number of states waiting to be updated.
+     *
+     * @return the number of states waiting to be updated.
+     */
+    public int numQueued() {
+	return this.queue.size();
+    }
+
+    /**
+     * Removes all predecessor links and queued states.
+     */
+    public void clear() {
+	this.predecessors.clear();
+	this.nodes.clear();
+	this.queue = new HashIndexedHeap<SweepNode>(new SweepNodeComparator());
+    }
+
+    /**
+     * Inserts a state into the queue or raises its priority.
+     *
+     * @param sh
+     *            the state
+     * @param priority
+     *            the new priority
+     */
+    protected void prioritize(StateHashTuple sh, double priority) {
+	SweepNode node = this.nodes.get(sh);
+	if (node == null) {
+	    node = new SweepNode(sh);
+	    this.nodes.put(sh, node);
+	}
+	if (this.queue.containsInstance(node) != null) {
+	    if (priority > node.priority) {
+		node.priority = priority;
+		this.queue.refreshPriority(node);
+	    }
+	} else {
+	    node.priority = priority;
+	    this.queue.insert(node);
+	}
+    }
+
+    /**
+     * A heap node for a state and its current priority. Nodes use identity
+     * equality, so there is exactly one node for each state.
+     *
+     */
+    protected static class SweepNode {
+
+	protected StateHashTuple sh;
+	protected double priority;
+
+	public SweepNode(StateHashTuple sh) {
+	    this.sh = sh;
+	}
+
+    }
+
+    /**
+     * Orders {@link SweepNode} objects by their priority.
+     *
+     */
+    protected static class SweepNodeComparator implements
+	    Comparator<SweepNode> {
+
+	@Override
+	public int compare(SweepNode o1, SweepNode o2) {
+	    return Double.compare(o1.priority, o2.priority);
+	}
+
+    }
+
+}
@@ -10,6 +10,7 @@ import burlap.behavior.singleagent.learning.modellearning.Model;
 import burlap.behavior.singleagent.learning.modellearning.ModelPlanner;
 import burlap.behavior.singleagent.learning.modellearning.ModelPlanner.ModelPlannerGenerator;
 import burlap.behavior.singleagent.learning.modellearning.ModeledDomainGenerator;
+import burlap.behavior.singleagent.learning.modellearning.modelplanners.IncrementalVIModelPlanner;
 import burlap.behavior.singleagent.learning.modellearning.modelplanners.VIModelPlanner;
 import burlap.behavior.singleagent.learning.modellearning.models.TabularModel;
 import burlap.behavior.singleagent.planning.OOMDPPlanner;
@@ -216,6 +217,25 @@ public class PotentialShapedRMax extends OOMDPPlanner implements LearningAgent {
 
     }
 
+    /**
+     * Replaces the model planner with an {@link IncrementalVIModelPlanner},
+     * which repairs the value function after each model change by propagating
+     * value changes backward from the changed state, instead of re-solving the
+     * whole model. Any previous planning results are discarded.
+     * 
+     * @param maxDelta
+     *            value changes smaller than this are not propagated to
+     *            predecessors
+     * @param maxBackupsPerChange
+     *            the maximum number of Bellman updates after each model change
+     */
+    public void useIncrementalReplanning(double maxDelta,
+	    int maxBackupsPerChange) {
+	this.modelPlanner = new IncrementalVIModelPlanner(modeledDomain,
+		modeledRewardFunction, modeledTerminalFunction, gamma,
+		hashingFactory, maxDelta, maxBackupsPerChange);
+    }
+
     @Override
     public EpisodeAnalysis runLearningEpisodeFrom(State initialState) {
 	return this.runLearningEpisodeFrom(initialState, maxNumSteps);
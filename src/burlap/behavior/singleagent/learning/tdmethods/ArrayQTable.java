@@ -0,0 +1,305 @@
+package burlap.behavior.singleagent.learning.tdmethods;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import burlap.behavior.statehashing.StateHashTuple;
+import burlap.oomdp.singleagent.GroundedAction;
+
+/**
+ * A tabular Q-function stored in primitive arrays. Each hashed state is
+ * assigned a row of consecutive entries in one <code>double</code> array of
+ * Q-values, and each grounded action is assigned an integer id, so that once a
+ * state's row exists, reading, writing and maximizing its Q-values requires no
+ * object allocation. Entries are addressed by their index in the Q-value
+ * array; {@link #entry(int, int)} finds the entry of an action in a row.
+ *
+ */
+public class ArrayQTable {
+
+    /**
+     * The row of each hashed state
+     */
+    protected Map<StateHashTuple, Integer> rowIndex = new HashMap<StateHashTuple, Integer>();
+
+    /**
+     * The hashed state of each row
+     */
+    protected List<StateHashTuple> rowStates = new ArrayList<StateHashTuple>();
+
+    /**
+     * The index of the first entry of each row
+     */
+    protected int[] rowStart = new int[64];
+
+    /**
+     * The number of entries of each row
+     */
+    protected int[] rowLength = new int[64];
+
+    /**
+     * The Q-value of each entry
+     */
+    protected double[] q = new double[256];
+
+    /**
+     * The action id of each entry
+     */
+    protected int[] entryAction = new int[256];
+
+    /**
+     * The number of entries in use
+     */
+    protected int numEntries = 0;
+
+    /**
+     * The grounded action of each action id
+     */
+    protected List<GroundedAction> actions = new ArrayList<GroundedAction>();
+
+    /**
+     * The id of each grounded action
+     */
+    protected Map<GroundedAction, Integer> actionIds = new HashMap<GroundedAction, Integer>();
+
+    /**
+     * Returns the number of rows.
+     *
+     * @return the number of rows.
+     */
+    public int numRows() {
+	return rowStates.size();
+    }
+
+    /**
+     * Returns the row of the given hashed state, or -1 if it has none.
+     *
+     * @param sh
+     *            the hashed state
+     * @return the row of the hashed state, or -1 if it has none.
+     */
+    public int row(StateHashTuple sh) {
+	Integer row = rowIndex.get(sh);
+	return row == null ? -1 : row;
+    }
+
+    /**
+     * Adds a row for a hashed state.
+     *
+     * @param sh
+     *            the hashed state, which must not already have a row
+     * @param gas
+     *            the grounded actions of the state, in the order their entries
+     *            should be stored
+     * @param values
+     *            the initial Q-value of each action
+     * @return the new row
+     */
+    public int addRow(StateHashTuple sh, List<GroundedAction> gas,
+	    double[] values) {
+
+	int row = rowStates.size();
+	if (row == rowStart.length) {
+	    rowStart = Arrays.copyOf(rowStart, row * 2);
+	    rowLength = Arrays.copyOf(rowLength, row * 2);
+	}
+	if (numEntries + gas.size() > q.length) {
+	    int capacity = Math.max(q.length * 2, numEntries + gas.size());
+	    q = Arrays.copyOf(q, capacity);
+	    entryAction = Arrays.copyOf(entryAction, capacity);
+	}
+
+	rowStart[row] = numEntries;
+	rowLength[row] = gas.size();
+	for (int i = 0; i < gas.size(); i++) {
+	    q[numEntries] = values[i];
+	    entryAction[numEntries] = this.actionId(gas.get(i));
+	    numEntries++;
+	}
+
+	rowStates.add(sh);
+	rowIndex.put(sh, row);
+
+	return row;
+
+    }
+
+    /**
+     * Returns the id of a grounded action, assigning it a new id if it does
+     * not have one.
+     *
+     * @param ga
+     *            the grounded action
+     * @return the id of the grounded action
+     */
+    public int actionId(GroundedAction ga) {
+	Integer id = actionIds.get(ga);
+	if (id == null) {
+	    id = actions.size();
+	    actions.add(ga);
+	    actionIds.put(ga, id);
+	}
+	return id;
+    }
+
+    /**
+     * Returns the grounded action with the given id.
+     *
+     * @param id
+     *            the action id
+     * @return the grounded action with the given id.
+     */
+    public GroundedAction action(int id) {
+	return actions.get(id);
+    }
+
+    /**
+     * Returns the hashed state of a row.
+     *
+     * @param row
+     *            the row
+     * @return the hashed state of the row
+     */
+    public StateHashTuple rowState(int row) {
+	return rowStates.get(row);
+    }
+
+    /**
+     * Returns the index of the first entry of a row.
+     *
+     * @param row
+     *            the row
+     * @return the index of the first entry of the row
+     */
+    public int rowStart(int row) {
+	return rowStart[row];
+    }
+
+    /**
+     * Returns the number of entries of a row.
+     *
+     * @param row
+     *            the row
+     * @return the number of entries of the row
+     */
+    public int rowLength(int row) {
+	return rowLength[row];
+    }
+
+    /**
+     * Returns the entry of an action in a row, or -1 if the row has no entry
+     * for the action.
+     *
+     * @param row
+     *            the row
+     * @param actionId
+     *            the action id
+     * @return the entry of the action in the row, or -1 if there is none.
+     */
+    public int entry(int row, int actionId) {
+	int end = rowStart[row] + rowLength[row];
+	for (int e = rowStart[row]; e < end; e++) {
+	    if (entryAction[e] == actionId) {
+		return e;
+	    }
+	}
+	return -1;
+    }
+
+    /**
+     * Returns the action id of an entry.
+     *
+     * @param entry
+     *            the entry
+     * @return the action id of the entry
+     */
+    public int entryAction(int entry) {
+	return entryAction[entry];
+    }
+
+    /**
+     * Returns the Q-value of an entry.
+     *
+     * @param entry
+     *            the entry
+     * @return the Q-value of the entry
+     */
+    public double get(int entry) {
+	return q[entry];
+    }
+
+    /**
+     * Sets the Q-value of an entry.
+     *
+     * @param entry
+     *            the entry
+     * @param value
+     *            the new Q-value
+     */
+    public void set(int entry, double value) {
+	q[entry] = value;
+    }
+
+    /**
+     * Returns the maximum Q-value of a row.
+     *
+     * @param row
+     *            the row
+     * @return the maximum Q-value of the row
+     */
+    public double maxQ(int row) {
+	double max = Double.NEGATIVE_INFINITY;
+	int end = rowStart[row] + rowLength[row];
+	for (int e = rowStart[row]; e < end; e++) {
+	    if (q[e] > max) {
+		max = q[e];
+	    }
+	}
+	return max;
+    }
+
+    /**
+     * Returns the entry of a row with the maximum Q-value, breaking ties
+     * uniformly at random.
+     *
+     * @param row
+     *            the row
+     * @param rand
+     *            the random number generator used to break ties
+     * @return the entry with the maximum Q-value
+     */
+    public int argMaxEntry(int row, Random rand) {
+	double max = this.maxQ(row);
+	int end = rowStart[row] + rowLength[row];
+	int nMax = 0;
+	for (int e = rowStart[row]; e < end; e++) {
+	    if (q[e] == max) {
+		nMax++;
+	    }
+	}
+	int selected = rand.nextInt(nMax);
+	for (int e = rowStart[row]; e < end; e++) {
+	    if (q[e] == max) {
+		if (selected == 0) {
+		    return e;
+		}
+		selected--;
+	    }
+	}
+	throw new RuntimeException("No maximum Q-value in row " + row);
+    }
+
+    /**
+     * Removes all rows. Action ids are kept.
+     */
+    public void clear() {
+	rowIndex.clear();
+	rowStates.clear();
+	numEntries = 0;
+    }
+
+}
@@ -0,0 +1,267 @@
+package burlap.behavior.singleagent.learning.tdmethods;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import burlap.behavior.statehashing.StateHashTuple;
+import burlap.datastructures.StochasticTree;
+import burlap.debugtools.RandomFactory;
+import burlap.oomdp.singleagent.GroundedAction;
+
+/**
+ * A fixed-capacity ring buffer of observed transitions for experience replay.
+ * Each transition is stored as the hashed state, action, reward, discount and
+ * hashed next state in parallel arrays; the hashed states reference the states
+ * that were observed rather than copies of them. Once the buffer is full, each
+ * new transition replaces the oldest one.
+ * <p/>
+ * Transitions are sampled uniformly by default. With prioritized sampling,
+ * transitions are sampled from a {@link burlap.datastructures.StochasticTree}
+ * in proportion to (|TD error| + epsilon)^alpha, and new transitions are given
+ * the highest priority seen so far so that each is likely to be replayed at
+ * least once.
+ *
+ */
+public class ExperienceReplayBuffer {
+
+    protected StateHashTuple[] states;
+    protected GroundedAction[] actions;
+    protected double[] rewards;
+    protected double[] discounts;
+
+    /**
+     * The hashed next state of each transition; null for transitions into
+     * terminal states
+     */
+    protected StateHashTuple[] nextStates;
+
+    /**
+     * The number of transitions stored
+     */
+    protected int size = 0;
+
+    /**
+     * The slot the next transition will be stored in
+     */
+    protected int next = 0;
+
+    /**
+     * The sampling weights of the slots when prioritized sampling is used;
+     * null otherwise
+     */
+    protected StochasticTree<Integer> priorities;
+
+    /**
+     * How strongly priorities depend on the TD error (0 is uniform sampling)
+     */
+    protected double alpha;
+
+    /**
+     * Added to the absolute TD error so that every transition can be sampled
+     */
+    protected double priorityEpsilon = 1e-4;
+
+    /**
+     * The highest priority assigned so far
+     */
+    protected double maxPriority = 1.;
+
+    protected Random rand;
+
+    /**
+     * Initializes an empty buffer with uniform sampling.
+     *
+     * @param capacity
+     *            the maximum number of transitions stored
+     */
+    public ExperienceReplayBuffer(int capacity) {
+	this.states = new StateHashTuple[capacity];
+	this.actions = new GroundedAction[capacity];
+	this.rewards = new double[capacity];
+	this.discounts = new double[capacity];
+	this.nextStates = new StateHashTuple[capacity];
+	this.rand = RandomFactory.getMapped(0);
+    }
+
+    /**
+     * Makes the buffer sample transitions in proportion to their TD error.
+     * Must be called while the buffer is empty.
+     *
+     * @param alpha
+     *            how strongly priorities depend on the TD error; 0 samples
+     *            uniformly
+     */
+    public void usePrioritizedSampling(double alpha) {
+	if (this.size > 0) {
+	    throw new RuntimeException(
+		    "Prioritized sampling must be enabled before transitions are added");
+	}
+	this.alpha = alpha;
+	this.priorities = new StochasticTree<Integer>();
+	this.priorities.setRandom(this.rand);
+    }
+
+    /**
+     * Returns the number of transitions stored.
+     *
+     * @return the number of transitions stored.
+     */
+    public int size() {
+	return this.size;
+    }
+
+    /**
+     * Returns the maximum number of transitions stored.
+     *
+     * @return the maximum number of transitions stored.
+     */
+    public int capacity() {
+	return this.states.length;
+    }
+
+    /**
+     * Stores a transition, replacing the oldest transition if the buffer is
+     * full.
+     *
+     * @param s
+     *            the hashed state
+     * @param a
+     *            the action taken
+     * @param r
+     *            the reward received
+     * @param discount
+     *            the discount applied to the value of the next state
+     * @param nextState
+     *            the hashed next state, or null if it is terminal
+     * @return the slot of the transition
+     */
+    public int add(StateHashTuple s, GroundedAction a, double r,
+	    double discount, StateHashTuple nextState) {
+
+	int slot = this.next;
+	this.states[slot] = s;
+	this.actions[slot] = a;
+	this.rewards[slot] = r;
+	this.discounts[slot] = discount;
+	this.nextStates[slot] = nextState;
+
+	if (this.priorities != null) {
+	    if (this.size < this.states.length) {
+		this.priorities.insert(this.maxPriority, slot);
+	    } else {
+		this.priorities.changeWeight(slot, this.maxPriority);
+	    }
+	}
+
+	this.next = (slot + 1) % this.states.length;
+	if (this.size < this.states.length) {
+	    this.size++;
+	}
+
+	return slot;
+
+    }
+
+    /**
+     * Samples the slot of a stored transition. The buffer must not be empty.
+     *
+     * @return the slot of the sampled transition
+     */
+    public int sample() {
+	if (this.priorities != null) {
+	    return this.priorities.sample();
+	}
+	return this.rand.nextInt(this.size);
+    }
+
+    /**
+     * Updates the priority of a transition after it has been replayed. Does
+     * nothing if prioritized sampling is not used.
+     *
+     * @param slot
+     *            the slot of the transition
+     * @param tdError
+     *            the TD error of the transition's last update
+     */
+    public void updatePriority(int slot, double tdError) {
+	if (this.priorities == null) {
+	    return;
+	}
+	double p = Math.pow(Math.abs(tdError) + this.priorityEpsilon,
+		this.alpha);
+	this.maxPriority = Math.max(this.maxPriority, p);
+	this.priorities.changeWeight(slot, p);
+    }
+
+    /**
+     * Returns the hashed state of a transition.
+     *
+     * @param slot
+     *            the slot of the transition
+     * @return the hashed state in which the action was taken
+     */
+    public StateHashTuple state(int slot) {
+	return this.states[slot];
+    }
+
+    /**
+     * Returns the action of a transition.
+     *
+     * @param slot
+     *            the slot of the transition
+     * @return the action taken
+     */
+    public GroundedAction action(int slot) {
+	return this.actions[slot];
+    }
+
+    /**
+     * Returns the reward of a transition.
+     *
+     * @param slot
+     *            the slot of the transition
+     * @return the reward received
+     */
+    public double reward(int slot) {
+	return this.rewards[slot];
+    }
+
+    /**
+     * Returns the discount of a transition.
+     *
+     * @param slot
+     *            the slot of the transition
+     * @return the discount applied to the value of the next state
+     */
+    public double discount(int slot) {
+	return this.discounts[slot];
+    }
+
+    /**
+     * Returns the hashed next state of a transition.
+     *
+     * @param slot
+     *            the slot of the transition
+     * @return the hashed next state, or null if it is terminal
+     */
+    public StateHashTuple nextState(int slot) {
+	return this.nextStates[slot];
+    }
+
+    /**
+     * Removes all transitions.
+     */
+    public void clear() {
+	Arrays.fill(this.states, null);
+	Arrays.fill(this.actions, null);
+	Arrays.fill(this.nextStates, null);
+	this.size = 0;
+	this.next = 0;
+	this.maxPriority = 1.;
+	if (this.priorities != null) {
+	    this.priorities = new StochasticTree<Integer>();
+	    this.priorities.setRandom(this.rand);
+	}
+    }
+
+}
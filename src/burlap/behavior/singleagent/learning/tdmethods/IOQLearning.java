@@ -56,6 +56,31 @@ public class IOQLearning extends QLearning {
 		learningPolicy, maxEpisodeSize);
     }
 
+    /**
+     * Not supported, since intra-option updates modify the
+     * {@link burlap.behavior.singleagent.QValue} objects returned by
+     * {@link #getQ(StateHashTuple, GroundedAction)}.
+     */
+    @Override
+    public void toggleArrayQTable(boolean useArrayQTable) {
+	if (useArrayQTable) {
+	    throw new UnsupportedOperationException(
+		    "IOQLearning does not support the array Q-table");
+	}
+    }
+
+    /**
+     * Not supported, since transitions are only recorded at the level of the
+     * options executed, so replay would skip the intra-option updates.
+     */
+    @Override
+    public void setExperienceReplay(int capacity, int batchSize) {
+	if (capacity > 0) {
+	    throw new UnsupportedOperationException(
+		    "IOQLearning does not support experience replay");
+	}
+    }
+
     public Map<StateHashTuple, List<QValue>> getQPolicy() {
 	Map<StateHashTuple, List<QValue>> qPolicy = new HashMap<StateHashTuple, List<QValue>>();
 
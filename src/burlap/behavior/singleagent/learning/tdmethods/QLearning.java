@@ -1,9 +1,11 @@
 package burlap.behavior.singleagent.learning.tdmethods;
 
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Random;
 
 import javax.management.RuntimeErrorException;
 
@@ -43,6 +45,25 @@ import burlap.oomdp.singleagent.RewardFunction;
  * 2. Sutton, Richard S., Doina Precup, and Satinder Singh.
  * "Between MDPs and semi-MDPs: A framework for temporal abstraction in reinforcement learning."
  * Artificial intelligence 112.1 (1999): 181-211.
+ * <p/>
+ * By default, Q-values are stored as {@link QLearningStateNode} objects that
+ * hold lists of {@link burlap.behavior.singleagent.QValue} objects. If
+ * {@link #toggleArrayQTable(boolean)} is enabled, they are instead stored in
+ * an {@link ArrayQTable}, and learning episodes read and update Q-values by
+ * their index in a primitive array. If the learning policy is an
+ * {@link burlap.behavior.singleagent.planning.commonpolicies.EpsilonGreedy}
+ * policy over this object, actions are also selected directly from the array,
+ * so that a learning step allocates no Q-function objects. With the array
+ * table, the {@link burlap.behavior.singleagent.QValue} and
+ * {@link QLearningStateNode} objects returned by this class are copies, and
+ * changing them does not change the stored Q-values.
+ * <p/>
+ * If experience replay is enabled with
+ * {@link #setExperienceReplay(int, int)}, every transition observed during a
+ * learning episode is stored in an {@link ExperienceReplayBuffer}, and after
+ * each learning step a minibatch of stored transitions is sampled from the
+ * buffer and used for additional Q-learning updates, which lets each
+ * interaction with the environment contribute to many updates.
  * 
  * @author James MacGlashan
  * 
@@ -55,6 +76,23 @@ public class QLearning extends OOMDPPlanner implements QComputablePlanner,
      */
     protected Map<StateHashTuple, QLearningStateNode> qIndex;
 
+    /**
+     * The primitive array Q-value storage; null if Q-values are stored in
+     * {@link #qIndex}
+     */
+    protected ArrayQTable arrayQTable;
+
+    /**
+     * The buffer of observed transitions that are replayed after each learning
+     * step; null if experience replay is disabled
+     */
+    protected ExperienceReplayBuffer replayBuffer;
+
+    /**
+     * The number of stored transitions replayed after each learning step
+     */
+    protected int replayBatchSize;
+
     /**
      * The object that defines how Q-values are initialized.
      */
@@ -506,6 +544,191 @@ public class QLearning extends OOMDPPlanner implements QComputablePlanner,
 	}
     }
 
+    /**
+     * Sets whether Q-values are stored in an {@link ArrayQTable} instead of
+     * {@link QLearningStateNode} objects. Any Q-values learned so far are
+     * copied to the new storage.
+     * 
+     * @param useArrayQTable
+     *            true if Q-values should be stored in an {@link ArrayQTable};
+     *            false otherwise.
+     */
+    public void toggleArrayQTable(boolean useArrayQTable) {
+
+	if (useArrayQTable && this.arrayQTable == null) {
+	    this.arrayQTable = new ArrayQTable();
+	    for (QLearningStateNode node : this.qIndex.values()) {
+		List<GroundedAction> gas = new ArrayList<GroundedAction>(
+			node.qEntry.size());
+		double[] values = new double[node.qEntry.size()];
+		for (int i = 0; i < values.length; i++) {
+		    QValue qv = node.qEntry.get(i);
+		    gas.add((GroundedAction) qv.a);
+		    values[i] = qv.q;
+		}
+		this.arrayQTable.addRow(node.s, gas, values);
+	    }
+	    this.qIndex.clear();
+	} else if (!useArrayQTable && this.arrayQTable != null) {
+	    for (int row = 0; row < this.arrayQTable.numRows(); row++) {
+		StateHashTuple sh = this.arrayQTable.rowState(row);
+		this.qIndex.put(sh, this.arrayStateNode(row));
+	    }
+	    this.arrayQTable = null;
+	}
+
+    }
+
+    /**
+     * Enables experience replay. After each learning step, the observed
+     * transition is stored in a buffer of the given capacity, and then
+     * <code>batchSize</code> transitions are sampled uniformly from the buffer
+     * and used for Q-learning updates. Any previously stored transitions are
+     * discarded.
+     * 
+     * @param capacity
+     *            the maximum number of transitions stored; a value of 0 or less
+     *            disables experience replay
+     * @param batchSize
+     *            the number of transitions replayed after each learning step
+     */
+    public void setExperienceReplay(int capacity, int batchSize) {
+	if (capacity > 0) {
+	    this.replayBuffer = new ExperienceReplayBuffer(capacity);
+	    this.replayBatchSize = batchSize;
+	} else {
+	    this.replayBuffer = null;
+	    this.replayBatchSize = 0;
+	}
+    }
+
+    /**
+     * Makes experience replay sample transitions in proportion to the
+     * magnitude of their last TD error rather than uniformly. Experience replay
+     * must first be enabled with {@link #setExperienceReplay(int, int)}, and
+     * this method must be called before any transitions are stored.
+     * 
+     * @param alpha
+     *            how strongly the sampling probabilities depend on the TD
+     *            error; 0 samples uniformly
+     */
+    public void setPrioritizedReplay(double alpha) {
+	if (this.replayBuffer == null) {
+	    throw new RuntimeException(
+		    "Experience replay must be enabled before prioritized replay");
+	}
+	this.replayBuffer.usePrioritizedSampling(alpha);
+    }
+
+    /**
+     * Returns the experience replay buffer.
+     * 
+     * @return the experience replay buffer, or null if experience replay is
+     *         disabled.
+     */
+    public ExperienceReplayBuffer getReplayBuffer() {
+	return this.replayBuffer;
+    }
+
+    /**
+     * Stores a transition in the experience replay buffer and then replays a
+     * minibatch of stored transitions, updating
+     * {@link #maxQChangeInLastEpisode} with the changes they make.
+     * 
+     * @param s
+     *            the hashed state
+     * @param a
+     *            the action taken
+     * @param r
+     *            the reward received
+     * @param discount
+     *            the discount applied to the value of the next state
+     * @param nextState
+     *            the hashed next state, or null if it is terminal
+     */
+    protected void replayExperience(StateHashTuple s, GroundedAction a,
+	    double r, double discount, StateHashTuple nextState) {
+
+	this.replayBuffer.add(s, a, r, discount, nextState);
+
+	for (int i = 0; i < this.replayBatchSize; i++) {
+
+	    int slot = this.replayBuffer.sample();
+	    double tdError = this.backup(this.replayBuffer.state(slot),
+		    this.replayBuffer.action(slot),
+		    this.replayBuffer.reward(slot),
+		    this.replayBuffer.discount(slot),
+		    this.replayBuffer.nextState(slot));
+	    this.replayBuffer.updatePriority(slot, tdError);
+
+	}
+
+    }
+
+    /**
+     * Performs a Q-learning update of a state-action pair from a transition
+     * that was observed or sampled from a model, updating
+     * {@link #maxQChangeInLastEpisode} with the change it makes. Works with
+     * either Q-value storage.
+     * 
+     * @param s
+     *            the hashed state
+     * @param a
+     *            the action taken
+     * @param r
+     *            the reward received
+     * @param discount
+     *            the discount applied to the value of the next state
+     * @param nextState
+     *            the hashed next state, or null if it is terminal
+     * @return the TD error of the update
+     */
+    protected double backup(StateHashTuple s, GroundedAction a, double r,
+	    double discount, StateHashTuple nextState) {
+
+	double maxQ = 0.;
+	if (nextState != null) {
+	    maxQ = this.getMaxQ(nextState);
+	}
+
+	double target = r + discount * maxQ;
+	double lr = this.learningRate.pollLearningRate(s.s, a);
+
+	double tdError;
+	if (this.arrayQTable != null) {
+	    int row = this.arrayRow(s);
+	    int entry = this.arrayEntry(s, row, a);
+	    double oldQ = this.arrayQTable.get(entry);
+	    tdError = target - oldQ;
+	    this.arrayQTable.set(entry, oldQ + lr * tdError);
+	    this.noteQChange(oldQ, this.arrayQTable.get(entry));
+	} else {
+	    QValue q = this.getQ(s, a);
+	    double oldQ = q.q;
+	    tdError = target - oldQ;
+	    q.q = q.q + lr * tdError;
+	    this.noteQChange(oldQ, q.q);
+	}
+
+	return tdError;
+
+    }
+
+    /**
+     * Updates {@link #maxQChangeInLastEpisode} with the change of a Q-value.
+     * 
+     * @param oldQ
+     *            the Q-value before the update
+     * @param newQ
+     *            the Q-value after the update
+     */
+    protected void noteQChange(double oldQ, double newQ) {
+	double deltaQ = Math.abs(oldQ - newQ);
+	if (deltaQ > maxQChangeInLastEpisode) {
+	    maxQChangeInLastEpisode = deltaQ;
+	}
+    }
+
     @Override
     public List<QValue> getQs(State s) {
 	return this.getQs(this.stateHash(s));
@@ -528,6 +751,113 @@ public class QLearning extends OOMDPPlanner implements QComputablePlanner,
 	return node.qEntry;
     }
 
+    /**
+     * Returns the {@link ArrayQTable} row of the given hashed state, creating
+     * it and initializing its Q-values if it does not exist.
+     * 
+     * @param s
+     *            the hashed state
+     * @return the row of the hashed state
+     */
+    protected int arrayRow(StateHashTuple s) {
+
+	int row = this.arrayQTable.row(s);
+	if (row == -1) {
+	    List<GroundedAction> gas = this.getAllGroundedActions(s.s);
+	    if (gas.size() == 0) {
+		throw new RuntimeErrorException(
+			new Error(
+				"No possible actions in this state, cannot continue Q-learning"));
+	    }
+	    double[] values = new double[gas.size()];
+	    for (int i = 0; i < values.length; i++) {
+		values[i] = qInitFunction.qValue(s.s, gas.get(i));
+	    }
+	    row = this.arrayQTable.addRow(s, gas, values);
+	}
+
+	return row;
+
+    }
+
+    /**
+     * Returns the {@link ArrayQTable} entry of an action in the row of a
+     * hashed state.
+     * 
+     * @param s
+     *            the hashed state
+     * @param row
+     *            the row of the hashed state
+     * @param a
+     *            the action
+     * @return the entry of the action, or -1 if the row has none
+     */
+    protected int arrayEntry(StateHashTuple s, int row, GroundedAction a) {
+	if (a.params.length > 0 && !this.domain.isObjectIdentifierDependent()) {
+	    Map<String, String> matching = s.s.getObjectMatchingTo(
+		    this.arrayQTable.rowState(row).s, false);
+	    a = this.translateAction(a, matching);
+	}
+	return this.arrayQTable.entry(row, this.arrayQTable.actionId(a));
+    }
+
+    /**
+     * Returns a new {@link QLearningStateNode} holding a copy of the Q-values
+     * of an {@link ArrayQTable} row.
+     * 
+     * @param row
+     *            the row
+     * @return a {@link QLearningStateNode} with the Q-values of the row
+     */
+    protected QLearningStateNode arrayStateNode(int row) {
+	QLearningStateNode node = new QLearningStateNode(
+		this.arrayQTable.rowState(row));
+	int end = this.arrayQTable.rowStart(row)
+		+ this.arrayQTable.rowLength(row);
+	for (int e = this.arrayQTable.rowStart(row); e < end; e++) {
+	    node.addQValue(
+		    this.arrayQTable.action(this.arrayQTable.entryAction(e)),
+		    this.arrayQTable.get(e));
+	}
+	return node;
+    }
+
+    /**
+     * Returns the {@link ArrayQTable} entry of the action the learning policy
+     * selects in a hashed state. If the learning policy is an
+     * {@link EpsilonGreedy} policy over this object, the action is selected
+     * directly from the row in the same way as {@link EpsilonGreedy} would.
+     * 
+     * @param s
+     *            the hashed state
+     * @param row
+     *            the row of the hashed state
+     * @return the entry of the selected action
+     */
+    protected int selectArrayEntry(StateHashTuple s, int row) {
+
+	if (learningPolicy.getClass() == EpsilonGreedy.class
+		&& ((EpsilonGreedy) learningPolicy).qplanner == this) {
+	    EpsilonGreedy eg = (EpsilonGreedy) learningPolicy;
+	    Random rand = eg.getRandom();
+	    double roll = rand.nextDouble();
+	    if (roll <= eg.getEpsilon()) {
+		return this.arrayQTable.rowStart(row)
+			+ rand.nextInt(this.arrayQTable.rowLength(row));
+	    }
+	    return this.arrayQTable.argMaxEntry(row, rand);
+	}
+
+	GroundedAction a = (GroundedAction) learningPolicy.getAction(s.s);
+	int entry = this.arrayEntry(s, row, a);
+	if (entry == -1) {
+	    throw new RuntimeException("No Q-value for action " + a
+		    + " selected by the learning policy");
+	}
+	return entry;
+
+    }
+
     /**
      * Returns the Q-value for a given hashed state and action.
      * 
@@ -539,6 +869,18 @@ public class QLearning extends OOMDPPlanner implements QComputablePlanner,
      *         if there is not Q-value currently stored.
      */
     protected QValue getQ(StateHashTuple s, GroundedAction a) {
+
+	if (this.arrayQTable != null) {
+	    int row = this.arrayRow(s);
+	    int entry = this.arrayEntry(s, row, a);
+	    if (entry == -1) {
+		return null;
+	    }
+	    return new QValue(this.arrayQTable.rowState(row).s,
+		    this.arrayQTable.action(this.arrayQTable.entryAction(entry)),
+		    this.arrayQTable.get(entry));
+	}
+
 	QLearningStateNode node = this.getStateNode(s);
 
 	if (a.params.length > 0 && !this.domain.isObjectIdentifierDependent()) {
@@ -571,6 +913,10 @@ public class QLearning extends OOMDPPlanner implements QComputablePlanner,
      */
     public QLearningStateNode getStateNode(StateHashTuple s) {
 
+	if (this.arrayQTable != null) {
+	    return this.arrayStateNode(this.arrayRow(s));
+	}
+
 	QLearningStateNode node = qIndex.get(s);
 
 	if (node == null) {
@@ -601,6 +947,9 @@ public class QLearning extends OOMDPPlanner implements QComputablePlanner,
      * @return the maximum Q-value in the hashed stated.
      */
     protected double getMaxQ(StateHashTuple s) {
+	if (this.arrayQTable != null) {
+	    return this.arrayQTable.maxQ(this.arrayRow(s));
+	}
 	List<QValue> qs = this.getQs(s);
 	double max = Double.NEGATIVE_INFINITY;
 	for (QValue q : qs) {
@@ -643,62 +992,138 @@ public class QLearning extends OOMDPPlanner implements QComputablePlanner,
 
 	while (!tf.isTerminal(curState.s) && eStepCounter < maxSteps) {
 
-	    GroundedAction action = (GroundedAction) learningPolicy
-		    .getAction(curState.s);
+	    GroundedAction action = this.selectLearningAction(curState);
 
 	    StateHashTuple nextState = this.stateHash(action
 		    .executeIn(curState.s));
-	    double maxQ = 0.;
 
-	    if (!tf.isTerminal(nextState.s)) {
-		maxQ = this.getMaxQ(nextState);
-	    }
+	    double r = this.recordLearningStep(ea, curState, action, nextState);
+	    this.learnFromStep(curState, action, r, this.stepDiscount(action),
+		    nextState, tf.isTerminal(nextState.s));
 
-	    // manage option specifics
-	    double r = 0.;
-	    double discount = this.gamma;
-	    if (action.action.isPrimitive()) {
-		r = rf.reward(curState.s, action, nextState.s);
-		eStepCounter++;
-		ea.recordTransitionTo(nextState.s, action, r);
-	    } else {
-		Option o = (Option) action.action;
-		r = o.getLastCumulativeReward();
-		int n = o.getLastNumSteps();
-		discount = Math.pow(this.gamma, n);
-		eStepCounter += n;
-		if (this.shouldDecomposeOptions) {
-		    ea.appendAndMergeEpisodeAnalysis(o
-			    .getLastExecutionResults());
-		} else {
-		    ea.recordTransitionTo(nextState.s, action, r);
-		}
-	    }
+	    // move on
+	    curState = nextState;
+
+	}
 
-	    QValue curQ = this.getQ(curState, action);
-	    double oldQ = curQ.q;
+	this.storeLearningEpisode(ea);
 
-	    // update Q-value
-	    curQ.q = curQ.q
-		    + this.learningRate.pollLearningRate(curState.s, action)
-		    * (r + (discount * maxQ) - curQ.q);
+	return ea;
+    }
 
-	    double deltaQ = Math.abs(oldQ - curQ.q);
-	    if (deltaQ > maxQChangeInLastEpisode) {
-		maxQChangeInLastEpisode = deltaQ;
-	    }
+    /**
+     * Selects the action to take in a state of a learning episode with the
+     * learning policy. With the {@link ArrayQTable}, the action is selected
+     * directly from the state's row with
+     * {@link #selectArrayEntry(StateHashTuple, int)}.
+     * 
+     * @param s
+     *            the hashed state
+     * @return the action to take
+     */
+    protected GroundedAction selectLearningAction(StateHashTuple s) {
+	if (this.arrayQTable != null) {
+	    int entry = this.selectArrayEntry(s, this.arrayRow(s));
+	    return this.arrayQTable.action(this.arrayQTable.entryAction(entry));
+	}
+	return (GroundedAction) learningPolicy.getAction(s.s);
+    }
 
-	    // move on
-	    curState = nextState;
+    /**
+     * Records an action taken in a learning episode in the episode and in
+     * {@link #eStepCounter}, and returns its reward. An option contributes
+     * its cumulative discounted reward and the number of primitive steps it
+     * took, and, if options are decomposed, its primitive steps are recorded
+     * in the episode instead of the option.
+     * 
+     * @param ea
+     *            the episode
+     * @param s
+     *            the hashed state in which the action was taken
+     * @param a
+     *            the action taken
+     * @param nextState
+     *            the hashed state the action reached
+     * @return the reward of the action
+     */
+    protected double recordLearningStep(EpisodeAnalysis ea, StateHashTuple s,
+	    GroundedAction a, StateHashTuple nextState) {
+	if (a.action.isPrimitive()) {
+	    double r = rf.reward(s.s, a, nextState.s);
+	    eStepCounter++;
+	    ea.recordTransitionTo(nextState.s, a, r);
+	    return r;
+	}
+	Option o = (Option) a.action;
+	double r = o.getLastCumulativeReward();
+	eStepCounter += o.getLastNumSteps();
+	if (this.shouldDecomposeOptions) {
+	    ea.appendAndMergeEpisodeAnalysis(o.getLastExecutionResults());
+	} else {
+	    ea.recordTransitionTo(nextState.s, a, r);
+	}
+	return r;
+    }
 
+    /**
+     * Returns the discount applied to the value of the state reached by an
+     * action that was just taken: gamma for a primitive action and gamma^n
+     * for an option that took n steps.
+     * 
+     * @param a
+     *            the action taken
+     * @return the discount of the value of the next state
+     */
+    protected double stepDiscount(GroundedAction a) {
+	if (a.action.isPrimitive()) {
+	    return this.gamma;
+	}
+	return Math.pow(this.gamma, ((Option) a.action).getLastNumSteps());
+    }
+
+    /**
+     * Learns from a step of a learning episode: performs a Q-learning update
+     * of the state-action pair and, if experience replay is enabled, replays
+     * past experience.
+     * 
+     * @param s
+     *            the hashed state in which the action was taken
+     * @param a
+     *            the action taken
+     * @param r
+     *            the reward received
+     * @param discount
+     *            the discount applied to the value of the next state
+     * @param nextState
+     *            the hashed state the action reached
+     * @param terminal
+     *            whether the next state is terminal
+     */
+    protected void learnFromStep(StateHashTuple s, GroundedAction a,
+	    double r, double discount, StateHashTuple nextState,
+	    boolean terminal) {
+
+	this.backup(s, a, r, discount, terminal ? null : nextState);
+
+	if (this.replayBuffer != null) {
+	    this.replayExperience(s, a, r, discount, terminal ? null
+		    : nextState);
 	}
 
+    }
+
+    /**
+     * Stores a finished learning episode, dropping the oldest stored episode
+     * if {@link #numEpisodesToStore} are already stored.
+     * 
+     * @param ea
+     *            the learning episode
+     */
+    protected void storeLearningEpisode(EpisodeAnalysis ea) {
 	if (episodeHistory.size() >= numEpisodesToStore) {
 	    episodeHistory.poll();
 	}
 	episodeHistory.offer(ea);
-
-	return ea;
     }
 
     @Override
@@ -724,6 +1149,12 @@ public class QLearning extends OOMDPPlanner implements QComputablePlanner,
     public void resetPlannerResults() {
 	this.mapToStateIndex.clear();
 	this.qIndex.clear();
+	if (this.arrayQTable != null) {
+	    this.arrayQTable.clear();
+	}
+	if (this.replayBuffer != null) {
+	    this.replayBuffer.clear();
+	}
 	this.episodeHistory.clear();
 	this.eStepCounter = 0;
 	this.maxQChangeInLastEpisode = Double.POSITIVE_INFINITY;
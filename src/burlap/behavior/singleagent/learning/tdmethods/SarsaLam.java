@@ -1,12 +1,12 @@
 package burlap.behavior.singleagent.learning.tdmethods;
 
+import java.util.Arrays;
 import java.util.LinkedList;
 
 import burlap.behavior.singleagent.EpisodeAnalysis;
 import burlap.behavior.singleagent.Policy;
 import burlap.behavior.singleagent.QValue;
 import burlap.behavior.singleagent.ValueFunctionInitialization;
-import burlap.behavior.singleagent.options.Option;
 import burlap.behavior.statehashing.StateHashFactory;
 import burlap.behavior.statehashing.StateHashTuple;
 import burlap.oomdp.core.Domain;
@@ -42,6 +42,27 @@ public class SarsaLam extends QLearning {
      */
     protected double lambda;
 
+    /**
+     * The {@link ArrayQTable} entry of each eligibility trace, used when the
+     * array table is enabled
+     */
+    protected int[] traceEntries = new int[64];
+
+    /**
+     * The {@link ArrayQTable} row of each eligibility trace
+     */
+    protected int[] traceRows = new int[64];
+
+    /**
+     * The eligibility value of each eligibility trace
+     */
+    protected double[] traceEligibilities = new double[64];
+
+    /**
+     * The Q-value of each eligibility trace when it was created
+     */
+    protected double[] traceInitialQs = new double[64];
+
     /**
      * Initializes SARSA(\lambda) with 0.1 epsilon greedy policy, the same
      * Q-value initialization everywhere, and places no limit on the number of
@@ -213,10 +234,27 @@ public class SarsaLam extends QLearning {
 	this.lambda = lambda;
     }
 
+    /**
+     * Not supported, since replayed transitions are updated off-policy
+     * towards the maximum Q-value of the next state, which is not the
+     * on-policy SARSA target.
+     */
+    @Override
+    public void setExperienceReplay(int capacity, int batchSize) {
+	if (capacity > 0) {
+	    throw new UnsupportedOperationException(
+		    "SarsaLam does not support experience replay");
+	}
+    }
+
     @Override
     public EpisodeAnalysis runLearningEpisodeFrom(State initialState,
 	    int maxSteps) {
 
+	if (this.arrayQTable != null) {
+	    return this.runArrayLearningEpisodeFrom(initialState, maxSteps);
+	}
+
 	EpisodeAnalysis ea = new EpisodeAnalysis(initialState);
 	maxQChangeInLastEpisode = 0.;
 
@@ -241,26 +279,8 @@ public class SarsaLam extends QLearning {
 		nextQV = 0.;
 	    }
 
-	    // manage option specifics
-	    double r = 0.;
-	    double discount = this.gamma;
-	    if (action.action.isPrimitive()) {
-		r = rf.reward(curState.s, action, nextState.s);
-		eStepCounter++;
-		ea.recordTransitionTo(nextState.s, action, r);
-	    } else {
-		Option o = (Option) action.action;
-		r = o.getLastCumulativeReward();
-		int n = o.getLastNumSteps();
-		discount = Math.pow(this.gamma, n);
-		eStepCounter += n;
-		if (this.shouldDecomposeOptions) {
-		    ea.appendAndMergeEpisodeAnalysis(o
-			    .getLastExecutionResults());
-		} else {
-		    ea.recordTransitionTo(nextState.s, action, r);
-		}
-	    }
+	    double r = this.recordLearningStep(ea, curState, action, nextState);
+	    double discount = this.stepDiscount(action);
 
 	    // delta
 	    double delta = r + (discount * nextQV) - curQ.q;
@@ -284,10 +304,7 @@ public class SarsaLam extends QLearning {
 		et.q.q = et.q.q + (learningRate * et.eligibility * delta);
 		et.eligibility = et.eligibility * lambda * discount;
 
-		double deltaQ = Math.abs(et.initialQ - et.q.q);
-		if (deltaQ > maxQChangeInLastEpisode) {
-		    maxQChangeInLastEpisode = deltaQ;
-		}
+		this.noteQChange(et.initialQ, et.q.q);
 
 	    }
 
@@ -301,10 +318,7 @@ public class SarsaLam extends QLearning {
 
 		traces.add(et);
 
-		double deltaQ = Math.abs(et.initialQ - et.q.q);
-		if (deltaQ > maxQChangeInLastEpisode) {
-		    maxQChangeInLastEpisode = deltaQ;
-		}
+		this.noteQChange(et.initialQ, et.q.q);
 
 	    }
 
@@ -315,10 +329,117 @@ public class SarsaLam extends QLearning {
 
 	}
 
-	if (episodeHistory.size() >= numEpisodesToStore) {
-	    episodeHistory.poll();
+	this.storeLearningEpisode(ea);
+
+	return ea;
+    }
+
+    /**
+     * Runs a learning episode that reads and updates Q-values in the
+     * {@link ArrayQTable}. Eligibility traces are kept in the reusable
+     * primitive arrays of this object.
+     * 
+     * @param initialState
+     *            the initial state of the episode
+     * @param maxSteps
+     *            the maximum number of steps in the episode
+     * @return the learning episode
+     */
+    protected EpisodeAnalysis runArrayLearningEpisodeFrom(State initialState,
+	    int maxSteps) {
+
+	EpisodeAnalysis ea = new EpisodeAnalysis(initialState);
+	maxQChangeInLastEpisode = 0.;
+
+	StateHashTuple curState = this.stateHash(initialState);
+	eStepCounter = 0;
+	int numTraces = 0;
+
+	int curRow = this.arrayRow(curState);
+	int curEntry = this.selectArrayEntry(curState, curRow);
+
+	while (!tf.isTerminal(curState.s) && eStepCounter < maxSteps) {
+
+	    GroundedAction action = this.arrayQTable.action(this.arrayQTable
+		    .entryAction(curEntry));
+	    StateHashTuple nextState = this.stateHash(action
+		    .executeIn(curState.s));
+	    int nextRow = this.arrayRow(nextState);
+	    int nextEntry = this.selectArrayEntry(nextState, nextRow);
+	    double nextQV = this.arrayQTable.get(nextEntry);
+
+	    if (tf.isTerminal(nextState.s)) {
+		nextQV = 0.;
+	    }
+
+	    double r = this.recordLearningStep(ea, curState, action, nextState);
+	    double discount = this.stepDiscount(action);
+
+	    // delta
+	    double delta = r + (discount * nextQV)
+		    - this.arrayQTable.get(curEntry);
+
+	    // update all
+	    boolean foundCurrentQTrace = false;
+	    for (int i = 0; i < numTraces; i++) {
+
+		int e = traceEntries[i];
+		if (traceRows[i] == curRow) {
+		    if (e == curEntry) {
+			foundCurrentQTrace = true;
+			traceEligibilities[i] = 1.; // replacing traces
+		    } else {
+			traceEligibilities[i] = 0.; // replacing traces
+		    }
+		}
+
+		double learningRate = this.learningRate.pollLearningRate(
+			this.arrayQTable.rowState(traceRows[i]).s,
+			this.arrayQTable.action(this.arrayQTable
+				.entryAction(e)));
+
+		double q = this.arrayQTable.get(e)
+			+ (learningRate * traceEligibilities[i] * delta);
+		this.arrayQTable.set(e, q);
+		traceEligibilities[i] = traceEligibilities[i] * lambda
+			* discount;
+
+		this.noteQChange(traceInitialQs[i], q);
+
+	    }
+
+	    if (!foundCurrentQTrace) {
+		// then update and add it
+		double learningRate = this.learningRate.pollLearningRate(
+			this.arrayQTable.rowState(curRow).s, action);
+		double q = this.arrayQTable.get(curEntry)
+			+ (learningRate * delta);
+		this.arrayQTable.set(curEntry, q);
+
+		if (numTraces == traceEntries.length) {
+		    int capacity = numTraces * 2;
+		    traceEntries = Arrays.copyOf(traceEntries, capacity);
+		    traceRows = Arrays.copyOf(traceRows, capacity);
+		    traceEligibilities = Arrays.copyOf(traceEligibilities,
+			    capacity);
+		    traceInitialQs = Arrays.copyOf(traceInitialQs, capacity);
+		}
+		traceEntries[numTraces] = curEntry;
+		traceRows[numTraces] = curRow;
+		traceEligibilities[numTraces] = lambda * discount;
+		traceInitialQs[numTraces] = q;
+		numTraces++;
+
+	    }
+
+	    // move on
+	    curState = nextState;
+	    curRow = nextRow;
+	    curEntry = nextEntry;
+
 	}
-	episodeHistory.offer(ea);
+
+	this.storeLearningEpisode(ea);
 
 	return ea;
     }
@@ -1,12 +1,8 @@
 package burlap.behavior.singleagent.learning.tdmethods.vfa;
 
 import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
-import java.util.Map;
-import java.util.Set;
 
 import burlap.behavior.learningrate.ConstantLR;
 import burlap.behavior.learningrate.LearningRate;
@@ -19,9 +15,12 @@ import burlap.behavior.singleagent.planning.OOMDPPlanner;
 import burlap.behavior.singleagent.planning.QComputablePlanner;
 import burlap.behavior.singleagent.planning.commonpolicies.EpsilonGreedy;
 import burlap.behavior.singleagent.vfa.ActionApproximationResult;
+import burlap.behavior.singleagent.vfa.ApproximationResult;
 import burlap.behavior.singleagent.vfa.FunctionWeight;
 import burlap.behavior.singleagent.vfa.ValueFunctionApproximation;
 import burlap.behavior.singleagent.vfa.WeightGradient;
+import burlap.behavior.singleagent.vfa.common.DenseLinearVFA;
+import burlap.behavior.singleagent.vfa.common.DenseLinearVFA.DenseApproximationResult;
 import burlap.oomdp.core.AbstractGroundedAction;
 import burlap.oomdp.core.Domain;
 import burlap.oomdp.core.State;
@@ -140,6 +139,22 @@ public class GradientDescentSarsaLam extends OOMDPPlanner implements
      */
     protected boolean shouldAnnotateOptions = true;
 
+    /**
+     * The eligibility traces of the current learning episode
+     */
+    protected SparseEligibilityTraces traces = new SparseEligibilityTraces();
+
+    /**
+     * The state object whose action approximations are cached during a
+     * learning step, or null
+     */
+    protected State approximatedState;
+
+    /**
+     * The cached action approximations of {@link #approximatedState}
+     */
+    protected List<ActionApproximationResult> stateApproximations;
+
     /**
      * Initializes SARSA(\lambda) with 0.1 epsilon greedy policy and places no
      * limit on the number of steps the agent can take in an episode. By default
@@ -427,25 +442,36 @@ public class GradientDescentSarsaLam extends OOMDPPlanner implements
 
 	State curState = initialState;
 	eStepCounter = 0;
-	Map<Integer, EligibilityTraceVector> traces = new HashMap<Integer, GradientDescentSarsaLam.EligibilityTraceVector>();
+	this.traces.clear();
 
-	GroundedAction action = (GroundedAction) this.learningPolicy
-		.getAction(curState);
+	DenseLinearVFA dense = null;
+	if (this.vfa instanceof DenseLinearVFA) {
+	    dense = (DenseLinearVFA) this.vfa;
+	}
+
+	// the learning policy reuses these approximations through getQs
 	List<ActionApproximationResult> allCurApproxResults = this
 		.getAllActionApproximations(curState);
+	this.cacheApproximations(curState, allCurApproxResults);
+	GroundedAction action = (GroundedAction) this.learningPolicy
+		.getAction(curState);
 	ActionApproximationResult curApprox = ActionApproximationResult
 		.extractApproximationForAction(allCurApproxResults, action);
 
 	while (!tf.isTerminal(curState) && eStepCounter < maxSteps) {
 
-	    WeightGradient gradient = this.vfa
-		    .getWeightGradient(curApprox.approximationResult);
+	    ApproximationResult curResult = curApprox.approximationResult;
+	    WeightGradient gradient = null;
+	    if (dense == null) {
+		gradient = this.vfa.getWeightGradient(curResult);
+	    }
 
 	    State nextState = action.executeIn(curState);
-	    GroundedAction nextAction = (GroundedAction) this.learningPolicy
-		    .getAction(nextState);
 	    List<ActionApproximationResult> allNextApproxResults = this
 		    .getAllActionApproximations(nextState);
+	    this.cacheApproximations(nextState, allNextApproxResults);
+	    GroundedAction nextAction = (GroundedAction) this.learningPolicy
+		    .getAction(nextState);
 	    ActionApproximationResult nextApprox = ActionApproximationResult
 		    .extractApproximationForAction(allNextApproxResults,
 			    nextAction);
@@ -483,18 +509,14 @@ public class GradientDescentSarsaLam extends OOMDPPlanner implements
 		// then first clear traces of unselected action and reset the
 		// trace for the selected one
 		for (ActionApproximationResult aar : allCurApproxResults) {
-		    if (!aar.ga.equals(action)) { // clear unselected action
-						  // trace
-			for (FunctionWeight fw : aar.approximationResult.functionWeights) {
-			    traces.remove(fw.weightId());
+		    boolean selected = aar.ga.equals(action);
+		    if (aar.approximationResult instanceof DenseApproximationResult) {
+			for (int id : ((DenseApproximationResult) aar.approximationResult).ids) {
+			    this.replaceTrace(id, selected);
 			}
-		    } else { // reset trace of selected action
+		    } else {
 			for (FunctionWeight fw : aar.approximationResult.functionWeights) {
-			    EligibilityTraceVector storedTrace = traces.get(fw
-				    .weightId());
-			    if (storedTrace != null) {
-				storedTrace.eligibilityValue = 0.;
-			    }
+			    this.replaceTrace(fw.weightId(), selected);
 			}
 		    }
 		}
@@ -503,59 +525,62 @@ public class GradientDescentSarsaLam extends OOMDPPlanner implements
 	    double learningRate = this.learningRate.pollLearningRate(curState,
 		    action);
 
-	    // update all traces
-	    Set<Integer> deletedSet = new HashSet<Integer>();
-	    for (EligibilityTraceVector et : traces.values()) {
-
-		int weightId = et.weight.weightId();
-
-		et.eligibilityValue += gradient.getPartialDerivative(weightId);
-		double newWeight = et.weight.weightValue() + learningRate
-			* delta * et.eligibilityValue;
-		et.weight.setWeight(newWeight);
-
-		double deltaW = Math.abs(et.initialWeightValue - newWeight);
-		if (deltaW > maxWeightChangeInLastEpisode) {
-		    maxWeightChangeInLastEpisode = deltaW;
+	    // add the gradient of the current approximation to the traces,
+	    // starting traces for weights that have none
+	    SparseEligibilityTraces traces = this.traces;
+	    if (dense != null) {
+		DenseApproximationResult dar = (DenseApproximationResult) curResult;
+		for (int i = 0; i < dar.ids.length; i++) {
+		    int id = dar.ids[i];
+		    int pos = traces.indexOf(id);
+		    if (pos < 0) {
+			pos = traces.add(id, dense.getWeight(id), null);
+		    }
+		    traces.eligibility[pos] += dar.values[i];
 		}
-
-		et.eligibilityValue *= this.lambda * discount;
-		if (et.eligibilityValue < this.minEligibityForUpdate) {
-		    deletedSet.add(weightId);
+	    } else {
+		for (FunctionWeight fw : curResult.functionWeights) {
+		    int id = fw.weightId();
+		    int pos = traces.indexOf(id);
+		    if (pos < 0) {
+			pos = traces.add(id, fw.weightValue(), fw);
+		    }
+		    traces.eligibility[pos] += gradient
+			    .getPartialDerivative(id);
 		}
-
 	    }
 
-	    // add new traces if need be
-	    for (FunctionWeight fw : curApprox.approximationResult.functionWeights) {
-
-		int weightId = fw.weightId();
-		if (!traces.containsKey(fw)) {
-
-		    // then it's new and we need to add it
-		    EligibilityTraceVector et = new EligibilityTraceVector(fw,
-			    gradient.getPartialDerivative(weightId));
-		    double newWeight = fw.weightValue() + learningRate * delta
-			    * et.eligibilityValue;
+	    // update the weights of all traces, decay the traces and remove
+	    // the ones that fall below the minimum eligibility
+	    this.cacheApproximations(null, null);
+	    double step = learningRate * delta;
+	    double decay = this.lambda * discount;
+	    for (int pos = traces.size - 1; pos >= 0; pos--) {
+
+		double e = traces.eligibility[pos];
+		double newWeight;
+		if (dense != null) {
+		    int id = traces.ids[pos];
+		    newWeight = dense.getWeight(id) + step * e;
+		    dense.setWeight(id, newWeight);
+		} else {
+		    FunctionWeight fw = traces.weights[pos];
+		    newWeight = fw.weightValue() + step * e;
 		    fw.setWeight(newWeight);
+		}
 
-		    double deltaW = Math.abs(et.initialWeightValue - newWeight);
-		    if (deltaW > maxWeightChangeInLastEpisode) {
-			maxWeightChangeInLastEpisode = deltaW;
-		    }
-
-		    et.eligibilityValue *= this.lambda * discount;
-		    if (et.eligibilityValue >= this.minEligibityForUpdate) {
-			traces.put(weightId, et);
-		    }
-
+		double deltaW = Math.abs(traces.initialWeights[pos] - newWeight);
+		if (deltaW > maxWeightChangeInLastEpisode) {
+		    maxWeightChangeInLastEpisode = deltaW;
 		}
 
-	    }
+		e *= decay;
+		if (e < this.minEligibityForUpdate) {
+		    traces.removeAt(pos);
+		} else {
+		    traces.eligibility[pos] = e;
+		}
 
-	    // delete any traces
-	    for (Integer t : deletedSet) {
-		traces.remove(t);
 	    }
 
 	    // move on
@@ -566,6 +591,8 @@ public class GradientDescentSarsaLam extends OOMDPPlanner implements
 
 	}
 
+	this.cacheApproximations(null, null);
+
 	if (episodeHistory.size() >= numEpisodesToStore) {
 	    episodeHistory.poll();
 	    episodeHistory.offer(ea);
@@ -574,6 +601,43 @@ public class GradientDescentSarsaLam extends OOMDPPlanner implements
 	return ea;
     }
 
+    /**
+     * Remembers the approximations of a state so that {@link #getQs(State)}
+     * can return them without querying the VFA again. The approximations
+     * must be forgotten, by passing null, before the weights change.
+     * 
+     * @param s
+     *            the state object, or null
+     * @param approximations
+     *            the approximations of each action in s, or null
+     */
+    protected void cacheApproximations(State s,
+	    List<ActionApproximationResult> approximations) {
+	this.approximatedState = s;
+	this.stateApproximations = approximations;
+    }
+
+    /**
+     * Removes the trace of a weight, or zeroes it if the weight belongs to
+     * the selected action, as required by replacing traces.
+     * 
+     * @param id
+     *            the weight identifier
+     * @param selected
+     *            whether the weight belongs to the selected action
+     */
+    protected void replaceTrace(int id, boolean selected) {
+	int pos = this.traces.indexOf(id);
+	if (pos < 0) {
+	    return;
+	}
+	if (selected) {
+	    this.traces.eligibility[pos] = 0.;
+	} else {
+	    this.traces.removeAt(pos);
+	}
+    }
+
     @Override
     public EpisodeAnalysis getLastLearningEpisode() {
 	return episodeHistory.getLast();
@@ -598,8 +662,12 @@ public class GradientDescentSarsaLam extends OOMDPPlanner implements
 	List<GroundedAction> gas = this.getAllGroundedActions(s);
 	List<QValue> qs = new ArrayList<QValue>(gas.size());
 
-	List<ActionApproximationResult> results = vfa.getStateActionValues(s,
-		gas);
+	List<ActionApproximationResult> results;
+	if (s == this.approximatedState) {
+	    results = this.stateApproximations;
+	} else {
+	    results = vfa.getStateActionValues(s, gas);
+	}
 	for (GroundedAction ga : gas) {
 	    qs.add(this.getQFromFeaturesFor(results, s, ga));
 	}
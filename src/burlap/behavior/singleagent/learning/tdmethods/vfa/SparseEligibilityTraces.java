@@ -0,0 +1,272 @@
+package burlap.behavior.singleagent.learning.tdmethods.vfa;
+
+import java.util.Arrays;
+
+import burlap.behavior.singleagent.vfa.FunctionWeight;
+
+/**
+ * A table of the active eligibility traces of VFA weights, stored in
+ * primitive arrays. The traces are kept densely in positions 0 to
+ * {@link #size()}-1 of parallel arrays holding the weight identifier, the
+ * eligibility value, the value of the weight when the trace started and,
+ * optionally, the {@link FunctionWeight} object through which the weight is
+ * read and written. An open-addressed hash table with linear probing maps
+ * weight identifiers to positions. Removing a trace moves the last trace into
+ * its position, so iterating the positions from last to first may remove the
+ * current trace while iterating. Once the arrays have grown large enough,
+ * adding and removing traces does not allocate.
+ *
+ */
+public class SparseEligibilityTraces {
+
+    /**
+     * The weight identifier of each trace
+     */
+    protected int[] ids;
+
+    /**
+     * The eligibility value of each trace
+     */
+    protected double[] eligibility;
+
+    /**
+     * The value of the weight of each trace when the trace started
+     */
+    protected double[] initialWeights;
+
+    /**
+     * The function weight object of each trace, if any
+     */
+    protected FunctionWeight[] weights;
+
+    /**
+     * The number of traces
+     */
+    protected int size = 0;
+
+    /**
+     * The hash table; each slot is 0 if empty or one more than the position
+     * of a trace
+     */
+    protected int[] table;
+
+    /**
+     * Initializes with space for 64 traces.
+     */
+    public SparseEligibilityTraces() {
+	this(64);
+    }
+
+    /**
+     * Initializes.
+     *
+     * @param capacity
+     *            the number of traces for which to reserve space
+     */
+    public SparseEligibilityTraces(int capacity) {
+	capacity = Math.max(capacity, 4);
+	this.ids = new int[capacity];
+	this.eligibility = new double[capacity];
+	this.initialWeights = new double[capacity];
+	this.weights = new FunctionWeight[capacity];
+	this.table = new int[tableSizeFor(capacity)];
+    }
+
+    /**
+     * Returns the number of traces.
+     *
+     * @return the number of traces
+     */
+    public int size() {
+	return this.size;
+    }
+
+    /**
+     * Returns the weight identifier of the trace at a position.
+     *
+     * @param pos
+     *            the position of the trace
+     * @return the weight identifier of the trace
+     */
+    public int id(int pos) {
+	return this.ids[pos];
+    }
+
+    /**
+     * Returns the position of the trace of a weight.
+     *
+     * @param id
+     *            the weight identifier
+     * @return the position of the trace, or -1 if the weight has no trace
+     */
+    public int indexOf(int id) {
+	int mask = this.table.length - 1;
+	for (int slot = hash(id) & mask;; slot = (slot + 1) & mask) {
+	    int entry = this.table[slot];
+	    if (entry == 0) {
+		return -1;
+	    }
+	    if (this.ids[entry - 1] == id) {
+		return entry - 1;
+	    }
+	}
+    }
+
+    /**
+     * Adds a trace with zero eligibility for a weight that has no trace.
+     *
+     * @param id
+     *            the weight identifier
+     * @param initialWeight
+     *            the current value of the weight
+     * @param weight
+     *            the function weight object of the weight, or null
+     * @return the position of the new trace
+     */
+    public int add(int id, double initialWeight, FunctionWeight weight) {
+
+	if (this.size == this.ids.length) {
+	    int n = 2 * this.ids.length;
+	    this.ids = Arrays.copyOf(this.ids, n);
+	    this.eligibility = Arrays.copyOf(this.eligibility, n);
+	    this.initialWeights = Arrays.copyOf(this.initialWeights, n);
+	    this.weights = Arrays.copyOf(this.weights, n);
+	}
+	if (2 * (this.size + 1) > this.table.length) {
+	    this.rehash(2 * this.table.length);
+	}
+
+	int pos = this.size;
+	this.ids[pos] = id;
+	this.eligibility[pos] = 0.;
+	this.initialWeights[pos] = initialWeight;
+	this.weights[pos] = weight;
+	this.size++;
+
+	this.insertSlot(pos);
+
+	return pos;
+    }
+
+    /**
+     * Removes the trace of a weight if it has one.
+     *
+     * @param id
+     *            the weight identifier
+     */
+    public void remove(int id) {
+	int pos = this.indexOf(id);
+	if (pos >= 0) {
+	    this.removeAt(pos);
+	}
+    }
+
+    /**
+     * Removes the trace at a position and moves the last trace into that
+     * position.
+     *
+     * @param pos
+     *            the position of the trace to remove
+     */
+    public void removeAt(int pos) {
+
+	this.deleteSlot(this.ids[pos]);
+
+	int last = this.size - 1;
+	if (pos != last) {
+	    this.ids[pos] = this.ids[last];
+	    this.eligibility[pos] = this.eligibility[last];
+	    this.initialWeights[pos] = this.initialWeights[last];
+	    this.weights[pos] = this.weights[last];
+	    this.table[this.slotOf(this.ids[pos])] = pos + 1;
+	}
+	this.weights[last] = null;
+	this.size--;
+
+    }
+
+    /**
+     * Removes all traces.
+     */
+    public void clear() {
+	Arrays.fill(this.weights, 0, this.size, null);
+	Arrays.fill(this.table, 0);
+	this.size = 0;
+    }
+
+    /**
+     * Inserts the trace at a position into the hash table.
+     *
+     * @param pos
+     *            the position of the trace
+     */
+    protected void insertSlot(int pos) {
+	int mask = this.table.length - 1;
+	int slot = hash(this.ids[pos]) & mask;
+	while (this.table[slot] != 0) {
+	    slot = (slot + 1) & mask;
+	}
+	this.table[slot] = pos + 1;
+    }
+
+    /**
+     * Returns the hash table slot of a weight that has a trace.
+     *
+     * @param id
+     *            the weight identifier
+     * @return the slot of the weight
+     */
+    protected int slotOf(int id) {
+	int mask = this.table.length - 1;
+	int slot = hash(id) & mask;
+	while (this.ids[this.table[slot] - 1] != id) {
+	    slot = (slot + 1) & mask;
+	}
+	return slot;
+    }
+
+    /**
+     * Removes a weight that has a trace from the hash table, shifting back
+     * later entries of its probe sequence so that no tombstones are needed.
+     *
+     * @param id
+     *            the weight identifier
+     */
+    protected void deleteSlot(int id) {
+	int mask = this.table.length - 1;
+	int hole = this.slotOf(id);
+	this.table[hole] = 0;
+	for (int j = (hole + 1) & mask; this.table[j] != 0; j = (j + 1) & mask) {
+	    int home = hash(this.ids[this.table[j] - 1]) & mask;
+	    // the entry stays if its home slot lies cyclically in (hole, j]
+	    boolean stays = hole <= j ? (hole < home && home <= j)
+		    : (hole < home || home <= j);
+	    if (!stays) {
+		this.table[hole] = this.table[j];
+		this.table[j] = 0;
+		hole = j;
+	    }
+	}
+    }
+
+    protected void rehash(int tableSize) {
+	this.table = new int[tableSize];
+	for (int pos = 0; pos < this.size; pos++) {
+	    this.insertSlot(pos);
+	}
+    }
+
+    protected static int tableSizeFor(int capacity) {
+	int n = 4;
+	while (n < 2 * capacity) {
+	    n <<= 1;
+	}
+	return n;
+    }
+
+    protected static int hash(int id) {
+	int h = id * 0x9E3779B9;
+	return h ^ (h >>> 16);
+    }
+
+}
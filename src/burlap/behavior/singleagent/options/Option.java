@@ -2,6 +2,7 @@ package burlap.behavior.singleagent.options;
 
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Random;
@@ -9,6 +10,7 @@ import java.util.Random;
 import burlap.behavior.singleagent.EpisodeAnalysis;
 import burlap.behavior.singleagent.Policy;
 import burlap.behavior.singleagent.Policy.ActionProb;
+import burlap.behavior.singleagent.options.OptionModelCache.OptionModel;
 import burlap.behavior.singleagent.planning.StateMapping;
 import burlap.behavior.statehashing.StateHashFactory;
 import burlap.behavior.statehashing.StateHashTuple;
@@ -49,14 +51,19 @@ import burlap.oomdp.singleagent.common.NullAction;
  * (such as value iteration) require the option to return not only the possible
  * terminal states, but the expected number of steps to those terminal states
  * and the expected cumulative reward. By default, this abstract Option class
- * will compute those transition dynamics through a branching exploration of the
- * possible outcomes at each step of execution and save the results so that they
- * do not need to be computed again. If an option is stochastic or if the
- * underlining domain is stochastic, there may be an infinite number of possible
- * outcomes. As a result, the transition dynamics computation will stop
- * searching for states at given horizons that are less than some small
- * probability of occurring (by default set to 0.001). This threshold hold may
- * be modified. However, if these transition dynamics can be specified a priori,
+ * will compute those transition dynamics and save the results in an
+ * {@link OptionModelCache} so that they do not need to be computed again. For
+ * Markov options, the computation propagates probability mass through the
+ * states the option can reach, merging all paths that reach the same state, so
+ * its cost grows with the number of reachable states rather than the number of
+ * paths. Non-Markov options are handled by a branching exploration of the
+ * possible outcomes at each step of execution. If an option is stochastic or if
+ * the underlining domain is stochastic, there may be an infinite number of
+ * possible outcomes. As a result, the transition dynamics computation will stop
+ * expanding states whose probability of being reached is less than some small
+ * value (by default set to 0.001). This threshold hold may be modified. The
+ * cache may be bounded in size, shared between options and planners, and saved
+ * to disk. However, if these transition dynamics can be specified a priori,
  * it is recommended that the {@link #getTransitions(State, String [])} method
  * is overridden and specified by hand rather than requiring this class to have
  * to enumerate the results. Finally, note that the
@@ -164,14 +171,17 @@ public abstract class Option extends Action {
     protected StateHashFactory expectationStateHashingFactory;
 
     /**
-     * The cached transition probabilities from each initiation state
+     * The cached transition probabilities and expected reward from each
+     * initiation state
      */
-    protected Map<StateHashTuple, List<TransitionProbability>> cachedExpectations;
+    protected OptionModelCache modelCache;
 
     /**
-     * The cached expected reward from each initiation state
+     * Whether the model cache was provided with
+     * {@link #setModelCache(OptionModelCache)}, in which case it is kept when
+     * a new expectation hashing factory is set
      */
-    protected Map<StateHashTuple, Double> cachedExpectedRewards;
+    protected boolean sharedModelCache = false;
 
     /**
      * The minimum probability a possible terminal state being reached to be
@@ -179,6 +189,13 @@ public abstract class Option extends Action {
      */
     protected double expectationSearchCutoffProb = 0.001;
 
+    /**
+     * The discounted mass below which the model computation of a Markov
+     * option stops propagating mass from a state, so that it ends even for
+     * options that may never terminate
+     */
+    protected static final double MINMODELMASS = 1e-15;
+
     /**
      * An option state mapping to use to map from a source MDP state
      * representation to a representation that this option will use for action
@@ -367,20 +384,67 @@ public abstract class Option extends Action {
 
     /**
      * Sets the option to use the provided hashing factory for caching
-     * transition probability results.
+     * transition probability results. Unless a cache was provided with
+     * {@link #setModelCache(OptionModelCache)}, the option starts with a new
+     * unbounded cache when the hashing factory changes; models cached with
+     * the same hashing factory are kept.
      * 
      * @param hashingFactory
      *            the state hashing factory to use.
      */
     public void setExpectationHashingFactory(StateHashFactory hashingFactory) {
+	if (this.modelCache == null
+		|| (!this.sharedModelCache && hashingFactory != this.expectationStateHashingFactory)) {
+	    this.modelCache = new OptionModelCache();
+	    this.sharedModelCache = false;
+	}
 	this.expectationStateHashingFactory = hashingFactory;
-	this.cachedExpectations = new HashMap<StateHashTuple, List<TransitionProbability>>();
-	this.cachedExpectedRewards = new HashMap<StateHashTuple, Double>();
+    }
+
+    /**
+     * Sets the cache in which this option stores its computed transition
+     * dynamics. The cache is kept when planners set a new expectation hashing
+     * factory, so it may be shared by several options and planners and
+     * bounded in size. It should only be shared between planners that use the
+     * same reward function and discount factor.
+     * 
+     * @param cache
+     *            the cache to use.
+     */
+    public void setModelCache(OptionModelCache cache) {
+	this.modelCache = cache;
+	this.sharedModelCache = true;
+    }
+
+    /**
+     * Returns whether the model cache was provided with
+     * {@link #setModelCache(OptionModelCache)}, in which case it may be shared
+     * with other options and planners, or persisted, and is managed by the
+     * caller rather than by this option.
+     * 
+     * @return true if the model cache was provided by the caller; false if
+     *         this option created it.
+     */
+    public boolean hasSharedModelCache() {
+	return this.sharedModelCache;
+    }
+
+    /**
+     * Returns the cache in which this option stores its computed transition
+     * dynamics.
+     * 
+     * @return the cache in which this option stores its computed transition
+     *         dynamics.
+     */
+    public OptionModelCache getModelCache() {
+	return this.modelCache;
     }
 
     /**
      * Sets the minimum probability of reaching a terminal state for it to be
-     * included in the options computed transition dynamics distribution.
+     * included in the options computed transition dynamics distribution. For
+     * Markov options, this is the minimum undiscounted probability mass that
+     * is propagated from a state.
      * 
      * @param cutoff
      *            the minimum probability of reaching a terminal state for it to
@@ -509,6 +573,11 @@ public abstract class Option extends Action {
      *            the discount factor to use
      */
     public void keepTrackOfRewardWith(RewardFunction rf, double discount) {
+	if (this.modelCache != null && !this.sharedModelCache
+		&& (rf != this.rf || discount != this.discountFactor)) {
+	    // cached models were computed for another reward function
+	    this.modelCache.clear();
+	}
 	this.keepTrackOfReward = true;
 	this.rf = rf;
 	this.discountFactor = discount;
@@ -678,35 +747,240 @@ public abstract class Option extends Action {
      *         from state s.
      */
     public double getExpectedRewards(State s, String[] params) {
-	StateHashTuple sh = this.expectationStateHashingFactory.hashState(s);
-	Double result = this.cachedExpectedRewards.get(sh);
-	if (result != null) {
-	    return result;
-	}
-	this.getTransitions(s, params);
-	return this.cachedExpectedRewards.get(sh);
+	return this.getModel(s, params).expectedReward;
     }
 
     @Override
     public List<TransitionProbability> getTransitions(State st, String[] params) {
+	return this.getModel(st, params).transitions;
+    }
+
+    /**
+     * Returns the model of this option initiated in a state: the discounted
+     * probability of terminating in each state and the expected discounted
+     * reward. The model is computed and cached if it is not already in the
+     * cache.
+     * 
+     * @param st
+     *            the state in which the option is initiated
+     * @param params
+     *            the parameters that were passed to the option at initiation
+     * @return the model of this option initiated in st.
+     */
+    public OptionModel getModel(State st, String[] params) {
 
 	StateHashTuple sh = this.expectationStateHashingFactory.hashState(st);
 
-	List<TransitionProbability> result = this.cachedExpectations.get(sh);
-	if (result != null) {
-	    return result;
+	OptionModel model = this.modelCache.get(this.name, params, sh);
+	if (model != null) {
+	    return model;
 	}
 
-	this.initiateInState(st, params);
+	if (this.isMarkov()) {
+	    // a Markov option keeps no execution state, so its model can be
+	    // computed from several threads at once
+	    model = this.computeMarkovModel(sh, params);
+	} else {
+	    this.initiateInState(st, params);
+	    ExpectationSearchNode esn = new ExpectationSearchNode(st, params);
+	    Map<StateHashTuple, Double> possibleTerminations = new HashMap<StateHashTuple, Double>();
+	    double[] expectedReturn = new double[] { 0. };
+	    this.iterateExpectationScan(esn, 1., possibleTerminations,
+		    expectedReturn);
+	    model = new OptionModel(this.toTransitions(possibleTerminations),
+		    expectedReturn[0]);
+	}
 
-	ExpectationSearchNode esn = new ExpectationSearchNode(st, params);
-	Map<StateHashTuple, Double> possibleTerminations = new HashMap<StateHashTuple, Double>();
-	double[] expectedReturn = new double[] { 0. };
-	this.iterateExpectationScan(esn, 1., possibleTerminations,
-		expectedReturn);
+	this.modelCache.put(this.name, params, sh, model);
 
-	this.cachedExpectedRewards.put(sh, expectedReturn[0]);
+	return model;
+    }
+
+    /**
+     * Computes the model of a Markov option by dynamic programming over the
+     * states it can reach. Each state accumulates the discounted probability
+     * mass of every path that reaches it, so paths that reach the same state
+     * are merged instead of being expanded separately. Mass is propagated in
+     * first-in first-out order until no state holds more than
+     * {@link #expectationSearchCutoffProb} of unpropagated undiscounted
+     * probability, or more than {@link #MINMODELMASS} of unpropagated
+     * discounted mass. As in the path scan of non-Markov options, the cutoff
+     * is applied to the undiscounted probability, so outcomes that are
+     * reached with certainty are kept however many steps they take. Mass
+     * that is left unpropagated still terminates in its state with the
+     * state's termination probability. The termination distribution and
+     * expected reward are then the fixed point of the option's Bellman
+     * equations, up to the dropped mass.
+     * 
+     * @param sh
+     *            the hashed initiation state
+     * @param params
+     *            the parameters that were passed to the option at initiation
+     * @return the model of this option initiated in sh.
+     */
+    protected OptionModel computeMarkovModel(StateHashTuple sh,
+	    String[] params) {
+
+	Map<StateHashTuple, ModelNode> nodes = new HashMap<StateHashTuple, ModelNode>();
+	List<ModelNode> terminations = new ArrayList<ModelNode>();
+	LinkedList<ModelNode> queue = new LinkedList<ModelNode>();
+
+	// the option cannot terminate in the initiation state, so the root is
+	// kept apart from any later visit of the same state
+	ModelNode root = new ModelNode(sh, 0.);
+	this.expandModelNode(root, nodes, terminations, params);
+	double expectedReward = root.reward;
+	this.pushMass(root, 1., 1., queue);
+
+	while (queue.size() > 0) {
+
+	    ModelNode node = queue.poll();
+	    node.queued = false;
+	    double mass = node.residual;
+	    double probMass = node.probResidual;
+	    node.residual = 0.;
+	    node.probResidual = 0.;
+
+	    node.terminationMass += node.probTerm * mass;
+
+	    double continueMass = (1. - node.probTerm) * mass;
+	    if (continueMass > 0.) {
+		if (node.successors == null) {
+		    this.expandModelNode(node, nodes, terminations, params);
+		}
+		expectedReward += continueMass * node.reward;
+		this.pushMass(node, continueMass, (1. - node.probTerm)
+			* probMass, queue);
+	    }
 
+	}
+
+	// mass below the cutoff is not propagated, but may still terminate
+	for (ModelNode node : terminations) {
+	    node.terminationMass += node.probTerm * node.residual;
+	}
+
+	List<TransitionProbability> transitions = new ArrayList<TransitionProbability>(
+		terminations.size());
+	for (ModelNode node : terminations) {
+	    if (node.terminationMass > 0.) {
+		transitions.add(new TransitionProbability(node.sh.s,
+			node.terminationMass));
+	    }
+	}
+
+	return new OptionModel(transitions, expectedReward);
+    }
+
+    /**
+     * Computes the outcome distribution of one step of the option from the
+     * state of a node and the expected reward of that step, creating nodes for
+     * newly reached states.
+     * 
+     * @param node
+     *            the node to expand
+     * @param nodes
+     *            the nodes of all states reached so far
+     * @param terminations
+     *            the nodes in which the option may terminate
+     * @param params
+     *            the parameters that were passed to the option at initiation
+     */
+    protected void expandModelNode(ModelNode node,
+	    Map<StateHashTuple, ModelNode> nodes, List<ModelNode> terminations,
+	    String[] params) {
+
+	Map<ModelNode, Double> outcomes = new HashMap<ModelNode, Double>();
+	List<ModelNode> order = new ArrayList<ModelNode>();
+	double reward = 0.;
+
+	State s = node.sh.s;
+	for (ActionProb ap : this.getActionDistributionForState(s, params)) {
+	    GroundedAction ga = (GroundedAction) ap.ga;
+	    for (TransitionProbability tp : ga.action.getTransitions(s,
+		    ga.params)) {
+
+		double p = ap.pSelection * tp.p;
+		if (p == 0.) {
+		    continue;
+		}
+		reward += p * this.rf.reward(s, ga, tp.s);
+
+		StateHashTuple nsh = this.expectationStateHashingFactory
+			.hashState(tp.s);
+		ModelNode next = nodes.get(nsh);
+		if (next == null) {
+		    double pt = this.externalTerminalFunction.isTerminal(tp.s) ? 1.
+			    : this.probabilityOfTermination(tp.s, params);
+		    next = new ModelNode(nsh, pt);
+		    nodes.put(nsh, next);
+		    if (pt > 0.) {
+			terminations.add(next);
+		    }
+		}
+
+		Double stored = outcomes.get(next);
+		if (stored == null) {
+		    order.add(next);
+		    outcomes.put(next, p);
+		} else {
+		    outcomes.put(next, stored + p);
+		}
+
+	    }
+	}
+
+	node.reward = reward;
+	node.successors = order.toArray(new ModelNode[order.size()]);
+	node.successorProbs = new double[order.size()];
+	for (int i = 0; i < node.successors.length; i++) {
+	    node.successorProbs[i] = outcomes.get(node.successors[i]);
+	}
+
+    }
+
+    /**
+     * Propagates probability mass that continues from a node to its
+     * successors, discounted by one step, and queues the successors whose
+     * unpropagated undiscounted probability exceeds
+     * {@link #expectationSearchCutoffProb} and whose unpropagated discounted
+     * mass exceeds {@link #MINMODELMASS}.
+     * 
+     * @param node
+     *            the node from which the mass continues
+     * @param mass
+     *            the discounted mass that continues from the node
+     * @param probMass
+     *            the undiscounted probability that continues from the node
+     * @param queue
+     *            the queue of nodes with mass to propagate
+     */
+    protected void pushMass(ModelNode node, double mass, double probMass,
+	    LinkedList<ModelNode> queue) {
+	double discounted = this.discountFactor * mass;
+	for (int i = 0; i < node.successors.length; i++) {
+	    ModelNode next = node.successors[i];
+	    next.residual += discounted * node.successorProbs[i];
+	    next.probResidual += probMass * node.successorProbs[i];
+	    if (!next.queued
+		    && next.probResidual > this.expectationSearchCutoffProb
+		    && next.residual > MINMODELMASS) {
+		next.queued = true;
+		queue.offer(next);
+	    }
+	}
+    }
+
+    /**
+     * Converts a map of possible termination states into a list of
+     * transitions.
+     * 
+     * @param possibleTerminations
+     *            the discounted probability of terminating in each state
+     * @return the corresponding list of transitions
+     */
+    protected List<TransitionProbability> toTransitions(
+	    Map<StateHashTuple, Double> possibleTerminations) {
 	List<TransitionProbability> transition = new ArrayList<TransitionProbability>();
 	for (Map.Entry<StateHashTuple, Double> e : possibleTerminations
 		.entrySet()) {
@@ -714,18 +988,13 @@ public abstract class Option extends Action {
 		    e.getValue());
 	    transition.add(tp);
 	}
-
-	this.cachedExpectations.put(sh, transition);
-
-	// State res = this.performAction(st, params);
-	// transition.add(new TransitionProbability(res, 1.0));
-
 	return transition;
     }
 
     /**
      * This method will recursively determine all possible paths that could
-     * occur from execution of the option as well as the expected return. This
+     * occur from execution of the option as well as the expected return. It
+     * is used for non-Markov options, whose paths cannot be merged. This
      * method will stop expanding the possible paths when the probability of a
      * state being reached is less than {@link expectationSearchCutoffProb}
      * 
@@ -841,6 +1110,55 @@ public abstract class Option extends Action {
 	return aps;
     }
 
+    /**
+     * A state reached by a Markov option while its model is computed, with
+     * the outcome distribution of one option step from it and the probability
+     * mass accumulated in it.
+     * 
+     */
+    protected static class ModelNode {
+
+	protected StateHashTuple sh;
+
+	/**
+	 * The probability that the option terminates in this state
+	 */
+	protected double probTerm;
+
+	/**
+	 * The expected reward of one option step from this state
+	 */
+	protected double reward;
+
+	protected ModelNode[] successors;
+	protected double[] successorProbs;
+
+	/**
+	 * The discounted probability mass that terminated in this state
+	 */
+	protected double terminationMass = 0.;
+
+	/**
+	 * The discounted probability mass that reached this state and has not
+	 * been propagated yet
+	 */
+	protected double residual = 0.;
+
+	/**
+	 * The undiscounted probability that reached this state and has not been
+	 * propagated yet
+	 */
+	protected double probResidual = 0.;
+
+	protected boolean queued = false;
+
+	public ModelNode(StateHashTuple sh, double probTerm) {
+	    this.sh = sh;
+	    this.probTerm = probTerm;
+	}
+
+    }
+
     /**
      * A search node class used for finding all possible paths of execution an
      * option could take in the world from each initiation state.
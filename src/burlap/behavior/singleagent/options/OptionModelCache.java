@@ -0,0 +1,357 @@
+package burlap.behavior.singleagent.options;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Scanner;
+
+import burlap.behavior.statehashing.StateHashFactory;
+import burlap.behavior.statehashing.StateHashTuple;
+import burlap.oomdp.auxiliary.StateParser;
+import burlap.oomdp.core.State;
+import burlap.oomdp.core.TransitionProbability;
+
+/**
+ * A bounded store of computed option models. A model holds the discounted
+ * termination distribution and the expected discounted reward of an option
+ * initiated in a state with some parameters (see
+ * {@link Option#getTransitions(State, String[])}). Models are keyed by the
+ * option name, the option parameters and the hashed initiation state, so a
+ * single cache may be shared by any number of options and planners. Because
+ * a model depends on the reward function and discount factor with which it
+ * was computed, a cache should only be shared between planners that use the
+ * same reward function and discount factor.
+ * <p/>
+ * The size of the cache is the total number of termination outcomes it
+ * stores. When a maximum size is set, the least recently used models are
+ * evicted until the cache fits. The cache may be written to a file and read
+ * back using a {@link StateParser}, so that models need not be computed again
+ * in later runs. All methods are synchronized so that the cache can be used
+ * from several threads.
+ *
+ */
+public class OptionModelCache {
+
+    /**
+     * The maximum number of stored termination outcomes; 0 or less means
+     * unbounded
+     */
+    protected int maxSize;
+
+    /**
+     * The number of stored termination outcomes
+     */
+    protected int size = 0;
+
+    /**
+     * The models in least recently used order
+     */
+    protected LinkedHashMap<ModelKey, OptionModel> models = new LinkedHashMap<ModelKey, OptionModel>(
+	    16, 0.75f, true);
+
+    /**
+     * Initializes an unbounded cache.
+     */
+    public OptionModelCache() {
+	this(0);
+    }
+
+    /**
+     * Initializes.
+     *
+     * @param maxSize
+     *            the maximum number of termination outcomes to store before
+     *            least recently used models are evicted; 0 or less for no limit
+     */
+    public OptionModelCache(int maxSize) {
+	this.maxSize = maxSize;
+    }
+
+    /**
+     * Sets the maximum number of termination outcomes to store, evicting
+     * least recently used models if the cache is now too large.
+     *
+     * @param maxSize
+     *            the maximum number of termination outcomes to store; 0 or
+     *            less for no limit
+     */
+    public synchronized void setMaxSize(int maxSize) {
+	this.maxSize = maxSize;
+	this.evict();
+    }
+
+    /**
+     * Returns the maximum number of termination outcomes stored.
+     *
+     * @return the maximum number of termination outcomes stored; 0 or less
+     *         for no limit
+     */
+    public int getMaxSize() {
+	return this.maxSize;
+    }
+
+    /**
+     * Returns the number of termination outcomes stored.
+     *
+     * @return the number of termination outcomes stored.
+     */
+    public synchronized int size() {
+	return this.size;
+    }
+
+    /**
+     * Returns the number of models stored.
+     *
+     * @return the number of models stored.
+     */
+    public synchronized int numModels() {
+	return this.models.size();
+    }
+
+    /**
+     * Returns the stored model of an option, or null if there is none.
+     *
+     * @param optionName
+     *            the name of the option
+     * @param params
+     *            the parameters of the option
+     * @param sh
+     *            the hashed initiation state
+     * @return the stored model, or null if there is none.
+     */
+    public synchronized OptionModel get(String optionName, String[] params,
+	    StateHashTuple sh) {
+	return this.models.get(new ModelKey(optionName, params, sh));
+    }
+
+    /**
+     * Stores the model of an option, replacing any previous model for the
+     * same option, parameters and initiation state.
+     *
+     * @param optionName
+     *            the name of the option
+     * @param params
+     *            the parameters of the option
+     * @param sh
+     *            the hashed initiation state
+     * @param model
+     *            the model to store
+     */
+    public synchronized void put(String optionName, String[] params,
+	    StateHashTuple sh, OptionModel model) {
+	OptionModel old = this.models.put(
+		new ModelKey(optionName, params, sh), model);
+	if (old != null) {
+	    this.size -= old.transitions.size();
+	}
+	this.size += model.transitions.size();
+	this.evict();
+    }
+
+    /**
+     * Removes all models.
+     */
+    public synchronized void clear() {
+	this.models.clear();
+	this.size = 0;
+    }
+
+    /**
+     * Writes all models to a file. If the directories of the path do not
+     * exist, they will be created.
+     *
+     * @param path
+     *            the path of the file
+     * @param sp
+     *            the state parser to use to convert states into strings
+     */
+    public synchronized void writeToFile(String path, StateParser sp) {
+
+	File f = (new File(path)).getParentFile();
+	if (f != null) {
+	    f.mkdirs();
+	}
+
+	try {
+	    BufferedWriter out = new BufferedWriter(new FileWriter(path));
+	    for (Map.Entry<ModelKey, OptionModel> e : this.models.entrySet()) {
+		ModelKey key = e.getKey();
+		OptionModel model = e.getValue();
+		out.write("#OM#\n");
+		out.write(key.optionName + "\n");
+		out.write(joinParams(key.params) + "\n");
+		out.write(model.expectedReward + "\n");
+		out.write(sp.stateToString(key.sh.s) + "\n");
+		for (TransitionProbability tp : model.transitions) {
+		    out.write("#OT#\n");
+		    out.write(tp.p + "\n");
+		    out.write(sp.stateToString(tp.s) + "\n");
+		}
+	    }
+	    out.close();
+	} catch (IOException e) {
+	    throw new RuntimeException(e);
+	}
+
+    }
+
+    /**
+     * Reads the models in a file written by
+     * {@link #writeToFile(String, StateParser)} and adds them to this cache.
+     *
+     * @param path
+     *            the path of the file
+     * @param sp
+     *            the state parser to use to convert strings into states
+     * @param hashingFactory
+     *            the hashing factory of the options that will use the models
+     */
+    public void readFromFile(String path, StateParser sp,
+	    StateHashFactory hashingFactory) {
+
+	String fcont;
+	try {
+	    Scanner scanner = new Scanner(new File(path));
+	    fcont = scanner.useDelimiter("\\Z").hasNext() ? scanner.next() : "";
+	    scanner.close();
+	} catch (IOException e) {
+	    throw new RuntimeException(e);
+	}
+
+	String[] entries = fcont.split("#OM#\n");
+	for (int i = 1; i < entries.length; i++) {
+
+	    String[] parts = stripNewline(entries[i]).split("\n#OT#\n");
+
+	    String[] head = parts[0].split("\n", 4);
+	    String optionName = head[0];
+	    String[] params = head[1].length() == 0 ? new String[0] : head[1]
+		    .split(" ");
+	    double expectedReward = Double.parseDouble(head[2]);
+	    State s = sp.stringToState(head[3]);
+
+	    List<TransitionProbability> transitions = new ArrayList<TransitionProbability>(
+		    parts.length - 1);
+	    for (int j = 1; j < parts.length; j++) {
+		String[] tpComps = parts[j].split("\n", 2);
+		transitions.add(new TransitionProbability(sp
+			.stringToState(tpComps[1]), Double
+			.parseDouble(tpComps[0])));
+	    }
+
+	    this.put(optionName, params, hashingFactory.hashState(s),
+		    new OptionModel(transitions, expectedReward));
+
+	}
+
+    }
+
+    /**
+     * Evicts least recently used models until the cache is no larger than
+     * its maximum size. The most recently used model is never evicted.
+     */
+    protected void evict() {
+	if (this.maxSize <= 0) {
+	    return;
+	}
+	Iterator<OptionModel> iter = this.models.values().iterator();
+	while (this.size > this.maxSize && this.models.size() > 1) {
+	    this.size -= iter.next().transitions.size();
+	    iter.remove();
+	}
+    }
+
+    protected static String joinParams(String[] params) {
+	StringBuilder buf = new StringBuilder();
+	for (int i = 0; i < params.length; i++) {
+	    if (i > 0) {
+		buf.append(" ");
+	    }
+	    buf.append(params[i]);
+	}
+	return buf.toString();
+    }
+
+    protected static String stripNewline(String str) {
+	if (str.endsWith("\n")) {
+	    return str.substring(0, str.length() - 1);
+	}
+	return str;
+    }
+
+    /**
+     * The model of an option initiated in some state: the discounted
+     * probability of terminating in each state and the expected discounted
+     * reward received before terminating.
+     *
+     */
+    public static class OptionModel {
+
+	/**
+	 * The discounted probability of terminating in each state
+	 */
+	public List<TransitionProbability> transitions;
+
+	/**
+	 * The expected discounted reward received before terminating
+	 */
+	public double expectedReward;
+
+	public OptionModel(List<TransitionProbability> transitions,
+		double expectedReward) {
+	    this.transitions = transitions;
+	    this.expectedReward = expectedReward;
+	}
+
+    }
+
+    /**
+     * The key of a model: an option name, its parameters and a hashed
+     * initiation state.
+     *
+     */
+    protected static class ModelKey {
+
+	protected String optionName;
+	protected String[] params;
+	protected StateHashTuple sh;
+	protected int hashCode;
+
+	public ModelKey(String optionName, String[] params, StateHashTuple sh) {
+	    this.optionName = optionName;
+	    this.params = params == null ? new String[0] : params;
+	    this.sh = sh;
+	    this.hashCode = 31 * (31 * optionName.hashCode() + Arrays
+		    .hashCode(this.params)) + sh.hashCode();
+	}
+
+	@Override
+	public int hashCode() {
+	    return this.hashCode;
+	}
+
+	@Override
+	public boolean equals(Object other) {
+	    if (this == other) {
+		return true;
+	    }
+	    if (!(other instanceof ModelKey)) {
+		return false;
+	    }
+	    ModelKey o = (ModelKey) other;
+	    return this.hashCode == o.hashCode
+		    && this.optionName.equals(o.optionName)
+		    && Arrays.equals(this.params, o.params)
+		    && this.sh.equals(o.sh);
+	}
+
+    }
+
+}
@@ -0,0 +1,591 @@
+package burlap.behavior.singleagent.planning;
+
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import burlap.behavior.singleagent.Policy;
+import burlap.behavior.singleagent.Policy.ActionProb;
+import burlap.behavior.singleagent.ValueFunctionInitialization;
+import burlap.behavior.singleagent.options.Option;
+import burlap.oomdp.core.State;
+import burlap.oomdp.core.TerminalFunction;
+import burlap.oomdp.singleagent.GroundedAction;
+import burlap.oomdp.singleagent.RewardFunction;
+
+/**
+ * A frozen, array-only representation of the MDP stored in a
+ * {@link DenseValueFunctionStore}. Compiling the store copies its cached
+ * transitions into sparse rows, one for each state-action pair, and evaluates
+ * the reward function once for every transition, so that Bellman sweeps over
+ * the compiled MDP are tight loops over primitive arrays that require no
+ * hashing, reward function calls or object traversal.
+ * <p/>
+ * States are identified by their id in the source store. Terminal states and
+ * states whose transitions were not cached when the MDP was compiled (for
+ * example, the frontier of a pruned reachability search) are held fixed
+ * during sweeps. A non-terminal state whose transitions were cached but that
+ * has no applicable actions is swept like any other state, so, as with the
+ * Bellman updates of {@link ValueFunctionPlanner}, its value is negative
+ * infinity under an optimality sweep and 0 under a policy sweep. Since the discount factor is a parameter of each sweep and
+ * rewards can be recomputed with {@link #setRewardFunction(RewardFunction)},
+ * a compiled MDP can be reused for different discount factors and reward
+ * functions. Note that the transition probabilities of
+ * {@link burlap.behavior.singleagent.options.Option} rows are discounted by
+ * the option itself and are not affected by the sweep discount factor.
+ * <p/>
+ * A compiled MDP is not modified by sweeps, so sweeps can be run in parallel
+ * on a {@link ForkJoinPool}. A synchronous (Jacobi) sweep computes new values
+ * into a second array from the values of the previous sweep, and gives the
+ * same result regardless of the number of threads. An asynchronous
+ * (Gauss-Seidel) sweep updates a shared {@link AtomicLongArray} of values in
+ * place, so each state uses the most recent values written by any thread.
+ *
+ */
+public class CompiledMDP {
+
+    /**
+     * The store from which this MDP was compiled
+     */
+    protected DenseValueFunctionStore store;
+
+    /**
+     * The number of states in the compiled MDP
+     */
+    protected int numStates;
+
+    /**
+     * The first row of each state; the rows of state s end at the first row
+     * of state s+1
+     */
+    protected int[] stateRowStart;
+
+    /**
+     * Whether each state is held fixed during sweeps
+     */
+    protected boolean[] fixed;
+
+    /**
+     * Whether each state is a terminal state
+     */
+    protected boolean[] terminal;
+
+    /**
+     * Whether the transitions of each state were cached when the MDP was
+     * compiled
+     */
+    protected boolean[] transitionsCached;
+
+    /**
+     * The grounded action of each row
+     */
+    protected GroundedAction[] rowActions;
+
+    /**
+     * Whether the successor values of each row are discounted by the sweep
+     * discount factor; false for option rows
+     */
+    protected boolean[] rowDiscounted;
+
+    /**
+     * The reward received for each row independent of its outcome; the
+     * expected option reward for option rows and 0 otherwise
+     */
+    protected double[] rowRewards;
+
+    /**
+     * The start of the transitions of each row; the transitions of row r end
+     * at the start of row r+1
+     */
+    protected int[] rowTransitionStart;
+
+    /**
+     * The target state of each transition
+     */
+    protected int[] targets;
+
+    /**
+     * The probability of each transition
+     */
+    protected double[] probs;
+
+    /**
+     * The reward received for each transition
+     */
+    protected double[] rewards;
+
+    /**
+     * The reward function used to compute rewards
+     */
+    protected RewardFunction rf;
+
+    /**
+     * The terminal function used to compute terminal states
+     */
+    protected TerminalFunction tf;
+
+    /**
+     * Compiles the states and cached transitions of a dense store.
+     *
+     * @param store
+     *            the store to compile
+     * @param rf
+     *            the reward function
+     * @param tf
+     *            the terminal function
+     */
+    public CompiledMDP(DenseValueFunctionStore store, RewardFunction rf,
+	    TerminalFunction tf) {
+
+	this.store = store;
+	this.numStates = store.numStates();
+
+	int nr = 0;
+	int nt = 0;
+	for (int s = 0; s < this.numStates; s++) {
+	    if (store.hasTransitions(s)) {
+		int first = store.firstActionRow(s);
+		int end = first + store.numActionRows(s);
+		nr += end - first;
+		for (int r = first; r < end; r++) {
+		    nt += store.transitionEnd(r) - store.transitionStart(r);
+		}
+	    }
+	}
+
+	this.stateRowStart = new int[this.numStates + 1];
+	this.fixed = new boolean[this.numStates];
+	this.terminal = new boolean[this.numStates];
+	this.transitionsCached = new boolean[this.numStates];
+	this.rowActions = new GroundedAction[nr];
+	this.rowDiscounted = new boolean[nr];
+	this.rowRewards = new double[nr];
+	this.rowTransitionStart = new int[nr + 1];
+	this.targets = new int[nt];
+	this.probs = new double[nt];
+	this.rewards = new double[nt];
+
+	int row = 0;
+	int t = 0;
+	for (int s = 0; s < this.numStates; s++) {
+	    this.stateRowStart[s] = row;
+	    if (!store.hasTransitions(s)) {
+		continue;
+	    }
+	    this.transitionsCached[s] = true;
+	    int first = store.firstActionRow(s);
+	    int end = first + store.numActionRows(s);
+	    for (int r = first; r < end; r++) {
+		this.rowActions[row] = store.rowAction(r);
+		this.rowTransitionStart[row] = t;
+		for (int st = store.transitionStart(r); st < store
+			.transitionEnd(r); st++) {
+		    this.targets[t] = store.transitionTarget(st);
+		    this.probs[t] = store.transitionProb(st);
+		    t++;
+		}
+		row++;
+	    }
+	}
+	this.stateRowStart[this.numStates] = row;
+	this.rowTransitionStart[row] = t;
+
+	this.setTerminalFunction(tf);
+	this.setRewardFunction(rf);
+
+    }
+
+    /**
+     * Returns the number of states in this MDP.
+     *
+     * @return the number of states in this MDP.
+     */
+    public int numStates() {
+	return this.numStates;
+    }
+
+    /**
+     * Returns the number of state-action rows in this MDP.
+     *
+     * @return the number of state-action rows in this MDP.
+     */
+    public int numRows() {
+	return this.rowActions.length;
+    }
+
+    /**
+     * Returns the store from which this MDP was compiled.
+     *
+     * @return the store from which this MDP was compiled.
+     */
+    public DenseValueFunctionStore getStore() {
+	return this.store;
+    }
+
+    /**
+     * Returns the reward function whose rewards are compiled into this MDP.
+     *
+     * @return the reward function whose rewards are compiled into this MDP.
+     */
+    public RewardFunction getRewardFunction() {
+	return this.rf;
+    }
+
+    /**
+     * Returns the terminal function used to determine terminal states.
+     *
+     * @return the terminal function used to determine terminal states.
+     */
+    public TerminalFunction getTerminalFunction() {
+	return this.tf;
+    }
+
+    /**
+     * Recomputes the reward of every row and transition with the given reward
+     * function.
+     *
+     * @param rf
+     *            the reward function
+     */
+    public void setRewardFunction(RewardFunction rf) {
+	this.rf = rf;
+	for (int s = 0; s < this.numStates; s++) {
+	    State src = this.store.state(s);
+	    for (int r = this.stateRowStart[s]; r < this.stateRowStart[s + 1]; r++) {
+		GroundedAction ga = this.rowActions[r];
+		if (ga.action instanceof Option) {
+		    this.rowDiscounted[r] = false;
+		    this.rowRewards[r] = ((Option) ga.action)
+			    .getExpectedRewards(src, ga.params);
+		    for (int t = this.rowTransitionStart[r]; t < this.rowTransitionStart[r + 1]; t++) {
+			this.rewards[t] = 0.;
+		    }
+		} else {
+		    this.rowDiscounted[r] = true;
+		    this.rowRewards[r] = 0.;
+		    for (int t = this.rowTransitionStart[r]; t < this.rowTransitionStart[r + 1]; t++) {
+			this.rewards[t] = rf.reward(src, ga,
+				this.store.state(this.targets[t]));
+		    }
+		}
+	    }
+	}
+    }
+
+    /**
+     * Recomputes which states are terminal with the given terminal function.
+     *
+     * @param tf
+     *            the terminal function
+     */
+    public void setTerminalFunction(TerminalFunction tf) {
+	this.tf = tf;
+	for (int s = 0; s < this.numStates; s++) {
+	    this.terminal[s] = tf.isTerminal(this.store.state(s));
+	    this.fixed[s] = this.terminal[s] || !this.transitionsCached[s];
+	}
+    }
+
+    /**
+     * Returns the initial value array for a sweep: 0 for terminal states and
+     * the value stored in the source store, or the given initialization
+     * otherwise.
+     *
+     * @param vfInit
+     *            the value function initialization used for states without a
+     *            stored value
+     * @return an array of initial values indexed by state id
+     */
+    public double[] initialValues(ValueFunctionInitialization vfInit) {
+	double[] v = new double[this.numStates];
+	for (int s = 0; s < this.numStates; s++) {
+	    if (this.terminal[s]) {
+		v[s] = 0.;
+	    } else if (this.store.hasValue(s)) {
+		v[s] = this.store.getValue(s);
+	    } else {
+		v[s] = vfInit.value(this.store.state(s));
+	    }
+	}
+	return v;
+    }
+
+    /**
+     * Returns the absolute change between an old and a new state value, which
+     * is 0 if they are equal, including when both are negative infinity.
+     *
+     * @param oldV
+     *            the old value
+     * @param newV
+     *            the new value
+     * @return the absolute change in value
+     */
+    protected static double change(double oldV, double newV) {
+	if (oldV == newV) {
+	    return 0.;
+	}
+	return Math.abs(newV - oldV);
+    }
+
+    /**
+     * Returns the Q-value of a row under the given value function.
+     *
+     * @param row
+     *            the row
+     * @param v
+     *            the value function, indexed by state id
+     * @param gamma
+     *            the discount factor
+     * @return the Q-value of the row
+     */
+    public double q(int row, double[] v, double gamma) {
+	double discount = this.rowDiscounted[row] ? gamma : 1.;
+	double q = this.rowRewards[row];
+	int end = this.rowTransitionStart[row + 1];
+	for (int t = this.rowTransitionStart[row]; t < end; t++) {
+	    q += this.probs[t] * (this.rewards[t] + discount * v[this.targets[t]]);
+	}
+	return q;
+    }
+
+    /**
+     * Performs one in-place Bellman optimality sweep over all states that are
+     * not fixed.
+     *
+     * @param v
+     *            the value function, indexed by state id, that is updated in
+     *            place
+     * @param gamma
+     *            the discount factor
+     * @return the maximum change in value of any state
+     */
+    public double bellmanSweep(double[] v, double gamma) {
+	double delta = 0.;
+	for (int s = 0; s < this.numStates; s++) {
+	    if (this.fixed[s]) {
+		continue;
+	    }
+	    double maxQ = Double.NEGATIVE_INFINITY;
+	    int end = this.stateRowStart[s + 1];
+	    for (int r = this.stateRowStart[s]; r < end; r++) {
+		double q = this.q(r, v, gamma);
+		if (q > maxQ) {
+		    maxQ = q;
+		}
+	    }
+	    delta = Math.max(change(v[s], maxQ), delta);
+	    v[s] = maxQ;
+	}
+	return delta;
+    }
+
+    /**
+     * Performs one synchronous (Jacobi) Bellman optimality sweep in parallel.
+     * New values for every state are computed from v and written to vNext;
+     * fixed states are copied.
+     *
+     * @param v
+     *            the value function of the previous sweep, indexed by state id
+     * @param vNext
+     *            the array into which the new value function is written
+     * @param gamma
+     *            the discount factor
+     * @param pool
+     *            the pool on which to run the sweep
+     * @return the maximum change in value of any state
+     */
+    public double parallelBellmanSweep(double[] v, double[] vNext,
+	    double gamma, ForkJoinPool pool) {
+	return pool.invoke(new SweepTask(0, this.numStates, this
+		.splitSize(pool), v, vNext, null, gamma));
+    }
+
+    /**
+     * Performs one asynchronous (Gauss-Seidel) Bellman optimality sweep in
+     * parallel. Each state is updated in place by exactly one thread and
+     * backups read the most recent value of each successor. Values are stored
+     * as the raw long bits of each double; see
+     * {@link Double#doubleToRawLongBits(double)}.
+     *
+     * @param v
+     *            the value function, indexed by state id, that is updated in
+     *            place
+     * @param gamma
+     *            the discount factor
+     * @param pool
+     *            the pool on which to run the sweep
+     * @return the maximum change in value of any state
+     */
+    public double parallelAsyncBellmanSweep(AtomicLongArray v, double gamma,
+	    ForkJoinPool pool) {
+	return pool.invoke(new SweepTask(0, this.numStates, this
+		.splitSize(pool), null, null, v, gamma));
+    }
+
+    /**
+     * Returns the Q-value of a row under a value function stored as the raw
+     * long bits of each value.
+     *
+     * @param row
+     *            the row
+     * @param v
+     *            the value function, indexed by state id
+     * @param gamma
+     *            the discount factor
+     * @return the Q-value of the row
+     */
+    public double q(int row, AtomicLongArray v, double gamma) {
+	double discount = this.rowDiscounted[row] ? gamma : 1.;
+	double q = this.rowRewards[row];
+	int end = this.rowTransitionStart[row + 1];
+	for (int t = this.rowTransitionStart[row]; t < end; t++) {
+	    q += this.probs[t]
+		    * (this.rewards[t] + discount
+			    * Double.longBitsToDouble(v.get(this.targets[t])));
+	}
+	return q;
+    }
+
+    protected int splitSize(ForkJoinPool pool) {
+	return Math.max(256, this.numStates / (pool.getParallelism() * 8));
+    }
+
+    /**
+     * Returns the probability that the given policy selects the action of each
+     * row in the row's state. States that are fixed are not queried.
+     *
+     * @param p
+     *            the policy
+     * @return the probability of each row, indexed by row
+     */
+    public double[] policyRowProbabilities(Policy p) {
+	double[] rowProbs = new double[this.numRows()];
+	for (int s = 0; s < this.numStates; s++) {
+	    if (this.fixed[s]) {
+		continue;
+	    }
+	    State src = this.store.state(s);
+	    List<ActionProb> dist = p.getActionDistributionForState(src);
+	    for (int r = this.stateRowStart[s]; r < this.stateRowStart[s + 1]; r++) {
+		rowProbs[r] = Policy.getProbOfActionGivenDistribution(src,
+			this.rowActions[r], dist);
+	    }
+	}
+	return rowProbs;
+    }
+
+    /**
+     * Performs one in-place fixed-policy Bellman sweep (i.e., policy
+     * evaluation) over all states that are not fixed.
+     *
+     * @param v
+     *            the value function, indexed by state id, that is updated in
+     *            place
+     * @param rowProbs
+     *            the probability of each row under the evaluated policy, as
+     *            returned by {@link #policyRowProbabilities(Policy)}
+     * @param gamma
+     *            the discount factor
+     * @return the maximum change in value of any state
+     */
+    public double policySweep(double[] v, double[] rowProbs, double gamma) {
+	double delta = 0.;
+	for (int s = 0; s < this.numStates; s++) {
+	    if (this.fixed[s]) {
+		continue;
+	    }
+	    double weightedQ = 0.;
+	    int end = this.stateRowStart[s + 1];
+	    for (int r = this.stateRowStart[s]; r < end; r++) {
+		if (rowProbs[r] != 0.) {
+		    weightedQ += rowProbs[r] * this.q(r, v, gamma);
+		}
+	    }
+	    delta = Math.max(change(v[s], weightedQ), delta);
+	    v[s] = weightedQ;
+	}
+	return delta;
+    }
+
+    /**
+     * Sweeps a contiguous range of states, splitting it among tasks until
+     * ranges are no larger than a given size. If the atomic value array is
+     * non-null, states are updated in place; otherwise new values are written
+     * from v to vNext.
+     *
+     */
+    protected class SweepTask extends RecursiveTask<Double> {
+
+	private static final long serialVersionUID = 1L;
+
+	protected int from;
+	protected int to;
+	protected int splitSize;
+	protected double[] v;
+	protected double[] vNext;
+	protected AtomicLongArray av;
+	protected double gamma;
+
+	public SweepTask(int from, int to, int splitSize, double[] v,
+		double[] vNext, AtomicLongArray av, double gamma) {
+	    this.from = from;
+	    this.to = to;
+	    this.splitSize = splitSize;
+	    this.v = v;
+	    this.vNext = vNext;
+	    this.av = av;
+	    this.gamma = gamma;
+	}
+
+	@Override
+	protected Double compute() {
+
+	    if (this.to - this.from > this.splitSize) {
+		int mid = (this.from + this.to) >>> 1;
+		SweepTask left = new SweepTask(this.from, mid, this.splitSize,
+			this.v, this.vNext, this.av, this.gamma);
+		SweepTask right = new SweepTask(mid, this.to, this.splitSize,
+			this.v, this.vNext, this.av, this.gamma);
+		left.fork();
+		double rd = right.compute();
+		return Math.max(left.join(), rd);
+	    }
+
+	    double delta = 0.;
+	    for (int s = this.from; s < this.to; s++) {
+
+		double old = this.av != null ? Double.longBitsToDouble(this.av
+			.get(s)) : this.v[s];
+		if (fixed[s]) {
+		    if (this.av == null) {
+			this.vNext[s] = old;
+		    }
+		    continue;
+		}
+
+		double maxQ = Double.NEGATIVE_INFINITY;
+		int end = stateRowStart[s + 1];
+		for (int r = stateRowStart[s]; r < end; r++) {
+		    double q = this.av != null ? q(r, this.av, this.gamma) : q(
+			    r, this.v, this.gamma);
+		    if (q > maxQ) {
+			maxQ = q;
+		    }
+		}
+
+		delta = Math.max(change(old, maxQ), delta);
+		if (this.av != null) {
+		    this.av.set(s, Double.doubleToRawLongBits(maxQ));
+		} else {
+		    this.vNext[s] = maxQ;
+		}
+
+	    }
+
+	    return delta;
+	}
+
+    }
+
+}
@@ -0,0 +1,419 @@
+package burlap.behavior.singleagent.planning;
+
+import java.util.Arrays;
+import java.util.List;
+
+import burlap.behavior.singleagent.auxiliary.StateEnumerator;
+import burlap.behavior.statehashing.StateHashFactory;
+import burlap.behavior.statehashing.StateHashTuple;
+import burlap.oomdp.core.Domain;
+import burlap.oomdp.core.State;
+import burlap.oomdp.singleagent.GroundedAction;
+
+/**
+ * A primitive-array backed store for the value function and cached transition
+ * dynamics of a {@link ValueFunctionPlanner}. Each state is assigned a dense
+ * int id with a {@link StateEnumerator}; state values are stored in a
+ * <code>double</code> array indexed by that id and transition dynamics are
+ * stored in compressed sparse row (CSR) form. The action rows of a state are
+ * stored contiguously, starting at {@link #firstActionRow(int)}, and the
+ * transitions of an action row r are stored at indices
+ * {@link #transitionStart(int)} (inclusive) to {@link #transitionEnd(int)}
+ * (exclusive) of the transition target and probability arrays.
+ * <p/>
+ * Rows are appended as the transitions of states are cached, so states do not
+ * need to be enumerated in advance. Once a state's transitions are cached, a
+ * Bellman update on it performs no hashing, boxing or allocation.
+ *
+ */
+public class DenseValueFunctionStore {
+
+    /**
+     * The enumerator that assigns dense int ids to hashed states
+     */
+    protected StateEnumerator enumerator;
+
+    /**
+     * The value of each state, indexed by state id
+     */
+    protected double[] values = new double[16];
+
+    /**
+     * Whether a value has been stored for each state, indexed by state id
+     */
+    protected boolean[] hasValue = new boolean[16];
+
+    /**
+     * The first action row of each state, indexed by state id; -1 if the
+     * transitions of the state have not been cached
+     */
+    protected int[] stateRowStart = newFilled(16);
+
+    /**
+     * The number of action rows of each state, indexed by state id
+     */
+    protected int[] stateRowCount = new int[16];
+
+    /**
+     * The grounded action of each action row
+     */
+    protected GroundedAction[] rowActions = new GroundedAction[16];
+
+    /**
+     * The start of the transitions of each action row. The transitions of
+     * row r end at the start of row r+1.
+     */
+    protected int[] rowTransitionStart = new int[17];
+
+    /**
+     * The target state id of each transition
+     */
+    protected int[] transitionTargets = new int[64];
+
+    /**
+     * The probability of each transition
+     */
+    protected double[] transitionProbs = new double[64];
+
+    /**
+     * The number of action rows stored
+     */
+    protected int numRows = 0;
+
+    /**
+     * The number of transitions stored
+     */
+    protected int numTransitions = 0;
+
+    /**
+     * Initializes an empty store.
+     *
+     * @param domain
+     *            the domain of the states to be stored
+     * @param hashingFactory
+     *            the hashing factory used to hash states
+     */
+    public DenseValueFunctionStore(Domain domain,
+	    StateHashFactory hashingFactory) {
+	this.enumerator = new StateEnumerator(domain, hashingFactory);
+    }
+
+    /**
+     * Returns the number of states that have been assigned an id.
+     *
+     * @return the number of states that have been assigned an id.
+     */
+    public int numStates() {
+	return this.enumerator.numStatesEnumerated();
+    }
+
+    /**
+     * Returns the id of a hashed state, assigning it a new id if it has not
+     * been seen before.
+     *
+     * @param sh
+     *            the hashed state
+     * @return the id of the state
+     */
+    public int stateId(StateHashTuple sh) {
+	int id = this.enumerator.getEnumeratedID(sh);
+	this.ensureStateCapacity(id + 1);
+	return id;
+    }
+
+    /**
+     * Returns the id of a hashed state, or -1 if it has not been assigned one.
+     *
+     * @param sh
+     *            the hashed state
+     * @return the id of the state, or -1 if it has not been assigned one.
+     */
+    public int existingStateId(StateHashTuple sh) {
+	return this.enumerator.getExistingEnumeratedID(sh);
+    }
+
+    /**
+     * Returns the hashed state with the given id.
+     *
+     * @param id
+     *            the state id
+     * @return the hashed state with the given id.
+     */
+    public StateHashTuple hashedState(int id) {
+	return this.enumerator.getHashedStateForEnumerationId(id);
+    }
+
+    /**
+     * Returns the state with the given id.
+     *
+     * @param id
+     *            the state id
+     * @return the state with the given id.
+     */
+    public State state(int id) {
+	return this.enumerator.getHashedStateForEnumerationId(id).s;
+    }
+
+    /**
+     * Returns whether a value has been stored for the given state id.
+     *
+     * @param id
+     *            the state id
+     * @return true if a value has been stored; false otherwise.
+     */
+    public boolean hasValue(int id) {
+	return this.hasValue[id];
+    }
+
+    /**
+     * Returns the stored value of the given state id. The result is undefined
+     * if {@link #hasValue(int)} is false.
+     *
+     * @param id
+     *            the state id
+     * @return the stored value
+     */
+    public double getValue(int id) {
+	return this.values[id];
+    }
+
+    /**
+     * Stores the value of the given state id.
+     *
+     * @param id
+     *            the state id
+     * @param v
+     *            the value to store
+     */
+    public void setValue(int id, double v) {
+	this.values[id] = v;
+	this.hasValue[id] = true;
+    }
+
+    /**
+     * Stores the values in the given array for the first values.length state
+     * ids.
+     *
+     * @param values
+     *            the values to store, indexed by state id
+     */
+    public void setValues(double[] values) {
+	System.arraycopy(values, 0, this.values, 0, values.length);
+	Arrays.fill(this.hasValue, 0, values.length, true);
+    }
+
+    /**
+     * Returns a copy of the stored values, indexed by state id, with
+     * {@link Double#NaN} for the states that have no stored value.
+     *
+     * @return a copy of the stored values
+     */
+    public double[] copyValues() {
+	int n = this.numStates();
+	double[] copy = Arrays.copyOf(this.values, n);
+	for (int i = 0; i < n; i++) {
+	    if (!this.hasValue[i]) {
+		copy[i] = Double.NaN;
+	    }
+	}
+	return copy;
+    }
+
+    /**
+     * Returns whether the transitions of the given state id have been cached.
+     *
+     * @param id
+     *            the state id
+     * @return true if the transitions have been cached; false otherwise.
+     */
+    public boolean hasTransitions(int id) {
+	return this.stateRowStart[id] != -1;
+    }
+
+    /**
+     * Caches the transitions of the given state id. Each successor state is
+     * assigned an id if it does not already have one.
+     *
+     * @param id
+     *            the state id
+     * @param transitions
+     *            the transitions of each grounded action applicable in the
+     *            state
+     */
+    public void setTransitions(int id, List<ActionTransitions> transitions) {
+
+	int nt = 0;
+	for (ActionTransitions at : transitions) {
+	    nt += at.transitions.size();
+	}
+	this.ensureRowCapacity(this.numRows + transitions.size());
+	this.ensureTransitionCapacity(this.numTransitions + nt);
+
+	// successors may be new states, so resolve them before recording rows
+	int[] targets = new int[nt];
+	int t = 0;
+	for (ActionTransitions at : transitions) {
+	    for (HashedTransitionProbability tp : at.transitions) {
+		targets[t++] = this.stateId(tp.sh);
+	    }
+	}
+
+	this.stateRowStart[id] = this.numRows;
+	this.stateRowCount[id] = transitions.size();
+	t = 0;
+	for (ActionTransitions at : transitions) {
+	    this.rowActions[this.numRows] = at.ga;
+	    for (HashedTransitionProbability tp : at.transitions) {
+		this.transitionTargets[this.numTransitions] = targets[t++];
+		this.transitionProbs[this.numTransitions] = tp.p;
+		this.numTransitions++;
+	    }
+	    this.numRows++;
+	    this.rowTransitionStart[this.numRows] = this.numTransitions;
+	}
+
+    }
+
+    /**
+     * Returns the first action row of the given state id.
+     *
+     * @param id
+     *            the state id
+     * @return the first action row of the state
+     */
+    public int firstActionRow(int id) {
+	return this.stateRowStart[id];
+    }
+
+    /**
+     * Returns the number of action rows of the given state id.
+     *
+     * @param id
+     *            the state id
+     * @return the number of action rows of the state
+     */
+    public int numActionRows(int id) {
+	return this.stateRowCount[id];
+    }
+
+    /**
+     * Returns the grounded action of the given action row.
+     *
+     * @param row
+     *            the action row
+     * @return the grounded action of the row
+     */
+    public GroundedAction rowAction(int row) {
+	return this.rowActions[row];
+    }
+
+    /**
+     * Returns the index of the first transition of the given action row.
+     *
+     * @param row
+     *            the action row
+     * @return the index of the first transition of the row
+     */
+    public int transitionStart(int row) {
+	return this.rowTransitionStart[row];
+    }
+
+    /**
+     * Returns the index after the last transition of the given action row.
+     *
+     * @param row
+     *            the action row
+     * @return the index after the last transition of the row
+     */
+    public int transitionEnd(int row) {
+	return this.rowTransitionStart[row + 1];
+    }
+
+    /**
+     * Returns the state id that the given transition leads to.
+     *
+     * @param t
+     *            the transition index
+     * @return the target state id
+     */
+    public int transitionTarget(int t) {
+	return this.transitionTargets[t];
+    }
+
+    /**
+     * Returns the probability of the given transition.
+     *
+     * @param t
+     *            the transition index
+     * @return the probability of the transition
+     */
+    public double transitionProb(int t) {
+	return this.transitionProbs[t];
+    }
+
+    /**
+     * Removes all cached transitions, but keeps state ids and values.
+     */
+    public void clearTransitions() {
+	Arrays.fill(this.stateRowStart, -1);
+	Arrays.fill(this.rowActions, null);
+	this.numRows = 0;
+	this.numTransitions = 0;
+    }
+
+    /**
+     * Removes all states, values and transitions.
+     */
+    public void clear() {
+	this.enumerator.clear();
+	this.values = new double[16];
+	this.hasValue = new boolean[16];
+	this.stateRowStart = newFilled(16);
+	this.stateRowCount = new int[16];
+	this.rowActions = new GroundedAction[16];
+	this.rowTransitionStart = new int[17];
+	this.transitionTargets = new int[64];
+	this.transitionProbs = new double[64];
+	this.numRows = 0;
+	this.numTransitions = 0;
+    }
+
+    protected void ensureStateCapacity(int n) {
+	if (n <= this.values.length) {
+	    return;
+	}
+	int size = Math.max(n, this.values.length * 2);
+	int oldSize = this.values.length;
+	this.values = Arrays.copyOf(this.values, size);
+	this.hasValue = Arrays.copyOf(this.hasValue, size);
+	this.stateRowStart = Arrays.copyOf(this.stateRowStart, size);
+	Arrays.fill(this.stateRowStart, oldSize, size, -1);
+	this.stateRowCount = Arrays.copyOf(this.stateRowCount, size);
+    }
+
+    protected void ensureRowCapacity(int n) {
+	if (n <= this.rowActions.length) {
+	    return;
+	}
+	int size = Math.max(n, this.rowActions.length * 2);
+	this.rowActions = Arrays.copyOf(this.rowActions, size);
+	this.rowTransitionStart = Arrays.copyOf(this.rowTransitionStart,
+		size + 1);
+    }
+
+    protected void ensureTransitionCapacity(int n) {
+	if (n <= this.transitionTargets.length) {
+	    return;
+	}
+	int size = Math.max(n, this.transitionTargets.length * 2);
+	this.transitionTargets = Arrays.copyOf(this.transitionTargets, size);
+	this.transitionProbs = Arrays.copyOf(this.transitionProbs, size);
+    }
+
+    protected static int[] newFilled(int n) {
+	int[] res = new int[n];
+	Arrays.fill(res, -1);
+	return res;
+    }
+
+}
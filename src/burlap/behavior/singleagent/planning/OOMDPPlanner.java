@@ -204,6 +204,15 @@ public abstract class OOMDPPlanner {
 	return rf;
     }
 
+    /**
+     * Returns the discount factor this planner uses.
+     *
+     * @return the discount factor this planner uses.
+     */
+    public double getGamma() {
+	return gamma;
+    }
+
     /**
      * Returns the {@link burlap.behavior.statehashing.StateHashFactory} this
      * planner uses.
@@ -1,18 +1,27 @@
 package burlap.behavior.singleagent.planning;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 
 import burlap.behavior.singleagent.Policy;
 import burlap.behavior.singleagent.Policy.ActionProb;
 import burlap.behavior.singleagent.QValue;
 import burlap.behavior.singleagent.ValueFunctionInitialization;
 import burlap.behavior.singleagent.options.Option;
+import burlap.behavior.singleagent.options.OptionModelCache;
 import burlap.behavior.statehashing.StateHashFactory;
 import burlap.behavior.statehashing.StateHashTuple;
+import burlap.debugtools.DPrint;
 import burlap.oomdp.core.AbstractGroundedAction;
 import burlap.oomdp.core.Domain;
 import burlap.oomdp.core.State;
@@ -37,6 +46,13 @@ import burlap.oomdp.singleagent.RewardFunction;
  * disable by calling the {@link #toggleUseCachedTransitionDynamics(boolean)}
  * method. This may be desirable if the transition dynamics are expected to
  * change with time, such as when the model is being learned in model-based RL.
+ * <p/>
+ * By default, values and cached transition dynamics are stored in hash maps
+ * keyed by {@link burlap.behavior.statehashing.StateHashTuple}. For large state
+ * spaces, a {@link DenseValueFunctionStore} that assigns each state a dense int
+ * id and stores values and transitions in primitive arrays can be used instead
+ * by calling {@link #toggleDenseValueFunctionStore(boolean)}. The public API of
+ * the planner is the same for either backend.
  * 
  * @author James MacGlashan
  * 
@@ -71,6 +87,23 @@ public abstract class ValueFunctionPlanner extends OOMDPPlanner implements
      */
     protected ValueFunctionInitialization valueInitializer = new ValueFunctionInitialization.ConstantValueFunctionInitialization();
 
+    /**
+     * The primitive-array value function and transition store; null if the
+     * hash map backend is used.
+     */
+    protected DenseValueFunctionStore denseStore = null;
+
+    /**
+     * Whether planners that support it should run their sweeps on a
+     * {@link CompiledMDP}
+     */
+    protected boolean useCompiledMDP = false;
+
+    /**
+     * The MDP compiled from the dense store; null if it has not been compiled
+     */
+    protected CompiledMDP compiledMDP = null;
+
     @Override
     public abstract void planFromState(State initialState);
 
@@ -99,11 +132,116 @@ public abstract class ValueFunctionPlanner extends OOMDPPlanner implements
 
     }
 
+    /**
+     * Clears the value function and cached transition dynamics. Also clears
+     * the model cache of every option of this planner that created its own
+     * cache, since the models of an option whose policy is derived from a
+     * planner are stale once that planner replans. Caches that were provided
+     * with {@link Option#setModelCache(OptionModelCache)} may be shared with
+     * other planners or persisted, so they are left to their owner to clear.
+     */
     @Override
     public void resetPlannerResults() {
 	this.mapToStateIndex.clear();
 	this.valueFunction.clear();
 	this.transitionDynamics.clear();
+	if (this.denseStore != null) {
+	    this.denseStore.clear();
+	}
+	this.compiledMDP = null;
+	for (Action a : this.actions) {
+	    if (a instanceof Option) {
+		OptionModelCache cache = ((Option) a).getModelCache();
+		if (cache != null && !((Option) a).hasSharedModelCache()) {
+		    cache.clear();
+		}
+	    }
+	}
+    }
+
+    /**
+     * Sets whether state values and cached transition dynamics should be
+     * stored in a {@link DenseValueFunctionStore}, which assigns each state a
+     * dense int id and stores values in a <code>double</code> array and
+     * transitions in compressed sparse row arrays, instead of hash maps. The
+     * dense store uses far less memory for large state spaces and performs
+     * Bellman updates without boxing or hashing. Changing the backend clears
+     * any previous planning results.
+     * 
+     * @param useDenseStore
+     *            true if the dense store should be used; false if hash maps
+     *            should be used.
+     */
+    public void toggleDenseValueFunctionStore(boolean useDenseStore) {
+	this.resetPlannerResults();
+	if (useDenseStore) {
+	    this.denseStore = new DenseValueFunctionStore(this.domain,
+		    this.hashingFactory);
+	} else {
+	    this.denseStore = null;
+	}
+    }
+
+    /**
+     * Sets whether planners that support it, such as value iteration and
+     * policy iteration, should compile the reachable MDP into a
+     * {@link CompiledMDP} and run their sweeps on it. A compiled MDP requires
+     * the {@link DenseValueFunctionStore} and cached transition dynamics, so
+     * enabling it will also enable both. The compiled MDP is kept between
+     * planning calls; if the reward function or terminal function of this
+     * planner is changed, the compiled rewards and terminal states are
+     * recomputed without recompiling the transitions.
+     * 
+     * @param useCompiledMDP
+     *            true if sweeps should run on a compiled MDP; false otherwise.
+     */
+    public void toggleCompiledMDP(boolean useCompiledMDP) {
+	if (useCompiledMDP) {
+	    this.useCachedTransitions = true;
+	    if (this.denseStore == null) {
+		this.toggleDenseValueFunctionStore(true);
+	    }
+	}
+	this.useCompiledMDP = useCompiledMDP;
+	this.compiledMDP = null;
+    }
+
+    /**
+     * Returns the MDP compiled from the {@link DenseValueFunctionStore},
+     * compiling it if it has not been compiled yet. If the reward function or
+     * terminal function of this planner has changed since the MDP was
+     * compiled, the compiled rewards or terminal states are updated.
+     * 
+     * @return the compiled MDP
+     */
+    public CompiledMDP getCompiledMDP() {
+	if (this.denseStore == null) {
+	    throw new RuntimeException(
+		    "Cannot compile the MDP without the dense value function store; enable it with toggleDenseValueFunctionStore.");
+	}
+	if (this.compiledMDP == null
+		|| this.compiledMDP.numStates() != this.denseStore.numStates()) {
+	    this.compiledMDP = new CompiledMDP(this.denseStore, this.rf,
+		    this.tf);
+	} else {
+	    if (this.compiledMDP.getRewardFunction() != this.rf) {
+		this.compiledMDP.setRewardFunction(this.rf);
+	    }
+	    if (this.compiledMDP.getTerminalFunction() != this.tf) {
+		this.compiledMDP.setTerminalFunction(this.tf);
+	    }
+	}
+	return this.compiledMDP;
+    }
+
+    /**
+     * Returns whether this planner stores its value function in a
+     * {@link DenseValueFunctionStore}.
+     * 
+     * @return true if the dense store is used; false if hash maps are used.
+     */
+    public boolean usesDenseValueFunctionStore() {
+	return this.denseStore != null;
     }
 
     /**
@@ -136,6 +274,10 @@ public abstract class ValueFunctionPlanner extends OOMDPPlanner implements
      */
     public boolean hasComputedValueFor(State s) {
 	StateHashTuple sh = this.hashingFactory.hashState(s);
+	if (this.denseStore != null) {
+	    int id = this.denseStore.existingStateId(sh);
+	    return id != -1 && this.denseStore.hasValue(id);
+	}
 	return this.valueFunction.containsKey(sh);
     }
 
@@ -163,11 +305,35 @@ public abstract class ValueFunctionPlanner extends OOMDPPlanner implements
      * @return the value function evaluation of the given state.
      */
     public double value(StateHashTuple sh) {
+	if (this.denseStore != null) {
+	    int id = this.denseStore.existingStateId(sh);
+	    if (id == -1) {
+		return this.getDefaultValue(sh.s);
+	    }
+	    return this.value(id);
+	}
 	Double V = valueFunction.get(sh);
 	double v = V == null ? this.getDefaultValue(sh.s) : V;
 	return v;
     }
 
+    /**
+     * Returns the value function evaluation of the state with the given id in
+     * the {@link DenseValueFunctionStore}. If the value is not stored, then the
+     * default value specified by the ValueFunctionInitialization object of
+     * this class is returned.
+     * 
+     * @param id
+     *            the dense store id of the state to evaluate.
+     * @return the value function evaluation of the given state.
+     */
+    protected double value(int id) {
+	if (this.denseStore.hasValue(id)) {
+	    return this.denseStore.getValue(id);
+	}
+	return this.getDefaultValue(this.denseStore.state(id));
+    }
+
     /**
      * Sets whether this object should cache hashed transition dynamics for each
      * for faster look up, or whether to procedurally generate the transition
@@ -255,6 +421,15 @@ public abstract class ValueFunctionPlanner extends OOMDPPlanner implements
      * @return all states that are stored in this planners value function.
      */
     public List<State> getAllStates() {
+	if (this.denseStore != null) {
+	    List<State> result = new ArrayList<State>();
+	    for (int i = 0; i < this.denseStore.numStates(); i++) {
+		if (this.denseStore.hasValue(i)) {
+		    result.add(this.denseStore.state(i));
+		}
+	    }
+	    return result;
+	}
 	List<State> result = new ArrayList<State>(valueFunction.size());
 	Set<StateHashTuple> shs = valueFunction.keySet();
 	for (StateHashTuple sh : shs) {
@@ -286,6 +461,20 @@ public abstract class ValueFunctionPlanner extends OOMDPPlanner implements
 	    ta = this.translateAction(ta, matching);
 	}
 
+	if (this.denseStore != null && this.useCachedTransitions) {
+	    int id = this.denseStore.stateId(sh);
+	    this.ensureDenseTransitions(id);
+	    int first = this.denseStore.firstActionRow(id);
+	    int end = first + this.denseStore.numActionRows(id);
+	    for (int r = first; r < end; r++) {
+		if (this.denseStore.rowAction(r).equals(ta)) {
+		    return new QValue(sh.s, a, this.computeQ(id, r));
+		}
+	    }
+	    throw new RuntimeException(
+		    "The action " + ta.toString() + " is not applicable in the queried state.");
+	}
+
 	// find ActionTransition for the designated GA
 	List<ActionTransitions> allTransitions = this.getActionsTransitions(sh);
 	ActionTransitions matchingAt = null;
@@ -319,19 +508,7 @@ public abstract class ValueFunctionPlanner extends OOMDPPlanner implements
 	    // indicate how this state is stored
 	    mapToStateIndex.put(sh, sh);
 
-	    // first get all grounded actions for this state
-	    List<GroundedAction> gas = new ArrayList<GroundedAction>();
-	    for (Action a : actions) {
-		gas.addAll(sh.s.getAllGroundedActionsFor(a));
-	    }
-
-	    // now add transitions
-	    allTransitions = new ArrayList<ActionTransitions>(gas.size());
-	    for (GroundedAction ga : gas) {
-		ActionTransitions at = new ActionTransitions(sh.s, ga,
-			hashingFactory);
-		allTransitions.add(at);
-	    }
+	    allTransitions = this.generateActionTransitions(sh);
 
 	    // set it if we're caching
 	    if (this.useCachedTransitions) {
@@ -343,6 +520,108 @@ public abstract class ValueFunctionPlanner extends OOMDPPlanner implements
 	return allTransitions;
     }
 
+    /**
+     * Caches the transitions of the state with the given id in the
+     * {@link DenseValueFunctionStore} if they are not already cached.
+     * 
+     * @param id
+     *            the dense store id of the state
+     */
+    protected void ensureDenseTransitions(int id) {
+	if (!this.denseStore.hasTransitions(id)) {
+	    StateHashTuple sh = this.denseStore.hashedState(id);
+	    mapToStateIndex.put(sh, sh);
+	    this.denseStore.setTransitions(id,
+		    this.generateActionTransitions(sh));
+	}
+    }
+
+    /**
+     * Generates the hashed transitions of every grounded action applicable in
+     * the given state, without caching them. This method does not modify the
+     * planner and may be called from multiple threads if the actions and
+     * hashing factory allow it.
+     * 
+     * @param sh
+     *            the hashed state from which to generate transitions
+     * @return the transitions of each grounded action applicable in the state
+     */
+    protected List<ActionTransitions> generateActionTransitions(
+	    StateHashTuple sh) {
+
+	// first get all grounded actions for this state
+	List<GroundedAction> gas = new ArrayList<GroundedAction>();
+	for (Action a : actions) {
+	    gas.addAll(sh.s.getAllGroundedActionsFor(a));
+	}
+
+	// now add transitions
+	List<ActionTransitions> allTransitions = new ArrayList<ActionTransitions>(
+		gas.size());
+	for (GroundedAction ga : gas) {
+	    ActionTransitions at = new ActionTransitions(sh.s, ga,
+		    hashingFactory);
+	    allTransitions.add(at);
+	}
+
+	return allTransitions;
+    }
+
+    /**
+     * Finds all states reachable from the given state and caches their
+     * transitions in the {@link DenseValueFunctionStore}. Every reached state
+     * is also added to the state index map.
+     * 
+     * @param sih
+     *            the hashed source state from which to search
+     * @param pruneTerminalStates
+     *            true if the search should not expand terminal states; false
+     *            otherwise.
+     */
+    protected void performDenseReachabilityFrom(StateHashTuple sih,
+	    boolean pruneTerminalStates) {
+
+	BitSet opened = new BitSet();
+	int[] openList = new int[16];
+	int head = 0;
+	int tail = 0;
+
+	int sid = this.denseStore.stateId(sih);
+	openList[tail++] = sid;
+	opened.set(sid);
+
+	while (head < tail) {
+
+	    int id = openList[head++];
+	    StateHashTuple sh = this.denseStore.hashedState(id);
+	    mapToStateIndex.put(sh, sh);
+
+	    // do not need to expand from terminal states if set to prune
+	    if (pruneTerminalStates && this.tf.isTerminal(sh.s)) {
+		continue;
+	    }
+
+	    this.ensureDenseTransitions(id);
+	    int first = this.denseStore.firstActionRow(id);
+	    int end = first + this.denseStore.numActionRows(id);
+	    for (int r = first; r < end; r++) {
+		for (int t = this.denseStore.transitionStart(r); t < this.denseStore
+			.transitionEnd(r); t++) {
+		    int tid = this.denseStore.transitionTarget(t);
+		    if (!opened.get(tid)) {
+			opened.set(tid);
+			if (tail == openList.length) {
+			    openList = Arrays.copyOf(openList, tail * 2);
+			}
+			openList[tail++] = tid;
+		    }
+		}
+	    }
+
+	}
+
+    }
+
     /**
      * Performs a Bellman value function update on the provided state. Results
      * are stored in the value function map as well as returned. If this object
@@ -387,9 +666,13 @@ public abstract class ValueFunctionPlanner extends OOMDPPlanner implements
      */
     protected double performBellmanUpdateOn(StateHashTuple sh) {
 
+	if (this.denseStore != null && this.useCachedTransitions) {
+	    return this.performBellmanUpdateOn(this.denseStore.stateId(sh));
+	}
+
 	if (this.tf.isTerminal(sh.s)) {
 	    // terminal states always have a state value of 0
-	    valueFunction.put(sh, 0.);
+	    this.storeValue(sh, 0.);
 	    return 0.;
 	}
 
@@ -419,7 +702,42 @@ public abstract class ValueFunctionPlanner extends OOMDPPlanner implements
 
 	}
 
-	valueFunction.put(sh, maxQ);
+	this.storeValue(sh, maxQ);
+
+	return maxQ;
+    }
+
+    /**
+     * Performs a Bellman value function update on the state with the given id
+     * in the {@link DenseValueFunctionStore}, caching its transitions if
+     * necessary. Results are stored in the dense store as well as returned.
+     * 
+     * @param id
+     *            the dense store id of the state on which to perform the
+     *            Bellman update.
+     * @return the new value of the state.
+     */
+    protected double performBellmanUpdateOn(int id) {
+
+	if (this.tf.isTerminal(this.denseStore.state(id))) {
+	    // terminal states always have a state value of 0
+	    this.denseStore.setValue(id, 0.);
+	    return 0.;
+	}
+
+	this.ensureDenseTransitions(id);
+
+	double maxQ = Double.NEGATIVE_INFINITY;
+	int first = this.denseStore.firstActionRow(id);
+	int end = first + this.denseStore.numActionRows(id);
+	for (int r = first; r < end; r++) {
+	    double q = this.computeQ(id, r);
+	    if (q > maxQ) {
+		maxQ = q;
+	    }
+	}
+
+	this.denseStore.setValue(id, maxQ);
 
 	return maxQ;
     }
@@ -440,9 +758,14 @@ public abstract class ValueFunctionPlanner extends OOMDPPlanner implements
     protected double performFixedPolicyBellmanUpdateOn(StateHashTuple sh,
 	    Policy p) {
 
+	if (this.denseStore != null && this.useCachedTransitions) {
+	    return this.performFixedPolicyBellmanUpdateOn(
+		    this.denseStore.stateId(sh), p);
+	}
+
 	if (this.tf.isTerminal(sh.s)) {
 	    // terminal states always have a state value of 0
-	    valueFunction.put(sh, 0.);
+	    this.storeValue(sh, 0.);
 	    return 0.;
 	}
 
@@ -485,12 +808,77 @@ public abstract class ValueFunctionPlanner extends OOMDPPlanner implements
 
 	}
 
-	valueFunction.put(sh, weightedQ);
+	this.storeValue(sh, weightedQ);
 
 	return weightedQ;
 
     }
 
+    /**
+     * Performs a fixed-policy Bellman value function update (i.e., policy
+     * evaluation) on the state with the given id in the
+     * {@link DenseValueFunctionStore}, caching its transitions if necessary.
+     * Results are stored in the dense store as well as returned.
+     * 
+     * @param id
+     *            the dense store id of the state on which to perform the
+     *            Bellman update.
+     * @param p
+     *            the policy that is being evaluated
+     * @return the new value of the state
+     */
+    protected double performFixedPolicyBellmanUpdateOn(int id, Policy p) {
+
+	State s = this.denseStore.state(id);
+	if (this.tf.isTerminal(s)) {
+	    // terminal states always have a state value of 0
+	    this.denseStore.setValue(id, 0.);
+	    return 0.;
+	}
+
+	this.ensureDenseTransitions(id);
+
+	double weightedQ = 0.;
+	List<ActionProb> policyDistribution = p
+		.getActionDistributionForState(s);
+
+	int first = this.denseStore.firstActionRow(id);
+	int end = first + this.denseStore.numActionRows(id);
+	for (int r = first; r < end; r++) {
+
+	    double policyProb = Policy.getProbOfActionGivenDistribution(s,
+		    this.denseStore.rowAction(r), policyDistribution);
+	    if (policyProb == 0.) {
+		continue; // doesn't contribute
+	    }
+
+	    weightedQ += policyProb * this.computeQ(id, r);
+
+	}
+
+	this.denseStore.setValue(id, weightedQ);
+
+	return weightedQ;
+
+    }
+
+    /**
+     * Stores the value of a hashed state in whichever value function backend
+     * this planner uses.
+     * 
+     * @param sh
+     *            the hashed state
+     * @param v
+     *            the value to store
+     */
+    protected void storeValue(StateHashTuple sh, double v) {
+	if (this.denseStore != null) {
+	    this.denseStore.setValue(this.denseStore.stateId(sh), v);
+	} else {
+	    valueFunction.put(sh, v);
+	}
+    }
+
     /**
      * Returns the Q-value for a given set and the possible transitions from it
      * for a given action. This computation *is* compatible with
@@ -540,6 +928,52 @@ public abstract class ValueFunctionPlanner extends OOMDPPlanner implements
 	return q;
     }
 
+    /**
+     * Returns the Q-value for the state with the given id in the
+     * {@link DenseValueFunctionStore} and one of its cached action rows. This
+     * computation *is* compatible with
+     * {@link burlap.behavior.singleagent.options.Option} objects.
+     * 
+     * @param id
+     *            the dense store id of the state
+     * @param row
+     *            the dense store action row of the state
+     * @return the double value of a Q-value
+     */
+    protected double computeQ(int id, int row) {
+
+	State s = this.denseStore.state(id);
+	GroundedAction ga = this.denseStore.rowAction(row);
+	int start = this.denseStore.transitionStart(row);
+	int end = this.denseStore.transitionEnd(row);
+
+	double q = 0.;
+
+	if (ga.action instanceof Option) {
+
+	    Option o = (Option) ga.action;
+	    q += o.getExpectedRewards(s, ga.params);
+
+	    // option transition probabilities are already discounted
+	    for (int t = start; t < end; t++) {
+		q += this.denseStore.transitionProb(t)
+			* this.value(this.denseStore.transitionTarget(t));
+	    }
+
+	} else {
+
+	    for (int t = start; t < end; t++) {
+		int sp = this.denseStore.transitionTarget(t);
+		double r = rf.reward(s, ga, this.denseStore.state(sp));
+		q += this.denseStore.transitionProb(t)
+			* (r + (this.gamma * this.value(sp)));
+	    }
+
+	}
+
+	return q;
+    }
+
     /**
      * Computes the Q-value using the uncached transition dynamics produced by
      * the Action object methods. This computation *is* compatible with
@@ -612,4 +1046,113 @@ public abstract class ValueFunctionPlanner extends OOMDPPlanner implements
 	}
     }
 
+    /**
+     * Computes the model of every option of this planner from every given
+     * state in which it is applicable, so that planning does not need to
+     * compute them one at a time. The models are computed in parallel on a
+     * {@link ForkJoinPool} and stored in each option's
+     * {@link OptionModelCache}, from which later Bellman updates read them.
+     * The states of each Markov option are split into contiguous chunks that
+     * are computed by separate tasks, so the pool stays busy even with fewer
+     * options than threads. A non-Markov option keeps its execution state,
+     * such as the position in a macro-action, on the option object, and
+     * neither options nor policies can be copied, so each non-Markov option
+     * is computed by a single task. With more than one thread, the policy
+     * and termination condition of each Markov option must therefore be
+     * safe to query from multiple threads, and options that share a
+     * {@link Policy} object, or whose policies are derived from the same
+     * planner, must only be passed to the parallel path if that policy or
+     * planner is. The actions of the domain and the reward function must
+     * likewise be safe to use from multiple threads. Models in caches that
+     * the options created themselves are cleared by
+     * {@link #resetPlannerResults()}, so they should be precomputed again
+     * after a reset. The states are typically all states reachable with the
+     * primitive actions of the domain (see
+     * {@link burlap.behavior.singleagent.auxiliary.StateReachability}), since
+     * options can only terminate in those.
+     * 
+     * @param states
+     *            the initiation states for which to compute option models
+     * @param numThreads
+     *            the number of threads to use
+     * @return the number of option models computed or found in the caches
+     */
+    public int precomputeOptionModels(Collection<State> states, int numThreads) {
+
+	if (numThreads < 1) {
+	    throw new RuntimeException(
+		    "The number of threads must be at least 1; got: "
+			    + numThreads);
+	}
+
+	this.initializeOptionsForExpectationComputations();
+
+	List<State> stateList = new ArrayList<State>(states);
+	int nChunks = Math.max(1, Math.min(stateList.size(), numThreads * 4));
+	List<Callable<Integer>> tasks = new ArrayList<Callable<Integer>>();
+	for (Action a : this.actions) {
+	    if (!(a instanceof Option)) {
+		continue;
+	    }
+	    Option o = (Option) a;
+	    if (!o.isMarkov()) {
+		tasks.add(new OptionModelTask(o, stateList));
+		continue;
+	    }
+	    for (int c = 0; c < nChunks; c++) {
+		int start = (int) ((long) stateList.size() * c / nChunks);
+		int end = (int) ((long) stateList.size() * (c + 1) / nChunks);
+		tasks.add(new OptionModelTask(o, stateList.subList(start, end)));
+	    }
+	}
+
+	int n = 0;
+	ForkJoinPool pool = new ForkJoinPool(numThreads);
+	try {
+	    for (Future<Integer> f : pool.invokeAll(tasks)) {
+		n += f.get();
+	    }
+	} catch (InterruptedException e) {
+	    Thread.currentThread().interrupt();
+	    throw new RuntimeException(e);
+	} catch (ExecutionException e) {
+	    throw new RuntimeException(e.getCause());
+	} finally {
+	    pool.shutdown();
+	}
+
+	DPrint.cl(this.debugCode, "Precomputed option models: " + n);
+
+	return n;
+    }
+
+    /**
+     * Computes the models of one option from each of a collection of states
+     * in which it is applicable.
+     * 
+     */
+    protected static class OptionModelTask implements Callable<Integer> {
+
+	protected Option option;
+	protected Collection<State> states;
+
+	public OptionModelTask(Option option, Collection<State> states) {
+	    this.option = option;
+	    this.states = states;
+	}
+
+	@Override
+	public Integer call() {
+	    int n = 0;
+	    for (State s : this.states) {
+		for (GroundedAction ga : s.getAllGroundedActionsFor(this.option)) {
+		    this.option.getModel(s, ga.params);
+		    n++;
+		}
+	    }
+	    return n;
+	}
+
+    }
+
 }
@@ -81,6 +81,15 @@ public class EpsilonGreedy extends Policy implements PlannerDerivedPolicy {
 	this.epsilon = epsilon;
     }
 
+    /**
+     * Returns the random number generator used to select actions.
+     * 
+     * @return the random number generator used to select actions.
+     */
+    public Random getRandom() {
+	return rand;
+    }
+
     @Override
     public void setPlanner(OOMDPPlanner planner) {
 
@@ -0,0 +1,577 @@
+package burlap.behavior.singleagent.planning.deterministic.informed.astar;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import burlap.behavior.singleagent.auxiliary.externalmemory.FixedObjectStateEncoder;
+import burlap.behavior.singleagent.auxiliary.externalmemory.StateEncoder;
+import burlap.behavior.singleagent.planning.StateConditionTest;
+import burlap.behavior.singleagent.planning.deterministic.DeterministicPlanner;
+import burlap.behavior.singleagent.planning.deterministic.informed.Heuristic;
+import burlap.behavior.statehashing.StateHashFactory;
+import burlap.behavior.statehashing.StateHashTuple;
+import burlap.debugtools.DPrint;
+import burlap.oomdp.auxiliary.common.NullTermination;
+import burlap.oomdp.core.Domain;
+import burlap.oomdp.core.State;
+import burlap.oomdp.singleagent.Action;
+import burlap.oomdp.singleagent.GroundedAction;
+import burlap.oomdp.singleagent.RewardFunction;
+
+/**
+ * A memory-lean implementation of A* for large search spaces. Instead of
+ * search node objects holding full states in a
+ * {@link burlap.datastructures.HashIndexedHeap} and a closed hash map, every
+ * generated state is stored once as its {@link StateEncoder} encoding in a
+ * flat <code>long</code> array, and all other search information is kept in
+ * primitive arrays indexed by an int node id: the cost so far, the heuristic
+ * value, the parent node id and the id of the generating action. Generated
+ * states are found by an open-addressing hash table from 64-bit keys of their
+ * encodings to node ids, whose entries are confirmed by comparing encodings,
+ * so distinct states are never merged. The open list is a binary heap of node
+ * ids with lazy deletion, and the closed set is a flag per node id.
+ * <p/>
+ * States are decoded only when they are expanded, and the solution path is
+ * reconstructed from the parent ids only when the goal is reached, at which
+ * point it is encoded into the same policy as the other
+ * {@link DeterministicPlanner} implementations. All search storage is released
+ * when planning ends.
+ * <p/>
+ * Like {@link AStar}, costs are negative rewards and the heuristic should
+ * return non-positive values. The heuristic may be weighted statically, as in
+ * {@link StaticWeightedAStar}, or dynamically, as in
+ * {@link DynamicWeightedAStar}. States are identified by their encodings, so
+ * the encoder determines which states are considered equal. The default
+ * {@link FixedObjectStateEncoder} requires every state to have as many objects
+ * of each class as the initial state, and sorts the objects of each class, so
+ * two states have equal encodings exactly when they are equal under the object
+ * identifier independent hashing of
+ * {@link burlap.behavior.statehashing.DiscreteStateHashFactory} over all
+ * attributes. A planner whose hashing factory uses fewer attributes, or
+ * distinguishes object names, should be given a matching encoder with
+ * {@link #setStateEncoder(StateEncoder)}. As a sanity check, planning fails if
+ * the hashing factory does not consider the initial state equal to its
+ * decoded encoding.
+ *
+ */
+public class CompactAStar extends DeterministicPlanner {
+
+    /**
+     * The heuristic function.
+     */
+    protected Heuristic heuristic;
+
+    /**
+     * The encoder of states; if null, a {@link FixedObjectStateEncoder} for
+     * the initial state is used
+     */
+    protected StateEncoder encoder;
+
+    /**
+     * The weight of the heuristic when dynamic weighting is not used
+     */
+    protected double heuristicWeight = 1.;
+
+    /**
+     * The maximum additional weight of the heuristic under dynamic weighting,
+     * or 0 if dynamic weighting is not used
+     */
+    protected double dynamicEpsilon = 0.;
+
+    /**
+     * The expected search depth under dynamic weighting
+     */
+    protected int expectedDepth;
+
+    /**
+     * The grounded actions that generated nodes in the current search
+     */
+    protected List<GroundedAction> actionTable;
+
+    /**
+     * The id of each grounded action in the current search
+     */
+    protected Map<GroundedAction, Integer> actionIds;
+
+    /**
+     * The number of nodes expanded by the last search
+     */
+    protected int lastNumExpanded = 0;
+
+    /**
+     * The number of distinct states generated by the last search
+     */
+    protected int lastNumGenerated = 0;
+
+    /**
+     * Initializes. Goal states are indicated by gc evaluating to true. The
+     * costs are stored as negative rewards in the reward function. By default
+     * there are no terminal states except the goal states.
+     *
+     * @param domain
+     *            the domain in which to plan
+     * @param rf
+     *            the reward function that represents costs as negative reward
+     * @param gc
+     *            should evaluate to true for goal states; false otherwise
+     * @param hashingFactory
+     *            the state hashing factory used for the policy
+     * @param heuristic
+     *            the planning heuristic. Should return non-positive values.
+     */
+    public CompactAStar(Domain domain, RewardFunction rf,
+	    StateConditionTest gc, StateHashFactory hashingFactory,
+	    Heuristic heuristic) {
+
+	this.deterministicPlannerInit(domain, rf, new NullTermination(), gc,
+		hashingFactory);
+
+	this.heuristic = heuristic;
+
+    }
+
+    /**
+     * Sets the encoder of states. States with equal encodings are considered
+     * the same state.
+     *
+     * @param encoder
+     *            the encoder of states, or null to use a
+     *            {@link FixedObjectStateEncoder} for the initial state
+     */
+    public void setStateEncoder(StateEncoder encoder) {
+	this.encoder = encoder;
+    }
+
+    /**
+     * Sets a static heuristic weight, so that f(n) = g(n) + weight * h(n). A
+     * weight of 1 is A*; a weight of 1 + epsilon is the same as
+     * {@link StaticWeightedAStar}. Disables dynamic weighting.
+     *
+     * @param weight
+     *            the weight of the heuristic
+     */
+    public void setHeuristicWeight(double weight) {
+	this.heuristicWeight = weight;
+	this.dynamicEpsilon = 0.;
+    }
+
+    /**
+     * Sets a dynamic heuristic weight as in {@link DynamicWeightedAStar}, so
+     * that f(n) = g(n) + (1 + epsilon * w(n)) * h(n), where w(n) = 1 -
+     * d(n)/N if d(n) <= N and 0 otherwise, d(n) is the depth of n and N is the
+     * expected search depth.
+     *
+     * @param epsilon
+     *            the maximum additional weight of the heuristic
+     * @param expectedDepth
+     *            the expected search depth
+     */
+    public void setDynamicWeighting(double epsilon, int expectedDepth) {
+	this.heuristicWeight = 1.;
+	this.dynamicEpsilon = epsilon;
+	this.expectedDepth = expectedDepth;
+    }
+
+    /**
+     * Returns the number of nodes expanded by the last search.
+     *
+     * @return the number of nodes expanded by the last search.
+     */
+    public int getLastNumExpanded() {
+	return this.lastNumExpanded;
+    }
+
+    /**
+     * Returns the number of distinct states generated by the last search.
+     *
+     * @return the number of distinct states generated by the last search.
+     */
+    public int getLastNumGenerated() {
+	return this.lastNumGenerated;
+    }
+
+    @Override
+    public void planFromState(State initialState) {
+
+	// first determine if there is even a need to plan
+	StateHashTuple sih = this.stateHash(initialState);
+
+	if (mapToStateIndex.containsKey(sih)) {
+	    return; // no need to plan since this is already solved
+	}
+
+	StateEncoder enc = this.encoder;
+	if (enc == null) {
+	    enc = new FixedObjectStateEncoder(initialState);
+	}
+
+	this.actionTable = new ArrayList<GroundedAction>();
+	this.actionIds = new HashMap<GroundedAction, Integer>();
+
+	NodeStore nodes = new NodeStore(enc.width());
+	NodeHeap openQueue = new NodeHeap();
+	long[] encoded = new long[enc.width()];
+	long[] nextEncoded = new long[enc.width()];
+
+	enc.encode(initialState, encoded);
+	if (!this.stateHash(enc.decode(encoded)).equals(sih)) {
+	    throw new RuntimeException(
+		    "The state encoder does not preserve the state equality of the hashing factory; use setStateEncoder to provide one that does.");
+	}
+	int root = nodes.add(encoded, -1, -1, 0, 0.,
+		this.heuristic.h(initialState));
+	openQueue.insert(root, this.f(nodes, root));
+
+	int goal = -1;
+	int nexpanded = 0;
+	double minF = this.f(nodes, root);
+	while (openQueue.size() > 0) {
+
+	    double nodeF = openQueue.peekPriority();
+	    int node = openQueue.poll();
+	    if (nodes.closed[node] || nodeF != this.f(nodes, node)) {
+		continue; // stale entry for a node whose path was improved
+	    }
+	    nodes.closed[node] = true;
+
+	    nexpanded++;
+	    if (nodeF < minF) {
+		minF = nodeF;
+		DPrint.cl(debugCode, "Min F Expanded: " + minF
+			+ "; Nodes expanded so far: " + nexpanded
+			+ "; Open size: " + openQueue.size());
+	    }
+
+	    State s = enc.decode(nodes.encoding(node, encoded));
+	    if (gc.satisfies(s)) {
+		goal = node;
+		break;
+	    }
+
+	    if (this.tf.isTerminal(s)) {
+		continue; // do not expand nodes from a terminal state
+	    }
+
+	    // generate successors
+	    for (Action a : actions) {
+		List<GroundedAction> gas = s.getAllGroundedActionsFor(a);
+		for (GroundedAction ga : gas) {
+		    State ns = ga.executeIn(s);
+		    enc.encode(ns, nextEncoded);
+		    double g = nodes.g[node] + rf.reward(s, ga, ns);
+
+		    int next = nodes.find(nextEncoded);
+		    if (next == -1) {
+			next = nodes.add(nextEncoded, node, this.actionId(ga),
+				nodes.depth[node] + 1, g, this.heuristic.h(ns));
+			openQueue.insert(next, this.f(nodes, next));
+		    } else if (g > nodes.g[next]) {
+			// better path; reopen the node if it was closed
+			nodes.parent[next] = node;
+			nodes.action[next] = this.actionId(ga);
+			nodes.depth[next] = nodes.depth[node] + 1;
+			nodes.g[next] = g;
+			nodes.closed[next] = false;
+			openQueue.insert(next, this.f(nodes, next));
+		    }
+		}
+	    }
+
+	}
+
+	this.lastNumExpanded = nexpanded;
+	this.lastNumGenerated = nodes.size;
+
+	if (goal == -1) {
+	    this.actionTable = null;
+	    this.actionIds = null;
+	    throw new PlanningFailedException();
+	}
+
+	// search to goal complete. Now follow parent ids to set policy
+	int cur = goal;
+	while (nodes.parent[cur] != -1) {
+	    int p = nodes.parent[cur];
+	    StateHashTuple psh = this.stateHash(enc.decode(nodes.encoding(p,
+		    encoded)));
+	    if (!mapToStateIndex.containsKey(psh)) {
+		internalPolicy.put(psh, this.actionTable.get(nodes.action[cur]));
+		mapToStateIndex.put(psh, psh);
+	    }
+	    cur = p;
+	}
+
+	this.actionTable = null;
+	this.actionIds = null;
+
+	DPrint.cl(debugCode, "Num Expanded: " + nexpanded + "; Num Generated: "
+		+ this.lastNumGenerated);
+
+    }
+
+    /**
+     * Returns the f-score of a node.
+     *
+     * @param nodes
+     *            the node storage
+     * @param node
+     *            the node id
+     * @return the f-score of the node
+     */
+    protected double f(NodeStore nodes, int node) {
+	double weight = this.heuristicWeight;
+	if (this.dynamicEpsilon != 0.) {
+	    int d = nodes.depth[node];
+	    double w = d <= this.expectedDepth ? 1. - (double) d
+		    / (double) this.expectedDepth : 0.;
+	    weight = 1. + this.dynamicEpsilon * w;
+	}
+	return nodes.g[node] + weight * nodes.h[node];
+    }
+
+    /**
+     * Returns the id of a grounded action in the current search, assigning it
+     * a new id if it does not have one.
+     *
+     * @param ga
+     *            the grounded action
+     * @return the id of the grounded action
+     */
+    protected int actionId(GroundedAction ga) {
+	Integer id = this.actionIds.get(ga);
+	if (id == null) {
+	    id = this.actionTable.size();
+	    this.actionTable.add(ga);
+	    this.actionIds.put(ga, id);
+	}
+	return id;
+    }
+
+    /**
+     * Stores the encoding and search information of every generated state in
+     * primitive arrays indexed by node id.
+     *
+     */
+    protected static class NodeStore {
+
+	protected int width;
+	protected int size = 0;
+
+	/**
+	 * The encodings of all nodes, width longs per node
+	 */
+	protected long[] words;
+
+	protected int[] parent;
+	protected int[] action;
+	protected int[] depth;
+	protected double[] g;
+	protected double[] h;
+	protected boolean[] closed;
+
+	/**
+	 * The 64-bit key of the encoding of the node in each slot of the hash
+	 * table
+	 */
+	protected long[] tableKeys;
+
+	/**
+	 * The node id plus one in each slot of the hash table; 0 for empty
+	 * slots
+	 */
+	protected int[] tableIds;
+
+	public NodeStore(int width) {
+	    this.width = width;
+	    int capacity = 1024;
+	    this.words = new long[capacity * width];
+	    this.parent = new int[capacity];
+	    this.action = new int[capacity];
+	    this.depth = new int[capacity];
+	    this.g = new double[capacity];
+	    this.h = new double[capacity];
+	    this.closed = new boolean[capacity];
+	    this.tableKeys = new long[capacity * 2];
+	    this.tableIds = new int[capacity * 2];
+	}
+
+	/**
+	 * Returns the id of the node with the given encoding, or -1 if there
+	 * is none.
+	 */
+	public int find(long[] encoded) {
+	    long key = key(encoded);
+	    int mask = this.tableIds.length - 1;
+	    int slot = (int) key & mask;
+	    while (this.tableIds[slot] != 0) {
+		int id = this.tableIds[slot] - 1;
+		if (this.tableKeys[slot] == key && this.matches(id, encoded)) {
+		    return id;
+		}
+		slot = (slot + 1) & mask;
+	    }
+	    return -1;
+	}
+
+	/**
+	 * Adds a node for a state that has not been generated before.
+	 */
+	public int add(long[] encoded, int parent, int action, int depth,
+		double g, double h) {
+
+	    if (this.size == this.parent.length) {
+		this.grow();
+	    }
+
+	    int id = this.size++;
+	    System.arraycopy(encoded, 0, this.words, id * this.width,
+		    this.width);
+	    this.parent[id] = parent;
+	    this.action[id] = action;
+	    this.depth[id] = depth;
+	    this.g[id] = g;
+	    this.h[id] = h;
+
+	    this.insertIntoTable(key(encoded), id);
+
+	    return id;
+	}
+
+	/**
+	 * Copies the encoding of a node into the given array and returns it.
+	 */
+	public long[] encoding(int id, long[] out) {
+	    System.arraycopy(this.words, id * this.width, out, 0, this.width);
+	    return out;
+	}
+
+	protected boolean matches(int id, long[] encoded) {
+	    int start = id * this.width;
+	    for (int i = 0; i < this.width; i++) {
+		if (this.words[start + i] != encoded[i]) {
+		    return false;
+		}
+	    }
+	    return true;
+	}
+
+	protected void insertIntoTable(long key, int id) {
+	    int mask = this.tableIds.length - 1;
+	    int slot = (int) key & mask;
+	    while (this.tableIds[slot] != 0) {
+		slot = (slot + 1) & mask;
+	    }
+	    this.tableKeys[slot] = key;
+	    this.tableIds[slot] = id + 1;
+	}
+
+	protected void grow() {
+
+	    int capacity = this.parent.length * 2;
+	    this.words = Arrays.copyOf(this.words, capacity * this.width);
+	    this.parent = Arrays.copyOf(this.parent, capacity);
+	    this.action = Arrays.copyOf(this.action, capacity);
+	    this.depth = Arrays.copyOf(this.depth, capacity);
+	    this.g = Arrays.copyOf(this.g, capacity);
+	    this.h = Arrays.copyOf(this.h, capacity);
+	    this.closed = Arrays.copyOf(this.closed, capacity);
+
+	    // keep the table at most half full
+	    long[] oldKeys = this.tableKeys;
+	    int[] oldIds = this.tableIds;
+	    this.tableKeys = new long[capacity * 2];
+	    this.tableIds = new int[capacity * 2];
+	    for (int i = 0; i < oldIds.length; i++) {
+		if (oldIds[i] != 0) {
+		    this.insertIntoTable(oldKeys[i], oldIds[i] - 1);
+		}
+	    }
+
+	}
+
+	/**
+	 * Returns a 64-bit key of an encoding.
+	 */
+	protected static long key(long[] encoded) {
+	    long k = 0x9E3779B97F4A7C15L;
+	    for (long w : encoded) {
+		k = (k ^ w) * 0xFF51AFD7ED558CCDL;
+		k ^= k >>> 32;
+	    }
+	    return k;
+	}
+
+    }
+
+    /**
+     * A binary max heap of node ids and their priorities. A node whose
+     * priority changes is inserted again rather than moved, and the search
+     * skips the outdated entry when it is polled.
+     *
+     */
+    protected static class NodeHeap {
+
+	protected int[] ids = new int[1024];
+	protected double[] priorities = new double[1024];
+	protected int size = 0;
+
+	public int size() {
+	    return this.size;
+	}
+
+	public double peekPriority() {
+	    return this.priorities[0];
+	}
+
+	public void insert(int id, double priority) {
+	    if (this.size == this.ids.length) {
+		this.ids = Arrays.copyOf(this.ids, this.size * 2);
+		this.priorities = Arrays.copyOf(this.priorities, this.size * 2);
+	    }
+	    int i = this.size++;
+	    while (i > 0) {
+		int p = (i - 1) / 2;
+		if (this.priorities[p] >= priority) {
+		    break;
+		}
+		this.ids[i] = this.ids[p];
+		this.priorities[i] = this.priorities[p];
+		i = p;
+	    }
+	    this.ids[i] = id;
+	    this.priorities[i] = priority;
+	}
+
+	public int poll() {
+	    int top = this.ids[0];
+	    this.size--;
+	    int id = this.ids[this.size];
+	    double priority = this.priorities[this.size];
+	    int i = 0;
+	    while (true) {
+		int c = 2 * i + 1;
+		if (c >= this.size) {
+		    break;
+		}
+		if (c + 1 < this.size
+			&& this.priorities[c + 1] > this.priorities[c]) {
+		    c++;
+		}
+		if (this.priorities[c] <= priority) {
+		    break;
+		}
+		this.ids[i] = this.ids[c];
+		this.priorities[i] = this.priorities[c];
+		i = c;
+	    }
+	    this.ids[i] = id;
+	    this.priorities[i] = priority;
+	    return top;
+	}
+
+    }
+
+}
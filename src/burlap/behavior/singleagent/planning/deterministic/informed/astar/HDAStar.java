@@ -0,0 +1,364 @@
+package burlap.behavior.singleagent.planning.deterministic.informed.astar;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+import burlap.behavior.singleagent.planning.StateConditionTest;
+import burlap.behavior.singleagent.planning.deterministic.DeterministicPlanner;
+import burlap.behavior.singleagent.planning.deterministic.SearchNode;
+import burlap.behavior.singleagent.planning.deterministic.informed.Heuristic;
+import burlap.behavior.statehashing.StateHashFactory;
+import burlap.behavior.statehashing.StateHashTuple;
+import burlap.debugtools.DPrint;
+import burlap.oomdp.auxiliary.common.NullTermination;
+import burlap.oomdp.core.Domain;
+import burlap.oomdp.core.State;
+import burlap.oomdp.singleagent.Action;
+import burlap.oomdp.singleagent.GroundedAction;
+import burlap.oomdp.singleagent.RewardFunction;
+
+/**
+ * A parallel implementation of A* using hash distribution (HDA*) [1]. Each of
+ * a fixed number of worker threads owns the states whose hash code maps to it
+ * and keeps its own open list and table of the best known path to each of its
+ * states. When a worker expands a state, it computes the f-score of every
+ * successor and sends the successor to the successor's owner through the
+ * owner's lock-free message queue, so workers never share search data
+ * structures.
+ * <p/>
+ * Since workers expand states out of global f-order, reaching a goal does not
+ * end the search. Instead, the best goal found so far is kept as an incumbent
+ * solution, and nodes whose f-score cannot improve on it are pruned. The
+ * search ends when no node remains in any open list or message queue, which
+ * is tracked by a global count of outstanding nodes; with an admissible
+ * heuristic, the incumbent solution is then optimal.
+ * <p/>
+ * Like {@link AStar}, costs are negative rewards and the heuristic should
+ * return non-positive values. The actions, reward function, goal condition,
+ * terminal function and heuristic are called from several threads at once and
+ * must be safe to use concurrently.
+ * <p/>
+ * 1. Kishimoto, Akihiro, Alex Fukunaga, and Adi Botea.
+ * "Scalable, parallel best-first search for optimal sequential planning."
+ * ICAPS 2009.
+ *
+ */
+public class HDAStar extends DeterministicPlanner {
+
+    /**
+     * The heuristic function.
+     */
+    protected Heuristic heuristic;
+
+    /**
+     * The number of worker threads
+     */
+    protected int numThreads;
+
+    /**
+     * The message queue of each worker
+     */
+    protected List<ConcurrentLinkedQueue<HDANode>> inboxes;
+
+    /**
+     * The number of nodes that are in open lists or message queues
+     */
+    protected AtomicLong outstanding;
+
+    /**
+     * The cumulative reward of the incumbent solution
+     */
+    protected volatile double incumbentG;
+
+    /**
+     * The goal node of the incumbent solution
+     */
+    protected HDANode incumbent;
+
+    /**
+     * Set when a worker fails so that the others stop
+     */
+    protected volatile boolean aborted;
+
+    /**
+     * The number of nodes expanded by the last search
+     */
+    protected AtomicLong numExpanded = new AtomicLong();
+
+    /**
+     * Initializes. Goal states are indicated by gc evaluating to true. The
+     * costs are stored as negative rewards in the reward function. By default
+     * there are no terminal states except the goal states.
+     *
+     * @param domain
+     *            the domain in which to plan
+     * @param rf
+     *            the reward function that represents costs as negative reward
+     * @param gc
+     *            should evaluate to true for goal states; false otherwise
+     * @param hashingFactory
+     *            the state hashing factory to use
+     * @param heuristic
+     *            the planning heuristic. Should return non-positive values.
+     * @param numThreads
+     *            the number of worker threads
+     */
+    public HDAStar(Domain domain, RewardFunction rf, StateConditionTest gc,
+	    StateHashFactory hashingFactory, Heuristic heuristic, int numThreads) {
+
+	this.deterministicPlannerInit(domain, rf, new NullTermination(), gc,
+		hashingFactory);
+
+	this.heuristic = heuristic;
+	this.numThreads = numThreads;
+
+    }
+
+    /**
+     * Returns the number of nodes expanded by the last search.
+     *
+     * @return the number of nodes expanded by the last search.
+     */
+    public long getLastNumExpanded() {
+	return this.numExpanded.get();
+    }
+
+    @Override
+    public void planFromState(State initialState) {
+
+	// first determine if there is even a need to plan
+	StateHashTuple sih = this.stateHash(initialState);
+
+	if (mapToStateIndex.containsKey(sih)) {
+	    return; // no need to plan since this is already solved
+	}
+
+	this.inboxes = new ArrayList<ConcurrentLinkedQueue<HDANode>>(
+		this.numThreads);
+	for (int i = 0; i < this.numThreads; i++) {
+	    this.inboxes.add(new ConcurrentLinkedQueue<HDANode>());
+	}
+	this.outstanding = new AtomicLong();
+	this.incumbentG = Double.NEGATIVE_INFINITY;
+	this.incumbent = null;
+	this.aborted = false;
+	this.numExpanded.set(0);
+
+	this.send(new HDANode(sih, null, null, 0.,
+		this.heuristic.h(initialState)));
+
+	List<Callable<Void>> workers = new ArrayList<Callable<Void>>(
+		this.numThreads);
+	for (int i = 0; i < this.numThreads; i++) {
+	    workers.add(new Worker(i));
+	}
+
+	ForkJoinPool pool = new ForkJoinPool(this.numThreads);
+	try {
+	    for (Future<Void> f : pool.invokeAll(workers)) {
+		f.get();
+	    }
+	} catch (InterruptedException e) {
+	    Thread.currentThread().interrupt();
+	    throw new RuntimeException(e);
+	} catch (ExecutionException e) {
+	    throw new RuntimeException(e.getCause());
+	} finally {
+	    pool.shutdown();
+	    this.inboxes = null;
+	}
+
+	DPrint.cl(debugCode, "Num Expanded: " + this.numExpanded.get());
+
+	// search to goal complete. Now follow back pointers to set policy
+	this.encodePlanIntoPolicy(this.incumbent);
+
+    }
+
+    /**
+     * Returns the worker that owns a state.
+     *
+     * @param sh
+     *            the hashed state
+     * @return the index of the worker that owns the state
+     */
+    protected int owner(StateHashTuple sh) {
+	int h = sh.hashCode();
+	h ^= (h >>> 16);
+	return (h & 0x7FFFFFFF) % this.numThreads;
+    }
+
+    /**
+     * Sends a node to the worker that owns its state.
+     *
+     * @param node
+     *            the node to send
+     */
+    protected void send(HDANode node) {
+	this.outstanding.incrementAndGet();
+	this.inboxes.get(this.owner(node.s)).offer(node);
+    }
+
+    /**
+     * Makes a goal node the incumbent solution if it is better than the
+     * current one.
+     *
+     * @param node
+     *            the goal node
+     */
+    protected synchronized void offerSolution(HDANode node) {
+	if (node.g > this.incumbentG) {
+	    this.incumbent = node;
+	    this.incumbentG = node.g;
+	    DPrint.cl(debugCode, "Incumbent solution: " + node.g);
+	}
+    }
+
+    /**
+     * A search node with its cumulative reward and f-score. Nodes are never
+     * modified after they are sent, so they can be read by any worker.
+     *
+     */
+    protected static class HDANode extends SearchNode {
+
+	protected double g;
+	protected double f;
+
+	public HDANode(StateHashTuple s, GroundedAction ga, SearchNode bp,
+		double g, double h) {
+	    super(s, ga, bp);
+	    this.g = g;
+	    this.f = g + h;
+	}
+
+    }
+
+    /**
+     * Orders {@link HDANode} objects so that the highest f-score comes first.
+     *
+     */
+    protected static class HDANodeComparator implements Comparator<HDANode> {
+
+	@Override
+	public int compare(HDANode o1, HDANode o2) {
+	    return Double.compare(o2.f, o1.f);
+	}
+
+    }
+
+    /**
+     * Searches the partition of states owned by one worker.
+     *
+     */
+    protected class Worker implements Callable<Void> {
+
+	protected int id;
+	protected PriorityQueue<HDANode> open = new PriorityQueue<HDANode>(64,
+		new HDANodeComparator());
+
+	/**
+	 * The best known node of each state in this partition
+	 */
+	protected Map<StateHashTuple, HDANode> best = new HashMap<StateHashTuple, HDANode>();
+
+	public Worker(int id) {
+	    this.id = id;
+	}
+
+	@Override
+	public Void call() {
+	    try {
+		this.search();
+	    } catch (RuntimeException e) {
+		aborted = true;
+		throw e;
+	    } catch (Error e) {
+		aborted = true;
+		throw e;
+	    }
+	    return null;
+	}
+
+	protected void search() {
+
+	    ConcurrentLinkedQueue<HDANode> inbox = inboxes.get(this.id);
+
+	    while (outstanding.get() > 0 && !aborted) {
+
+		// receive nodes from other workers
+		HDANode received;
+		while ((received = inbox.poll()) != null) {
+		    HDANode known = this.best.get(received.s);
+		    if (known == null || received.g > known.g) {
+			this.best.put(received.s, received);
+			this.open.offer(received);
+		    } else {
+			outstanding.decrementAndGet();
+		    }
+		}
+
+		HDANode node = this.open.poll();
+		if (node == null) {
+		    Thread.yield();
+		    continue;
+		}
+
+		if (this.best.get(node.s) != node || node.f <= incumbentG) {
+		    // superseded by a better path or unable to improve on the
+		    // incumbent
+		    outstanding.decrementAndGet();
+		    continue;
+		}
+
+		this.expand(node);
+
+		// successors were counted when sent, so the node can only be
+		// released afterwards
+		outstanding.decrementAndGet();
+
+	    }
+
+	}
+
+	protected void expand(HDANode node) {
+
+	    State s = node.s.s;
+	    if (gc.satisfies(s)) {
+		offerSolution(node);
+		return;
+	    }
+
+	    if (tf.isTerminal(s)) {
+		return; // do not expand nodes from a terminal state
+	    }
+
+	    numExpanded.incrementAndGet();
+
+	    for (Action a : actions) {
+		List<GroundedAction> gas = s.getAllGroundedActionsFor(a);
+		for (GroundedAction ga : gas) {
+		    State ns = ga.executeIn(s);
+		    double g = node.g + rf.reward(s, ga, ns);
+		    double h = heuristic.h(ns);
+		    if (g + h <= incumbentG) {
+			continue; // cannot improve on the incumbent
+		    }
+		    send(new HDANode(stateHash(ns), ga, node, g, h));
+		}
+	    }
+
+	}
+
+    }
+
+}
@@ -0,0 +1,56 @@
+package burlap.behavior.singleagent.planning.stochastic.montecarlo.uct;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import burlap.behavior.singleagent.planning.deterministic.informed.Heuristic;
+import burlap.behavior.statehashing.StateHashTuple;
+
+/**
+ * Expands the untried action whose sampled outcome has the highest reward plus
+ * discounted heuristic value, breaking ties randomly.
+ * 
+ */
+public class HeuristicExpansionPolicy implements UCTExpansionPolicy {
+
+    /**
+     * The heuristic that estimates the future reward of sampled outcomes
+     */
+    protected Heuristic heuristic;
+
+    /**
+     * Initializes.
+     * 
+     * @param heuristic
+     *            the heuristic that estimates the future reward of sampled
+     *            outcomes
+     */
+    public HeuristicExpansionPolicy(Heuristic heuristic) {
+	this.heuristic = heuristic;
+    }
+
+    @Override
+    public UCTActionNode selectUntriedAction(UCT planner, UCTStateNode snode,
+	    List<UCTActionNode> untried) {
+
+	List<UCTActionNode> candidates = new ArrayList<UCTActionNode>();
+	double maxValue = Double.NEGATIVE_INFINITY;
+	for (UCTActionNode anode : untried) {
+	    StateHashTuple sample = planner.sampleSuccessor(snode, anode);
+	    double value = planner.getRF().reward(snode.state.s, anode.action,
+		    sample.s)
+		    + planner.getGamma() * this.heuristic.h(sample.s);
+	    if (value > maxValue) {
+		candidates.clear();
+		candidates.add(anode);
+		maxValue = value;
+	    } else if (value == maxValue) {
+		candidates.add(anode);
+	    }
+	}
+
+	return candidates.get(planner.getRandom().nextInt(candidates.size()));
+
+    }
+
+}
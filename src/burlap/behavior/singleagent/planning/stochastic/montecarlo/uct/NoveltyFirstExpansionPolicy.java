@@ -0,0 +1,33 @@
+package burlap.behavior.singleagent.planning.stochastic.montecarlo.uct;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import burlap.behavior.statehashing.StateHashTuple;
+
+/**
+ * Expands a random untried action whose sampled outcome is a state that is not
+ * yet in the tree, or a random untried action if every sampled outcome is
+ * already in the tree. This is the default expansion policy of {@link UCT}.
+ * 
+ */
+public class NoveltyFirstExpansionPolicy implements UCTExpansionPolicy {
+
+    @Override
+    public UCTActionNode selectUntriedAction(UCT planner, UCTStateNode snode,
+	    List<UCTActionNode> untried) {
+
+	List<UCTActionNode> novel = new ArrayList<UCTActionNode>(untried.size());
+	for (UCTActionNode anode : untried) {
+	    StateHashTuple sample = planner.sampleSuccessor(snode, anode);
+	    if (!planner.isInTree(sample)) {
+		novel.add(anode);
+	    }
+	}
+
+	List<UCTActionNode> candidates = novel.size() > 0 ? novel : untried;
+	return candidates.get(planner.getRandom().nextInt(candidates.size()));
+
+    }
+
+}
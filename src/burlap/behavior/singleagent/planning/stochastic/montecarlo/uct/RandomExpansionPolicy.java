@@ -0,0 +1,18 @@
+package burlap.behavior.singleagent.planning.stochastic.montecarlo.uct;
+
+import java.util.List;
+
+/**
+ * Expands a uniformly random untried action. This policy never simulates an
+ * action before it is expanded.
+ * 
+ */
+public class RandomExpansionPolicy implements UCTExpansionPolicy {
+
+    @Override
+    public UCTActionNode selectUntriedAction(UCT planner, UCTStateNode snode,
+	    List<UCTActionNode> untried) {
+	return untried.get(planner.getRandom().nextInt(untried.size()));
+    }
+
+}
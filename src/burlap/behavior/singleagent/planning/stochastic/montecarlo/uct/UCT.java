@@ -1,12 +1,24 @@
 package burlap.behavior.singleagent.planning.stochastic.montecarlo.uct;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Random;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import burlap.behavior.singleagent.options.Option;
 import burlap.behavior.singleagent.planning.OOMDPPlanner;
@@ -20,6 +32,7 @@ import burlap.debugtools.RandomFactory;
 import burlap.oomdp.core.Domain;
 import burlap.oomdp.core.State;
 import burlap.oomdp.core.TerminalFunction;
+import burlap.oomdp.singleagent.GroundedAction;
 import burlap.oomdp.singleagent.RewardFunction;
 
 /**
@@ -29,6 +42,37 @@ import burlap.oomdp.singleagent.RewardFunction;
  * cause the planning algorithm to terminate early once it has found a path to
  * the goal. This may be useful if randomly finding the goal state is rare. <br/>
  * <br/>
+ * Rollouts can also be performed by multiple threads (see
+ * {@link #setParallelMode(ParallelMode, int)}). With
+ * {@link ParallelMode#TREE} all threads share one tree. The tree index can be
+ * read without locking and the rollout, visit and tree size counters are
+ * atomic, while the statistics of a state node and its action nodes are
+ * updated while holding the state node's monitor. When a thread
+ * selects an action it applies a virtual loss to it, which makes the action
+ * look worse to other threads until the rollout is backed up, so that threads
+ * spread out over different paths. With {@link ParallelMode#ROOT} each thread
+ * builds its own tree from an even share of the rollouts, and the root action
+ * statistics of all trees are summed into the first tree; this requires no
+ * synchronization but duplicates work below the root. In either mode the
+ * domain, reward function, terminal function and hashing factory must be safe
+ * to use from multiple threads. <br/>
+ * <br/>
+ * For use as an online controller, planning can be limited by a time budget
+ * (see {@link #setPlanningTimeBudget(long)}), after which the best root action
+ * found so far can be retrieved with {@link #getBestRootAction()}. The size of
+ * the tree can be capped (see {@link #setMaxTreeSize(int)}); when the cap is
+ * reached, the least visited half of the nodes is pruned. If subtree reuse is
+ * enabled (see {@link #toggleSubtreeReuse(boolean)}), planning from a state
+ * that is a successor of the current root keeps the subtree below that
+ * successor, and its statistics, as the new tree. <br/>
+ * <br/>
+ * Which untried action of a node is expanded first is decided by a
+ * {@link UCTExpansionPolicy}; the default is
+ * {@link NoveltyFirstExpansionPolicy}. Outcomes that a policy samples to make
+ * its decision are cached on the action nodes and used as the first outcome
+ * of the rollouts that expand them, so each expansion costs one simulation of
+ * a primitive action. <br/>
+ * <br/>
  * 1. Kocsis, Levente, and Csaba Szepesvari.
  * "Bandit based monte-carlo planning." ECML (2006). 282-293.
  * 
@@ -37,28 +81,84 @@ import burlap.oomdp.singleagent.RewardFunction;
  */
 public class UCT extends OOMDPPlanner {
 
+    /**
+     * How rollouts are distributed over threads.
+     * <ul>
+     * <li>NONE: rollouts are performed sequentially by the calling thread.</li>
+     * <li>TREE: threads perform rollouts in one shared tree, using virtual
+     * loss to spread out over different paths.</li>
+     * <li>ROOT: each thread builds its own tree and the root action statistics
+     * are summed.</li>
+     * </ul>
+     */
+    public enum ParallelMode {
+	NONE, TREE, ROOT
+    }
+
     protected List<Map<StateHashTuple, UCTStateNode>> stateDepthIndex;
     protected Map<StateHashTuple, List<UCTStateNode>> statesToStateNodes;
     protected UCTStateNode root;
     protected int maxHorizon;
     protected int maxRollOutsFromRoot;
-    protected int numRollOutsFromRoot;
+    protected AtomicInteger numRollOutsFromRoot = new AtomicInteger();
     protected double explorationBias;
 
     protected UCTStateConstructor stateNodeConstructor;
     protected UCTActionConstructor actionNodeConstructor;
 
     protected StateConditionTest goalCondition;
-    protected boolean foundGoal;
-    protected boolean foundGoalOnRollout;
+    protected volatile boolean foundGoal;
+    protected ThreadLocal<Boolean> foundGoalOnRollout = new ThreadLocal<Boolean>() {
+	@Override
+	protected Boolean initialValue() {
+	    return false;
+	}
+    };
 
     protected Set<StateHashTuple> uniqueStatesInTree;
 
-    protected int treeSize;
-    protected int numVisits;
+    protected AtomicInteger treeSize = new AtomicInteger();
+    protected AtomicInteger numVisits = new AtomicInteger();
 
     protected Random rand;
 
+    protected ParallelMode parallelMode = ParallelMode.NONE;
+    protected int numThreads = 1;
+
+    /**
+     * The return subtracted from an action node's sum of returns while a
+     * thread's rollout through it is in progress, in
+     * {@link ParallelMode#TREE} mode.
+     */
+    protected double virtualLoss = 1.;
+
+    /**
+     * The maximum wall-clock time of a planning call in milliseconds, or -1 if
+     * there is no limit
+     */
+    protected long planningTimeBudget = -1;
+
+    /**
+     * The {@link System#nanoTime()} at which the current planning call must
+     * stop, or -1 if there is no limit
+     */
+    protected long planningDeadline = -1;
+
+    /**
+     * The maximum number of nodes in the tree, or -1 if there is no limit
+     */
+    protected int maxTreeSize = -1;
+
+    /**
+     * Whether planning from a successor of the current root reuses its subtree
+     */
+    protected boolean reuseSubtrees = false;
+
+    /**
+     * Chooses which untried action of a node to expand
+     */
+    protected UCTExpansionPolicy expansionPolicy = new NoveltyFirstExpansionPolicy();
+
     /**
      * Initializes UCT
      * 
@@ -128,36 +228,401 @@ public class UCT extends OOMDPPlanner {
 	this.goalCondition = gc;
     }
 
+    /**
+     * Sets whether and how rollouts are performed by multiple threads. The
+     * domain, reward function, terminal function and hashing factory must be
+     * safe to use from multiple threads unless the mode is
+     * {@link ParallelMode#NONE}.
+     * 
+     * @param mode
+     *            the parallel mode
+     * @param numThreads
+     *            the number of threads to use; ignored if the mode is
+     *            {@link ParallelMode#NONE}
+     */
+    public void setParallelMode(ParallelMode mode, int numThreads) {
+	if (mode != ParallelMode.NONE && numThreads < 1) {
+	    throw new RuntimeException("The number of threads must be positive");
+	}
+	this.parallelMode = mode;
+	this.numThreads = mode == ParallelMode.NONE ? 1 : numThreads;
+    }
+
+    /**
+     * Sets the virtual loss applied to an action node while a rollout through
+     * it is in progress in {@link ParallelMode#TREE} mode. It should be on the
+     * scale of the returns of the domain; larger values spread threads over
+     * more paths.
+     * 
+     * @param virtualLoss
+     *            the virtual loss
+     */
+    public void setVirtualLoss(double virtualLoss) {
+	this.virtualLoss = virtualLoss;
+    }
+
+    /**
+     * Sets the maximum wall-clock time of each planning call. Planning stops
+     * after the first rollout that ends past the deadline, so the time of one
+     * rollout should be small relative to the budget.
+     * 
+     * @param millis
+     *            the time budget in milliseconds, or -1 for no limit
+     */
+    public void setPlanningTimeBudget(long millis) {
+	this.planningTimeBudget = millis;
+    }
+
+    /**
+     * Sets the maximum number of nodes in the tree. In sequential and
+     * {@link ParallelMode#ROOT} mode, the least visited half of the nodes is
+     * pruned whenever the cap is reached, with the cap split evenly between
+     * the trees in {@link ParallelMode#ROOT} mode. In {@link ParallelMode#TREE}
+     * mode nodes cannot be safely removed while other threads are using them,
+     * so the tree stops growing once the cap is reached.
+     * 
+     * @param maxTreeSize
+     *            the maximum number of nodes, or -1 for no limit
+     */
+    public void setMaxTreeSize(int maxTreeSize) {
+	this.maxTreeSize = maxTreeSize;
+    }
+
+    /**
+     * Sets whether planning from a state that is a successor of the current
+     * root should reuse the subtree below that successor instead of building
+     * a new tree. Planning again from the root state itself reuses the whole
+     * tree. Subtree reuse is ignored in {@link ParallelMode#ROOT} mode.
+     * 
+     * @param reuse
+     *            true if subtrees should be reused; false otherwise.
+     */
+    public void toggleSubtreeReuse(boolean reuse) {
+	this.reuseSubtrees = reuse;
+    }
+
+    /**
+     * Sets the policy that chooses which untried action of a node to expand.
+     * 
+     * @param expansionPolicy
+     *            the expansion policy
+     */
+    public void setExpansionPolicy(UCTExpansionPolicy expansionPolicy) {
+	this.expansionPolicy = expansionPolicy;
+    }
+
+    /**
+     * Returns the random number generator used by this planner.
+     * 
+     * @return the random number generator used by this planner.
+     */
+    public Random getRandom() {
+	return rand;
+    }
+
+    /**
+     * Returns whether a node for the given state has been added to the tree
+     * below the root.
+     * 
+     * @param sh
+     *            the hashed state
+     * @return true if the tree contains a node for the state; false otherwise.
+     */
+    public boolean isInTree(StateHashTuple sh) {
+	return uniqueStatesInTree.contains(sh);
+    }
+
+    /**
+     * Returns a sampled outcome of taking an action node's action in a state
+     * node. For primitive actions, the sample is cached on the action node,
+     * so repeated calls return the same outcome and the next rollout through
+     * the action node uses it rather than simulating the action again. Option
+     * outcomes are not cached, since the reward and duration of an option
+     * depend on its last execution.
+     * 
+     * @param snode
+     *            the state node
+     * @param anode
+     *            the action node of snode
+     * @return a sampled outcome of the action
+     */
+    public StateHashTuple sampleSuccessor(UCTStateNode snode,
+	    UCTActionNode anode) {
+	if (!anode.action.action.isPrimitive()) {
+	    return this.stateHash(anode.action.executeIn(snode.state.s));
+	}
+	synchronized (anode) {
+	    if (anode.sampledSuccessor == null) {
+		anode.sampledSuccessor = this.stateHash(anode.action
+			.executeIn(snode.state.s));
+	    }
+	    return anode.sampledSuccessor;
+	}
+    }
+
+    /**
+     * Returns the outcome of taking an action node's action in a state node
+     * for a rollout, using and clearing the cached sample if there is one.
+     * 
+     * @param snode
+     *            the state node
+     * @param anode
+     *            the action node of snode
+     * @return the outcome of the action
+     */
+    protected StateHashTuple takeSuccessorSample(UCTStateNode snode,
+	    UCTActionNode anode) {
+	synchronized (anode) {
+	    StateHashTuple sample = anode.sampledSuccessor;
+	    if (sample != null) {
+		anode.sampledSuccessor = null;
+		return sample;
+	    }
+	}
+	return this.stateHash(anode.action.executeIn(snode.state.s));
+    }
+
+    /**
+     * Returns the number of nodes in the tree.
+     * 
+     * @return the number of nodes in the tree.
+     */
+    public int getTreeSize() {
+	return treeSize.get();
+    }
+
+    /**
+     * Returns the root action with the highest average sample return, or null
+     * if no rollouts have been performed.
+     * 
+     * @return the root action with the highest average sample return
+     */
+    public GroundedAction getBestRootAction() {
+	if (root == null) {
+	    return null;
+	}
+	UCTActionNode best = this.bestReturnAction(root);
+	return best == null ? null : best.action;
+    }
+
     @Override
     public void planFromState(State initialState) {
 
 	foundGoal = false;
+	planningDeadline = -1;
+	if (planningTimeBudget > 0) {
+	    planningDeadline = System.nanoTime() + planningTimeBudget * 1000000L;
+	}
+
+	if (parallelMode == ParallelMode.ROOT) {
+	    this.rootParallelPlan(initialState);
+	} else {
+	    if (!reuseSubtrees || !this.rerootAt(initialState)) {
+		this.initializeTree(initialState);
+	    }
+	    if (parallelMode == ParallelMode.TREE) {
+		this.treeParallelRollOuts();
+	    } else {
+		this.sequentialRollOuts();
+	    }
+	}
+
+	DPrint.cl(debugCode,
+		"\nRollouts: " + numRollOutsFromRoot
+			+ "; Best Action Expected Return: "
+			+ this.bestReturnAction(root).averageReturn());
+
+    }
+
+    /**
+     * Creates a new tree whose root is the given state.
+     * 
+     * @param initialState
+     *            the state of the root node
+     */
+    protected void initializeTree(State initialState) {
 
-	treeSize = 1;
-	numVisits = 0;
+	treeSize.set(1);
+	numVisits.set(0);
 
 	StateHashTuple shi = this.stateHash(initialState);
 	root = stateNodeConstructor.generate(shi, 0, actions,
 		actionNodeConstructor);
 
-	uniqueStatesInTree = new HashSet<StateHashTuple>();
-
-	stateDepthIndex = new ArrayList<Map<StateHashTuple, UCTStateNode>>();
-	statesToStateNodes = new HashMap<StateHashTuple, List<UCTStateNode>>();
-	Map<StateHashTuple, UCTStateNode> depth0Map = new HashMap<StateHashTuple, UCTStateNode>();
+	this.clearTreeIndex();
+	Map<StateHashTuple, UCTStateNode> depth0Map = this.newDepthMap();
 	depth0Map.put(shi, root);
 	stateDepthIndex.add(depth0Map);
 
+	numRollOutsFromRoot.set(0);
+
+    }
+
+    /**
+     * Creates empty tree indices.
+     */
+    protected void clearTreeIndex() {
+	if (parallelMode == ParallelMode.TREE) {
+	    uniqueStatesInTree = Collections
+		    .newSetFromMap(new ConcurrentHashMap<StateHashTuple, Boolean>());
+	    stateDepthIndex = new CopyOnWriteArrayList<Map<StateHashTuple, UCTStateNode>>();
+	} else {
+	    uniqueStatesInTree = new HashSet<StateHashTuple>();
+	    stateDepthIndex = new ArrayList<Map<StateHashTuple, UCTStateNode>>();
+	}
+	statesToStateNodes = new HashMap<StateHashTuple, List<UCTStateNode>>();
+    }
+
+    /**
+     * Makes the node for the given state the root of the tree if it is the
+     * current root or one of its successors, discarding every node that is
+     * not reachable from it.
+     * 
+     * @param s
+     *            the state from which to plan
+     * @return true if the tree was kept; false if there is no node for the
+     *         state and a new tree must be created.
+     */
+    protected boolean rerootAt(State s) {
+
+	if (root == null || stateDepthIndex == null) {
+	    return false;
+	}
+
+	StateHashTuple sh = this.stateHash(s);
+	UCTStateNode newRoot = null;
+	if (root.state.equals(sh)) {
+	    newRoot = root;
+	} else {
+	    newRoot = this.queryTreeIndex(sh, 1);
+	}
+	if (newRoot == null) {
+	    return false;
+	}
+
+	root = newRoot;
+	this.rebuildTreeIndex();
+	numRollOutsFromRoot.set(0);
+
+	DPrint.cl(debugCode, "Reusing subtree with " + treeSize + " nodes");
+
+	return true;
+
+    }
+
+    /**
+     * Prunes the least visited half of the non-root nodes, along with every
+     * node that is only reachable through them.
+     */
+    protected void pruneColdNodes() {
+
+	List<UCTStateNode> nodes = new ArrayList<UCTStateNode>(treeSize.get());
+	for (Map<StateHashTuple, UCTStateNode> depthMap : stateDepthIndex) {
+	    for (UCTStateNode node : depthMap.values()) {
+		if (node != root) {
+		    nodes.add(node);
+		}
+	    }
+	}
+	if (nodes.size() == 0) {
+	    return;
+	}
+
+	int[] visits = new int[nodes.size()];
+	for (int i = 0; i < visits.length; i++) {
+	    visits[i] = nodes.get(i).n;
+	}
+	Arrays.sort(visits);
+	int threshold = visits[visits.length / 2];
+	boolean inclusive = visits[0] == threshold;
+
+	for (UCTStateNode node : nodes) {
+	    boolean cold = inclusive ? node.n <= threshold
+		    : node.n < threshold;
+	    if (cold) {
+		node.n = -1; // mark for removal
+	    }
+	}
+	nodes.add(root);
+	for (UCTStateNode node : nodes) {
+	    for (UCTActionNode an : node.actionNodes) {
+		Iterator<List<UCTStateNode>> it = an.successorStates.values()
+			.iterator();
+		while (it.hasNext()) {
+		    List<UCTStateNode> successors = it.next();
+		    Iterator<UCTStateNode> sit = successors.iterator();
+		    while (sit.hasNext()) {
+			if (sit.next().n == -1) {
+			    sit.remove();
+			}
+		    }
+		    if (successors.size() == 0) {
+			it.remove();
+		    }
+		}
+	    }
+	}
+
+	int oldSize = treeSize.get();
+	this.rebuildTreeIndex();
+
+	DPrint.cl(debugCode, "Pruned tree from " + oldSize + " to " + treeSize
+		+ " nodes");
+
+    }
+
+    /**
+     * Rebuilds the tree indices from the nodes reachable from the root,
+     * shifting node depths so that the root is at depth 0.
+     */
+    protected void rebuildTreeIndex() {
+
+	int shift = root.depth;
+	this.clearTreeIndex();
+	treeSize.set(0);
+
+	Set<UCTStateNode> visited = Collections
+		.newSetFromMap(new IdentityHashMap<UCTStateNode, Boolean>());
+	LinkedList<UCTStateNode> queue = new LinkedList<UCTStateNode>();
+	queue.add(root);
+	visited.add(root);
+	while (queue.size() > 0) {
+	    UCTStateNode node = queue.poll();
+	    node.depth -= shift;
+	    this.addNodeToIndexTree(node);
+	    if (node != root) {
+		uniqueStatesInTree.add(node.state);
+	    }
+	    for (UCTActionNode an : node.actionNodes) {
+		for (UCTStateNode successor : an.getAllSuccessors()) {
+		    if (visited.add(successor)) {
+			queue.offer(successor);
+		    }
+		}
+	    }
+	}
+
+    }
+
+    /**
+     * Performs rollouts from the root in the calling thread until
+     * {@link #stopPlanning()} returns true.
+     */
+    protected void sequentialRollOuts() {
+
 	int lastNumUnique = 0;
 
-	numRollOutsFromRoot = 0;
 	while (!this.stopPlanning()) {
 
 	    this.initializeRollOut();
 
 	    this.treeRollOut(root, 0, maxHorizon);
 
-	    numRollOutsFromRoot++;
+	    numRollOutsFromRoot.incrementAndGet();
+
+	    if (maxTreeSize > 0 && treeSize.get() >= maxTreeSize) {
+		this.pruneColdNodes();
+	    }
 
 	    int nu = uniqueStatesInTree.size();
 	    if (nu - lastNumUnique > 0) {
@@ -171,20 +636,181 @@ public class UCT extends OOMDPPlanner {
 	    // "; Best Action Expected Return: " +
 	    // this.bestReturnAction(root).averageReturn());
 	}
-	DPrint.cl(debugCode,
-		"\nRollouts: " + numRollOutsFromRoot
-			+ "; Best Action Expected Return: "
-			+ this.bestReturnAction(root).averageReturn());
 
     }
 
+    /**
+     * Performs rollouts from the root with {@link #numThreads} threads that
+     * share the tree, until {@link #stopPlanning()} returns true.
+     */
+    protected void treeParallelRollOuts() {
+
+	List<Callable<Void>> workers = new ArrayList<Callable<Void>>(
+		numThreads);
+	for (int i = 0; i < numThreads; i++) {
+	    workers.add(new Callable<Void>() {
+		@Override
+		public Void call() {
+		    while (claimRollOut()) {
+			initializeRollOut();
+			treeRollOut(root, 0, maxHorizon);
+		    }
+		    return null;
+		}
+	    });
+	}
+	this.runWorkers(workers);
+
+	DPrint.cl(debugCode, "" + numRollOutsFromRoot + "; unique states: "
+		+ uniqueStatesInTree.size() + "; tree size: " + treeSize
+		+ "; total visits: " + numVisits);
+
+    }
+
+    /**
+     * Atomically checks whether planning should continue and, if so, counts a
+     * new rollout from the root.
+     * 
+     * @return true if the caller should perform another rollout; false if
+     *         planning should cease.
+     */
+    protected synchronized boolean claimRollOut() {
+	if (this.stopPlanning()) {
+	    return false;
+	}
+	numRollOutsFromRoot.incrementAndGet();
+	return true;
+    }
+
+    /**
+     * Splits the rollouts evenly over {@link #numThreads} independent
+     * planners, each of which builds its own tree in its own thread. The tree
+     * of the first planner becomes the tree of this planner, and the root
+     * action statistics of the other planners are added to its root.
+     * 
+     * @param initialState
+     *            the state from which to plan
+     */
+    protected void rootParallelPlan(State initialState) {
+
+	final State s = initialState;
+	final List<UCT> planners = new ArrayList<UCT>(numThreads);
+	List<Callable<Void>> workers = new ArrayList<Callable<Void>>(
+		numThreads);
+	for (int i = 0; i < numThreads; i++) {
+	    int share = -1;
+	    if (maxRollOutsFromRoot != -1) {
+		share = maxRollOutsFromRoot / numThreads
+			+ (i < maxRollOutsFromRoot % numThreads ? 1 : 0);
+	    }
+	    final UCT planner = this.createRootWorker(share, rand.nextLong());
+	    planners.add(planner);
+	    workers.add(new Callable<Void>() {
+		@Override
+		public Void call() {
+		    planner.initializeTree(s);
+		    planner.sequentialRollOuts();
+		    return null;
+		}
+	    });
+	}
+	this.runWorkers(workers);
+
+	UCT first = planners.get(0);
+	this.root = first.root;
+	this.stateDepthIndex = first.stateDepthIndex;
+	this.statesToStateNodes = first.statesToStateNodes;
+	this.uniqueStatesInTree = first.uniqueStatesInTree;
+	this.treeSize.set(first.treeSize.get());
+	this.numVisits.set(first.numVisits.get());
+	this.numRollOutsFromRoot.set(first.numRollOutsFromRoot.get());
+
+	for (int i = 1; i < planners.size(); i++) {
+	    UCT other = planners.get(i);
+	    this.root.n += other.root.n;
+	    for (int j = 0; j < this.root.actionNodes.size(); j++) {
+		UCTActionNode an = this.root.actionNodes.get(j);
+		UCTActionNode oan = other.root.actionNodes.get(j);
+		an.n += oan.n;
+		an.sumReturn += oan.sumReturn;
+	    }
+	    this.numVisits.addAndGet(other.numVisits.get());
+	    this.numRollOutsFromRoot.addAndGet(other.numRollOutsFromRoot.get());
+	    this.foundGoal |= other.foundGoal;
+	}
+
+    }
+
+    /**
+     * Creates an independent sequential planner with the same parameters as
+     * this planner, used by {@link ParallelMode#ROOT} mode.
+     * 
+     * @param nRollouts
+     *            the number of rollouts the planner should perform
+     * @param seed
+     *            the seed of the planner's random number generator
+     * @return the new planner
+     */
+    protected UCT createRootWorker(int nRollouts, long seed) {
+	UCT planner = new UCT(domain, rf, tf, gamma, hashingFactory,
+		maxHorizon, nRollouts, 0);
+	planner.explorationBias = this.explorationBias;
+	planner.setActions(this.actions);
+	planner.stateNodeConstructor = this.stateNodeConstructor;
+	planner.actionNodeConstructor = this.actionNodeConstructor;
+	planner.goalCondition = this.goalCondition;
+	planner.expansionPolicy = this.expansionPolicy;
+	planner.debugCode = this.debugCode;
+	planner.rand = new Random(seed);
+	planner.planningDeadline = this.planningDeadline;
+	if (this.maxTreeSize > 0) {
+	    planner.maxTreeSize = Math.max(1, this.maxTreeSize / numThreads);
+	}
+	return planner;
+    }
+
+    /**
+     * Runs worker tasks on a pool of {@link #numThreads} threads and waits for
+     * them to finish.
+     * 
+     * @param workers
+     *            the tasks to run
+     */
+    protected void runWorkers(List<Callable<Void>> workers) {
+	ForkJoinPool pool = new ForkJoinPool(numThreads);
+	try {
+	    for (Future<Void> f : pool.invokeAll(workers)) {
+		f.get();
+	    }
+	} catch (InterruptedException e) {
+	    Thread.currentThread().interrupt();
+	    throw new RuntimeException(e);
+	} catch (ExecutionException e) {
+	    throw new RuntimeException(e.getCause());
+	} finally {
+	    pool.shutdown();
+	}
+    }
+
+    /**
+     * Returns a new map from states to the nodes of one depth of the tree.
+     * 
+     * @return a new map from states to the nodes of one depth of the tree
+     */
+    protected Map<StateHashTuple, UCTStateNode> newDepthMap() {
+	if (parallelMode == ParallelMode.TREE) {
+	    return new ConcurrentHashMap<StateHashTuple, UCTStateNode>();
+	}
+	return new HashMap<StateHashTuple, UCTStateNode>();
+    }
+
     @Override
     public void resetPlannerResults() {
 	this.mapToStateIndex.clear();
 	this.stateDepthIndex.clear();
 	this.statesToStateNodes.clear();
 	this.root = null;
-	this.numRollOutsFromRoot = 0;
+	this.numRollOutsFromRoot.set(0);
     }
 
     /*
@@ -192,7 +818,7 @@ public class UCT extends OOMDPPlanner {
      * treeRollOut(UCTStateNode, int, int)}
      */
     protected void initializeRollOut() {
-	foundGoalOnRollout = false;
+	foundGoalOnRollout.set(false);
     }
 
     /**
@@ -211,7 +837,7 @@ public class UCT extends OOMDPPlanner {
     public double treeRollOut(UCTStateNode node, int depth,
 	    int childrenLeftToAdd) {
 
-	numVisits++;
+	numVisits.incrementAndGet();
 
 	if (depth == maxHorizon) {
 	    return 0.;
@@ -221,7 +847,7 @@ public class UCT extends OOMDPPlanner {
 	    if (goalCondition != null) {
 		if (goalCondition.satisfies(node.state.s)) {
 		    foundGoal = true;
-		    foundGoalOnRollout = true;
+		    foundGoalOnRollout.set(true);
 		}
 	    }
 	    DPrint.cl(debugCode, numRollOutsFromRoot
@@ -229,7 +855,14 @@ public class UCT extends OOMDPPlanner {
 	    return 0.;
 	}
 
-	UCTActionNode anode = this.selectActionNode(node);
+	boolean shared = parallelMode == ParallelMode.TREE;
+
+	UCTActionNode anode;
+	if (shared) {
+	    anode = this.selectSharedActionNode(node);
+	} else {
+	    anode = this.selectActionNode(node);
+	}
 
 	if (anode == null) {
 	    // no actions can be performed in this state
@@ -238,8 +871,7 @@ public class UCT extends OOMDPPlanner {
 	}
 
 	// sample the action
-	StateHashTuple shprime = this.stateHash(anode.action
-		.executeIn(node.state.s));
+	StateHashTuple shprime = this.takeSuccessorSample(node, anode);
 	double r = rf.reward(node.state.s, anode.action, shprime.s);
 	int depthChange = 1;
 	if (!anode.action.action.isPrimitive()) {
@@ -258,10 +890,12 @@ public class UCT extends OOMDPPlanner {
 
 	    // then this state already exists in the tree
 
-	    if (!anode.referencesSuccessor(snprime)) {
-		// then this successor has not been generated by this
-		// state-action pair before and should be indexed
-		anode.addSuccessor(snprime);
+	    synchronized (anode) {
+		if (!anode.referencesSuccessor(snprime)) {
+		    // then this successor has not been generated by this
+		    // state-action pair before and should be indexed
+		    anode.addSuccessor(snprime);
+		}
 	    }
 
 	    futureReturn = this.treeRollOut(snprime, depth + depthChange,
@@ -287,22 +921,66 @@ public class UCT extends OOMDPPlanner {
 
 	}
 
-	node.n++;
-	anode.update(sampledReturn);
+	if (shared) {
+	    synchronized (node) {
+		this.revertVirtualLoss(anode, sampledReturn);
+	    }
+	} else {
+	    node.n++;
+	    anode.update(sampledReturn);
+	}
 
-	if (shouldConnectNode || foundGoalOnRollout) {
-	    this.addNodeToIndexTree(snprime);
-	    anode.addSuccessor(snprime);
+	if (shouldConnectNode && maxTreeSize > 0 && treeSize.get() >= maxTreeSize) {
+	    shouldConnectNode = false; // the tree is full
+	}
+
+	if (shouldConnectNode || foundGoalOnRollout.get()) {
+	    snprime = this.addNodeToIndexTree(snprime);
+	    synchronized (anode) {
+		anode.addSuccessor(snprime);
+	    }
 	    uniqueStatesInTree.add(snprime.state);
 	}
 
 	return sampledReturn;
     }
 
+    /**
+     * Counts a visit of a state node and its selected action node before the
+     * rollout through them is complete, and subtracts {@link #virtualLoss}
+     * from the action node's sum of returns. The caller must hold the state
+     * node's monitor.
+     * 
+     * @param snode
+     *            the state node
+     * @param anode
+     *            the selected action node
+     */
+    protected void applyVirtualLoss(UCTStateNode snode, UCTActionNode anode) {
+	snode.n++;
+	anode.n++;
+	anode.sumReturn -= virtualLoss;
+    }
+
+    /**
+     * Replaces the virtual loss of an action node with the sample return of
+     * the completed rollout. The caller must hold the monitor of the action
+     * node's state node.
+     * 
+     * @param anode
+     *            the action node
+     * @param sampledReturn
+     *            the sample return observed
+     */
+    protected void revertVirtualLoss(UCTActionNode anode, double sampledReturn) {
+	anode.sumReturn += virtualLoss + sampledReturn;
+    }
+
     /**
      * Returns true if rollouts and planning should cease. Planning will stop if
      * the planner is told to terminate upon finding a goal and one was found,
-     * or if the maximum number of rollouts have already been performed.
+     * if the time budget has been used, or if the maximum number of rollouts
+     * have already been performed.
      * 
      * @return true if rollouts and planning should cease; false otherwise.
      */
@@ -310,10 +988,13 @@ public class UCT extends OOMDPPlanner {
 	if (foundGoal) {
 	    return true;
 	}
+	if (planningDeadline != -1 && System.nanoTime() - planningDeadline >= 0) {
+	    return true;
+	}
 	if (maxRollOutsFromRoot == -1) {
 	    return false;
 	}
-	if (numRollOutsFromRoot < maxRollOutsFromRoot) {
+	if (numRollOutsFromRoot.get() < maxRollOutsFromRoot) {
 	    return false;
 	}
 	return true;
@@ -321,9 +1002,9 @@ public class UCT extends OOMDPPlanner {
 
     /**
      * Selections which action to take. Unexplored actions from the node are
-     * selected first. If all actions have been explored, then the action with
-     * the highest upper confidence Q-value is selected, ties are broken
-     * randomly.
+     * selected first, using the {@link UCTExpansionPolicy} to choose among
+     * them. If all actions have been explored, then the action with the highest
+     * upper confidence Q-value is selected, ties are broken randomly.
      * 
      * @param snode
      *            the UCT node from which to select an action.
@@ -332,6 +1013,88 @@ public class UCT extends OOMDPPlanner {
     protected UCTActionNode selectActionNode(UCTStateNode snode) {
 
 	List<UCTActionNode> candidates = new ArrayList<UCTActionNode>();
+	boolean untriedNodes = this.collectCandidates(snode, candidates);
+
+	if (candidates.isEmpty()) {
+	    return null;
+	}
+
+	// only one thing to do
+	if (candidates.size() == 1) {
+	    return candidates.get(0);
+	}
+
+	// if there are untried actions, let the expansion policy choose
+	if (untriedNodes) {
+	    return expansionPolicy.selectUntriedAction(this, snode, candidates);
+	}
+
+	return candidates.get(rand.nextInt(candidates.size()));
+
+    }
+
+    /**
+     * Selects which action to take from a node of a tree that is shared by
+     * several worker threads, and applies virtual loss to it. The selection
+     * is the same as {@link #selectActionNode(UCTStateNode)}, except that the
+     * {@link UCTExpansionPolicy}, which may simulate actions, is not run while
+     * holding the node's monitor. Instead, the worker reserves the expansion
+     * of the node under the monitor, releases it, runs the expansion policy
+     * and takes the monitor again to apply virtual loss to the chosen action.
+     * Other workers that select untried actions of the node while its
+     * expansion is reserved choose among them at random.
+     * 
+     * @param snode
+     *            the UCT node from which to select an action.
+     * @return the {@link UCTActionNode} to be taken, or null if there is none.
+     */
+    protected UCTActionNode selectSharedActionNode(UCTStateNode snode) {
+
+	List<UCTActionNode> candidates = new ArrayList<UCTActionNode>();
+
+	synchronized (snode) {
+	    boolean untriedNodes = this.collectCandidates(snode, candidates);
+	    if (candidates.isEmpty()) {
+		return null;
+	    }
+	    if (candidates.size() == 1 || !untriedNodes || snode.expanding) {
+		UCTActionNode anode = candidates.size() == 1 ? candidates
+			.get(0) : candidates.get(rand.nextInt(candidates.size()));
+		this.applyVirtualLoss(snode, anode);
+		return anode;
+	    }
+	    snode.expanding = true;
+	}
+
+	UCTActionNode anode = null;
+	try {
+	    anode = expansionPolicy.selectUntriedAction(this, snode, candidates);
+	} finally {
+	    synchronized (snode) {
+		snode.expanding = false;
+		if (anode != null) {
+		    this.applyVirtualLoss(snode, anode);
+		}
+	    }
+	}
+
+	return anode;
+    }
+
+    /**
+     * Collects the candidate actions of a node: its untried action nodes if
+     * there are any, or else the action nodes with the highest upper
+     * confidence Q-value.
+     * 
+     * @param snode
+     *            the UCT node
+     * @param candidates
+     *            the list to which the candidates are added
+     * @return true if the candidates are untried action nodes; false
+     *         otherwise.
+     */
+    protected boolean collectCandidates(UCTStateNode snode,
+	    List<UCTActionNode> candidates) {
 
 	boolean untriedNodes = false;
 	double maxUCTQ = Double.NEGATIVE_INFINITY;
@@ -359,29 +1122,7 @@ public class UCT extends OOMDPPlanner {
 
 	}
 
-	// only one thing to do
-	if (candidates.size() == 1) {
-	    return candidates.get(0);
-	}
-
-	// if there are untried actions, try the most interesting first
-	if (untriedNodes) {
-	    List<UCTActionNode> candidates2 = new ArrayList<UCTActionNode>(
-		    candidates.size());
-	    for (UCTActionNode anode : candidates) {
-		StateHashTuple sample = this.stateHash(anode.action
-			.executeIn(snode.state.s));
-		if (!uniqueStatesInTree.contains(sample)) {
-		    candidates2.add(anode);
-		}
-	    }
-	    if (candidates2.size() > 0) {
-		candidates = candidates2;
-	    }
-	}
-
-	return candidates.get(rand.nextInt(candidates.size()));
-
+	return untriedNodes;
     }
 
     /**
@@ -434,28 +1175,46 @@ public class UCT extends OOMDPPlanner {
     }
 
     /**
-     * Adds a {@link UCTStateNode} to the UCT tree
+     * Adds a {@link UCTStateNode} to the UCT tree. If the tree already has a
+     * node for the same state at the same depth, which may happen when
+     * multiple threads share the tree, the tree is left unchanged and the
+     * existing node is returned.
      * 
      * @param snode
      *            the {@link UCTStateNode} to add
+     * @return the {@link UCTStateNode} in the tree for the state and depth of
+     *         the given node
      */
-    protected void addNodeToIndexTree(UCTStateNode snode) {
+    protected UCTStateNode addNodeToIndexTree(UCTStateNode snode) {
 
-	while (stateDepthIndex.size() <= snode.depth) {
-	    stateDepthIndex.add(new HashMap<StateHashTuple, UCTStateNode>());
-	}
+	synchronized (stateDepthIndex) {
 
-	stateDepthIndex.get(snode.depth).put(snode.state, snode);
+	    while (stateDepthIndex.size() <= snode.depth) {
+		stateDepthIndex.add(this.newDepthMap());
+	    }
 
-	List<UCTStateNode> depthNodes = statesToStateNodes.get(snode.state);
-	if (depthNodes == null) {
-	    depthNodes = new ArrayList<UCTStateNode>();
-	    statesToStateNodes.put(snode.state, depthNodes);
-	}
+	    Map<StateHashTuple, UCTStateNode> depthMap = stateDepthIndex
+		    .get(snode.depth);
+	    UCTStateNode existing = depthMap.get(snode.state);
+	    if (existing != null) {
+		return existing;
+	    }
+	    depthMap.put(snode.state, snode);
 
-	depthNodes.add(snode);
+	    List<UCTStateNode> depthNodes = statesToStateNodes
+		    .get(snode.state);
+	    if (depthNodes == null) {
+		depthNodes = new ArrayList<UCTStateNode>();
+		statesToStateNodes.put(snode.state, depthNodes);
+	    }
+
+	    depthNodes.add(snode);
+
+	    treeSize.incrementAndGet();
+
+	}
 
-	treeSize++;
+	return snode;
 
     }
 
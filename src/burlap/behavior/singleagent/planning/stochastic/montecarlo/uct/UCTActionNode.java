@@ -38,6 +38,13 @@ public class UCTActionNode {
      */
     public Map<StateHashTuple, List<UCTStateNode>> successorStates;
 
+    /**
+     * A successor state sampled by an expansion policy before this action node
+     * was tried, which the next rollout through this node uses as its outcome
+     * instead of simulating the action again; null if there is none.
+     */
+    public StateHashTuple sampledSuccessor;
+
     /**
      * Generates a new action node for a given action. All statistics are
      * initialized to 0.
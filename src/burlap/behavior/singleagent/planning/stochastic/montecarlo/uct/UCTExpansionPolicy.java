@@ -0,0 +1,30 @@
+package burlap.behavior.singleagent.planning.stochastic.montecarlo.uct;
+
+import java.util.List;
+
+/**
+ * An interface for choosing which untried action of a UCT state node to
+ * expand. Policies that need to look at the outcome of an action should use
+ * {@link UCT#sampleSuccessor(UCTStateNode, UCTActionNode)}, which caches the
+ * sample on the action node so that the rollout that expands the action uses
+ * it as its first outcome instead of simulating the action again.
+ * 
+ */
+public interface UCTExpansionPolicy {
+
+    /**
+     * Returns the untried action node to expand.
+     * 
+     * @param planner
+     *            the planner whose tree is being expanded
+     * @param snode
+     *            the state node being expanded
+     * @param untried
+     *            the action nodes of snode that have not been tried; there is
+     *            always more than one
+     * @return the action node to expand
+     */
+    public UCTActionNode selectUntriedAction(UCT planner, UCTStateNode snode,
+	    List<UCTActionNode> untried);
+
+}
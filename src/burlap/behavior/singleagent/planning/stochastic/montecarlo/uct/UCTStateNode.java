@@ -38,6 +38,14 @@ public class UCTStateNode {
      */
     public List<UCTActionNode> actionNodes;
 
+    /**
+     * Whether a worker thread of a UCT planner in
+     * {@link UCT.ParallelMode#TREE} mode is choosing which untried action of
+     * this node to expand. Only read and written while holding this node's
+     * monitor.
+     */
+    public boolean expanding = false;
+
     /**
      * Initializes the UCT state node.
      * 
@@ -8,6 +8,8 @@ import java.util.Set;
 
 import burlap.behavior.singleagent.Policy;
 import burlap.behavior.singleagent.planning.ActionTransitions;
+import burlap.behavior.singleagent.planning.CompiledMDP;
+import burlap.behavior.singleagent.planning.DenseValueFunctionStore;
 import burlap.behavior.singleagent.planning.HashedTransitionProbability;
 import burlap.behavior.singleagent.planning.PlannerDerivedPolicy;
 import burlap.behavior.singleagent.planning.ValueFunctionPlanner;
@@ -168,6 +170,7 @@ public class PolicyIteration extends ValueFunctionPlanner {
      */
     public void recomputeReachableStates() {
 	this.foundReachableStates = false;
+	this.compiledMDP = null;
     }
 
     @Override
@@ -178,10 +181,8 @@ public class PolicyIteration extends ValueFunctionPlanner {
 
 	    double delta;
 	    do {
-		StaticVFPlanner lastValueFunction = new StaticVFPlanner(
-			this.domain, this.rf, this.gamma, this.hashingFactory,
-			this.actions, this.valueFunction);
-		this.evaluativePolicy.setPlanner(lastValueFunction);
+		this.evaluativePolicy.setPlanner(this
+			.getValueFunctionSnapshot());
 		delta = this.evaluatePolicy();
 	    } while (delta > this.maxPIDelta);
 
@@ -210,6 +211,14 @@ public class PolicyIteration extends ValueFunctionPlanner {
 
 	double maxChangeInPolicyEvaluation = Double.NEGATIVE_INFINITY;
 
+	if (this.useCompiledMDP) {
+	    return this.evaluatePolicyCompiled();
+	}
+
+	if (this.denseStore != null && this.useCachedTransitions) {
+	    return this.evaluatePolicyDense();
+	}
+
 	Set<StateHashTuple> states = mapToStateIndex.keySet();
 
 	int i = 0;
@@ -240,6 +249,104 @@ public class PolicyIteration extends ValueFunctionPlanner {
 
     }
 
+    /**
+     * Computes the value function under following the current evaluative
+     * policy on the {@link CompiledMDP} of the reachable states. The action
+     * probabilities of the policy are queried once per state, after which
+     * each evaluation sweep is a loop over primitive arrays.
+     * 
+     * @return the maximum single iteration change in the value function
+     */
+    protected double evaluatePolicyCompiled() {
+
+	double maxChangeInPolicyEvaluation = Double.NEGATIVE_INFINITY;
+	CompiledMDP mdp = this.getCompiledMDP();
+	double[] rowProbs = mdp
+		.policyRowProbabilities((Policy) this.evaluativePolicy);
+	double[] v = mdp.initialValues(this.valueInitializer);
+
+	int i = 0;
+	for (i = 0; i < this.maxIterations; i++) {
+
+	    double delta = mdp.policySweep(v, rowProbs, this.gamma);
+
+	    maxChangeInPolicyEvaluation = Math.max(delta,
+		    maxChangeInPolicyEvaluation);
+
+	    if (delta < this.maxEvalDelta) {
+		break; // approximated well enough; stop iterating
+	    }
+
+	}
+
+	this.denseStore.setValues(v);
+
+	DPrint.cl(this.debugCode, "Policy Eval Passes: " + i);
+
+	return maxChangeInPolicyEvaluation;
+
+    }
+
+    /**
+     * Computes the value function under following the current evaluative
+     * policy over the states in the
+     * {@link burlap.behavior.singleagent.planning.DenseValueFunctionStore},
+     * sweeping them in order of their ids.
+     * 
+     * @return the maximum single iteration change in the value function
+     */
+    protected double evaluatePolicyDense() {
+
+	double maxChangeInPolicyEvaluation = Double.NEGATIVE_INFINITY;
+	Policy p = (Policy) this.evaluativePolicy;
+	int n = this.denseStore.numStates();
+
+	int i = 0;
+	for (i = 0; i < this.maxIterations; i++) {
+
+	    double delta = 0.;
+	    for (int id = 0; id < n; id++) {
+
+		double v = this.value(id);
+		double maxQ = this.performFixedPolicyBellmanUpdateOn(id, p);
+		delta = Math.max(Math.abs(maxQ - v), delta);
+
+	    }
+
+	    maxChangeInPolicyEvaluation = Math.max(delta,
+		    maxChangeInPolicyEvaluation);
+
+	    if (delta < this.maxEvalDelta) {
+		break; // approximated well enough; stop iterating
+	    }
+
+	}
+
+	DPrint.cl(this.debugCode, "Policy Eval Passes: " + i);
+
+	return maxChangeInPolicyEvaluation;
+
+    }
+
+    /**
+     * Returns a planner that holds a copy of the current value function, from
+     * which the policy to evaluate next is derived. If this planner uses a
+     * {@link burlap.behavior.singleagent.planning.DenseValueFunctionStore},
+     * its values are copied into an array that is read through the store's
+     * state ids; otherwise the value function map is copied.
+     * 
+     * @return a planner that holds a copy of the current value function
+     */
+    protected StaticVFPlanner getValueFunctionSnapshot() {
+	if (this.denseStore == null) {
+	    return new StaticVFPlanner(this.domain, this.rf, this.gamma,
+		    this.hashingFactory, this.actions, this.valueFunction);
+	}
+	return new StaticVFPlanner(this.domain, this.rf, this.gamma,
+		this.hashingFactory, this.actions, this.denseStore,
+		this.denseStore.copyValues());
+    }
+
     /**
      * This method will find all reachable states that will be used when
      * computing the value function. This method will not do anything if all
@@ -256,6 +363,19 @@ public class PolicyIteration extends ValueFunctionPlanner {
 	StateHashTuple sih = this.stateHash(si);
 	// if this is not a new state and we are not required to perform a new
 	// reachability analysis, then this method does not need to do anything.
+	if (this.denseStore != null && this.useCachedTransitions) {
+	    if (mapToStateIndex.containsKey(sih) && this.foundReachableStates) {
+		return false; // no need for additional reachability testing
+	    }
+	    DPrint.cl(this.debugCode, "Starting reachability analysis");
+	    this.performDenseReachabilityFrom(sih, true);
+	    DPrint.cl(this.debugCode,
+		    "Finished reachability analysis; # states: "
+			    + mapToStateIndex.size());
+	    this.foundReachableStates = true;
+	    return true;
+	}
+
 	if (transitionDynamics.containsKey(sih) && this.foundReachableStates) {
 	    return false; // no need for additional reachability testing
 	}
@@ -320,6 +440,18 @@ public class PolicyIteration extends ValueFunctionPlanner {
      */
     class StaticVFPlanner extends ValueFunctionPlanner {
 
+	/**
+	 * The store whose state ids index {@link #snapshotValues}, or null if
+	 * the value function was copied into the value function map
+	 */
+	protected DenseValueFunctionStore snapshotIds;
+
+	/**
+	 * The copied values, indexed by state id, with {@link Double#NaN} for
+	 * states that had no value
+	 */
+	protected double[] snapshotValues;
+
 	public StaticVFPlanner(Domain domain, RewardFunction rf, double gamma,
 		StateHashFactory hashingFactory, List<Action> allActions,
 		Map<StateHashTuple, Double> srcValueFunction) {
@@ -337,6 +469,35 @@ public class PolicyIteration extends ValueFunctionPlanner {
 
 	}
 
+	/**
+	 * Initializes with a copy of the values of a dense value function store,
+	 * which are looked up through the store's state ids.
+	 */
+	public StaticVFPlanner(Domain domain, RewardFunction rf, double gamma,
+		StateHashFactory hashingFactory, List<Action> allActions,
+		DenseValueFunctionStore srcIds, double[] srcValues) {
+	    this.VFPInit(domain, rf, new NullTermination(), gamma,
+		    hashingFactory);
+	    for (Action a : allActions) {
+		this.addNonDomainReferencedAction(a);
+	    }
+	    this.snapshotIds = srcIds;
+	    this.snapshotValues = srcValues;
+	}
+
+	@Override
+	public double value(StateHashTuple sh) {
+	    if (this.snapshotIds == null) {
+		return super.value(sh);
+	    }
+	    int id = this.snapshotIds.existingStateId(sh);
+	    if (id == -1 || id >= this.snapshotValues.length
+		    || Double.isNaN(this.snapshotValues[id])) {
+		return this.getDefaultValue(sh.s);
+	    }
+	    return this.snapshotValues[id];
+	}
+
 	@Override
 	public void planFromState(State initialState) {
 	    // do nothing
@@ -0,0 +1,324 @@
+package burlap.behavior.singleagent.planning.stochastic.prioritizedsweeping;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import burlap.behavior.singleagent.planning.ActionTransitions;
+import burlap.behavior.singleagent.planning.HashedTransitionProbability;
+import burlap.behavior.singleagent.planning.stochastic.valueiteration.ValueIteration;
+import burlap.behavior.statehashing.StateHashFactory;
+import burlap.behavior.statehashing.StateHashTuple;
+import burlap.datastructures.HashIndexedHeap;
+import burlap.debugtools.DPrint;
+import burlap.oomdp.core.Domain;
+import burlap.oomdp.core.State;
+import burlap.oomdp.core.TerminalFunction;
+import burlap.oomdp.singleagent.RewardFunction;
+
+/**
+ * An implementation of prioritized sweeping [1] for planning with a known
+ * model. Like {@link ValueIteration}, this planner first finds all states
+ * reachable from the initial state, but rather than sweeping over the whole
+ * state space on each iteration, it orders Bellman updates by priority. The
+ * priority of a state is the largest discounted change in value of any of its
+ * successor states since it was last updated, which bounds how much its own
+ * value can change. Every state is updated once; afterwards, whenever the
+ * priority this gives a state's predecessors is at least maxDelta, they are
+ * pushed onto a
+ * {@link burlap.datastructures.HashIndexedHeap} (or have their priority
+ * raised). Planning terminates when the highest priority in the heap is
+ * smaller than maxDelta or when the maximum number of Bellman updates has been
+ * performed.
+ * <p/>
+ * In domains with sparse rewards, most states converge quickly and prioritized
+ * sweeping avoids the repeated updates of converged states that VI performs.
+ *
+ * 1. Moore, Andrew W., and Christopher G. Atkeson.
+ * "Prioritized sweeping: Reinforcement learning with less data and less time."
+ * Machine Learning 13.1 (1993): 103-130.
+ *
+ */
+public class PrioritizedSweeping extends ValueIteration {
+
+    /**
+     * The maximum number of Bellman updates to perform
+     */
+    protected int maxBackups;
+
+    /**
+     * The predecessors of each reachable state
+     */
+    protected Map<StateHashTuple, Set<StateHashTuple>> predecessors;
+
+    /**
+     * The number of Bellman updates performed in the last call to
+     * {@link #runVI()}
+     */
+    protected int numBackups = 0;
+
+    /**
+     * Initializes the planner.
+     *
+     * @param domain
+     *            the domain in which to plan
+     * @param rf
+     *            the reward function
+     * @param tf
+     *            the terminal state function
+     * @param gamma
+     *            the discount factor
+     * @param hashingFactory
+     *            the state hashing factor to use
+     * @param maxDelta
+     *            when the highest priority of any state is smaller than this
+     *            value, planning will terminate.
+     * @param maxBackups
+     *            when the number of Bellman updates exceeds this value,
+     *            planning will terminate.
+     */
+    public PrioritizedSweeping(Domain domain, RewardFunction rf,
+	    TerminalFunction tf, double gamma, StateHashFactory hashingFactory,
+	    double maxDelta, int maxBackups) {
+	super(domain, rf, tf, gamma, hashingFactory, maxDelta, 1);
+	this.maxBackups = maxBackups;
+    }
+
+    /**
+     * Sets the maximum number of Bellman updates to perform.
+     *
+     * @param maxBackups
+     *            the maximum number of Bellman updates to perform
+     */
+    public void setMaxBackups(int maxBackups) {
+	this.maxBackups = maxBackups;
+    }
+
+    /**
+     * Returns the number of Bellman updates performed by the last planning
+     * call.
+     *
+     * @return the number of Bellman updates performed by the last planning
+     *         call.
+     */
+    public int getNumBackups() {
+	return this.numBackups;
+    }
+
+    @Override
+    public void recomputeReachableStates() {
+	super.recomputeReachableStates();
+	this.predecessors = null;
+    }
+
+    @Override
+    public void resetPlannerResults() {
+	super.resetPlannerResults();
+	this.predecessors = null;
+    }
+
+    @Override
+    public boolean performReachabilityFrom(State si) {
+	boolean searched = super.performReachabilityFrom(si);
+	if (searched || this.predecessors == null) {
+	    this.computePredecessors();
+	}
+	return searched;
+    }
+
+    /**
+     * Runs prioritized sweeping until the highest priority is smaller than
+     * maxDelta or the maximum number of Bellman updates is reached. The
+     * {@link #performReachabilityFrom(State)} must have been performed at least
+     * once in the past or a runtime exception will be thrown.
+     */
+    @Override
+    public void runVI() {
+
+	if (!this.foundReachableStates) {
+	    throw new RuntimeException(
+		    "Cannot run prioritized sweeping until the reachable states have been found. Use planFromState method at least once or instead.");
+	}
+
+	Map<StateHashTuple, PSNode> nodes = new HashMap<StateHashTuple, PSNode>(
+		this.predecessors.size());
+	HashIndexedHeap<PSNode> heap = new HashIndexedHeap<PSNode>(
+		new PSNodeComparator());
+
+	this.numBackups = 0;
+
+	// update every state once to seed the queue
+	List<StateHashTuple> states = new ArrayList<StateHashTuple>(
+		mapToStateIndex.keySet());
+	for (StateHashTuple sh : states) {
+	    if (this.numBackups >= this.maxBackups) {
+		break;
+	    }
+	    double change = this.backup(sh);
+	    this.pushPredecessors(sh, change, nodes, heap);
+	}
+
+	while (heap.size() > 0 && this.numBackups < this.maxBackups) {
+
+	    PSNode top = heap.peek();
+	    if (top.priority < this.maxDelta) {
+		break; // approximated well enough; stop updating
+	    }
+
+	    heap.poll();
+	    top.priority = 0.;
+
+	    double change = this.backup(top.sh);
+	    this.pushPredecessors(top.sh, change, nodes, heap);
+
+	}
+
+	DPrint.cl(this.debugCode, "Backups: " + this.numBackups);
+
+    }
+
+    /**
+     * Performs a Bellman update on the given state.
+     *
+     * @param sh
+     *            the hashed state to update
+     * @return the absolute change in the state's value
+     */
+    protected double backup(StateHashTuple sh) {
+	double v = this.value(sh);
+	double nv = this.performBellmanUpdateOn(sh);
+	this.numBackups++;
+	return Math.abs(nv - v);
+    }
+
+    /**
+     * Raises the priority of the predecessors of a state whose value changed,
+     * inserting them into the heap if necessary.
+     *
+     * @param sh
+     *            the state whose value changed
+     * @param change
+     *            the absolute change in value
+     * @param nodes
+     *            the heap nodes of states that have been queued before
+     * @param heap
+     *            the priority queue
+     */
+    protected void pushPredecessors(StateHashTuple sh, double change,
+	    Map<StateHashTuple, PSNode> nodes, HashIndexedHeap<PSNode> heap) {
+
+	double priority = this.gamma * change;
+	if (priority < this.maxDelta) {
+	    return;
+	}
+
+	Set<StateHashTuple> preds = this.predecessors.get(sh);
+	if (preds == null) {
+	    return;
+	}
+
+	for (StateHashTuple p : preds) {
+	    PSNode node = nodes.get(p);
+	    if (node == null) {
+		node = new PSNode(p);
+		nodes.put(p, node);
+	    }
+	    if (heap.containsInstance(node) != null) {
+		if (priority > node.priority) {
+		    node.priority = priority;
+		    heap.refreshPriority(node);
+		}
+	    } else {
+		node.priority = priority;
+		heap.insert(node);
+	    }
+	}
+
+    }
+
+    /**
+     * Computes the predecessors of every reachable state from the cached
+     * transition dynamics.
+     */
+    protected void computePredecessors() {
+
+	this.predecessors = new HashMap<StateHashTuple, Set<StateHashTuple>>();
+	for (StateHashTuple sh : mapToStateIndex.keySet()) {
+	    if (this.tf.isTerminal(sh.s)) {
+		continue; // terminal states are never updated from successors
+	    }
+	    if (this.denseStore != null && this.useCachedTransitions) {
+		int id = this.denseStore.stateId(sh);
+		this.ensureDenseTransitions(id);
+		int first = this.denseStore.firstActionRow(id);
+		int end = first + this.denseStore.numActionRows(id);
+		for (int r = first; r < end; r++) {
+		    for (int t = this.denseStore.transitionStart(r); t < this.denseStore
+			    .transitionEnd(r); t++) {
+			this.addPredecessor(this.denseStore
+				.hashedState(this.denseStore.transitionTarget(t)),
+				sh);
+		    }
+		}
+	    } else {
+		for (ActionTransitions at : this.getActionsTransitions(sh)) {
+		    for (HashedTransitionProbability tp : at.transitions) {
+			this.addPredecessor(tp.sh, sh);
+		    }
+		}
+	    }
+	}
+
+    }
+
+    /**
+     * Records that a state is a predecessor of another state.
+     *
+     * @param sh
+     *            the successor state
+     * @param pred
+     *            the predecessor state
+     */
+    protected void addPredecessor(StateHashTuple sh, StateHashTuple pred) {
+	Set<StateHashTuple> preds = this.predecessors.get(sh);
+	if (preds == null) {
+	    preds = new HashSet<StateHashTuple>();
+	    this.predecessors.put(sh, preds);
+	}
+	preds.add(pred);
+    }
+
+    /**
+     * A heap node for a state and its current priority. Nodes use identity
+     * equality, so there is exactly one node for each state.
+     *
+     */
+    protected static class PSNode {
+
+	protected StateHashTuple sh;
+	protected double priority;
+
+	public PSNode(StateHashTuple sh) {
+	    this.sh = sh;
+	}
+
+    }
+
+    /**
+     * Orders {@link PSNode} objects by their priority.
+     *
+     */
+    protected static class PSNodeComparator implements Comparator<PSNode> {
+
+	@Override
+	public int compare(PSNode o1, PSNode o2) {
+	    return Double.compare(o1.priority, o2.priority);
+	}
+
+    }
+
+}
@@ -1,12 +1,20 @@
 package burlap.behavior.singleagent.planning.stochastic.valueiteration;
 
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLongArray;
 
+import burlap.behavior.singleagent.auxiliary.ShardedStateSet;
 import burlap.behavior.singleagent.planning.ActionTransitions;
+import burlap.behavior.singleagent.planning.CompiledMDP;
 import burlap.behavior.singleagent.planning.HashedTransitionProbability;
 import burlap.behavior.singleagent.planning.ValueFunctionPlanner;
 import burlap.behavior.statehashing.StateHashFactory;
@@ -61,6 +69,47 @@ public class ValueIteration extends ValueFunctionPlanner {
      */
     protected boolean stopReachabilityFromTerminalStates = false;
 
+    /**
+     * The kind of parallel sweeps that VI performs. Parallel sweeps run on
+     * the {@link CompiledMDP} of the reachable states.
+     * 
+     */
+    public enum ParallelMode {
+
+	/**
+	 * Sweeps are performed on the planning thread
+	 */
+	NONE,
+
+	/**
+	 * Synchronous (Jacobi) sweeps that compute every new value from the
+	 * values of the previous sweep
+	 */
+	SYNCHRONOUS,
+
+	/**
+	 * Asynchronous (Gauss-Seidel) sweeps that update values in place and
+	 * use the most recent value of each state
+	 */
+	ASYNCHRONOUS
+    }
+
+    /**
+     * The kind of parallel sweeps to perform; the default is none.
+     */
+    protected ParallelMode parallelMode = ParallelMode.NONE;
+
+    /**
+     * The number of threads used by parallel sweeps
+     */
+    protected int numThreads = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * The number of threads used by the reachability analysis; the default is
+     * 1, for a serial search.
+     */
+    protected int reachabilityThreads = 1;
+
     /**
      * Initializers the planner.
      * 
@@ -101,6 +150,10 @@ public class ValueIteration extends ValueFunctionPlanner {
     public void recomputeReachableStates() {
 	this.foundReachableStates = false;
 	this.transitionDynamics = new HashMap<StateHashTuple, List<ActionTransitions>>();
+	if (this.denseStore != null) {
+	    this.denseStore.clearTransitions();
+	}
+	this.compiledMDP = null;
     }
 
     /**
@@ -117,6 +170,56 @@ public class ValueIteration extends ValueFunctionPlanner {
 	this.stopReachabilityFromTerminalStates = toggle;
     }
 
+    /**
+     * Sets VI to perform its sweeps in parallel. Parallel sweeps run on a
+     * {@link CompiledMDP}, so setting a parallel mode other than
+     * {@link ParallelMode#NONE} will also enable the compiled MDP (see
+     * {@link #toggleCompiledMDP(boolean)}). Both parallel modes use the same
+     * maxDelta and maxIterations termination conditions as serial VI.
+     * Synchronous sweeps typically need more iterations than in-place sweeps
+     * to converge, but their results do not depend on the number of threads.
+     * The default is {@link ParallelMode#NONE}. Asynchronous sweeps with a
+     * single thread are performed serially, which is equivalent.
+     * 
+     * @param mode
+     *            the kind of parallel sweeps to perform
+     * @param numThreads
+     *            the number of threads to use
+     */
+    public void setParallelMode(ParallelMode mode, int numThreads) {
+	if (numThreads < 1) {
+	    throw new RuntimeException(
+		    "The number of threads must be at least 1; got: "
+			    + numThreads);
+	}
+	this.parallelMode = mode;
+	this.numThreads = numThreads;
+	if (mode != ParallelMode.NONE && !this.useCompiledMDP) {
+	    this.toggleCompiledMDP(true);
+	}
+    }
+
+    /**
+     * Sets the number of threads used to generate transitions during the
+     * reachability analysis. With more than one thread, the search proceeds
+     * one breadth first level at a time and the transitions of each level are
+     * generated in parallel, so the actions of the domain and the hashing
+     * factory must be safe to use from multiple threads. The same states and
+     * transitions are found, and states are discovered in the same order, as
+     * with a serial search.
+     * 
+     * @param numThreads
+     *            the number of threads to use for the reachability analysis
+     */
+    public void setReachabilityThreads(int numThreads) {
+	if (numThreads < 1) {
+	    throw new RuntimeException(
+		    "The number of threads must be at least 1; got: "
+			    + numThreads);
+	}
+	this.reachabilityThreads = numThreads;
+    }
+
     @Override
     public void planFromState(State initialState) {
 	this.initializeOptionsForExpectationComputations();
@@ -149,6 +252,16 @@ public class ValueIteration extends ValueFunctionPlanner {
 		    "Cannot run VI until the reachable states have been found. Use planFromState method at least once or instead.");
 	}
 
+	if (this.useCompiledMDP) {
+	    this.runCompiledVI();
+	    return;
+	}
+
+	if (this.denseStore != null && this.useCachedTransitions) {
+	    this.runDenseVI();
+	    return;
+	}
+
 	Set<StateHashTuple> states = mapToStateIndex.keySet();
 
 	int i = 0;
@@ -173,6 +286,100 @@ public class ValueIteration extends ValueFunctionPlanner {
 
     }
 
+    /**
+     * Runs VI on the
+     * {@link CompiledMDP} of the
+     * reachable states and stores the results in the dense value function
+     * store.
+     */
+    protected void runCompiledVI() {
+
+	CompiledMDP mdp = this.getCompiledMDP();
+	double[] v = mdp.initialValues(this.valueInitializer);
+
+	int i = 0;
+	if (this.parallelMode == ParallelMode.NONE
+		|| (this.parallelMode == ParallelMode.ASYNCHRONOUS
+			&& this.numThreads == 1)) {
+	    for (i = 0; i < this.maxIterations; i++) {
+		double delta = mdp.bellmanSweep(v, this.gamma);
+		if (delta < this.maxDelta) {
+		    break; // approximated well enough; stop iterating
+		}
+	    }
+	} else {
+	    ForkJoinPool pool = new ForkJoinPool(this.numThreads);
+	    try {
+		if (this.parallelMode == ParallelMode.SYNCHRONOUS) {
+		    double[] vNext = new double[v.length];
+		    for (i = 0; i < this.maxIterations; i++) {
+			double delta = mdp.parallelBellmanSweep(v, vNext,
+				this.gamma, pool);
+			double[] tmp = v;
+			v = vNext;
+			vNext = tmp;
+			if (delta < this.maxDelta) {
+			    break; // approximated well enough; stop iterating
+			}
+		    }
+		} else {
+		    AtomicLongArray av = new AtomicLongArray(v.length);
+		    for (int s = 0; s < v.length; s++) {
+			av.set(s, Double.doubleToRawLongBits(v[s]));
+		    }
+		    for (i = 0; i < this.maxIterations; i++) {
+			double delta = mdp.parallelAsyncBellmanSweep(av,
+				this.gamma, pool);
+			if (delta < this.maxDelta) {
+			    break; // approximated well enough; stop iterating
+			}
+		    }
+		    for (int s = 0; s < v.length; s++) {
+			v[s] = Double.longBitsToDouble(av.get(s));
+		    }
+		}
+	    } finally {
+		pool.shutdown();
+	    }
+	}
+
+	this.denseStore.setValues(v);
+
+	DPrint.cl(this.debugCode, "Passes: " + i);
+
+    }
+
+    /**
+     * Runs VI over the states in the
+     * {@link burlap.behavior.singleagent.planning.DenseValueFunctionStore}, sweeping
+     * them in order of their ids.
+     */
+    protected void runDenseVI() {
+
+	int n = this.denseStore.numStates();
+
+	int i = 0;
+	for (i = 0; i < this.maxIterations; i++) {
+
+	    double delta = 0.;
+	    for (int id = 0; id < n; id++) {
+
+		double v = this.value(id);
+		double maxQ = this.performBellmanUpdateOn(id);
+		delta = Math.max(Math.abs(maxQ - v), delta);
+
+	    }
+
+	    if (delta < this.maxDelta) {
+		break; // approximated well enough; stop iterating
+	    }
+
+	}
+
+	DPrint.cl(this.debugCode, "Passes: " + i);
+
+    }
+
     /**
      * This method will find all reachable states that will be used by the
      * {@link #runVI()} method and will cache all the transition dynamics. This
@@ -195,6 +402,25 @@ public class ValueIteration extends ValueFunctionPlanner {
 
 	DPrint.cl(this.debugCode, "Starting reachability analysis");
 
+	if (this.reachabilityThreads > 1) {
+	    this.performParallelReachabilityFrom(sih);
+	    DPrint.cl(this.debugCode,
+		    "Finished reachability analysis; # states: "
+			    + mapToStateIndex.size());
+	    this.foundReachableStates = true;
+	    return true;
+	}
+
+	if (this.denseStore != null && this.useCachedTransitions) {
+	    this.performDenseReachabilityFrom(sih,
+		    this.stopReachabilityFromTerminalStates);
+	    DPrint.cl(this.debugCode,
+		    "Finished reachability analysis; # states: "
+			    + mapToStateIndex.size());
+	    this.foundReachableStates = true;
+	    return true;
+	}
+
 	// add to the open list
 	LinkedList<StateHashTuple> openList = new LinkedList<StateHashTuple>();
 	Set<StateHashTuple> openedSet = new HashSet<StateHashTuple>();
@@ -243,4 +469,135 @@ public class ValueIteration extends ValueFunctionPlanner {
 
     }
 
+    /**
+     * Finds all states reachable from the given state with a level-synchronous
+     * breadth first search whose transitions are generated in parallel. Each
+     * level is split into contiguous chunks whose transitions are generated on
+     * different threads, and the successor states are then deduplicated
+     * against a {@link ShardedStateSet}, one shard per task, as in
+     * {@link burlap.behavior.singleagent.auxiliary.StateReachability#getReachableHashedStatesParallel}
+     * . The transitions of each level are cached in this planner's value
+     * function backend in frontier order once the whole level has been
+     * generated.
+     * 
+     * @param sih
+     *            the hashed source state from which to search
+     */
+    protected void performParallelReachabilityFrom(StateHashTuple sih) {
+
+	boolean dense = this.denseStore != null && this.useCachedTransitions;
+	final ShardedStateSet openedSet = new ShardedStateSet(
+		this.reachabilityThreads * 4);
+	List<StateHashTuple> frontier = new ArrayList<StateHashTuple>();
+	openedSet.add(sih);
+	frontier.add(sih);
+
+	ForkJoinPool pool = new ForkJoinPool(this.reachabilityThreads);
+	try {
+
+	    while (frontier.size() > 0) {
+
+		// find the states of this level that need to be expanded
+		final List<StateHashTuple> toExpand = new ArrayList<StateHashTuple>();
+		for (StateHashTuple sh : frontier) {
+		    // skip this if it's already been expanded
+		    if (mapToStateIndex.containsKey(sh)) {
+			continue;
+		    }
+		    mapToStateIndex.put(sh, sh);
+		    // do not need to expand from terminal states if set to
+		    // prune
+		    if (this.tf.isTerminal(sh.s)
+			    && stopReachabilityFromTerminalStates) {
+			continue;
+		    }
+		    toExpand.add(sh);
+		}
+
+		// generate the transitions of contiguous chunks in parallel
+		int nChunks = Math.min(toExpand.size(), openedSet.numShards());
+		List<Callable<ExpandedChunk>> expansions = new ArrayList<Callable<ExpandedChunk>>(
+			nChunks);
+		for (int c = 0; c < nChunks; c++) {
+		    final int start = (int) ((long) toExpand.size() * c / nChunks);
+		    final int end = (int) ((long) toExpand.size() * (c + 1) / nChunks);
+		    expansions.add(new Callable<ExpandedChunk>() {
+			@Override
+			public ExpandedChunk call() {
+			    return new ExpandedChunk(toExpand.subList(start,
+				    end), openedSet);
+			}
+		    });
+		}
+		List<ExpandedChunk> chunks = new ArrayList<ExpandedChunk>(
+			nChunks);
+		List<ShardedStateSet.Chunk> successors = new ArrayList<ShardedStateSet.Chunk>(
+			nChunks);
+		try {
+		    for (Future<ExpandedChunk> f : pool.invokeAll(expansions)) {
+			chunks.add(f.get());
+			successors.add(chunks.get(chunks.size() - 1).successors);
+		    }
+		} catch (InterruptedException e) {
+		    Thread.currentThread().interrupt();
+		    throw new RuntimeException(e);
+		} catch (ExecutionException e) {
+		    throw new RuntimeException(e.getCause());
+		}
+
+		// cache them in frontier order
+		int i = 0;
+		for (ExpandedChunk chunk : chunks) {
+		    for (List<ActionTransitions> transitions : chunk.transitions) {
+			StateHashTuple sh = toExpand.get(i++);
+			if (dense) {
+			    this.denseStore.setTransitions(
+				    this.denseStore.stateId(sh), transitions);
+			} else if (this.useCachedTransitions) {
+			    transitionDynamics.put(sh, transitions);
+			}
+		    }
+		}
+
+		// the next frontier is the new successors in generation order;
+		// those expanded by earlier searches are skipped above
+		frontier = openedSet.addLevel(successors, pool);
+
+	    }
+
+	} finally {
+	    pool.shutdown();
+	}
+
+    }
+
+    /**
+     * The transitions of a contiguous chunk of a search level, in frontier
+     * order, along with their successor states.
+     * 
+     */
+    protected class ExpandedChunk {
+
+	protected List<List<ActionTransitions>> transitions;
+	protected ShardedStateSet.Chunk successors;
+
+	public ExpandedChunk(List<StateHashTuple> toExpand,
+		ShardedStateSet openedSet) {
+	    this.transitions = new ArrayList<List<ActionTransitions>>(
+		    toExpand.size());
+	    List<StateHashTuple> generated = new ArrayList<StateHashTuple>();
+	    for (StateHashTuple sh : toExpand) {
+		List<ActionTransitions> ats = generateActionTransitions(sh);
+		this.transitions.add(ats);
+		for (ActionTransitions at : ats) {
+		    for (HashedTransitionProbability tp : at.transitions) {
+			generated.add(tp.sh);
+		    }
+		}
+	    }
+	    this.successors = openedSet.chunk(generated);
+	}
+
+    }
+
 }
@@ -0,0 +1,48 @@
+package burlap.behavior.singleagent.vfa;
+
+import java.util.List;
+
+import burlap.oomdp.core.State;
+import burlap.oomdp.singleagent.GroundedAction;
+
+/**
+ * A {@link FeatureDatabase} that can also write its features into reusable
+ * {@link SparseFeatureVector} buffers instead of returning new lists of
+ * feature objects. Value function approximators such as
+ * {@link burlap.behavior.singleagent.vfa.common.DenseLinearVFA} use these
+ * methods when they are available. Feature identifiers should be small
+ * non-negative integers, since they are used as indices into weight arrays.
+ *
+ */
+public interface SparseFeatureDatabase extends FeatureDatabase {
+
+    /**
+     * Adds the non-zero state features of a state to the end of a buffer.
+     *
+     * @param s
+     *            the state for which features should be returned
+     * @param features
+     *            the buffer to which the features are added
+     */
+    public void getStateFeatures(State s, SparseFeatureVector features);
+
+    /**
+     * Adds the non-zero action features of each of the provided actions in
+     * state s to the end of a buffer, one action after the other. The
+     * features of the i-th action end (exclusively) at index actionEnds[i] of
+     * the buffer and start where the features of the previous action end.
+     *
+     * @param s
+     *            the state for which features should be returned
+     * @param actions
+     *            the actions for which the action features should be returned
+     * @param features
+     *            the buffer to which the features are added
+     * @param actionEnds
+     *            receives the end index of the features of each action; must
+     *            have at least as many entries as there are actions
+     */
+    public void getActionFeatures(State s, List<GroundedAction> actions,
+	    SparseFeatureVector features, int[] actionEnds);
+
+}
@@ -0,0 +1,89 @@
+package burlap.behavior.singleagent.vfa;
+
+/**
+ * A growable buffer of sparse features stored as parallel arrays of feature
+ * identifiers and feature values. Unlike lists of {@link StateFeature}
+ * objects, a buffer can be cleared and reused for every query, so filling it
+ * does not allocate any objects once it has grown large enough.
+ *
+ */
+public class SparseFeatureVector {
+
+    /**
+     * The feature identifiers; only the first {@link #size} entries are used
+     */
+    public int[] ids;
+
+    /**
+     * The feature values; only the first {@link #size} entries are used
+     */
+    public double[] values;
+
+    /**
+     * The number of features in this buffer
+     */
+    public int size = 0;
+
+    /**
+     * Initializes with space for 16 features.
+     */
+    public SparseFeatureVector() {
+	this(16);
+    }
+
+    /**
+     * Initializes.
+     *
+     * @param capacity
+     *            the number of features for which to reserve space
+     */
+    public SparseFeatureVector(int capacity) {
+	this.ids = new int[Math.max(capacity, 1)];
+	this.values = new double[this.ids.length];
+    }
+
+    /**
+     * Adds a feature to the end of this buffer.
+     *
+     * @param id
+     *            the feature identifier
+     * @param value
+     *            the feature value
+     */
+    public void add(int id, double value) {
+	if (this.size == this.ids.length) {
+	    this.ensureCapacity(this.size + 1);
+	}
+	this.ids[this.size] = id;
+	this.values[this.size] = value;
+	this.size++;
+    }
+
+    /**
+     * Grows the arrays of this buffer so that they hold at least the given
+     * number of features.
+     *
+     * @param capacity
+     *            the number of features the arrays should hold
+     */
+    public void ensureCapacity(int capacity) {
+	if (capacity <= this.ids.length) {
+	    return;
+	}
+	int n = Math.max(capacity, 2 * this.ids.length);
+	int[] nids = new int[n];
+	double[] nvalues = new double[n];
+	System.arraycopy(this.ids, 0, nids, 0, this.size);
+	System.arraycopy(this.values, 0, nvalues, 0, this.size);
+	this.ids = nids;
+	this.values = nvalues;
+    }
+
+    /**
+     * Removes all features from this buffer without releasing its arrays.
+     */
+    public void clear() {
+	this.size = 0;
+    }
+
+}
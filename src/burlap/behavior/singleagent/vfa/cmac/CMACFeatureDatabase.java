@@ -1,6 +1,7 @@
 package burlap.behavior.singleagent.vfa.cmac;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -9,10 +10,13 @@ import java.util.Random;
 import javax.management.RuntimeErrorException;
 
 import burlap.behavior.singleagent.vfa.ActionFeaturesQuery;
-import burlap.behavior.singleagent.vfa.FeatureDatabase;
+import burlap.behavior.singleagent.vfa.SparseFeatureDatabase;
+import burlap.behavior.singleagent.vfa.SparseFeatureVector;
 import burlap.behavior.singleagent.vfa.StateFeature;
 import burlap.behavior.singleagent.vfa.ValueFunctionApproximation;
+import burlap.behavior.singleagent.vfa.cmac.TileHashTable.CollisionPolicy;
 import burlap.behavior.singleagent.vfa.cmac.Tiling.StateTile;
+import burlap.behavior.singleagent.vfa.common.DenseLinearVFA;
 import burlap.behavior.singleagent.vfa.common.LinearVFA;
 import burlap.debugtools.RandomFactory;
 import burlap.oomdp.core.Attribute;
@@ -37,9 +41,16 @@ import burlap.oomdp.singleagent.GroundedAction;
  * of attributes. Having different tilings defined over different sets of
  * attributes enables the VFA to capture value function independence over
  * different attributes.
- * 
- * 
- * 
+ * <p/>
+ * By default, each distinct tile that is queried is assigned a new feature
+ * identifier, so the number of features grows without bound in continuous
+ * domains. Alternatively, the CMAC can be constructed to use hashed tile
+ * coding, in which the tile coordinates of a state are computed into an int
+ * array and hashed with a {@link TileHashTable} into a fixed number of
+ * features. Memory then stays bounded, and filling a
+ * {@link SparseFeatureVector} does not allocate any objects, at the cost of
+ * distinct tiles possibly sharing a feature, as determined by the table's
+ * {@link CollisionPolicy}.
  * <p/>
  * 
  * 1. Albus, James S. "A theory of cerebellar function." Mathematical
@@ -48,7 +59,7 @@ import burlap.oomdp.singleagent.GroundedAction;
  * @author James MacGlashan
  * 
  */
-public class CMACFeatureDatabase implements FeatureDatabase {
+public class CMACFeatureDatabase implements SparseFeatureDatabase {
 
     /**
      * Enum for specifying whether tilings should have their tile alignments
@@ -130,6 +141,24 @@ public class CMACFeatureDatabase implements FeatureDatabase {
      */
     protected int nextStateFeatureId = 0;
 
+    /**
+     * If hashed tile coding is used, the hash table that maps state tiles to
+     * state feature identifiers; null otherwise.
+     */
+    protected TileHashTable stateHashTable;
+
+    /**
+     * If hashed tile coding is used, the hash table that maps state tiles and
+     * actions to state-action feature identifiers; null otherwise.
+     */
+    protected TileHashTable actionHashTable;
+
+    /**
+     * The buffer into which the key of a tile is written for hashed tile
+     * coding: the tiling index, the action hash and the tile coordinates.
+     */
+    protected int[] tileKey = new int[16];
+
     /**
      * Initializes with a set of <code>nTilings</code> and sets the offset
      * arrangement for subsequent tilings to be determined according to
@@ -165,6 +194,63 @@ public class CMACFeatureDatabase implements FeatureDatabase {
 
     }
 
+    /**
+     * Initializes a CMAC that uses hashed tile coding, with a set of
+     * <code>nTilings</code> whose offset arrangement is determined according
+     * to <code>arrangement</code>. Tiles are hashed into
+     * <code>tableSize</code> state features and, separately, into
+     * <code>tableSize</code> state-action features, so the feature identifiers
+     * returned are always in [0, <code>tableSize</code>). The tilings must be
+     * specified as with
+     * {@link #CMACFeatureDatabase(int, TilingArrangement)}.
+     * 
+     * @param nTilings
+     *            the number of tilings that will be created.
+     * @param arrangement
+     *            either RANDOMJITTER or UNIFORM.
+     * @param tableSize
+     *            the number of features into which tiles are hashed
+     * @param collisionPolicy
+     *            how tiles that hash to the same feature are handled
+     */
+    public CMACFeatureDatabase(int nTilings, TilingArrangement arrangement,
+	    int tableSize, CollisionPolicy collisionPolicy) {
+	this(nTilings, arrangement);
+	this.stateHashTable = new TileHashTable(tableSize, collisionPolicy);
+	this.actionHashTable = new TileHashTable(tableSize, collisionPolicy);
+    }
+
+    /**
+     * Returns whether this CMAC uses hashed tile coding.
+     * 
+     * @return true if this CMAC uses hashed tile coding; false otherwise.
+     */
+    public boolean usesHashedTileCoding() {
+	return this.stateHashTable != null;
+    }
+
+    /**
+     * Returns the hash table that maps state tiles to state features when
+     * hashed tile coding is used.
+     * 
+     * @return the hash table of state features, or null if hashed tile coding
+     *         is not used.
+     */
+    public TileHashTable getStateHashTable() {
+	return this.stateHashTable;
+    }
+
+    /**
+     * Returns the hash table that maps state tiles and actions to state-action
+     * features when hashed tile coding is used.
+     * 
+     * @return the hash table of state-action features, or null if hashed tile
+     *         coding is not used.
+     */
+    public TileHashTable getActionHashTable() {
+	return this.actionHashTable;
+    }
+
     /**
      * Causes all tilings in this CMAC to be defined over the given attribute
      * for the given OO-MDP class. Along that dimension, tilings will have a
@@ -222,7 +308,9 @@ public class CMACFeatureDatabase implements FeatureDatabase {
 
     /**
      * After all the tiling specifications have been set, this method can be
-     * called to produce a linear VFA object.
+     * called to produce a linear VFA object. If hashed tile coding is used,
+     * the VFA is a {@link DenseLinearVFA} with one weight for each feature of
+     * the hash table.
      * 
      * @param defaultWeightValue
      *            the default value weights for the CMAC features will use.
@@ -230,6 +318,10 @@ public class CMACFeatureDatabase implements FeatureDatabase {
      *         database
      */
     public ValueFunctionApproximation generateVFA(double defaultWeightValue) {
+	if (this.stateHashTable != null) {
+	    return new DenseLinearVFA(this, defaultWeightValue,
+		    this.stateHashTable.size());
+	}
 	return new LinearVFA(this, defaultWeightValue);
     }
 
@@ -238,6 +330,15 @@ public class CMACFeatureDatabase implements FeatureDatabase {
 
 	List<StateFeature> result = new ArrayList<StateFeature>(nTilings);
 
+	if (this.stateHashTable != null) {
+	    for (int i = 0; i < nTilings; i++) {
+		int n = this.writeTileKey(i, s);
+		result.add(new StateFeature(this.stateHashTable.getFeatureId(
+			this.tileKey, n), 1.0));
+	    }
+	    return result;
+	}
+
 	for (int i = 0; i < nTilings; i++) {
 	    Tiling tiling = this.tilings.get(i);
 	    StateTile st = tiling.getStateTile(s);
@@ -268,6 +369,18 @@ public class CMACFeatureDatabase implements FeatureDatabase {
 	    result.add(afq);
 	}
 
+	if (this.actionHashTable != null) {
+	    for (int i = 0; i < nTilings; i++) {
+		int n = this.writeTileKey(i, s);
+		for (ActionFeaturesQuery afq : result) {
+		    this.tileKey[1] = actionHash(afq.queryAction);
+		    afq.addFeature(new StateFeature(this.actionHashTable
+			    .getFeatureId(this.tileKey, n), 1.0));
+		}
+	    }
+	    return result;
+	}
+
 	for (int i = 0; i < nTilings; i++) {
 	    Tiling tiling = this.tilings.get(i);
 	    StateTile st = tiling.getStateTile(s);
@@ -318,6 +431,142 @@ public class CMACFeatureDatabase implements FeatureDatabase {
 	return result;
     }
 
+    @Override
+    public void getStateFeatures(State s, SparseFeatureVector features) {
+
+	features.ensureCapacity(features.size + nTilings);
+
+	if (this.stateHashTable != null) {
+	    for (int i = 0; i < nTilings; i++) {
+		int n = this.writeTileKey(i, s);
+		features.add(this.stateHashTable.getFeatureId(this.tileKey, n),
+			1.0);
+	    }
+	    return;
+	}
+
+	for (int i = 0; i < nTilings; i++) {
+	    Tiling tiling = this.tilings.get(i);
+	    StateTile st = tiling.getStateTile(s);
+	    Map<StateTile, Integer> featureMapping = stateTilings.get(i);
+	    Integer storedFID = featureMapping.get(st);
+	    if (storedFID == null) {
+		storedFID = nextStateFeatureId;
+		nextStateFeatureId++;
+		featureMapping.put(st, storedFID);
+	    }
+	    features.add(storedFID, 1.0);
+	}
+
+    }
+
+    @Override
+    public void getActionFeatures(State s, List<GroundedAction> actions,
+	    SparseFeatureVector features, int[] actionEnds) {
+
+	// each action has one feature per tiling, so the feature of tiling i
+	// for action j goes at base + j*nTilings + i
+	int base = features.size;
+	int nActions = actions.size();
+	features.ensureCapacity(base + nActions * nTilings);
+	features.size = base + nActions * nTilings;
+	for (int j = 0; j < nActions; j++) {
+	    actionEnds[j] = base + (j + 1) * nTilings;
+	}
+
+	if (this.actionHashTable != null) {
+	    for (int i = 0; i < nTilings; i++) {
+		int n = this.writeTileKey(i, s);
+		for (int j = 0; j < nActions; j++) {
+		    this.tileKey[1] = actionHash(actions.get(j));
+		    features.ids[base + j * nTilings + i] = this.actionHashTable
+			    .getFeatureId(this.tileKey, n);
+		}
+	    }
+	    Arrays.fill(features.values, base, features.size, 1.0);
+	    return;
+	}
+
+	for (int i = 0; i < nTilings; i++) {
+	    Tiling tiling = this.tilings.get(i);
+	    StateTile st = tiling.getStateTile(s);
+
+	    Map<StateTile, StoredFeaturesForTiling> featureMapping = actionTilings
+		    .get(i);
+	    StoredFeaturesForTiling storedFs = featureMapping.get(st);
+	    if (storedFs == null) {
+		storedFs = new StoredFeaturesForTiling(st);
+		for (int j = 0; j < nActions; j++) {
+		    storedFs.addActionFeature(new StoredActionFeature(actions
+			    .get(j), nextActionFeatureId));
+		    features.ids[base + j * nTilings + i] = nextActionFeatureId;
+		    nextActionFeatureId++;
+		}
+		featureMapping.put(st, storedFs);
+	    } else {
+		for (int j = 0; j < nActions; j++) {
+		    GroundedAction ga = actions.get(j);
+		    StoredActionFeature af = storedFs
+			    .getStoredActionFeatureFor(st, ga);
+		    int id;
+		    if (af == null) {
+			id = nextActionFeatureId;
+			storedFs.addActionFeatureFromQuery(st, ga, id);
+			nextActionFeatureId++;
+		    } else {
+			id = af.id;
+		    }
+		    features.ids[base + j * nTilings + i] = id;
+		}
+	    }
+
+	}
+
+	// CMACs use binary features
+	Arrays.fill(features.values, base, features.size, 1.0);
+
+    }
+
+    /**
+     * Writes the key of the tile of the given state in the <code>i</code>th
+     * tiling into {@link #tileKey} for hashed tile coding: the tiling index,
+     * an action hash of 0 that callers may overwrite, and the tile
+     * coordinates.
+     * 
+     * @param i
+     *            the index of the tiling
+     * @param s
+     *            the state to tile
+     * @return the number of values of the key
+     */
+    protected int writeTileKey(int i, State s) {
+	Tiling tiling = this.tilings.get(i);
+	int n = 2 + tiling.numTileCoordinates(s);
+	if (this.tileKey.length < n) {
+	    this.tileKey = new int[Math.max(n, 2 * this.tileKey.length)];
+	}
+	this.tileKey[0] = i;
+	this.tileKey[1] = 0;
+	tiling.getTileCoordinates(s, this.tileKey, 2);
+	return n;
+    }
+
+    /**
+     * Returns a hash of an action's name and parameters for use in the key of
+     * a state-action tile.
+     * 
+     * @param ga
+     *            the action
+     * @return the hash of the action
+     */
+    protected static int actionHash(GroundedAction ga) {
+	int h = ga.action.getName().hashCode();
+	for (String p : ga.params) {
+	    h = 31 * h + p.hashCode();
+	}
+	return h;
+    }
+
     @Override
     public void freezeDatabaseState(boolean toggle) {
 	// don't do anything since the tiling space is defined at start and
@@ -0,0 +1,249 @@
+package burlap.behavior.singleagent.vfa.cmac;
+
+import java.util.Arrays;
+
+/**
+ * Maps tile keys, which are sequences of ints such as a tiling index followed
+ * by tile coordinates, to feature identifiers in a fixed range [0, size) by
+ * hashing, so that the number of features, and therefore the number of
+ * weights of a linear VFA, stays bounded no matter how many distinct tiles
+ * are visited. Since there may be more tiles than features, distinct tiles
+ * can collide on the same feature; how collisions are handled is set by the
+ * {@link CollisionPolicy}.
+ * <p/>
+ * Looking up a key does not allocate any objects.
+ *
+ */
+public class TileHashTable {
+
+    /**
+     * The ways in which a {@link TileHashTable} handles tiles whose keys hash
+     * to the same feature.
+     *
+     */
+    public enum CollisionPolicy {
+
+	/**
+	 * Colliding tiles silently share a feature. No memory other than the
+	 * weights is needed, and lookups are a single hash computation.
+	 */
+	IGNORE,
+
+	/**
+	 * Each feature remembers a check hash of the first tile assigned to it.
+	 * A tile whose check hash does not match probes up to
+	 * {@link TileHashTable#MAXPROBES} following features for a free one.
+	 * Only if none is free does the tile share its home feature, in which
+	 * case the collision is counted. Once the table is full, a lookup stops
+	 * probing as soon as it has passed the longest probe sequence of any
+	 * assigned tile.
+	 */
+	CHECK
+
+    }
+
+    /**
+     * The maximum number of features a lookup probes under the CHECK policy
+     */
+    public static final int MAXPROBES = 64;
+
+    /**
+     * The number of features
+     */
+    protected int size;
+
+    /**
+     * How collisions are handled
+     */
+    protected CollisionPolicy policy;
+
+    /**
+     * For the CHECK policy, the non-zero check hash of the tile assigned to
+     * each feature, or 0 if no tile has been assigned
+     */
+    protected int[] checks;
+
+    /**
+     * The number of features to which a tile has been assigned under the
+     * CHECK policy
+     */
+    protected int numAssigned = 0;
+
+    /**
+     * The largest number of features probed past its home feature by any
+     * tile assigned under the CHECK policy
+     */
+    protected int maxDisplacement = 0;
+
+    /**
+     * The number of lookups under the CHECK policy that had to share a
+     * feature with a different tile
+     */
+    protected long numCollisions = 0;
+
+    /**
+     * Initializes.
+     *
+     * @param size
+     *            the number of features to which tiles are hashed
+     * @param policy
+     *            how collisions are handled
+     */
+    public TileHashTable(int size, CollisionPolicy policy) {
+	if (size < 1) {
+	    throw new RuntimeException(
+		    "The size of a tile hash table must be at least 1; got: "
+			    + size);
+	}
+	this.size = size;
+	this.policy = policy;
+	if (policy == CollisionPolicy.CHECK) {
+	    this.checks = new int[size];
+	}
+    }
+
+    /**
+     * Returns the number of features to which tiles are hashed.
+     *
+     * @return the number of features to which tiles are hashed
+     */
+    public int size() {
+	return this.size;
+    }
+
+    /**
+     * Returns the collision policy of this table.
+     *
+     * @return the collision policy of this table
+     */
+    public CollisionPolicy getCollisionPolicy() {
+	return this.policy;
+    }
+
+    /**
+     * Returns the number of features to which a tile has been assigned. Only
+     * tracked under the CHECK policy; 0 otherwise.
+     *
+     * @return the number of features to which a tile has been assigned
+     */
+    public int numAssigned() {
+	return this.numAssigned;
+    }
+
+    /**
+     * Returns the number of lookups that shared a feature with a different
+     * tile because no free feature was found. Only tracked under the
+     * CHECK policy; 0 otherwise.
+     *
+     * @return the number of lookups that shared a feature with a different
+     *         tile
+     */
+    public long numCollisions() {
+	return this.numCollisions;
+    }
+
+    /**
+     * Returns the feature identifier of a tile key.
+     *
+     * @param key
+     *            the array holding the key
+     * @param n
+     *            the number of values of the key, which starts at index 0
+     * @return the feature identifier, in [0, {@link #size()})
+     */
+    public int getFeatureId(int[] key, int n) {
+
+	int home = (int) ((hash(key, n, 0x9747B28C) & 0xFFFFFFFFL) % this.size);
+	if (this.policy == CollisionPolicy.IGNORE) {
+	    return home;
+	}
+
+	int check = hash(key, n, 0x3C6EF372);
+	if (check == 0) {
+	    check = 1;
+	}
+
+	int limit = Math.min(this.size, MAXPROBES);
+	int slot = home;
+	for (int i = 0; i < limit; i++) {
+	    int c = this.checks[slot];
+	    if (c == check) {
+		return slot;
+	    }
+	    if (c == 0) {
+		return this.assign(slot, check, i);
+	    }
+	    // no assigned tile is further than maxDisplacement from its home,
+	    // and a full table has no free feature to find
+	    if (i >= this.maxDisplacement && this.numAssigned == this.size) {
+		break;
+	    }
+	    slot++;
+	    if (slot == this.size) {
+		slot = 0;
+	    }
+	}
+
+	this.numCollisions++;
+	return home;
+    }
+
+    /**
+     * Assigns a free feature to a tile under the CHECK policy.
+     *
+     * @param slot
+     *            the free feature
+     * @param check
+     *            the check hash of the tile
+     * @param displacement
+     *            the number of features probed past the tile's home feature
+     * @return the feature
+     */
+    protected int assign(int slot, int check, int displacement) {
+	this.checks[slot] = check;
+	this.numAssigned++;
+	this.maxDisplacement = Math.max(this.maxDisplacement, displacement);
+	return slot;
+    }
+
+    /**
+     * Forgets which tiles have been assigned to which features.
+     */
+    public void clear() {
+	if (this.checks != null) {
+	    Arrays.fill(this.checks, 0);
+	}
+	this.numAssigned = 0;
+	this.maxDisplacement = 0;
+	this.numCollisions = 0;
+    }
+
+    /**
+     * A 32-bit MurmurHash3 of a sequence of ints.
+     *
+     * @param key
+     *            the array holding the key
+     * @param n
+     *            the number of values of the key
+     * @param seed
+     *            the hash seed
+     * @return the hash of the key
+     */
+    protected static int hash(int[] key, int n, int seed) {
+	int h = seed;
+	for (int i = 0; i < n; i++) {
+	    int k = key[i] * 0xCC9E2D51;
+	    k = Integer.rotateLeft(k, 15) * 0x1B873593;
+	    h ^= k;
+	    h = Integer.rotateLeft(h, 13) * 5 + 0xE6546B64;
+	}
+	h ^= n;
+	h ^= h >>> 16;
+	h *= 0x85EBCA6B;
+	h ^= h >>> 13;
+	h *= 0xC2B2AE35;
+	h ^= h >>> 16;
+	return h;
+    }
+
+}
@@ -98,6 +98,126 @@ public class Tiling {
 	return new StateTile(s);
     }
 
+    /**
+     * Returns the number of tile coordinates that
+     * {@link #getTileCoordinates(State, int[], int)} writes for the given
+     * state: one for each tiled attribute of each object of a tiled class.
+     * 
+     * @param s
+     *            the state to tile
+     * @return the number of tile coordinates of the state
+     */
+    public int numTileCoordinates(State s) {
+	int n = 0;
+	for (String className : this.classOrder) {
+	    n += s.numObjectsOfTrueClass(className)
+		    * this.specification.get(className).size();
+	}
+	return n;
+    }
+
+    /**
+     * Writes the coordinates of the multi-dimensional tile that contains the
+     * given state into an array, without creating any tile objects. For each
+     * tiled class in order, the tiled attribute values of each object of the
+     * class are written as one row, and the rows of each class are sorted so
+     * that the coordinates do not depend on the order of objects in the
+     * state. Two states with the same number of objects of each tiled class
+     * are in the same tile if and only if they have the same coordinates.
+     * 
+     * @param s
+     *            the state to tile
+     * @param coords
+     *            the array to write the coordinates to; it must have room for
+     *            {@link #numTileCoordinates(State)} values after offset
+     * @param offset
+     *            the index of coords at which to write the first coordinate
+     * @return the number of coordinates written
+     */
+    public int getTileCoordinates(State s, int[] coords, int offset) {
+
+	int pos = offset;
+	for (String className : this.classOrder) {
+	    List<AttributeTileSpecification> classSpecs = this.specification
+		    .get(className);
+	    int width = classSpecs.size();
+	    int nObjects = s.numObjectsOfTrueClass(className);
+	    int start = pos;
+	    for (int j = 0; j < nObjects; j++) {
+		ObjectInstance o = s.getObjectOfTrueClassAt(className, j);
+		for (int k = 0; k < width; k++) {
+		    coords[pos++] = tileValue(classSpecs.get(k), o);
+		}
+	    }
+	    sortRows(coords, start, nObjects, width);
+	}
+
+	return pos - offset;
+    }
+
+    /**
+     * Returns the tile index of an attribute value of an object along one
+     * dimension of this tiling.
+     * 
+     * @param ats
+     *            the specification of the tiled attribute
+     * @param o
+     *            the object instance
+     * @return the tile index of the attribute value
+     */
+    protected static int tileValue(AttributeTileSpecification ats,
+	    ObjectInstance o) {
+	String attName = ats.attribute.name;
+	if (ats.attribute.type.equals(Attribute.AttributeType.DISC)) {
+	    return o.getDiscValForAttribute(attName);
+	} else if (ats.attribute.type.equals(Attribute.AttributeType.REAL)
+		|| ats.attribute.type
+			.equals(Attribute.AttributeType.REALUNBOUND)) {
+	    double v = o.getRealValForAttribute(attName);
+	    return (int) ((v - ats.bucketBoundary) / ats.windowSize);
+	}
+	return 0;
+    }
+
+    /**
+     * Sorts consecutive rows of equal width in place in lexicographic order.
+     * An insertion sort is used since there are typically very few rows.
+     * 
+     * @param coords
+     *            the array holding the rows
+     * @param start
+     *            the index of the first value of the first row
+     * @param nRows
+     *            the number of rows
+     * @param width
+     *            the number of values in each row
+     */
+    protected static void sortRows(int[] coords, int start, int nRows,
+	    int width) {
+	for (int r = 1; r < nRows; r++) {
+	    for (int q = r; q > 0
+		    && compareRows(coords, start + (q - 1) * width, start + q
+			    * width, width) > 0; q--) {
+		int a = start + (q - 1) * width;
+		int b = a + width;
+		for (int k = 0; k < width; k++) {
+		    int tmp = coords[a + k];
+		    coords[a + k] = coords[b + k];
+		    coords[b + k] = tmp;
+		}
+	    }
+	}
+    }
+
+    protected static int compareRows(int[] coords, int a, int b, int width) {
+	for (int k = 0; k < width; k++) {
+	    if (coords[a + k] != coords[b + k]) {
+		return coords[a + k] < coords[b + k] ? -1 : 1;
+	    }
+	}
+	return 0;
+    }
+
     /**
      * A class for representing a tile, which can be treated as a state feature.
      * 
@@ -268,16 +388,7 @@ public class Tiling {
 		    .get(className);
 	    for (AttributeTileSpecification ats : classSpecs) {
 		String attName = ats.attribute.name;
-		int tv = 0;
-		if (ats.attribute.type.equals(Attribute.AttributeType.DISC)) {
-		    tv = o.getDiscValForAttribute(attName);
-		} else if (ats.attribute.type
-			.equals(Attribute.AttributeType.REAL)
-			|| ats.attribute.type
-				.equals(Attribute.AttributeType.REALUNBOUND)) {
-		    double v = o.getRealValForAttribute(attName);
-		    tv = (int) ((v - ats.bucketBoundary) / ats.windowSize);
-		}
+		int tv = tileValue(ats, o);
 		attTiles.put(attName, tv);
 		hashCode = 31 * hashCode + tv;
 	    }
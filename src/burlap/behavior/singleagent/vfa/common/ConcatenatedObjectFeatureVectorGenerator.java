@@ -1,6 +1,6 @@
 package burlap.behavior.singleagent.vfa.common;
 
-import java.util.LinkedList;
+import java.util.ArrayList;
 import java.util.List;
 
 import burlap.behavior.singleagent.vfa.StateToFeatureVectorGenerator;
@@ -45,13 +45,14 @@ public class ConcatenatedObjectFeatureVectorGenerator implements
     @Override
     public double[] generateFeatureVectorFrom(State s) {
 
-	List<ObjectInstance> objectsToAdd = new LinkedList<ObjectInstance>();
+	List<ObjectInstance> objectsToAdd = new ArrayList<ObjectInstance>();
 	int d = 0;
 
 	for (String oclassName : this.objectClassOrder) {
 	    List<ObjectInstance> obs = s.getObjectsOfTrueClass(oclassName);
 	    if (obs.size() > 0) {
-		d += obs.get(0).getObjectClass().numObservableAttributes();
+		d += obs.size()
+			* obs.get(0).getObjectClass().numObservableAttributes();
 		objectsToAdd.addAll(obs);
 	    }
 	}
@@ -59,9 +60,9 @@ public class ConcatenatedObjectFeatureVectorGenerator implements
 	double[] featureVector = new double[d];
 	int i = 0;
 	for (ObjectInstance o : objectsToAdd) {
-	    double[] ofv = o.getObservableFeatureVec();
-	    for (int j = 0; j < ofv.length; j++) {
-		featureVector[i] = ofv[j];
+	    List<Integer> inds = o.getObjectClass().observableAttributeIndices;
+	    for (int j = 0; j < inds.size(); j++) {
+		featureVector[i] = o.getNumericValForAttribute(inds.get(j));
 		i++;
 	    }
 	}
@@ -0,0 +1,375 @@
+package burlap.behavior.singleagent.vfa.common;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import burlap.behavior.singleagent.vfa.ActionApproximationResult;
+import burlap.behavior.singleagent.vfa.ActionFeaturesQuery;
+import burlap.behavior.singleagent.vfa.ApproximationResult;
+import burlap.behavior.singleagent.vfa.FeatureDatabase;
+import burlap.behavior.singleagent.vfa.FunctionWeight;
+import burlap.behavior.singleagent.vfa.SparseFeatureDatabase;
+import burlap.behavior.singleagent.vfa.SparseFeatureVector;
+import burlap.behavior.singleagent.vfa.StateFeature;
+import burlap.behavior.singleagent.vfa.ValueFunctionApproximation;
+import burlap.behavior.singleagent.vfa.WeightGradient;
+import burlap.oomdp.core.State;
+import burlap.oomdp.singleagent.GroundedAction;
+
+/**
+ * A linear VFA, like {@link LinearVFA}, that stores its weights in a growable
+ * double array indexed by feature identifier instead of a map of
+ * {@link FunctionWeight} objects, so feature identifiers must be non-negative
+ * and should be dense. When the feature database is a
+ * {@link SparseFeatureDatabase}, features are written into
+ * {@link SparseFeatureVector} buffers that are reused by each thread, so a
+ * query allocates no feature objects; other feature databases are supported
+ * by copying their feature lists into the buffers.
+ * <p/>
+ * Each returned {@link DenseApproximationResult} keeps its features as
+ * compact id and value arrays. Its {@link ApproximationResult#stateFeatures}
+ * and {@link ApproximationResult#functionWeights} lists are views over those
+ * arrays whose {@link FunctionWeight} elements read and write this VFA's
+ * weight array, so callers of the {@link ValueFunctionApproximation}
+ * interface work unchanged; callers that know about this class can use the
+ * arrays and {@link #getWeight(int)}/{@link #setWeight(int, double)}
+ * directly.
+ *
+ */
+public class DenseLinearVFA implements ValueFunctionApproximation {
+
+    /**
+     * The feature database from which features are retrieved
+     */
+    protected FeatureDatabase featureDatabase;
+
+    /**
+     * The feature database as a sparse feature database, or null if it is not
+     * one
+     */
+    protected SparseFeatureDatabase sparseDatabase;
+
+    /**
+     * The weights, indexed by feature identifier
+     */
+    protected double[] weights;
+
+    /**
+     * The value of weights that have never been set
+     */
+    protected double defaultWeight = 0.0;
+
+    /**
+     * The query buffers of each thread
+     */
+    protected ThreadLocal<QueryBuffers> buffers = new ThreadLocal<QueryBuffers>() {
+	@Override
+	protected QueryBuffers initialValue() {
+	    return new QueryBuffers();
+	}
+    };
+
+    /**
+     * Initializes with a feature database; the default weight value will be
+     * zero
+     *
+     * @param featureDatabase
+     *            the feature database to use
+     */
+    public DenseLinearVFA(FeatureDatabase featureDatabase) {
+	this(featureDatabase, 0.0);
+    }
+
+    /**
+     * Initializes
+     *
+     * @param featureDatabase
+     *            the feature database to use
+     * @param defaultWeight
+     *            the default feature weight to initialize feature weights to
+     */
+    public DenseLinearVFA(FeatureDatabase featureDatabase, double defaultWeight) {
+	this(featureDatabase, defaultWeight, 64);
+    }
+
+    /**
+     * Initializes with space for a given number of weights. If the feature
+     * database only returns feature identifiers less than that number, such
+     * as a hashed feature database, the weight array never grows.
+     *
+     * @param featureDatabase
+     *            the feature database to use
+     * @param defaultWeight
+     *            the default feature weight to initialize feature weights to
+     * @param numWeights
+     *            the number of weights for which to reserve space
+     */
+    public DenseLinearVFA(FeatureDatabase featureDatabase,
+	    double defaultWeight, int numWeights) {
+	this.featureDatabase = featureDatabase;
+	if (featureDatabase instanceof SparseFeatureDatabase) {
+	    this.sparseDatabase = (SparseFeatureDatabase) featureDatabase;
+	}
+	this.defaultWeight = defaultWeight;
+	this.weights = new double[Math.max(numWeights, 1)];
+	Arrays.fill(this.weights, defaultWeight);
+    }
+
+    /**
+     * Returns the value of a weight.
+     *
+     * @param id
+     *            the feature identifier of the weight
+     * @return the value of the weight
+     */
+    public double getWeight(int id) {
+	if (id < this.weights.length) {
+	    return this.weights[id];
+	}
+	return this.defaultWeight;
+    }
+
+    /**
+     * Sets the value of a weight.
+     *
+     * @param id
+     *            the feature identifier of the weight
+     * @param w
+     *            the value to set the weight to
+     */
+    public void setWeight(int id, double w) {
+	if (id >= this.weights.length) {
+	    this.growWeights(id);
+	}
+	this.weights[id] = w;
+    }
+
+    @Override
+    public ApproximationResult getStateValue(State s) {
+
+	SparseFeatureVector features = this.buffers.get().features;
+	features.clear();
+
+	if (this.sparseDatabase != null) {
+	    this.sparseDatabase.getStateFeatures(s, features);
+	} else {
+	    addFeatures(this.featureDatabase.getStateFeatures(s), features);
+	}
+
+	return this.resultFrom(features, 0, features.size);
+    }
+
+    @Override
+    public List<ActionApproximationResult> getStateActionValues(State s,
+	    List<GroundedAction> gas) {
+
+	QueryBuffers buf = this.buffers.get();
+	SparseFeatureVector features = buf.features;
+	features.clear();
+
+	List<ActionApproximationResult> results = new ArrayList<ActionApproximationResult>(
+		gas.size());
+
+	if (this.sparseDatabase != null) {
+	    int[] actionEnds = buf.actionEnds(gas.size());
+	    this.sparseDatabase.getActionFeatures(s, gas, features, actionEnds);
+	    int start = 0;
+	    for (int i = 0; i < gas.size(); i++) {
+		results.add(new ActionApproximationResult(gas.get(i), this
+			.resultFrom(features, start, actionEnds[i])));
+		start = actionEnds[i];
+	    }
+	} else {
+	    for (ActionFeaturesQuery afq : this.featureDatabase
+		    .getActionFeaturesSets(s, gas)) {
+		features.clear();
+		addFeatures(afq.features, features);
+		results.add(new ActionApproximationResult(afq.queryAction,
+			this.resultFrom(features, 0, features.size)));
+	    }
+	}
+
+	return results;
+    }
+
+    @Override
+    public WeightGradient getWeightGradient(
+	    ApproximationResult approximationResult) {
+
+	if (approximationResult instanceof DenseApproximationResult) {
+	    DenseApproximationResult dar = (DenseApproximationResult) approximationResult;
+	    WeightGradient gradient = new WeightGradient(dar.ids.length);
+	    for (int i = 0; i < dar.ids.length; i++) {
+		gradient.put(dar.ids[i], dar.values[i]);
+	    }
+	    return gradient;
+	}
+
+	WeightGradient gradient = new WeightGradient(
+		approximationResult.stateFeatures.size());
+	for (StateFeature sf : approximationResult.stateFeatures) {
+	    gradient.put(sf.id, sf.value);
+	}
+
+	return gradient;
+    }
+
+    @Override
+    public void resetWeights() {
+	Arrays.fill(this.weights, this.defaultWeight);
+    }
+
+    /**
+     * Computes the linear function over a range of buffered features and
+     * copies the features into the result.
+     *
+     * @param features
+     *            the feature buffer
+     * @param from
+     *            the index of the first feature (inclusive)
+     * @param to
+     *            the index of the last feature (exclusive)
+     * @return the approximation result
+     */
+    protected DenseApproximationResult resultFrom(
+	    SparseFeatureVector features, int from, int to) {
+
+	int n = to - from;
+	int[] ids = new int[n];
+	double[] values = new double[n];
+	System.arraycopy(features.ids, from, ids, 0, n);
+	System.arraycopy(features.values, from, values, 0, n);
+
+	double predictedValue = 0.;
+	for (int i = 0; i < n; i++) {
+	    int id = ids[i];
+	    if (id >= this.weights.length) {
+		this.growWeights(id);
+	    }
+	    predictedValue += values[i] * this.weights[id];
+	}
+
+	return new DenseApproximationResult(predictedValue, ids, values);
+    }
+
+    /**
+     * Grows the weight array so that it holds the given weight, initializing
+     * the new weights to the default weight.
+     *
+     * @param id
+     *            the feature identifier that must be held
+     */
+    protected void growWeights(int id) {
+	if (id < 0) {
+	    throw new RuntimeException(
+		    "DenseLinearVFA requires non-negative feature ids; got: "
+			    + id);
+	}
+	int n = Math.max(id + 1, 2 * this.weights.length);
+	int old = this.weights.length;
+	this.weights = Arrays.copyOf(this.weights, n);
+	Arrays.fill(this.weights, old, n, this.defaultWeight);
+    }
+
+    protected static void addFeatures(List<StateFeature> list,
+	    SparseFeatureVector features) {
+	features.ensureCapacity(features.size + list.size());
+	for (StateFeature sf : list) {
+	    features.add(sf.id, sf.value);
+	}
+    }
+
+    /**
+     * An approximation result that stores its features as arrays. The
+     * {@link #stateFeatures} and {@link #functionWeights} lists are views
+     * over those arrays.
+     *
+     */
+    public class DenseApproximationResult extends ApproximationResult {
+
+	/**
+	 * The feature identifiers
+	 */
+	public int[] ids;
+
+	/**
+	 * The feature values
+	 */
+	public double[] values;
+
+	public DenseApproximationResult(double predictedValue,
+		final int[] ids, final double[] values) {
+	    super(predictedValue, null, null);
+	    this.ids = ids;
+	    this.values = values;
+
+	    this.stateFeatures = new AbstractList<StateFeature>() {
+		@Override
+		public StateFeature get(int index) {
+		    return new StateFeature(ids[index], values[index]);
+		}
+
+		@Override
+		public int size() {
+		    return ids.length;
+		}
+	    };
+
+	    this.functionWeights = new AbstractList<FunctionWeight>() {
+		@Override
+		public FunctionWeight get(int index) {
+		    return new DenseFunctionWeight(ids[index]);
+		}
+
+		@Override
+		public int size() {
+		    return ids.length;
+		}
+	    };
+	}
+
+    }
+
+    /**
+     * A function weight that reads and writes an entry of the weight array.
+     *
+     */
+    protected class DenseFunctionWeight extends FunctionWeight {
+
+	public DenseFunctionWeight(int weightId) {
+	    super(weightId, 0.);
+	}
+
+	@Override
+	public double weightValue() {
+	    return getWeight(this.weightId);
+	}
+
+	@Override
+	public void setWeight(double w) {
+	    DenseLinearVFA.this.setWeight(this.weightId, w);
+	}
+
+    }
+
+    /**
+     * The buffers used by one thread to query the feature database.
+     *
+     */
+    protected static class QueryBuffers {
+
+	protected SparseFeatureVector features = new SparseFeatureVector(64);
+	protected int[] actionEnds = new int[8];
+
+	protected int[] actionEnds(int n) {
+	    if (this.actionEnds.length < n) {
+		this.actionEnds = new int[n];
+	    }
+	    return this.actionEnds;
+	}
+
+    }
+
+}
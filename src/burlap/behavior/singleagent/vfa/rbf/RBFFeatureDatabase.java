@@ -6,7 +6,8 @@ import java.util.List;
 import java.util.Map;
 
 import burlap.behavior.singleagent.vfa.ActionFeaturesQuery;
-import burlap.behavior.singleagent.vfa.FeatureDatabase;
+import burlap.behavior.singleagent.vfa.SparseFeatureDatabase;
+import burlap.behavior.singleagent.vfa.SparseFeatureVector;
 import burlap.behavior.singleagent.vfa.StateFeature;
 import burlap.behavior.singleagent.vfa.ValueFunctionApproximation;
 import burlap.behavior.singleagent.vfa.common.LinearVFA;
@@ -21,7 +22,7 @@ import burlap.oomdp.singleagent.GroundedAction;
  *         James MacGlashan
  * 
  */
-public class RBFFeatureDatabase implements FeatureDatabase {
+public class RBFFeatureDatabase implements SparseFeatureDatabase {
 
     /**
      * The list of RBF units in this database
@@ -124,6 +125,58 @@ public class RBFFeatureDatabase implements FeatureDatabase {
 	return lstAFQ;
     }
 
+    @Override
+    public void getStateFeatures(State s, SparseFeatureVector features) {
+
+	features.ensureCapacity(features.size + nRbfs);
+	int id = 0;
+	for (RBF r : rbfs) {
+	    features.add(id, r.responseFor(s));
+	    id++;
+	}
+
+	if (hasOffset) {
+	    features.add(id, 1);
+	}
+
+    }
+
+    @Override
+    public void getActionFeatures(State s, List<GroundedAction> actions,
+	    SparseFeatureVector features, int[] actionEnds) {
+
+	int nActions = actions.size();
+	if (nActions == 0) {
+	    return;
+	}
+
+	// the state features are computed once into the slot of the first
+	// action and copied, with an offset, into the slots of the others
+	int base = features.size;
+	int firstOffset = this.getActionMultiplier(actions.get(0)) * this.nRbfs;
+	this.getStateFeatures(s, features);
+	int n = features.size - base;
+	features.ensureCapacity(base + nActions * n);
+
+	for (int j = 1; j < nActions; j++) {
+	    int indexOffset = this.getActionMultiplier(actions.get(j))
+		    * this.nRbfs;
+	    int dst = base + j * n;
+	    for (int k = 0; k < n; k++) {
+		features.ids[dst + k] = features.ids[base + k] + indexOffset;
+		features.values[dst + k] = features.values[base + k];
+	    }
+	    actionEnds[j] = dst + n;
+	}
+
+	for (int k = base; k < base + n; k++) {
+	    features.ids[k] += firstOffset;
+	}
+	actionEnds[0] = base + n;
+	features.size = base + nActions * n;
+
+    }
+
     @Override
     public void freezeDatabaseState(boolean toggle) {
 	// do nothing
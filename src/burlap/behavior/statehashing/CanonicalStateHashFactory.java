@@ -0,0 +1,245 @@
+package burlap.behavior.statehashing;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import burlap.oomdp.core.Attribute;
+import burlap.oomdp.core.Attribute.AttributeType;
+import burlap.oomdp.core.ObjectClass;
+import burlap.oomdp.core.ObjectInstance;
+import burlap.oomdp.core.State;
+import burlap.oomdp.core.values.UnsetValueException;
+
+/**
+ * This hash factory computes a canonical, object order invariant form of a
+ * state once, when the {@link StateHashTuple} is created, and then uses it for
+ * both hash codes and equality checks. The canonical form lists the object
+ * classes present in the state sorted by name and, for each class, the
+ * attribute values of its object instances sorted lexicographically. Two states
+ * are OO-MDP equal exactly when their canonical forms are identical, so
+ * equality checks between tuples are a flat array comparison that requires no
+ * allocation instead of the object matching performed by
+ * {@link burlap.oomdp.core.State#equals(Object)}.
+ * <p/>
+ * A 64-bit hash of the canonical form is also computed and is available from
+ * {@link CanonicalStateHashTuple#longHashCode()}. Unlike
+ * {@link DiscreteStateHashFactory}, this factory does not require the state
+ * space volume to fit in an int and works with real-valued attributes as well.
+ * States with relational attributes are hashed on their other attributes and
+ * fall back to the standard state equality check.
+ *
+ */
+public class CanonicalStateHashFactory implements StateHashFactory {
+
+    /**
+     * The value used in the canonical form for attributes that are unset
+     */
+    protected static final long UNSETVALUE = Long.MIN_VALUE;
+
+    @Override
+    public StateHashTuple hashState(State s) {
+	return new CanonicalStateHashTuple(s);
+    }
+
+    /**
+     * A {@link StateHashTuple} that stores the canonical form of its state.
+     *
+     */
+    public static class CanonicalStateHashTuple extends StateHashTuple {
+
+	/**
+	 * The names of the object classes present in the state, in sorted order
+	 */
+	protected String[] classNames;
+
+	/**
+	 * The number of object instances of each class in {@link #classNames}
+	 */
+	protected int[] classCounts;
+
+	/**
+	 * The attribute values of each object, grouped by class and sorted
+	 * within each class
+	 */
+	protected long[] canonicalValues;
+
+	/**
+	 * Whether the canonical form captures all values of the state; false if
+	 * the state has relational attributes
+	 */
+	protected boolean exact;
+
+	protected long longHashCode;
+
+	public CanonicalStateHashTuple(State s) {
+	    super(s);
+	    this.computeHashCode();
+	}
+
+	/**
+	 * Returns a 64-bit hash code of the state's canonical form.
+	 *
+	 * @return a 64-bit hash code of the state's canonical form.
+	 */
+	public long longHashCode() {
+	    return longHashCode;
+	}
+
+	@Override
+	public void computeHashCode() {
+	    this.computeCanonicalForm();
+	    hashCode = (int) (longHashCode ^ (longHashCode >>> 32));
+	    needToRecomputeHashCode = false;
+	}
+
+	@Override
+	public boolean equals(Object other) {
+	    if (this == other) {
+		return true;
+	    }
+	    if (!(other instanceof CanonicalStateHashTuple)) {
+		return super.equals(other);
+	    }
+
+	    CanonicalStateHashTuple that = (CanonicalStateHashTuple) other;
+	    if (this.longHashCode != that.longHashCode) {
+		return false;
+	    }
+	    if (!Arrays.equals(this.classCounts, that.classCounts)
+		    || !Arrays.equals(this.classNames, that.classNames)
+		    || !Arrays.equals(this.canonicalValues,
+			    that.canonicalValues)) {
+		return false;
+	    }
+	    if (!this.exact || !that.exact) {
+		return this.s.equals(that.s);
+	    }
+
+	    return true;
+	}
+
+	/**
+	 * Computes the canonical form of this tuple's state and its 64-bit
+	 * hash.
+	 */
+	protected void computeCanonicalForm() {
+
+	    List<List<ObjectInstance>> byClass = s.getAllObjectsByTrueClass();
+	    Collections.sort(byClass, new Comparator<List<ObjectInstance>>() {
+		@Override
+		public int compare(List<ObjectInstance> o1,
+			List<ObjectInstance> o2) {
+		    return o1.get(0).getTrueClassName()
+			    .compareTo(o2.get(0).getTrueClassName());
+		}
+	    });
+
+	    this.classNames = new String[byClass.size()];
+	    this.classCounts = new int[byClass.size()];
+	    this.exact = true;
+
+	    int size = 0;
+	    for (List<ObjectInstance> obs : byClass) {
+		size += obs.size() * obs.get(0).getObjectClass().numAttributes();
+	    }
+	    this.canonicalValues = new long[size];
+
+	    int pos = 0;
+	    for (int c = 0; c < byClass.size(); c++) {
+
+		List<ObjectInstance> obs = byClass.get(c);
+		ObjectClass oc = obs.get(0).getObjectClass();
+		classNames[c] = oc.name;
+		classCounts[c] = obs.size();
+
+		long[][] rows = new long[obs.size()][];
+		for (int i = 0; i < rows.length; i++) {
+		    rows[i] = this.objectFingerprint(obs.get(i));
+		}
+		Arrays.sort(rows, LEXICOGRAPHIC);
+
+		for (long[] row : rows) {
+		    System.arraycopy(row, 0, canonicalValues, pos, row.length);
+		    pos += row.length;
+		}
+
+	    }
+
+	    long h = 0x9E3779B97F4A7C15L;
+	    for (int c = 0; c < classNames.length; c++) {
+		h = mix(h ^ classNames[c].hashCode());
+		h = mix(h ^ classCounts[c]);
+	    }
+	    for (long v : canonicalValues) {
+		h = mix(h ^ v);
+	    }
+	    this.longHashCode = h;
+
+	}
+
+	/**
+	 * Returns the values of an object instance encoded as longs, in the
+	 * order of its object class' attributes.
+	 *
+	 * @param o
+	 *            the object instance
+	 * @return the encoded values of the object instance
+	 */
+	protected long[] objectFingerprint(ObjectInstance o) {
+
+	    List<Attribute> atts = o.getObjectClass().attributeList;
+	    long[] res = new long[atts.size()];
+	    for (int i = 0; i < res.length; i++) {
+		AttributeType type = atts.get(i).type;
+		try {
+		    if (type == AttributeType.DISC
+			    || type == AttributeType.BOOLEAN
+			    || type == AttributeType.INT) {
+			res[i] = o.getDiscValForAttribute(i);
+		    } else if (type == AttributeType.REAL
+			    || type == AttributeType.REALUNBOUND) {
+			double d = o.getRealValForAttribute(i);
+			// -0.0 and 0.0 are equal values with different bits
+			res[i] = d == 0. ? 0L : Double.doubleToLongBits(d);
+		    } else {
+			res[i] = o.getValueForAttribute(i)
+				.getAllRelationalTargets().hashCode();
+			exact = false;
+		    }
+		} catch (UnsetValueException e) {
+		    res[i] = UNSETVALUE;
+		}
+	    }
+
+	    return res;
+	}
+
+	/**
+	 * 64-bit finalizer from MurmurHash3.
+	 */
+	protected static long mix(long h) {
+	    h ^= h >>> 33;
+	    h *= 0xff51afd7ed558ccdL;
+	    h ^= h >>> 33;
+	    h *= 0xc4ceb9fe1a85ec53L;
+	    h ^= h >>> 33;
+	    return h;
+	}
+
+	protected static final Comparator<long[]> LEXICOGRAPHIC = new Comparator<long[]>() {
+	    @Override
+	    public int compare(long[] a, long[] b) {
+		for (int i = 0; i < a.length; i++) {
+		    if (a[i] != b[i]) {
+			return a[i] < b[i] ? -1 : 1;
+		    }
+		}
+		return 0;
+	    }
+	};
+
+    }
+
+}
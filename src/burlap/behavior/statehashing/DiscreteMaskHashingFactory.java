@@ -76,6 +76,15 @@ public class DiscreteMaskHashingFactory extends DiscreteStateHashFactory {
 
 	    StateHashTuple that = (StateHashTuple) other;
 
+	    // perfect indices are computed over the same attributes used for
+	    // equality
+	    if (attributesForEquality == null) {
+		int cmp = this.compareIndices(other);
+		if (cmp != -1) {
+		    return cmp == 1;
+		}
+	    }
+
 	    Collection<String> classesToCheck = null;
 	    Map<String, List<Attribute>> attMap = null;
 	    if (attributesForEquality != null) {
@@ -133,9 +142,19 @@ public class DiscreteMaskHashingFactory extends DiscreteStateHashFactory {
 	protected boolean objectsMatch(ObjectInstance o, ObjectInstance oo,
 		List<Attribute> attsToCheck) {
 
-	    for (Attribute att : attsToCheck) {
-		Value ov = o.getValueForAttribute(att.name);
-		Value oov = oo.getValueForAttribute(att.name);
+	    // the resolved hashing indices can be reused when equality is
+	    // checked on the hashing attributes
+	    int[] inds = null;
+	    if (attributesForHashCode != null
+		    && attsToCheck == attributesForHashCode.get(o
+			    .getTrueClassName())) {
+		inds = this.getAttributeIndicesForClass(o.getObjectClass());
+	    }
+	    for (int j = 0; j < attsToCheck.size(); j++) {
+		int ind = inds != null ? inds[j] : o.getObjectClass()
+			.attributeIndex(attsToCheck.get(j).name);
+		Value ov = o.getValueForAttribute(ind);
+		Value oov = oo.getValueForAttribute(ind);
 		if (!ov.equals(oov)) {
 		    return false;
 		}
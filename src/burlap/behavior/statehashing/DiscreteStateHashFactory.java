@@ -1,12 +1,15 @@
 package burlap.behavior.statehashing;
 
+import java.math.BigInteger;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
+import burlap.debugtools.DPrint;
 import burlap.oomdp.core.Attribute;
 import burlap.oomdp.core.Attribute.AttributeType;
 import burlap.oomdp.core.ObjectClass;
@@ -28,6 +31,20 @@ import burlap.oomdp.core.State;
  * which class to use in computing the has code. Note that once any method to
  * specify an attribute for a class is made, only the attributes specified (from
  * that first call and any subsequent method calls) will be used for hashing.
+ * <p/>
+ * By default, int attributes are given a fixed volume of 31 and the hash code
+ * is accumulated in an int, which will silently overflow for large state
+ * spaces. If perfect indexing is enabled with
+ * {@link #setUsePerfectIndex(boolean)}, the hash tuple instead computes an
+ * exact mixed-radix index of the state from the declared attribute bounds
+ * (int attributes must have their limits set with
+ * {@link Attribute#setLims(double, double)}). The index is held in a long
+ * and, if the state space exceeds 64 bits, in a {@link BigInteger}. Since the
+ * index is unique, equality checks compare indices instead of performing a full
+ * {@link State#equals(Object)}. If a state cannot be indexed because an int
+ * attribute has no declared bounds or its value is out of bounds, a strong
+ * 64-bit hash of its values is used instead and equality falls back to
+ * {@link State#equals(Object)}.
  * 
  * @author James MacGlashan
  * 
@@ -35,6 +52,14 @@ import burlap.oomdp.core.State;
 public class DiscreteStateHashFactory implements StateHashFactory {
 
     Map<String, List<Attribute>> attributesForHashCode;
+    /**
+     * The object class attribute indices of the hashed attributes of each
+     * class, resolved once so that hashing does not look attributes up by name
+     */
+    protected Map<String, int[]> attributeIndicesForHashCode = new ConcurrentHashMap<String, int[]>();
+    protected boolean usePerfectIndex = false;
+    protected boolean reportedBigIndex = false;
+    protected boolean reportedHashedIndex = false;
 
     /**
      * Initializes this hashing factory to compute hash codes with all
@@ -68,6 +93,7 @@ public class DiscreteStateHashFactory implements StateHashFactory {
     public void setAttributesForHashCode(
 	    Map<String, List<Attribute>> attributesForHashCode) {
 	this.attributesForHashCode = attributesForHashCode;
+	this.attributeIndicesForHashCode.clear();
     }
 
     /**
@@ -89,6 +115,7 @@ public class DiscreteStateHashFactory implements StateHashFactory {
 	    attributesForHashCode = new HashMap<String, List<Attribute>>();
 	}
 	attributesForHashCode.put(classname, new ArrayList<Attribute>(atts));
+	attributeIndicesForHashCode.clear();
     }
 
     /**
@@ -122,6 +149,30 @@ public class DiscreteStateHashFactory implements StateHashFactory {
 	}
 	// if reached here then this att is not already added
 	atts.add(att);
+	attributeIndicesForHashCode.clear();
+    }
+
+    /**
+     * Sets whether hash tuples should compute an exact mixed-radix index of
+     * states from the declared attribute bounds rather than the default int
+     * hash code.
+     * 
+     * @param usePerfectIndex
+     *            if true, use perfect indices; if false use the default int
+     *            hash code
+     */
+    public void setUsePerfectIndex(boolean usePerfectIndex) {
+	this.usePerfectIndex = usePerfectIndex;
+    }
+
+    /**
+     * Returns whether hash tuples compute an exact mixed-radix index of
+     * states.
+     * 
+     * @return true if perfect indices are used; false otherwise.
+     */
+    public boolean usesPerfectIndex() {
+	return this.usePerfectIndex;
     }
 
     @Override
@@ -131,13 +182,99 @@ public class DiscreteStateHashFactory implements StateHashFactory {
 
     public class DiscreteStateHashTuple extends StateHashTuple {
 
+	protected static final int INDEXNONE = 0;
+	protected static final int INDEXLONG = 1;
+	protected static final int INDEXBIG = 2;
+	protected static final int INDEXHASHED = 3;
+
+	/**
+	 * Which kind of index was computed for the state when perfect indexing
+	 * is used
+	 */
+	protected int indexMode = INDEXNONE;
+	protected long perfectIndex;
+	protected BigInteger bigPerfectIndex;
+	protected String[] indexClasses;
+	protected int[] indexCounts;
+
 	public DiscreteStateHashTuple(State s) {
 	    super(s);
 	}
 
+	@Override
+	public boolean equals(Object other) {
+	    if (this == other) {
+		return true;
+	    }
+	    if (!(other instanceof StateHashTuple)) {
+		return false;
+	    }
+
+	    int cmp = this.compareIndices(other);
+	    if (cmp == 0) {
+		return false;
+	    } else if (cmp == 1 && attributesForHashCode == null) {
+		return true;
+	    }
+
+	    return super.equals(other);
+	}
+
+	/**
+	 * Compares the perfect indices of this tuple and another tuple, if both
+	 * have one from the same factory. Indices only cover the attributes
+	 * used for hashing, so matching indices imply equality only with
+	 * respect to those attributes.
+	 * 
+	 * @param other
+	 *            the other hash tuple
+	 * @return 0 if the indices differ, 1 if they are the same, and -1 if
+	 *         they cannot be compared
+	 */
+	protected int compareIndices(Object other) {
+	    if (!usePerfectIndex || !(other instanceof DiscreteStateHashTuple)) {
+		return -1;
+	    }
+	    DiscreteStateHashTuple that = (DiscreteStateHashTuple) other;
+	    if (that.getFactory() != this.getFactory()) {
+		return -1;
+	    }
+
+	    // make sure the indices have been computed
+	    this.hashCode();
+	    that.hashCode();
+
+	    // equal states always produce the same kind of index
+	    if (this.indexMode != that.indexMode
+		    || this.hashCode != that.hashCode) {
+		return 0;
+	    }
+	    if (this.indexMode == INDEXHASHED) {
+		return -1;
+	    }
+	    if (!Arrays.equals(this.indexCounts, that.indexCounts)
+		    || !Arrays.equals(this.indexClasses, that.indexClasses)) {
+		return 0;
+	    }
+	    if (this.indexMode == INDEXLONG) {
+		return this.perfectIndex == that.perfectIndex ? 1 : 0;
+	    }
+	    return this.bigPerfectIndex.equals(that.bigPerfectIndex) ? 1 : 0;
+	}
+
+	protected DiscreteStateHashFactory getFactory() {
+	    return DiscreteStateHashFactory.this;
+	}
+
 	@Override
 	public void computeHashCode() {
 
+	    if (usePerfectIndex) {
+		this.computePerfectIndex();
+		needToRecomputeHashCode = false;
+		return;
+	    }
+
 	    List<String> objectClasses = this.getOrderedClasses();
 	    int totalVol = 1;
 	    hashCode = 0;
@@ -146,11 +283,13 @@ public class DiscreteStateHashFactory implements StateHashFactory {
 		ObjectClass oc = obs.get(0).getObjectClass();
 		int vol = this.computeVolumeForClass(oc);
 
+		int[] inds = this.getAttributeIndicesForClass(oc);
+
 		// too ensure object order invariance, the hash values must
 		// first be sorted by their object-wise hashcode
 		int[] obHashCodes = new int[obs.size()];
 		for (int i = 0; i < obs.size(); i++) {
-		    obHashCodes[i] = this.getIndexValue(obs.get(i), oc);
+		    obHashCodes[i] = this.getIndexValue(obs.get(i), oc, inds);
 		}
 		Arrays.sort(obHashCodes);
 
@@ -166,14 +305,271 @@ public class DiscreteStateHashFactory implements StateHashFactory {
 
 	}
 
+	/**
+	 * Computes the mixed-radix index of the state, using a long if the state
+	 * space volume fits in 63 bits and a {@link BigInteger} otherwise, and
+	 * sets the hash code from it. If an int attribute has no declared
+	 * bounds, or a value is outside of them, a 64-bit hash is computed
+	 * instead.
+	 */
+	protected void computePerfectIndex() {
+
+	    // classes not selected for hashing do not contribute to the index
+	    List<String> objectClasses = new ArrayList<String>();
+	    List<List<Attribute>> classAttributes = new ArrayList<List<Attribute>>();
+	    List<int[]> classIndices = new ArrayList<int[]>();
+	    for (String oclass : this.getOrderedClasses()) {
+		if (attributesForHashCode != null
+			&& !attributesForHashCode.containsKey(oclass)) {
+		    continue;
+		}
+		ObjectClass oc = s.getFirstObjectOfClass(oclass)
+			.getObjectClass();
+		objectClasses.add(oclass);
+		classAttributes.add(this.getAttributesForClass(oc));
+		classIndices.add(this.getAttributeIndicesForClass(oc));
+	    }
+
+	    this.indexClasses = objectClasses.toArray(new String[objectClasses
+		    .size()]);
+	    this.indexCounts = new int[indexClasses.length];
+	    // the volume of a class that does not fit in a long is kept as a
+	    // BigInteger, and so are the object indices of that class
+	    long[] classVols = new long[indexClasses.length];
+	    BigInteger[] bigClassVols = new BigInteger[indexClasses.length];
+	    boolean indexable = true;
+	    for (int c = 0; indexable && c < indexClasses.length; c++) {
+		long vol = 1;
+		BigInteger bigVol = null;
+		for (Attribute att : classAttributes.get(c)) {
+		    long radix = attributeRadix(att);
+		    if (radix <= 0) {
+			// unbounded, or no value is within the bounds
+			indexable = false;
+			break;
+		    }
+		    if (bigVol != null) {
+			bigVol = bigVol.multiply(BigInteger.valueOf(radix));
+		    } else if (vol > Long.MAX_VALUE / radix) {
+			bigVol = BigInteger.valueOf(vol).multiply(
+				BigInteger.valueOf(radix));
+		    } else {
+			vol *= radix;
+		    }
+		}
+		classVols[c] = vol;
+		bigClassVols[c] = bigVol;
+	    }
+
+	    List<long[]> digitsByClass = new ArrayList<long[]>(
+		    indexClasses.length);
+	    List<BigInteger[]> bigDigitsByClass = new ArrayList<BigInteger[]>(
+		    indexClasses.length);
+	    for (int c = 0; indexable && c < indexClasses.length; c++) {
+		List<ObjectInstance> obs = s
+			.getObjectsOfTrueClass(indexClasses[c]);
+		indexCounts[c] = obs.size();
+		if (bigClassVols[c] != null) {
+		    BigInteger[] digits = new BigInteger[obs.size()];
+		    for (int i = 0; i < obs.size(); i++) {
+			digits[i] = this.getBigObjectIndex(obs.get(i),
+				classAttributes.get(c), classIndices.get(c));
+			if (digits[i] == null) {
+			    indexable = false;
+			    break;
+			}
+		    }
+		    if (indexable) {
+			Arrays.sort(digits);
+		    }
+		    digitsByClass.add(null);
+		    bigDigitsByClass.add(digits);
+		    continue;
+		}
+		long[] digits = new long[obs.size()];
+		for (int i = 0; i < obs.size(); i++) {
+		    digits[i] = this.getObjectIndex(obs.get(i),
+			    classAttributes.get(c), classIndices.get(c));
+		    if (digits[i] < 0) {
+			indexable = false;
+			break;
+		    }
+		}
+		Arrays.sort(digits);
+		digitsByClass.add(digits);
+		bigDigitsByClass.add(null);
+	    }
+
+	    if (!indexable) {
+		digitsByClass.clear();
+		for (int c = 0; c < indexClasses.length; c++) {
+		    List<ObjectInstance> obs = s
+			    .getObjectsOfTrueClass(indexClasses[c]);
+		    indexCounts[c] = obs.size();
+		    long[] digits = new long[obs.size()];
+		    for (int i = 0; i < obs.size(); i++) {
+			digits[i] = this.getObjectHash(obs.get(i),
+				classIndices.get(c));
+		    }
+		    Arrays.sort(digits);
+		    digitsByClass.add(digits);
+		}
+		this.computeHashedIndex(digitsByClass);
+		return;
+	    }
+
+	    // first try to accumulate the index in a long
+	    long index = 0;
+	    long totalVol = 1;
+	    boolean fits = true;
+	    for (int c = 0; c < indexClasses.length; c++) {
+		if (bigClassVols[c] != null) {
+		    fits = false;
+		}
+	    }
+	    for (int c = 0; c < indexClasses.length && fits; c++) {
+		long[] digits = digitsByClass.get(c);
+		for (int i = digits.length - 1; i >= 0; i--) {
+		    try {
+			index = Math.addExact(index,
+				Math.multiplyExact(digits[i], totalVol));
+			totalVol = Math.multiplyExact(totalVol, classVols[c]);
+		    } catch (ArithmeticException e) {
+			fits = false;
+			break;
+		    }
+		}
+	    }
+
+	    if (fits) {
+		this.indexMode = INDEXLONG;
+		this.perfectIndex = index;
+		this.hashCode = (int) (index ^ (index >>> 32));
+		return;
+	    }
+
+	    if (!reportedBigIndex) {
+		reportedBigIndex = true;
+		DPrint.ul("DiscreteStateHashFactory: state space volume exceeds 64 bits; using BigInteger state indices.");
+	    }
+
+	    BigInteger bigIndex = BigInteger.ZERO;
+	    BigInteger bigVol = BigInteger.ONE;
+	    for (int c = 0; c < indexClasses.length; c++) {
+		long[] digits = digitsByClass.get(c);
+		BigInteger[] bigDigits = bigDigitsByClass.get(c);
+		BigInteger classVol = bigClassVols[c] != null ? bigClassVols[c]
+			: BigInteger.valueOf(classVols[c]);
+		for (int i = indexCounts[c] - 1; i >= 0; i--) {
+		    BigInteger digit = bigDigits != null ? bigDigits[i]
+			    : BigInteger.valueOf(digits[i]);
+		    bigIndex = bigIndex.add(digit.multiply(bigVol));
+		    bigVol = bigVol.multiply(classVol);
+		}
+	    }
+
+	    this.indexMode = INDEXBIG;
+	    this.bigPerfectIndex = bigIndex;
+	    this.hashCode = bigIndex.hashCode();
+
+	}
+
+	/**
+	 * Sets the hash code to a 64-bit hash of the sorted object hashes of
+	 * each class.
+	 * 
+	 * @param digitsByClass
+	 *            the sorted object hashes of each class
+	 */
+	protected void computeHashedIndex(List<long[]> digitsByClass) {
+
+	    if (!reportedHashedIndex) {
+		reportedHashedIndex = true;
+		DPrint.ul("DiscreteStateHashFactory: some states cannot be perfectly indexed because int attributes have undeclared bounds or out of bound values; using 64-bit hashes for them.");
+	    }
+
+	    long h = 0x9E3779B97F4A7C15L;
+	    for (int c = 0; c < indexClasses.length; c++) {
+		h = mix(h ^ indexClasses[c].hashCode());
+		for (long d : digitsByClass.get(c)) {
+		    h = mix(h ^ d);
+		}
+	    }
+
+	    this.indexMode = INDEXHASHED;
+	    this.perfectIndex = h;
+	    this.hashCode = (int) (h ^ (h >>> 32));
+
+	}
+
+	/**
+	 * Returns the mixed-radix index of an object instance's values for the
+	 * given attributes, or -1 if an int value is outside of its declared
+	 * bounds.
+	 */
+	private long getObjectIndex(ObjectInstance o, List<Attribute> attributes,
+		int[] inds) {
+	    long index = 0;
+	    long vol = 1;
+	    for (int j = 0; j < inds.length; j++) {
+		Attribute att = attributes.get(j);
+		long v = o.getDiscValForAttribute(inds[j]);
+		long radix = attributeRadix(att);
+		if (att.type == AttributeType.INT) {
+		    v -= (long) att.lowerLim;
+		}
+		if (v < 0 || v >= radix) {
+		    return -1;
+		}
+		index += v * vol;
+		vol *= radix;
+	    }
+	    return index;
+	}
+
+	/**
+	 * Returns the mixed-radix index of an object instance's values for the
+	 * given attributes as a {@link BigInteger}, for classes whose volume
+	 * does not fit in a long, or null if an int value is outside of its
+	 * declared bounds.
+	 */
+	private BigInteger getBigObjectIndex(ObjectInstance o,
+		List<Attribute> attributes, int[] inds) {
+	    BigInteger index = BigInteger.ZERO;
+	    BigInteger vol = BigInteger.ONE;
+	    for (int j = 0; j < inds.length; j++) {
+		Attribute att = attributes.get(j);
+		long v = o.getDiscValForAttribute(inds[j]);
+		long radix = attributeRadix(att);
+		if (att.type == AttributeType.INT) {
+		    v -= (long) att.lowerLim;
+		}
+		if (v < 0 || v >= radix) {
+		    return null;
+		}
+		index = index.add(BigInteger.valueOf(v).multiply(vol));
+		vol = vol.multiply(BigInteger.valueOf(radix));
+	    }
+	    return index;
+	}
+
+	private long getObjectHash(ObjectInstance o, int[] inds) {
+	    long h = 0;
+	    for (int ind : inds) {
+		h = mix(h ^ o.getDiscValForAttribute(ind));
+	    }
+	    return h;
+	}
+
 	// this method will assume that attributes are all discrete
-	private int getIndexValue(ObjectInstance o, ObjectClass oc) {
+	private int getIndexValue(ObjectInstance o, ObjectClass oc, int[] inds) {
 
 	    List<Attribute> attributes = this.getAttributesForClass(oc);
 	    int index = 0;
 	    int vol = 1;
-	    for (Attribute att : attributes) {
-		index += o.getDiscValForAttribute(att.name) * vol;
+	    for (int j = 0; j < inds.length; j++) {
+		Attribute att = attributes.get(j);
+		index += o.getDiscValForAttribute(inds[j]) * vol;
 		if (att.type == AttributeType.DISC
 			|| att.type == AttributeType.BOOLEAN) {
 		    vol *= att.discValues.size();
@@ -210,7 +606,7 @@ public class DiscreteStateHashFactory implements StateHashFactory {
 	    return vol;
 	}
 
-	private List<Attribute> getAttributesForClass(ObjectClass oc) {
+	protected List<Attribute> getAttributesForClass(ObjectClass oc) {
 	    if (DiscreteStateHashFactory.this.attributesForHashCode != null) {
 		List<Attribute> selectedAtts = DiscreteStateHashFactory.this.attributesForHashCode
 			.get(oc.name);
@@ -225,7 +621,29 @@ public class DiscreteStateHashFactory implements StateHashFactory {
 	    return oc.attributeList;
 	}
 
-	private List<String> getOrderedClasses() {
+	/**
+	 * Returns the object class attribute indices of the attributes of the
+	 * given class that are used for hashing, in the same order as
+	 * {@link #getAttributesForClass(ObjectClass)}.
+	 * 
+	 * @param oc
+	 *            the object class
+	 * @return the attribute indices used for hashing objects of the class
+	 */
+	protected int[] getAttributeIndicesForClass(ObjectClass oc) {
+	    int[] inds = attributeIndicesForHashCode.get(oc.name);
+	    if (inds == null) {
+		List<Attribute> attributes = this.getAttributesForClass(oc);
+		inds = new int[attributes.size()];
+		for (int j = 0; j < inds.length; j++) {
+		    inds[j] = oc.attributeIndex(attributes.get(j).name);
+		}
+		attributeIndicesForHashCode.put(oc.name, inds);
+	    }
+	    return inds;
+	}
+
+	protected List<String> getOrderedClasses() {
 	    List<String> objectClasses = new ArrayList<String>(
 		    s.getObjectClassesPresent());
 	    Collections.sort(objectClasses);
@@ -234,4 +652,39 @@ public class DiscreteStateHashFactory implements StateHashFactory {
 
     }
 
+    /**
+     * Returns the number of values an attribute can take for perfect indexing,
+     * or -1 if the attribute does not have declared finite bounds.
+     * 
+     * @param att
+     *            the attribute
+     * @return the number of values the attribute can take, or -1 if it is
+     *         unbounded
+     */
+    protected static long attributeRadix(Attribute att) {
+	if (att.type == AttributeType.DISC || att.type == AttributeType.BOOLEAN) {
+	    return att.discValues.size();
+	} else if (att.type == AttributeType.INT) {
+	    if (att.lowerLim <= Integer.MIN_VALUE
+		    || att.upperLim >= Integer.MAX_VALUE) {
+		return -1;
+	    }
+	    return (long) att.upperLim - (long) att.lowerLim + 1;
+	}
+	throw new RuntimeException(
+		"DiscreteStateHashFactory cannot compute hash for non discrete (discrete, boolean, or int) values");
+    }
+
+    /**
+     * 64-bit finalizer from MurmurHash3.
+     */
+    protected static long mix(long h) {
+	h ^= h >>> 33;
+	h *= 0xff51afd7ed558ccdL;
+	h ^= h >>> 33;
+	h *= 0xc4ceb9fe1a85ec53L;
+	h ^= h >>> 33;
+	return h;
+    }
+
 }
@@ -12,6 +12,13 @@ import java.util.Random;
  * default in the main method and use the get method to retrieve the random
  * object for all other classes. To break the fixed sequence, just construct it
  * without a seed
+ * <p/>
+ * A thread can also be given its own factory with
+ * {@link #setThreadFactory(RandomFactory)}, which the static methods then use
+ * instead of the shared factory. This allows independent experiment trials to
+ * run concurrently, each with its own reproducible random generators: a
+ * factory constructed with a base seed seeds every generator it creates from
+ * the base seed and the generator's id.
  * 
  * 
  * @author James MacGlashan
@@ -21,6 +28,17 @@ public class RandomFactory {
 
     private static RandomFactory factory = new RandomFactory();
 
+    /**
+     * The factory used by the static methods on each thread that has one
+     */
+    private static ThreadLocal<RandomFactory> threadFactory = new ThreadLocal<RandomFactory>();
+
+    /**
+     * The seed from which new generators are seeded; null means that new
+     * generators are created without an explicit seed and are not reproducible
+     */
+    protected Long baseSeed;
+
     /**
      * A default random number generator
      */
@@ -65,7 +83,7 @@ public class RandomFactory {
      * @return the default random number generator.
      */
     public static Random getDefault() {
-	return factory.ingetDefault();
+	return current().ingetDefault();
     }
 
     /**
@@ -76,7 +94,7 @@ public class RandomFactory {
      * @return the default random number generator
      */
     public static Random seedDefault(long seed) {
-	return factory.inseedDefault(seed);
+	return current().inseedDefault(seed);
     }
 
     /**
@@ -88,7 +106,7 @@ public class RandomFactory {
      * @return the default random generator
      */
     public static Random getOrSeedDefault(long seed) {
-	return factory.ingetOrSeedDefault(seed);
+	return current().ingetOrSeedDefault(seed);
     }
 
     /**
@@ -100,7 +118,7 @@ public class RandomFactory {
      * @return the random generator
      */
     public static Random getMapped(int id) {
-	return factory.ingetMapped(id);
+	return current().ingetMapped(id);
     }
 
     /**
@@ -114,7 +132,7 @@ public class RandomFactory {
      * @return the random generator
      */
     public static Random seedMapped(int id, long seed) {
-	return factory.inseedMapped(id, seed);
+	return current().inseedMapped(id, seed);
     }
 
     /**
@@ -128,7 +146,7 @@ public class RandomFactory {
      * @return the random generator
      */
     public static Random getOrSeedMapped(int id, long seed) {
-	return factory.ingetOrSeedMapped(id, seed);
+	return current().ingetOrSeedMapped(id, seed);
     }
 
     /**
@@ -140,7 +158,7 @@ public class RandomFactory {
      * @return the random generator
      */
     public static Random getMapped(String id) {
-	return factory.ingetMapped(id);
+	return current().ingetMapped(id);
     }
 
     /**
@@ -154,7 +172,7 @@ public class RandomFactory {
      * @return the random generator
      */
     public static Random seedMapped(String id, long seed) {
-	return factory.inseedMapped(id, seed);
+	return current().inseedMapped(id, seed);
     }
 
     /**
@@ -168,7 +186,33 @@ public class RandomFactory {
      * @return the random generator
      */
     public static Random getOrSeedMapped(String id, long seed) {
-	return factory.ingetOrSeedMapped(id, seed);
+	return current().ingetOrSeedMapped(id, seed);
+    }
+
+    /**
+     * Sets the factory used by the static methods on the calling thread. Pass
+     * null to make the thread use the shared factory again.
+     * 
+     * @param f
+     *            the factory for the calling thread, or null
+     */
+    public static void setThreadFactory(RandomFactory f) {
+	if (f == null) {
+	    threadFactory.remove();
+	} else {
+	    threadFactory.set(f);
+	}
+    }
+
+    /**
+     * Returns the factory the static methods use on the calling thread.
+     * 
+     * @return the calling thread's factory if it has one; the shared factory
+     *         otherwise.
+     */
+    protected static RandomFactory current() {
+	RandomFactory f = threadFactory.get();
+	return f != null ? f : factory;
     }
 
     /**
@@ -180,6 +224,35 @@ public class RandomFactory {
 	stringMapped = new HashMap<String, Random>();
     }
 
+    /**
+     * Initializes the map structures. Every generator this factory creates
+     * without an explicit seed is seeded from the base seed and its id, so the
+     * generators of two factories with the same base seed produce the same
+     * sequences.
+     * 
+     * @param baseSeed
+     *            the seed from which new generators are seeded
+     */
+    public RandomFactory(long baseSeed) {
+	this();
+	this.baseSeed = baseSeed;
+    }
+
+    /**
+     * Returns a new generator for the given id, seeded from the base seed if
+     * this factory has one.
+     * 
+     * @param id
+     *            the hash of the id of the generator
+     * @return a new random generator
+     */
+    protected Random newRandom(int id) {
+	if (baseSeed == null) {
+	    return new Random();
+	}
+	return new Random(baseSeed * 1000003L + id);
+    }
+
     /**
      * Returns the default random number generator.
      * 
@@ -187,7 +260,7 @@ public class RandomFactory {
      */
     public Random ingetDefault() {
 	if (defaultRandom_ == null) {
-	    defaultRandom_ = new Random();
+	    defaultRandom_ = this.newRandom(-1);
 	}
 	return defaultRandom_;
     }
@@ -232,7 +305,7 @@ public class RandomFactory {
 	if (r != null) {
 	    return r;
 	} else {
-	    r = new Random();
+	    r = this.newRandom(id);
 	    intMapped.put(id, r);
 	}
 	return r;
@@ -288,7 +361,7 @@ public class RandomFactory {
 	if (r != null) {
 	    return r;
 	} else {
-	    r = new Random();
+	    r = this.newRandom(id.hashCode());
 	    stringMapped.put(id, r);
 	}
 	return r;
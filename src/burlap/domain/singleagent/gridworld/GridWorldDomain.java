@@ -429,9 +429,33 @@ public class GridWorldDomain implements DomainGenerator {
      */
     protected void move(State s, int xd, int yd) {
 
-	ObjectInstance agent = s.getObjectsOfTrueClass(CLASSAGENT).get(0);
-	int ax = agent.getDiscValForAttribute(ATTX);
-	int ay = agent.getDiscValForAttribute(ATTY);
+	ObjectClass agentClass = s.getFirstObjectOfClass(CLASSAGENT)
+		.getObjectClass();
+	this.move(s, xd, yd, agentClass.attributeIndex(ATTX),
+		agentClass.attributeIndex(ATTY));
+    }
+
+    /**
+     * Attempts to move the agent into the given position, taking into account
+     * walls and blocks, using already resolved attribute indices of the agent
+     * object class.
+     * 
+     * @param the
+     *            current state
+     * @param the
+     *            attempted new X position of the agent
+     * @param the
+     *            attempted new Y position of the agent
+     * @param xInd
+     *            the index of the x attribute in the agent object class
+     * @param yInd
+     *            the index of the y attribute in the agent object class
+     */
+    protected void move(State s, int xd, int yd, int xInd, int yInd) {
+
+	ObjectInstance agent = s.getFirstObjectOfClass(CLASSAGENT);
+	int ax = agent.getDiscValForAttribute(xInd);
+	int ay = agent.getDiscValForAttribute(yInd);
 
 	int nx = ax + xd;
 	int ny = ay + yd;
@@ -443,8 +467,8 @@ public class GridWorldDomain implements DomainGenerator {
 	    ny = ay;
 	}
 
-	agent.setValue(ATTX, nx);
-	agent.setValue(ATTY, ny);
+	agent.setValue(xInd, nx);
+	agent.setValue(yInd, ny);
     }
 
     protected int[] movementDirectionFromIndex(int i) {
@@ -478,11 +502,16 @@ public class GridWorldDomain implements DomainGenerator {
 
 	protected double[] directionProbs;
 	protected Random rand;
+	protected int xInd;
+	protected int yInd;
 
 	public MovementAction(String name, Domain domain, double[] directions) {
 	    super(name, domain, "");
 	    this.directionProbs = directions;
 	    this.rand = RandomFactory.getMapped(0);
+	    ObjectClass agentClass = domain.getObjectClass(CLASSAGENT);
+	    this.xInd = agentClass.attributeIndex(ATTX);
+	    this.yInd = agentClass.attributeIndex(ATTY);
 	}
 
 	@Override
@@ -500,7 +529,7 @@ public class GridWorldDomain implements DomainGenerator {
 	    }
 
 	    int[] dcomps = GridWorldDomain.this.movementDirectionFromIndex(dir);
-	    GridWorldDomain.this.move(st, dcomps[0], dcomps[1]);
+	    GridWorldDomain.this.move(st, dcomps[0], dcomps[1], xInd, yInd);
 
 	    return st;
 	}
@@ -518,7 +547,7 @@ public class GridWorldDomain implements DomainGenerator {
 		State ns = st.copy();
 		int[] dcomps = GridWorldDomain.this
 			.movementDirectionFromIndex(i);
-		GridWorldDomain.this.move(ns, dcomps[0], dcomps[1]);
+		GridWorldDomain.this.move(ns, dcomps[0], dcomps[1], xInd, yInd);
 
 		// make sure this direction doesn't actually stay in the same
 		// place and replicate another no-op
@@ -545,9 +574,20 @@ public class GridWorldDomain implements DomainGenerator {
 
     public class AtLocationPF extends PropositionalFunction {
 
+	protected int agentXInd;
+	protected int agentYInd;
+	protected int locationXInd;
+	protected int locationYInd;
+
 	public AtLocationPF(String name, Domain domain,
 		String[] parameterClasses) {
 	    super(name, domain, parameterClasses);
+	    ObjectClass agentClass = domain.getObjectClass(CLASSAGENT);
+	    ObjectClass locationClass = domain.getObjectClass(CLASSLOCATION);
+	    this.agentXInd = agentClass.attributeIndex(ATTX);
+	    this.agentYInd = agentClass.attributeIndex(ATTY);
+	    this.locationXInd = locationClass.attributeIndex(ATTX);
+	    this.locationYInd = locationClass.attributeIndex(ATTY);
 	}
 
 	@Override
@@ -556,11 +596,11 @@ public class GridWorldDomain implements DomainGenerator {
 	    ObjectInstance agent = st.getObject(params[0]);
 	    ObjectInstance location = st.getObject(params[1]);
 
-	    int ax = agent.getDiscValForAttribute(ATTX);
-	    int ay = agent.getDiscValForAttribute(ATTY);
+	    int ax = agent.getDiscValForAttribute(agentXInd);
+	    int ay = agent.getDiscValForAttribute(agentYInd);
 
-	    int lx = location.getDiscValForAttribute(ATTX);
-	    int ly = location.getDiscValForAttribute(ATTY);
+	    int lx = location.getDiscValForAttribute(locationXInd);
+	    int ly = location.getDiscValForAttribute(locationYInd);
 
 	    if (ax == lx && ay == ly) {
 		return true;
@@ -575,6 +615,8 @@ public class GridWorldDomain implements DomainGenerator {
 
 	protected int xdelta;
 	protected int ydelta;
+	protected int xInd;
+	protected int yInd;
 
 	public WallToPF(String name, Domain domain, String[] parameterClasses,
 		int direction) {
@@ -583,6 +625,9 @@ public class GridWorldDomain implements DomainGenerator {
 		    .movementDirectionFromIndex(direction);
 	    xdelta = dcomps[0];
 	    ydelta = dcomps[1];
+	    ObjectClass agentClass = domain.getObjectClass(CLASSAGENT);
+	    this.xInd = agentClass.attributeIndex(ATTX);
+	    this.yInd = agentClass.attributeIndex(ATTY);
 	}
 
 	@Override
@@ -590,8 +635,8 @@ public class GridWorldDomain implements DomainGenerator {
 
 	    ObjectInstance agent = st.getObject(params[0]);
 
-	    int cx = agent.getDiscValForAttribute(ATTX) + xdelta;
-	    int cy = agent.getDiscValForAttribute(ATTY) + ydelta;
+	    int cx = agent.getDiscValForAttribute(xInd) + xdelta;
+	    int cy = agent.getDiscValForAttribute(yInd) + ydelta;
 
 	    if (cx < 0 || cx >= GridWorldDomain.this.width || cy < 0
 		    || cy >= GridWorldDomain.this.height
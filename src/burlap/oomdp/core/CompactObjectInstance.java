@@ -0,0 +1,458 @@
+package burlap.oomdp.core;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+
+import burlap.oomdp.core.Attribute.AttributeType;
+import burlap.oomdp.core.values.UnsetValueException;
+
+/**
+ * An {@link ObjectInstance} that stores its attribute values in primitive
+ * arrays rather than a list of {@link Value} objects. Discrete, boolean and int
+ * attributes are packed into a single int array, real-valued attributes into a
+ * single double array, and only relational attributes keep {@link Value}
+ * objects. The layout of these arrays is defined once per object class by a
+ * {@link Layout}.
+ * <p/>
+ * Copies of a compact object instance share their value arrays with the source
+ * until either of them is modified (copy-on-write), so copying a state made of
+ * compact object instances only costs a new object wrapper per object; the
+ * values of an object are duplicated only when an action actually changes them.
+ * <p/>
+ * The {@link Value} objects returned by {@link #getValueForAttribute(String)}
+ * and {@link #getValues()} are snapshots; modifying them will not modify this
+ * object instance. Use the setValue methods instead.
+ *
+ */
+public class CompactObjectInstance extends ObjectInstance {
+
+    protected Layout layout; // slot layout for this object's class
+    protected int[] discVals; // values of discrete, boolean and int attributes
+    protected double[] realVals; // values of real-valued attributes
+    protected Value[] otherVals; // values of relational attributes
+    protected boolean shared; // whether the arrays may be shared with a copy
+
+    /**
+     * Initializes a compact object instance for a given object class and name.
+     *
+     * @param obClass
+     *            the object class to which this object belongs
+     * @param name
+     *            the name of the object
+     */
+    public CompactObjectInstance(ObjectClass obClass, String name) {
+	super(obClass, name);
+    }
+
+    /**
+     * Initializes a compact object instance that has the same name, object
+     * class and values as the given object instance. If the source is itself a
+     * compact object instance, then the value arrays are shared with it until
+     * one of the two is modified.
+     *
+     * @param o
+     *            the source object instance from which this will object will
+     *            copy.
+     */
+    public CompactObjectInstance(ObjectInstance o) {
+	super(o.obClass, o.name, false);
+
+	if (o instanceof CompactObjectInstance) {
+	    CompactObjectInstance co = (CompactObjectInstance) o;
+	    this.layout = co.layout;
+	    this.discVals = co.discVals;
+	    this.realVals = co.realVals;
+	    this.otherVals = co.otherVals;
+	    this.shared = true;
+	    co.shared = true;
+	} else {
+	    this.initializeValueObjects();
+	    List<Value> srcVals = o.getValues();
+	    for (int i = 0; i < srcVals.size(); i++) {
+		this.setFromValue(i, srcVals.get(i));
+	    }
+	}
+    }
+
+    @Override
+    public ObjectInstance copy() {
+	return new CompactObjectInstance(this);
+    }
+
+    @Override
+    public void initializeValueObjects() {
+
+	this.layout = Layout.getLayout(obClass);
+	this.discVals = new int[layout.numDisc];
+	this.realVals = new double[layout.numReal];
+	this.otherVals = new Value[layout.numOther];
+	this.shared = false;
+
+	for (int i = 0; i < layout.types.length; i++) {
+	    int slot = layout.slots[i];
+	    switch (layout.types[i]) {
+	    case Layout.DISC:
+		discVals[slot] = -1;
+		break;
+	    case Layout.INT:
+		discVals[slot] = 0;
+		break;
+	    case Layout.REAL:
+		realVals[slot] = Double.NaN;
+		break;
+	    default:
+		otherVals[slot] = obClass.attributeList.get(i)
+			.valueConstructor();
+	    }
+	}
+
+    }
+
+    /**
+     * Makes sure this object instance has its own copy of the value arrays
+     * before they are modified.
+     */
+    protected void copyOnWrite() {
+	if (!shared) {
+	    return;
+	}
+
+	discVals = discVals.clone();
+	realVals = realVals.clone();
+	Value[] nOther = new Value[otherVals.length];
+	for (int i = 0; i < otherVals.length; i++) {
+	    nOther[i] = otherVals[i].copy();
+	}
+	otherVals = nOther;
+
+	shared = false;
+    }
+
+    @Override
+    public void setValue(int ind, int v) {
+	this.copyOnWrite();
+	int slot = layout.slots[ind];
+	switch (layout.types[ind]) {
+	case Layout.DISC:
+	case Layout.INT:
+	    discVals[slot] = v;
+	    break;
+	case Layout.REAL:
+	    realVals[slot] = v;
+	    break;
+	default:
+	    otherVals[slot].setValue(v);
+	}
+    }
+
+    @Override
+    public void setValue(int ind, double v) {
+	this.copyOnWrite();
+	int slot = layout.slots[ind];
+	switch (layout.types[ind]) {
+	case Layout.DISC:
+	case Layout.INT:
+	    discVals[slot] = (int) v;
+	    break;
+	case Layout.REAL:
+	    realVals[slot] = v;
+	    break;
+	default:
+	    otherVals[slot].setValue(v);
+	}
+    }
+
+    @Override
+    public void setValue(int ind, String v) {
+	this.copyOnWrite();
+	int slot = layout.slots[ind];
+	switch (layout.types[ind]) {
+	case Layout.DISC:
+	    discVals[slot] = obClass.attributeList.get(ind).discValuesHash
+		    .get(v);
+	    break;
+	case Layout.INT:
+	    discVals[slot] = Integer.parseInt(v);
+	    break;
+	case Layout.REAL:
+	    realVals[slot] = Double.parseDouble(v);
+	    break;
+	default:
+	    otherVals[slot].setValue(v);
+	}
+    }
+
+    @Override
+    public int getDiscValForAttribute(int ind) {
+	int slot = layout.slots[ind];
+	switch (layout.types[ind]) {
+	case Layout.DISC:
+	    if (discVals[slot] == -1) {
+		throw new UnsetValueException();
+	    }
+	    return discVals[slot];
+	case Layout.INT:
+	    return discVals[slot];
+	case Layout.REAL:
+	    throw new UnsupportedOperationException(new Error(
+		    "Value is real, cannot return discrete value"));
+	default:
+	    return otherVals[slot].getDiscVal();
+	}
+    }
+
+    @Override
+    public double getRealValForAttribute(int ind) {
+	int slot = layout.slots[ind];
+	if (layout.types[ind] == Layout.REAL) {
+	    if (Double.isNaN(realVals[slot])) {
+		throw new UnsetValueException();
+	    }
+	    return realVals[slot];
+	} else if (layout.types[ind] == Layout.OTHER) {
+	    return otherVals[slot].getRealVal();
+	}
+	throw new UnsupportedOperationException(
+		"Value is discrete, cannot return real value");
+    }
+
+    @Override
+    public double getNumericValForAttribute(int ind) {
+	int slot = layout.slots[ind];
+	switch (layout.types[ind]) {
+	case Layout.DISC:
+	case Layout.INT:
+	    return this.getDiscValForAttribute(ind);
+	case Layout.REAL:
+	    return this.getRealValForAttribute(ind);
+	default:
+	    return otherVals[slot].getNumericRepresentation();
+	}
+    }
+
+    @Override
+    public void addRelationalTarget(String attName, String target) {
+	this.copyOnWrite();
+	this.otherValue(obClass.attributeIndex(attName)).addRelationalTarget(
+		target);
+    }
+
+    @Override
+    public void clearRelationalTargets(String attName) {
+	this.copyOnWrite();
+	this.otherValue(obClass.attributeIndex(attName)).clearRelationTargets();
+    }
+
+    @Override
+    public void removeRelationalTarget(String attName, String target) {
+	this.copyOnWrite();
+	this.otherValue(obClass.attributeIndex(attName))
+		.removeRelationalTarget(target);
+    }
+
+    @Override
+    public Set<String> getAllRelationalTargets(String attName) {
+	return this.otherValue(obClass.attributeIndex(attName))
+		.getAllRelationalTargets();
+    }
+
+    @Override
+    public List<Value> getValues() {
+	List<Value> res = new ArrayList<Value>(layout.types.length);
+	for (int i = 0; i < layout.types.length; i++) {
+	    res.add(this.getValueForAttribute(i));
+	}
+	return res;
+    }
+
+    @Override
+    public String getObjectDescription() {
+
+	String desc = name + " (" + this.getTrueClassName() + ")\n";
+	for (int i = 0; i < layout.types.length; i++) {
+	    desc = desc + "\t" + obClass.attributeList.get(i).name + ":\t"
+		    + this.getValueForAttribute(i).getStringVal() + "\n";
+	}
+
+	return desc;
+
+    }
+
+    @Override
+    public boolean valueEquals(ObjectInstance obj) {
+
+	if (!(obj instanceof CompactObjectInstance)) {
+	    return super.valueEquals(obj);
+	}
+
+	CompactObjectInstance co = (CompactObjectInstance) obj;
+	if (!obClass.name.equals(co.obClass.name)) {
+	    return false;
+	}
+
+	if (this.discVals == co.discVals && this.realVals == co.realVals
+		&& this.otherVals == co.otherVals) {
+	    return true;
+	}
+
+	if (!Arrays.equals(this.discVals, co.discVals)) {
+	    return false;
+	}
+
+	// compare with == rather than Arrays.equals so that NaN (unset) values
+	// are treated the same way RealValue treats them
+	for (int i = 0; i < realVals.length; i++) {
+	    if (realVals[i] != co.realVals[i]) {
+		return false;
+	    }
+	}
+
+	for (int i = 0; i < otherVals.length; i++) {
+	    if (!otherVals[i].equals(co.otherVals[i])) {
+		return false;
+	    }
+	}
+
+	return true;
+
+    }
+
+    /**
+     * Returns a new {@link Value} object holding the current value of the
+     * attribute at the given index. Modifying the returned value will not
+     * modify this object instance.
+     *
+     * @param ind
+     *            the index of the attribute in the object class
+     * @return a new {@link Value} object holding the attribute value
+     */
+    @Override
+    public Value getValueForAttribute(int ind) {
+	int slot = layout.slots[ind];
+	Value v;
+	switch (layout.types[ind]) {
+	case Layout.DISC:
+	case Layout.INT:
+	    v = obClass.attributeList.get(ind).valueConstructor();
+	    v.setValue(discVals[slot]);
+	    return v;
+	case Layout.REAL:
+	    v = obClass.attributeList.get(ind).valueConstructor();
+	    v.setValue(realVals[slot]);
+	    return v;
+	default:
+	    return otherVals[slot].copy();
+	}
+    }
+
+    private void setFromValue(int ind, Value v) {
+	int slot = layout.slots[ind];
+	if (layout.types[ind] == Layout.OTHER) {
+	    otherVals[slot] = v.copy();
+	    return;
+	}
+	try {
+	    if (layout.types[ind] == Layout.REAL) {
+		realVals[slot] = v.getRealVal();
+	    } else {
+		discVals[slot] = v.getDiscVal();
+	    }
+	} catch (UnsetValueException e) {
+	    // leave the value unset
+	}
+    }
+
+    private Value otherValue(int ind) {
+	if (layout.types[ind] != Layout.OTHER) {
+	    throw new UnsupportedOperationException("Attribute "
+		    + obClass.attributeList.get(ind).name
+		    + " is not relational");
+	}
+	return otherVals[layout.slots[ind]];
+    }
+
+    /**
+     * Defines for each attribute of an object class whether its value is
+     * stored in the int array, double array or {@link Value} array of a
+     * {@link CompactObjectInstance} and at which position. Layouts are cached
+     * on the {@link ObjectClass} and rebuilt when its attributes change.
+     *
+     */
+    public static class Layout {
+
+	public static final int DISC = 0;
+	public static final int INT = 1;
+	public static final int REAL = 2;
+	public static final int OTHER = 3;
+
+	/**
+	 * The storage type of each attribute, indexed by the attribute index
+	 * of the object class
+	 */
+	public final int[] types;
+
+	/**
+	 * The position of each attribute in the array for its storage type
+	 */
+	public final int[] slots;
+
+	public final int numDisc;
+	public final int numReal;
+	public final int numOther;
+
+	protected Layout(ObjectClass oc) {
+
+	    int n = oc.numAttributes();
+	    this.types = new int[n];
+	    this.slots = new int[n];
+
+	    int nd = 0;
+	    int nr = 0;
+	    int no = 0;
+	    for (int i = 0; i < n; i++) {
+		AttributeType type = oc.attributeList.get(i).type;
+		if (type == AttributeType.DISC
+			|| type == AttributeType.BOOLEAN) {
+		    types[i] = DISC;
+		    slots[i] = nd++;
+		} else if (type == AttributeType.INT) {
+		    types[i] = INT;
+		    slots[i] = nd++;
+		} else if (type == AttributeType.REAL
+			|| type == AttributeType.REALUNBOUND) {
+		    types[i] = REAL;
+		    slots[i] = nr++;
+		} else {
+		    types[i] = OTHER;
+		    slots[i] = no++;
+		}
+	    }
+
+	    this.numDisc = nd;
+	    this.numReal = nr;
+	    this.numOther = no;
+
+	}
+
+	/**
+	 * Returns the layout for compact object instances of the given object
+	 * class.
+	 * 
+	 * @param oc
+	 *            the object class
+	 * @return the layout for compact object instances of the object class
+	 */
+	public static Layout getLayout(ObjectClass oc) {
+	    Layout l = oc.compactLayout;
+	    if (l == null || l.types.length != oc.numAttributes()) {
+		l = new Layout(oc);
+		oc.compactLayout = l;
+	    }
+	    return l;
+	}
+
+    }
+
+}
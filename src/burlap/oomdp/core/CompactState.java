@@ -0,0 +1,50 @@
+package burlap.oomdp.core;
+
+/**
+ * A {@link State} whose object instances are all
+ * {@link CompactObjectInstance}s. Copying a compact state shares the primitive
+ * value arrays of every object with the source state, and an object's values
+ * are only duplicated the first time they are modified in either state. Since
+ * {@link burlap.oomdp.singleagent.Action#performAction(State, String[])} copies
+ * the input state before modifying it, an action that changes a single object
+ * only pays for copying the values of that object.
+ * <p/>
+ * A compact state can be created from any existing state, so domains do not
+ * need to be changed to use it; any state copied from a compact state will
+ * also be compact. Non-compact object instances added directly to a compact
+ * state are converted when the state is copied.
+ *
+ */
+public class CompactState extends State {
+
+    /**
+     * Initializes an empty compact state.
+     */
+    public CompactState() {
+	super();
+    }
+
+    /**
+     * Initializes this state with compact versions of the object instances in
+     * the provided source state s. If the objects of s are already compact, then
+     * their values are shared with s until they are modified.
+     *
+     * @param s
+     *            the source state from which this state will be initialized.
+     */
+    public CompactState(State s) {
+
+	super();
+
+	for (ObjectInstance o : s.getAllObjects()) {
+	    this.addObject(new CompactObjectInstance(o));
+	}
+
+    }
+
+    @Override
+    public State copy() {
+	return new CompactState(this);
+    }
+
+}
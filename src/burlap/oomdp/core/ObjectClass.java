@@ -31,6 +31,9 @@ public class ObjectClass {
 						     // observable to the world
     public boolean hidden; // whether this is a hidden object class from the
 			   // agent, but defines the state space
+    protected CompactObjectInstance.Layout compactLayout; // value layout of
+							  // compact object
+							  // instances
 
     /**
      * Initializes the attribute indexing data structures, connects this object
@@ -121,6 +124,7 @@ public class ObjectClass {
 	observableAttributeIndices.clear();
 	attributeMap.clear();
 	attributeIndex.clear();
+	compactLayout = null;
 
 	for (Attribute att : atts) {
 	    this.addAttribute(att);
@@ -146,6 +150,7 @@ public class ObjectClass {
 	attributeList.add(att);
 	attributeMap.put(att.name, att);
 	attributeIndex.put(att.name, ind);
+	compactLayout = null;
 
 	if (!att.hidden) {
 	    observableAttributeIndices.add(ind);
@@ -181,7 +186,9 @@ public class ObjectClass {
     /**
      * Returns the internally stored index of the attribute with the given name.
      * A runtime exception is thrown if this object class is not defined by an
-     * attribute named attName
+     * attribute named attName. The index can be resolved once and passed to the
+     * index-based accessors of {@link ObjectInstance} on hot paths to avoid
+     * looking the attribute up by name on every access.
      * 
      * @param attName
      *            the name of the attribute for which to get the index
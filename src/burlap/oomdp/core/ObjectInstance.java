@@ -36,6 +36,31 @@ public class ObjectInstance {
 
     }
 
+    /**
+     * Initializes an object instance for a given object class and name, and
+     * optionally skips creating the value objects. Subclasses that manage their
+     * own value storage can use this constructor to avoid allocating value
+     * objects they will immediately replace.
+     * 
+     * @param obClass
+     *            the object class to which this object belongs
+     * @param name
+     *            the name of the object
+     * @param initValues
+     *            whether the value objects should be initialized
+     */
+    protected ObjectInstance(ObjectClass obClass, String name,
+	    boolean initValues) {
+
+	this.obClass = obClass;
+	this.name = name;
+
+	if (initValues) {
+	    this.initializeValueObjects();
+	}
+
+    }
+
     /**
      * Creates a new object instance that is a deep copy of the specified object
      * instance's values. The object class and name is a shallow copy.
@@ -50,7 +75,7 @@ public class ObjectInstance {
 	this.name = o.name;
 
 	this.values = new ArrayList<Value>(obClass.numAttributes());
-	for (Value v : o.values) {
+	for (Value v : o.getValues()) {
 	    values.add(v.copy());
 	}
 
@@ -101,9 +126,23 @@ public class ObjectInstance {
      *            instance should be set.
      */
     public void setValue(String attName, String v) {
-	int ind = obClass.attributeIndex(attName);
-	values.get(ind).setValue(v);
+	this.setValue(obClass.attributeIndex(attName), v);
+    }
 
+    /**
+     * Sets the value of the attribute at the given index of this object
+     * instance's object class. The index can be resolved once with
+     * {@link ObjectClass#attributeIndex(String)} and reused to avoid looking up
+     * the attribute by name.
+     * 
+     * @param attIndex
+     *            the index of the attribute whose value is to be set.
+     * @param v
+     *            the string rep value to which the attribute of this object
+     *            instance should be set.
+     */
+    public void setValue(int attIndex, String v) {
+	values.get(attIndex).setValue(v);
     }
 
     /**
@@ -116,9 +155,23 @@ public class ObjectInstance {
      *            instance should be set.
      */
     public void setValue(String attName, double v) {
-	int ind = obClass.attributeIndex(attName);
-	values.get(ind).setValue(v);
+	this.setValue(obClass.attributeIndex(attName), v);
+    }
 
+    /**
+     * Sets the value of the attribute at the given index of this object
+     * instance's object class. The index can be resolved once with
+     * {@link ObjectClass#attributeIndex(String)} and reused to avoid looking up
+     * the attribute by name.
+     * 
+     * @param attIndex
+     *            the index of the attribute whose value is to be set.
+     * @param v
+     *            the double rep value to which the attribute of this object
+     *            instance should be set.
+     */
+    public void setValue(int attIndex, double v) {
+	values.get(attIndex).setValue(v);
     }
 
     /**
@@ -131,9 +184,23 @@ public class ObjectInstance {
      *            instance should be set.
      */
     public void setValue(String attName, int v) {
-	int ind = obClass.attributeIndex(attName);
-	values.get(ind).setValue(v);
+	this.setValue(obClass.attributeIndex(attName), v);
+    }
 
+    /**
+     * Sets the value of the attribute at the given index of this object
+     * instance's object class. The index can be resolved once with
+     * {@link ObjectClass#attributeIndex(String)} and reused to avoid looking up
+     * the attribute by name.
+     * 
+     * @param attIndex
+     *            the index of the attribute whose value is to be set.
+     * @param v
+     *            the int rep value to which the attribute of this object
+     *            instance should be set.
+     */
+    public void setValue(int attIndex, int v) {
+	values.get(attIndex).setValue(v);
     }
 
     /**
@@ -213,8 +280,19 @@ public class ObjectInstance {
      * @return the Value object assignment for the attribute named attName
      */
     public Value getValueForAttribute(String attName) {
-	int ind = obClass.attributeIndex(attName);
-	return values.get(ind);
+	return this.getValueForAttribute(obClass.attributeIndex(attName));
+    }
+
+    /**
+     * Returns the Value object assignment for the attribute at the given index
+     * of this object instance's object class.
+     * 
+     * @param attIndex
+     *            the index of the attribute whose value should be returned
+     * @return the Value object assignment for the attribute at the given index
+     */
+    public Value getValueForAttribute(int attIndex) {
+	return values.get(attIndex);
     }
 
     /**
@@ -228,8 +306,20 @@ public class ObjectInstance {
      *         attName.
      */
     public double getRealValForAttribute(String attName) {
-	int ind = obClass.attributeIndex(attName);
-	return values.get(ind).getRealVal();
+	return this.getRealValForAttribute(obClass.attributeIndex(attName));
+    }
+
+    /**
+     * Returns the double value assignment for the real-valued attribute at the
+     * given index of this object instance's object class.
+     * 
+     * @param attIndex
+     *            the index of the attribute whose value should be returned
+     * @return the double value assignment for the real-valued attribute at the
+     *         given index.
+     */
+    public double getRealValForAttribute(int attIndex) {
+	return values.get(attIndex).getRealVal();
     }
 
     /**
@@ -240,8 +330,8 @@ public class ObjectInstance {
      * @return the string value assignment for the attribute named attName.
      */
     public String getStringValForAttribute(String attName) {
-	int ind = obClass.attributeIndex(attName);
-	return values.get(ind).getStringVal();
+	return this.getValueForAttribute(obClass.attributeIndex(attName))
+		.getStringVal();
     }
 
     /**
@@ -255,8 +345,34 @@ public class ObjectInstance {
      *         attName.
      */
     public int getDiscValForAttribute(String attName) {
-	int ind = obClass.attributeIndex(attName);
-	return values.get(ind).getDiscVal();
+	return this.getDiscValForAttribute(obClass.attributeIndex(attName));
+    }
+
+    /**
+     * Returns the int value assignment for the discrete-valued attribute at the
+     * given index of this object instance's object class. The index can be
+     * resolved once with {@link ObjectClass#attributeIndex(String)} and reused
+     * to avoid looking up the attribute by name.
+     * 
+     * @param attIndex
+     *            the index of the attribute whose value should be returned
+     * @return the int value assignment for the discrete-valued attribute at
+     *         the given index.
+     */
+    public int getDiscValForAttribute(int attIndex) {
+	return values.get(attIndex).getDiscVal();
+    }
+
+    /**
+     * Returns the numeric representation of the value of the attribute at the
+     * given index of this object instance's object class.
+     * 
+     * @param attIndex
+     *            the index of the attribute whose value should be returned
+     * @return the numeric representation of the attribute value
+     */
+    public double getNumericValForAttribute(int attIndex) {
+	return values.get(attIndex).getNumericRepresentation();
     }
 
     /**
@@ -320,7 +436,7 @@ public class ObjectInstance {
 		.size()];
 	for (int i = 0; i < obsFeatureVec.length; i++) {
 	    int ind = obClass.observableAttributeIndices.get(i);
-	    obsFeatureVec[i] = values.get(ind).getNumericRepresentation();
+	    obsFeatureVec[i] = this.getNumericValForAttribute(ind);
 	}
 
 	return obsFeatureVec;
@@ -350,7 +466,7 @@ public class ObjectInstance {
 	    return false;
 	}
 
-	for (Value v : values) {
+	for (Value v : this.getValues()) {
 
 	    Value ov = obj.getValueForAttribute(v.attName());
 	    if (!v.equals(ov)) {
@@ -446,6 +446,40 @@ public class State {
 	return new ArrayList<ObjectInstance>(tmp);
     }
 
+    /**
+     * Returns the number of objects that belong to the object class named
+     * oclass
+     * 
+     * @param oclass
+     *            the name of the object class
+     * @return the number of objects that belong to the object class named
+     *         oclass
+     */
+    public int numObjectsOfTrueClass(String oclass) {
+	List<ObjectInstance> obs = this.objectIndexByTrueClass.get(oclass);
+	if (obs == null) {
+	    return 0;
+	}
+	return obs.size();
+    }
+
+    /**
+     * Returns the object indexed at position i among the objects of the object
+     * class named oclass. Unlike {@link #getObjectsOfTrueClass(String)}, this
+     * method does not copy the list of objects of the class.
+     * 
+     * @param oclass
+     *            the name of the object class
+     * @param i
+     *            the index of the object to return, which must be less than
+     *            {@link #numObjectsOfTrueClass(String)}
+     * @return the object indexed at position i among the objects of the object
+     *         class named oclass
+     */
+    public ObjectInstance getObjectOfTrueClassAt(String oclass, int i) {
+	return this.objectIndexByTrueClass.get(oclass).get(i);
+    }
+
     /**
      * Returns the first indexed object of the object class named oclass
      * 
@@ -124,6 +124,21 @@ public class SokobanDomain implements DomainGenerator, StateParser {
 
     private static Domain SOKOBANDOMAIN = null;
 
+    // attribute indices resolved when the domain is generated so that the
+    // actions do not look attributes up by name
+    private static int AGENTXIND;
+    private static int AGENTYIND;
+    private static int BLOCKXIND;
+    private static int BLOCKYIND;
+    private static int ROOMTOPXIND;
+    private static int ROOMTOPYIND;
+    private static int ROOMBOTTOMXIND;
+    private static int ROOMBOTTOMYIND;
+    private static int DOORTOPXIND;
+    private static int DOORTOPYIND;
+    private static int DOORBOTTOMXIND;
+    private static int DOORBOTTOMYIND;
+
     public static void main(String args[]) {
 
 	// command line arguments
@@ -576,6 +591,19 @@ public class SokobanDomain implements DomainGenerator, StateParser {
 	dClass.addAttribute(bottomYAtt);
 	dClass.addAttribute(bottomYAtt);
 
+	AGENTXIND = aClass.attributeIndex(XATTNAME);
+	AGENTYIND = aClass.attributeIndex(YATTNAME);
+	BLOCKXIND = bClass.attributeIndex(XATTNAME);
+	BLOCKYIND = bClass.attributeIndex(YATTNAME);
+	ROOMTOPXIND = rClass.attributeIndex(TOPXATTNAME);
+	ROOMTOPYIND = rClass.attributeIndex(TOPYATTNAME);
+	ROOMBOTTOMXIND = rClass.attributeIndex(BOTTOMXATTNAME);
+	ROOMBOTTOMYIND = rClass.attributeIndex(BOTTOMYATTNAME);
+	DOORTOPXIND = dClass.attributeIndex(TOPXATTNAME);
+	DOORTOPYIND = dClass.attributeIndex(TOPYATTNAME);
+	DOORBOTTOMXIND = dClass.attributeIndex(BOTTOMXATTNAME);
+	DOORBOTTOMYIND = dClass.attributeIndex(BOTTOMYATTNAME);
+
 	PropositionalFunction isCircle = new IsCirclePF(PFISCIRCLE,
 		SOKOBANDOMAIN, new String[] { BLOCKCLASS });
 	PropositionalFunction isStar = new IsStarPF(PFISSTAR, SOKOBANDOMAIN,
@@ -763,10 +791,10 @@ public class SokobanDomain implements DomainGenerator, StateParser {
 	for (int i = 0; i < rooms.size(); i++) {
 	    ObjectInstance room = rooms.get(i);
 
-	    int topX = room.getDiscValForAttribute(TOPXATTNAME);
-	    int topY = room.getDiscValForAttribute(TOPYATTNAME);
-	    int botX = room.getDiscValForAttribute(BOTTOMXATTNAME);
-	    int botY = room.getDiscValForAttribute(BOTTOMYATTNAME);
+	    int topX = room.getDiscValForAttribute(ROOMTOPXIND);
+	    int topY = room.getDiscValForAttribute(ROOMTOPYIND);
+	    int botX = room.getDiscValForAttribute(ROOMBOTTOMXIND);
+	    int botY = room.getDiscValForAttribute(ROOMBOTTOMYIND);
 
 	    // put walls at the edges of rooms
 	    for (int j = 0; j < MAXX; j++) {
@@ -788,10 +816,10 @@ public class SokobanDomain implements DomainGenerator, StateParser {
 	for (int i = 0; i < doors.size(); i++) {
 	    ObjectInstance door = doors.get(i);
 
-	    int topX = door.getDiscValForAttribute(TOPXATTNAME);
-	    int topY = door.getDiscValForAttribute(TOPYATTNAME);
-	    int botX = door.getDiscValForAttribute(BOTTOMXATTNAME);
-	    int botY = door.getDiscValForAttribute(BOTTOMYATTNAME);
+	    int topX = door.getDiscValForAttribute(DOORTOPXIND);
+	    int topY = door.getDiscValForAttribute(DOORTOPYIND);
+	    int botX = door.getDiscValForAttribute(DOORBOTTOMXIND);
+	    int botY = door.getDiscValForAttribute(DOORBOTTOMYIND);
 
 	    for (int j = 0; j < MAXX; j++) {
 		for (int k = 0; k < MAXY; k++) {
@@ -822,10 +850,10 @@ public class SokobanDomain implements DomainGenerator, StateParser {
      */
     public static void move(State st, int x, int y) {
 
-	ObjectInstance agent = st.getObjectsOfTrueClass(AGENTCLASS).get(0);
+	ObjectInstance agent = st.getFirstObjectOfClass(AGENTCLASS);
 	List<ObjectInstance> blocks = st.getObjectsOfTrueClass(BLOCKCLASS);
-	int curX = agent.getDiscValForAttribute(XATTNAME);
-	int curY = agent.getDiscValForAttribute(YATTNAME);
+	int curX = agent.getDiscValForAttribute(AGENTXIND);
+	int curY = agent.getDiscValForAttribute(AGENTYIND);
 	int nx = curX + x;
 	int ny = curY + y;
 
@@ -845,8 +873,8 @@ public class SokobanDomain implements DomainGenerator, StateParser {
 	// check to see if you're moving into a block
 	for (int i = 0; i < blocks.size(); i++) {
 	    ObjectInstance block = blocks.get(i);
-	    int blockX = block.getDiscValForAttribute(XATTNAME);
-	    int blockY = block.getDiscValForAttribute(YATTNAME);
+	    int blockX = block.getDiscValForAttribute(BLOCKXIND);
+	    int blockY = block.getDiscValForAttribute(BLOCKYIND);
 
 	    if (nx == blockX && ny == blockY) { // block found
 		int bx = pushBlockCoords(curX, curY, nx, ny)[0];
@@ -858,16 +886,16 @@ public class SokobanDomain implements DomainGenerator, StateParser {
 	    }
 	}
 
-	agent.setValue(XATTNAME, nx);
-	agent.setValue(YATTNAME, ny);
+	agent.setValue(AGENTXIND, nx);
+	agent.setValue(AGENTYIND, ny);
     }
 
     // move function for pushing blocks
     private static boolean moveBlock(State st, ObjectInstance block, int x,
 	    int y) {
 
-	int curX = block.getDiscValForAttribute(XATTNAME);
-	int curY = block.getDiscValForAttribute(YATTNAME);
+	int curX = block.getDiscValForAttribute(BLOCKXIND);
+	int curY = block.getDiscValForAttribute(BLOCKYIND);
 	List<ObjectInstance> blocks = st.getObjectsOfTrueClass(BLOCKCLASS);
 	int nx = x;
 	int ny = y;
@@ -885,8 +913,8 @@ public class SokobanDomain implements DomainGenerator, StateParser {
 	// check for collisions with other blocks
 	for (int i = 0; i < blocks.size(); i++) {
 	    ObjectInstance block2 = blocks.get(i);
-	    int blockX = block2.getDiscValForAttribute(XATTNAME);
-	    int blockY = block2.getDiscValForAttribute(YATTNAME);
+	    int blockX = block2.getDiscValForAttribute(BLOCKXIND);
+	    int blockY = block2.getDiscValForAttribute(BLOCKYIND);
 
 	    if (nx == blockX && ny == blockY) { // block cannot move there
 		int bx = pushBlockCoords(curX, curY, nx, ny)[0];
@@ -906,8 +934,8 @@ public class SokobanDomain implements DomainGenerator, StateParser {
 	    return false;
 	}
 
-	block.setValue(XATTNAME, nx);
-	block.setValue(YATTNAME, ny);
+	block.setValue(BLOCKXIND, nx);
+	block.setValue(BLOCKYIND, ny);
 	return true;
     }
 
@@ -63,6 +63,16 @@ public class TaxiWorldDomain implements DomainGenerator {
     public static boolean MAPGENERATED = false;
     public static Domain DOMAIN = null;
 
+    // attribute indices resolved when the domain is generated so that the
+    // actions and propositional functions do not look attributes up by name
+    protected static int AGENTXIND;
+    protected static int AGENTYIND;
+    protected static int AGENTCARRYIND;
+    protected static int PASSXIND;
+    protected static int PASSYIND;
+    protected static int PASSCARRIEDIND;
+    protected static int PASSDROPPEDIND;
+
     public static final double LEARNINGRATE = 0.99;
     public static final double DISCOUNTFACTOR = 0.995;
     public static RewardFunction rf;
@@ -226,6 +236,14 @@ public class TaxiWorldDomain implements DomainGenerator {
 
 	DOMAIN.addObjectClass(agentClass);
 
+	AGENTXIND = agentClass.attributeIndex(ATTX);
+	AGENTYIND = agentClass.attributeIndex(ATTY);
+	AGENTCARRYIND = agentClass.attributeIndex(ATTCARRY);
+	PASSXIND = passClass.attributeIndex(ATTX);
+	PASSYIND = passClass.attributeIndex(ATTY);
+	PASSCARRIEDIND = passClass.attributeIndex(ATTCARRIED);
+	PASSDROPPEDIND = passClass.attributeIndex(ATTDROPPED);
+
 	Action north = new PrimitiveOption(new NorthAction(ACTIONNORTH, DOMAIN,
 		""));
 	Action south = new PrimitiveOption(new SouthAction(ACTIONSOUTH, DOMAIN,
@@ -420,9 +438,9 @@ public class TaxiWorldDomain implements DomainGenerator {
      *            the y coordinate of the destination
      */
     public static void move(State s, int xd, int yd) {
-	ObjectInstance agent = s.getObjectsOfTrueClass(CLASSAGENT).get(0);
-	int ax = agent.getDiscValForAttribute(ATTX);
-	int ay = agent.getDiscValForAttribute(ATTY);
+	ObjectInstance agent = s.getFirstObjectOfClass(CLASSAGENT);
+	int ax = agent.getDiscValForAttribute(AGENTXIND);
+	int ay = agent.getDiscValForAttribute(AGENTYIND);
 	int nx = ax + xd;
 	int ny = ay + yd;
 
@@ -431,17 +449,17 @@ public class TaxiWorldDomain implements DomainGenerator {
 	    ny = ay;
 	}
 
-	int passNum = agent.getDiscValForAttribute(ATTCARRY);
+	int passNum = agent.getDiscValForAttribute(AGENTCARRYIND);
 
 	if (passNum != 0) {
 	    ObjectInstance pass = s.getObjectsOfTrueClass(CLASSPASS).get(
 		    passNum - 1);
-	    pass.setValue(ATTX, nx);
-	    pass.setValue(ATTY, ny);
+	    pass.setValue(PASSXIND, nx);
+	    pass.setValue(PASSYIND, ny);
 	}
 
-	agent.setValue(ATTX, nx);
-	agent.setValue(ATTY, ny);
+	agent.setValue(AGENTXIND, nx);
+	agent.setValue(AGENTYIND, ny);
     }
 
     /**
@@ -451,20 +469,20 @@ public class TaxiWorldDomain implements DomainGenerator {
      *            the current state
      */
     public static void pickUp(State s) {
-	ObjectInstance agent = s.getObjectsOfTrueClass(CLASSAGENT).get(0);
-	int ax = agent.getDiscValForAttribute(ATTX);
-	int ay = agent.getDiscValForAttribute(ATTY);
+	ObjectInstance agent = s.getFirstObjectOfClass(CLASSAGENT);
+	int ax = agent.getDiscValForAttribute(AGENTXIND);
+	int ay = agent.getDiscValForAttribute(AGENTYIND);
 
 	for (int i = 1; i <= MAXPASS; i++) {
 	    ObjectInstance pass = s.getObjectsOfTrueClass(CLASSPASS).get(i - 1);
-	    int px = pass.getDiscValForAttribute(ATTX);
-	    int py = pass.getDiscValForAttribute(ATTY);
+	    int px = pass.getDiscValForAttribute(PASSXIND);
+	    int py = pass.getDiscValForAttribute(PASSYIND);
 
-	    if (agent.getDiscValForAttribute(ATTCARRY) == 0
-		    && pass.getDiscValForAttribute(ATTDROPPED) == 0 && ax == px
+	    if (agent.getDiscValForAttribute(AGENTCARRYIND) == 0
+		    && pass.getDiscValForAttribute(PASSDROPPEDIND) == 0 && ax == px
 		    && ay == py) {
-		agent.setValue(ATTCARRY, i);
-		pass.setValue(ATTCARRIED, 1);
+		agent.setValue(AGENTCARRYIND, i);
+		pass.setValue(PASSCARRIEDIND, 1);
 		break;
 	    }
 	}
@@ -477,14 +495,14 @@ public class TaxiWorldDomain implements DomainGenerator {
      *            the current state
      */
     public static void dropOff(State s) {
-	ObjectInstance agent = s.getObjectsOfTrueClass(CLASSAGENT).get(0);
-	int ax = agent.getDiscValForAttribute(ATTX);
-	int ay = agent.getDiscValForAttribute(ATTY);
+	ObjectInstance agent = s.getFirstObjectOfClass(CLASSAGENT);
+	int ax = agent.getDiscValForAttribute(AGENTXIND);
+	int ay = agent.getDiscValForAttribute(AGENTYIND);
 
 	int gx = GOALX;
 	int gy = GOALY;
 
-	int passNum = agent.getDiscValForAttribute(ATTCARRY);
+	int passNum = agent.getDiscValForAttribute(AGENTCARRYIND);
 
 	if (passNum == 0) {
 	    return;
@@ -492,12 +510,12 @@ public class TaxiWorldDomain implements DomainGenerator {
 	ObjectInstance pass = s.getObjectsOfTrueClass(CLASSPASS).get(
 		passNum - 1);
 
-	if (pass.getDiscValForAttribute(ATTCARRIED) == 1
-		&& agent.getDiscValForAttribute(ATTCARRY) != 0 && ax == gx
+	if (pass.getDiscValForAttribute(PASSCARRIEDIND) == 1
+		&& agent.getDiscValForAttribute(AGENTCARRYIND) != 0 && ax == gx
 		&& ay == gy) {
-	    agent.setValue(ATTCARRY, 0);
-	    pass.setValue(ATTDROPPED, 1);
-	    pass.setValue(ATTCARRIED, 0);
+	    agent.setValue(AGENTCARRYIND, 0);
+	    pass.setValue(PASSDROPPEDIND, 1);
+	    pass.setValue(PASSCARRIEDIND, 0);
 	    GOALLEFT--;
 	}
     }
@@ -673,8 +691,8 @@ public class TaxiWorldDomain implements DomainGenerator {
 	@Override
 	public boolean isTrue(State st, String[] params) {
 	    ObjectInstance agent = st.getObject(params[0]);
-	    int ax = agent.getDiscValForAttribute(ATTX);
-	    int ay = agent.getDiscValForAttribute(ATTY);
+	    int ax = agent.getDiscValForAttribute(AGENTXIND);
+	    int ay = agent.getDiscValForAttribute(AGENTYIND);
 
 	    int gx = GOALX;
 	    int gy = GOALY;
@@ -708,8 +726,8 @@ public class TaxiWorldDomain implements DomainGenerator {
 	@Override
 	public boolean isTrue(State st, String[] params) {
 	    ObjectInstance agent = st.getObject(params[0]);
-	    int ax = agent.getDiscValForAttribute(ATTX);
-	    int ay = agent.getDiscValForAttribute(ATTY);
+	    int ax = agent.getDiscValForAttribute(AGENTXIND);
+	    int ay = agent.getDiscValForAttribute(AGENTYIND);
 
 	    int gx = GOALY;
 	    int gy = GOALY;
@@ -742,18 +760,18 @@ public class TaxiWorldDomain implements DomainGenerator {
 	@Override
 	public boolean isTrue(State st, String[] params) {
 	    ObjectInstance agent = st.getObject(params[0]);
-	    int ax = agent.getDiscValForAttribute(ATTX);
-	    int ay = agent.getDiscValForAttribute(ATTY);
+	    int ax = agent.getDiscValForAttribute(AGENTXIND);
+	    int ay = agent.getDiscValForAttribute(AGENTYIND);
 
 	    for (int i = 1; i <= MAXPASS; i++) {
 		ObjectInstance pass = st.getObjectsOfTrueClass(CLASSPASS).get(
 			i - 1);
-		int px = pass.getDiscValForAttribute(ATTX);
-		int py = pass.getDiscValForAttribute(ATTY);
+		int px = pass.getDiscValForAttribute(PASSXIND);
+		int py = pass.getDiscValForAttribute(PASSYIND);
 
-		if (agent.getDiscValForAttribute(ATTCARRY) == 0
-			&& pass.getDiscValForAttribute(ATTDROPPED) == 0
-			&& pass.getDiscValForAttribute(ATTCARRIED) == 0
+		if (agent.getDiscValForAttribute(AGENTCARRYIND) == 0
+			&& pass.getDiscValForAttribute(PASSDROPPEDIND) == 0
+			&& pass.getDiscValForAttribute(PASSCARRIEDIND) == 0
 			&& ax == px && ay == py) {
 		    return true;
 		}